@@ -0,0 +1,189 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+
+import org.syncany.database.ChunkEntry;
+import org.syncany.database.ChunkEntry.ChunkChecksum;
+import org.syncany.database.DatabaseVersion;
+import org.syncany.database.FileContent;
+import org.syncany.database.FileContent.FileChecksum;
+import org.syncany.database.FileVersion;
+import org.syncany.database.FileVersion.FileStatus;
+import org.syncany.database.FileVersion.FileType;
+import org.syncany.database.MultiChunkEntry;
+import org.syncany.database.MultiChunkEntry.MultiChunkId;
+import org.syncany.database.PartialFileHistory;
+import org.syncany.database.PartialFileHistory.FileHistoryId;
+import org.syncany.database.VectorClock;
+import org.syncany.util.StringUtil;
+
+/**
+ * Helper methods shared by the benchmarks to create reproducible (seeded)
+ * test data, i.e. random byte arrays, files and database versions.
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class BenchmarkUtil {
+	public static final long RANDOM_SEED = 4711;
+
+	public static final int CHUNKS_PER_FILE = 4;
+	public static final int FILES_PER_FOLDER = 100;
+	public static final int CHUNKS_PER_MULTICHUNK = 256;
+
+	public static byte[] createRandomArray(int size) {
+		byte[] randomArray = new byte[size];
+		new Random(RANDOM_SEED).nextBytes(randomArray);
+
+		return randomArray;
+	}
+
+	/**
+	 * Creates compressible, text-like data, consisting of random words from a small
+	 * vocabulary, separated by spaces and line breaks.
+	 */
+	public static byte[] createTextArray(int size) {
+		String[] words = new String[] { "syncany", "chunk", "multichunk", "repository", "file", "version", "history", "database",
+				"transaction", "remote", "local", "folder", "checksum", "cleanup", "upload", "download" };
+
+		Random random = new Random(RANDOM_SEED);
+		StringBuilder textBuilder = new StringBuilder(size + 16);
+
+		while (textBuilder.length() < size) {
+			textBuilder.append(words[random.nextInt(words.length)]).append((random.nextInt(12) == 0) ? '\n' : ' ');
+		}
+
+		return Arrays.copyOf(textBuilder.toString().getBytes(), size);
+	}
+
+	public static File createTempDirectory(String name) throws IOException {
+		File tempDirectory = File.createTempFile("syncany-bench-" + name + "-", "");
+
+		if (!tempDirectory.delete() || !tempDirectory.mkdir()) {
+			throw new IOException("Cannot create temp. directory " + tempDirectory);
+		}
+
+		return tempDirectory;
+	}
+
+	public static File createRandomFile(File directory, String name, int size) throws IOException {
+		File randomFile = new File(directory, name);
+		FileOutputStream fileOutputStream = new FileOutputStream(randomFile);
+
+		try {
+			fileOutputStream.write(createRandomArray(size));
+		}
+		finally {
+			fileOutputStream.close();
+		}
+
+		return randomFile;
+	}
+
+	public static void deleteDirectory(File directory) {
+		File[] files = directory.listFiles();
+
+		if (files != null) {
+			for (File file : files) {
+				if (file.isDirectory()) {
+					deleteDirectory(file);
+				}
+				else {
+					file.delete();
+				}
+			}
+		}
+
+		directory.delete();
+	}
+
+	/**
+	 * Creates a database version that resembles a freshly indexed folder: The given number
+	 * of files is distributed over folders of {@link #FILES_PER_FOLDER} files; each file
+	 * consists of {@link #CHUNKS_PER_FILE} unique chunks (16 KB each), and the chunks are
+	 * combined to multichunks of {@link #CHUNKS_PER_MULTICHUNK} chunks.
+	 *
+	 * @param fileCount Number of files in the database version
+	 * @return Database version with chunks, multichunks, file contents and file histories
+	 */
+	public static DatabaseVersion createDatabaseVersion(int fileCount) {
+		Random random = new Random(RANDOM_SEED);
+		Date date = new Date(1400000000000L);
+
+		VectorClock vectorClock = new VectorClock();
+		vectorClock.setClock("benchclient", 1);
+
+		DatabaseVersion databaseVersion = new DatabaseVersion();
+		databaseVersion.setClient("benchclient");
+		databaseVersion.setTimestamp(date);
+		databaseVersion.setVectorClock(vectorClock);
+
+		MultiChunkEntry multiChunk = null;
+
+		for (int fileIndex = 0; fileIndex < fileCount; fileIndex++) {
+			FileContent fileContent = new FileContent();
+			fileContent.setChecksum(new FileChecksum(createRandomBytes(random, 20)));
+			fileContent.setSize(CHUNKS_PER_FILE * 16 * 1024);
+
+			for (int chunkIndex = 0; chunkIndex < CHUNKS_PER_FILE; chunkIndex++) {
+				ChunkChecksum chunkChecksum = new ChunkChecksum(createRandomBytes(random, 20));
+
+				if (multiChunk == null || multiChunk.getChunks().size() == CHUNKS_PER_MULTICHUNK) {
+					multiChunk = new MultiChunkEntry(new MultiChunkId(createRandomBytes(random, 20)), CHUNKS_PER_MULTICHUNK * 16 * 1024);
+					databaseVersion.addMultiChunk(multiChunk);
+				}
+
+				databaseVersion.addChunk(new ChunkEntry(chunkChecksum, 16 * 1024));
+				multiChunk.addChunk(chunkChecksum);
+				fileContent.addChunk(chunkChecksum);
+			}
+
+			databaseVersion.addFileContent(fileContent);
+
+			FileVersion fileVersion = new FileVersion();
+			fileVersion.setVersion(1L);
+			fileVersion.setPath("folder" + (fileIndex / FILES_PER_FOLDER) + "/file" + fileIndex);
+			fileVersion.setType(FileType.FILE);
+			fileVersion.setStatus(FileStatus.NEW);
+			fileVersion.setSize(fileContent.getSize());
+			fileVersion.setChecksum(fileContent.getChecksum());
+			fileVersion.setLastModified(date);
+			fileVersion.setUpdated(date);
+
+			PartialFileHistory fileHistory = new PartialFileHistory(FileHistoryId.parseFileId(StringUtil.toHex(createRandomBytes(random, 20))));
+			fileHistory.addFileVersion(fileVersion);
+
+			databaseVersion.addFileHistory(fileHistory);
+		}
+
+		return databaseVersion;
+	}
+
+	private static byte[] createRandomBytes(Random random, int size) {
+		byte[] randomBytes = new byte[size];
+		random.nextBytes(randomBytes);
+
+		return randomBytes;
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.bench.chunk;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.syncany.bench.BenchmarkUtil;
+import org.syncany.chunk.Chunk;
+import org.syncany.chunk.Chunker;
+import org.syncany.chunk.Chunker.ChunkEnumeration;
+import org.syncany.chunk.FastCdcChunker;
+import org.syncany.chunk.FixedChunker;
+import org.syncany.chunk.TttdChunker;
+
+/**
+ * Measures how long the chunkers take to break a file into chunks, including reading
+ * the file and calculating the chunk and file checksums (as in the indexing process).
+ * The file is read from the page cache, so the results reflect the CPU cost of the
+ * chunkers rather than disk speed.
+ *
+ * <p>The chunker sizes correspond to the defaults of <tt>sy init</tt> (TTTD with 16 KB
+ * average chunk size, Adler-32 fingerprints and SHA1 checksums).
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ChunkerBenchmark {
+	@Param({ "tttd-16k", "fixed-16k", "fastcdc-16k" })
+	public String chunker;
+
+	@Param({ "65536", "1048576", "16777216" })
+	public int fileSize;
+
+	private File tempDir;
+	private File file;
+	private Chunker fileChunker;
+
+	@Setup
+	public void setUp() throws Exception {
+		tempDir = BenchmarkUtil.createTempDirectory("chunker");
+		file = BenchmarkUtil.createRandomFile(tempDir, "file", fileSize);
+		fileChunker = createChunker(chunker);
+	}
+
+	@TearDown
+	public void tearDown() {
+		BenchmarkUtil.deleteDirectory(tempDir);
+	}
+
+	@Benchmark
+	public void createChunks(Blackhole blackhole) throws Exception {
+		ChunkEnumeration chunks = fileChunker.createChunks(file);
+
+		while (chunks.hasMoreElements()) {
+			Chunk chunk = chunks.nextElement();
+
+			blackhole.consume(chunk.getChecksum());
+			chunk.release();
+		}
+
+		chunks.close();
+	}
+
+	private Chunker createChunker(String chunkerName) {
+		if ("tttd-16k".equals(chunkerName)) {
+			return new TttdChunker(16 * 1024);
+		}
+		else if ("fixed-16k".equals(chunkerName)) {
+			return new FixedChunker(16 * 1024);
+		}
+		else if ("fastcdc-16k".equals(chunkerName)) {
+			return new FastCdcChunker(16 * 1024);
+		}
+		else {
+			throw new IllegalArgumentException("Unknown chunker: " + chunkerName);
+		}
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.bench.chunk;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.syncany.bench.BenchmarkUtil;
+import org.syncany.chunk.AdaptiveGzipTransformer;
+import org.syncany.chunk.GzipTransformer;
+import org.syncany.chunk.Lz4Codec;
+import org.syncany.chunk.Lz4Transformer;
+import org.syncany.chunk.Transformer;
+
+/**
+ * Compares the compressing transformers ({@link GzipTransformer}, {@link AdaptiveGzipTransformer}
+ * and {@link Lz4Transformer} with different levels) by compressing and decompressing
+ * data of typical multichunk size. The data is either text-like (compressible), random
+ * (incompressible, like media files or archives), or half of each. The Gzip transformer is
+ * measured with parallel block compression (default) and on a single thread (<tt>gzip-serial</tt>).
+ *
+ * <p>The compression ratio is not measured by JMH, but the compressed size is the
+ * return value of {@link #compress()}.
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+	public static final int MULTICHUNK_SIZE = 4 * 1024 * 1024;
+
+	@Param({ "gzip", "gzip-serial", "gzip-1", "adaptive-gzip", "lz4", "lz4-9" })
+	public String transformerName;
+
+	@Param({ "text", "random", "mixed" })
+	public String dataType;
+
+	private Transformer transformer;
+	private byte[] data;
+	private byte[] compressedData;
+	private byte[] readBuffer;
+
+	@Setup
+	public void setUp() throws Exception {
+		transformer = createTransformer(transformerName);
+		data = createData(dataType);
+		readBuffer = new byte[64 * 1024];
+
+		compressedData = compress();
+	}
+
+	@Benchmark
+	public byte[] compress() throws Exception {
+		ByteArrayOutputStream compressedOutputStream = new ByteArrayOutputStream(data.length + 64 * 1024);
+		OutputStream outputStream = transformer.createOutputStream(compressedOutputStream);
+
+		outputStream.write(data);
+		outputStream.close();
+
+		return compressedOutputStream.toByteArray();
+	}
+
+	@Benchmark
+	public long decompress() throws Exception {
+		InputStream inputStream = transformer.createInputStream(new ByteArrayInputStream(compressedData));
+
+		long dataLength = 0;
+		int read;
+
+		while (-1 != (read = inputStream.read(readBuffer))) {
+			dataLength += read;
+		}
+
+		inputStream.close();
+		return dataLength;
+	}
+
+	private Transformer createTransformer(String transformerName) {
+		if ("gzip".equals(transformerName)) {
+			return new GzipTransformer();
+		}
+		else if ("gzip-serial".equals(transformerName)) {
+			return new GzipTransformer(Deflater.DEFAULT_COMPRESSION, 1, null);
+		}
+		else if ("gzip-1".equals(transformerName)) {
+			return new GzipTransformer(Deflater.BEST_SPEED, null);
+		}
+		else if ("adaptive-gzip".equals(transformerName)) {
+			return new AdaptiveGzipTransformer();
+		}
+		else if ("lz4".equals(transformerName)) {
+			return new Lz4Transformer(Lz4Codec.MIN_LEVEL, null);
+		}
+		else if ("lz4-9".equals(transformerName)) {
+			return new Lz4Transformer(Lz4Codec.MAX_LEVEL, null);
+		}
+		else {
+			throw new IllegalArgumentException("Unknown transformer: " + transformerName);
+		}
+	}
+
+	private byte[] createData(String dataType) {
+		if ("text".equals(dataType)) {
+			return BenchmarkUtil.createTextArray(MULTICHUNK_SIZE);
+		}
+		else if ("random".equals(dataType)) {
+			return BenchmarkUtil.createRandomArray(MULTICHUNK_SIZE);
+		}
+		else if ("mixed".equals(dataType)) {
+			byte[] mixedData = BenchmarkUtil.createTextArray(MULTICHUNK_SIZE);
+			byte[] randomData = BenchmarkUtil.createRandomArray(MULTICHUNK_SIZE / 2);
+
+			System.arraycopy(randomData, 0, mixedData, MULTICHUNK_SIZE / 2, randomData.length);
+			return mixedData;
+		}
+		else {
+			throw new IllegalArgumentException("Unknown data type: " + dataType);
+		}
+	}
+}
@@ -0,0 +1,141 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.bench.chunk;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.syncany.chunk.Blake2bDigest;
+import org.syncany.chunk.Blake3Digest;
+import org.syncany.chunk.ChunkDigestProvider;
+import org.syncany.chunk.FastCdcChunker;
+import org.syncany.chunk.FixedChunker;
+import org.syncany.chunk.ParallelizableChunker;
+
+/**
+ * Compares the chunk checksum algorithms on the chunk size distribution produced
+ * by the Syncany chunkers. In the setup, {@link #DATA_SIZE} bytes of random data are
+ * broken into chunks by the selected chunker; each benchmark operation then computes the
+ * checksums of all chunks (plus the file checksum over all data, as the chunkers do).
+ *
+ * <p>Since one operation always hashes {@link #DATA_SIZE} bytes (twice), the throughput
+ * in MB/s is <tt>ops/s * 2 * DATA_SIZE / 1 MB</tt>.
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class DigestBenchmark {
+	public static final int DATA_SIZE = 16 * 1024 * 1024;
+
+	@Param({ "SHA1", Blake2bDigest.ALGORITHM_160, Blake2bDigest.ALGORITHM_256, Blake3Digest.ALGORITHM })
+	public String algorithm;
+
+	@Param({ "fixed-16k", "fastcdc-8k", "fastcdc-64k" })
+	public String chunker;
+
+	private byte[] data;
+	private int[] chunkOffsets;
+	private int[] chunkLengths;
+
+	private MessageDigest chunkDigest;
+	private MessageDigest fileDigest;
+
+	@Setup
+	public void setUp() throws Exception {
+		ChunkDigestProvider.init();
+
+		data = new byte[DATA_SIZE];
+		new Random(4711).nextBytes(data);
+
+		createChunkBoundaries(createChunker(chunker));
+
+		chunkDigest = MessageDigest.getInstance(algorithm);
+		fileDigest = MessageDigest.getInstance(algorithm);
+	}
+
+	@Benchmark
+	public void digestChunksAndFile(Blackhole blackhole) {
+		for (int i = 0; i < chunkOffsets.length; i++) {
+			chunkDigest.update(data, chunkOffsets[i], chunkLengths[i]);
+			fileDigest.update(data, chunkOffsets[i], chunkLengths[i]);
+
+			blackhole.consume(chunkDigest.digest());
+		}
+
+		blackhole.consume(fileDigest.digest());
+	}
+
+	private ParallelizableChunker createChunker(String chunkerName) {
+		if ("fixed-16k".equals(chunkerName)) {
+			return new FixedChunker(16 * 1024);
+		}
+		else if ("fastcdc-8k".equals(chunkerName)) {
+			return new FastCdcChunker(8 * 1024);
+		}
+		else if ("fastcdc-64k".equals(chunkerName)) {
+			return new FastCdcChunker(64 * 1024);
+		}
+		else {
+			throw new IllegalArgumentException("Unknown chunker: " + chunkerName);
+		}
+	}
+
+	private void createChunkBoundaries(ParallelizableChunker chunker) {
+		List<Integer> offsets = new ArrayList<Integer>();
+		List<Integer> lengths = new ArrayList<Integer>();
+
+		int offset = 0;
+
+		while (offset < data.length) {
+			int length = chunker.nextBreakpoint(data, offset, data.length - offset);
+
+			offsets.add(offset);
+			lengths.add(length);
+
+			offset += length;
+		}
+
+		chunkOffsets = new int[offsets.size()];
+		chunkLengths = new int[lengths.size()];
+
+		for (int i = 0; i < offsets.size(); i++) {
+			chunkOffsets[i] = offsets.get(i);
+			chunkLengths[i] = lengths.get(i);
+		}
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.bench.chunk;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.syncany.bench.BenchmarkUtil;
+import org.syncany.chunk.Adler32Fingerprinter;
+import org.syncany.chunk.Fingerprinter;
+
+/**
+ * Measures the rolling fingerprint used by the TTTD chunker to find chunk boundaries:
+ * The window fingerprint is calculated once, and then rolled over {@link #DATA_SIZE}
+ * bytes one byte at a time (as the {@link org.syncany.chunk.TttdChunker TttdChunker} does).
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class FingerprinterBenchmark {
+	public static final int DATA_SIZE = 1024 * 1024;
+
+	@Param({ "48", "4096" })
+	public int windowSize;
+
+	private byte[] data;
+	private Fingerprinter fingerprinter;
+
+	@Setup
+	public void setUp() {
+		data = BenchmarkUtil.createRandomArray(DATA_SIZE);
+		fingerprinter = new Adler32Fingerprinter();
+	}
+
+	@Benchmark
+	public int rollAdler32() {
+		int breakpoints = 0;
+
+		fingerprinter.check(data, 0, windowSize);
+
+		for (int i = windowSize; i < data.length; i++) {
+			fingerprinter.roll(data[i]);
+
+			if ((fingerprinter.getValue() % 16384) == 16383) {
+				breakpoints++;
+			}
+		}
+
+		return breakpoints;
+	}
+}
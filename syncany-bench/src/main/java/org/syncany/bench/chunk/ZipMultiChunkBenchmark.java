@@ -0,0 +1,165 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.bench.chunk;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.syncany.bench.BenchmarkUtil;
+import org.syncany.chunk.Chunk;
+import org.syncany.chunk.Chunker.ChunkEnumeration;
+import org.syncany.chunk.FixedChunker;
+import org.syncany.chunk.MultiChunk;
+import org.syncany.chunk.ZipMultiChunker;
+import org.syncany.database.MultiChunkEntry.MultiChunkId;
+
+/**
+ * Measures writing and reading a {@link org.syncany.chunk.ZipMultiChunk ZipMultiChunk}
+ * of {@link #MULTICHUNK_SIZE} bytes in memory (without transformers), as well as the
+ * random access to a single chunk of a multichunk file (as done when assembling files).
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ZipMultiChunkBenchmark {
+	public static final int MULTICHUNK_SIZE = 4 * 1024 * 1024;
+
+	@Param({ "8192", "65536" })
+	public int chunkSize;
+
+	private File tempDir;
+	private File multiChunkFile;
+	private byte[] multiChunkBytes;
+
+	private ZipMultiChunker multiChunker;
+	private List<Chunk> chunks;
+	private byte[] readBuffer;
+
+	@Setup
+	public void setUp() throws Exception {
+		tempDir = BenchmarkUtil.createTempDirectory("multichunk");
+		multiChunker = new ZipMultiChunker(MULTICHUNK_SIZE / 1024);
+		readBuffer = new byte[64 * 1024];
+
+		// Write multichunk file from chunker output
+		File inputFile = BenchmarkUtil.createRandomFile(tempDir, "input", MULTICHUNK_SIZE);
+		multiChunkFile = new File(tempDir, "multichunk");
+
+		MultiChunk multiChunk = multiChunker.createMultiChunk(createMultiChunkId(), new FileOutputStream(multiChunkFile));
+		ChunkEnumeration chunkEnumeration = new FixedChunker(chunkSize).createChunks(inputFile);
+
+		while (chunkEnumeration.hasMoreElements()) {
+			Chunk chunk = chunkEnumeration.nextElement();
+
+			multiChunk.write(chunk);
+			chunk.release();
+		}
+
+		chunkEnumeration.close();
+		multiChunk.close();
+
+		// Read chunks (with their own contents) for the write benchmark
+		chunks = new ArrayList<Chunk>();
+		multiChunk = multiChunker.createMultiChunk(new FileInputStream(multiChunkFile));
+		Chunk chunk;
+
+		while (null != (chunk = multiChunk.read())) {
+			chunks.add(chunk);
+		}
+
+		multiChunk.close();
+		multiChunkBytes = writeMultiChunk();
+	}
+
+	@TearDown
+	public void tearDown() {
+		BenchmarkUtil.deleteDirectory(tempDir);
+	}
+
+	@Benchmark
+	public byte[] writeMultiChunk() throws Exception {
+		ByteArrayOutputStream multiChunkOutputStream = new ByteArrayOutputStream(MULTICHUNK_SIZE + 64 * 1024);
+		MultiChunk multiChunk = multiChunker.createMultiChunk(createMultiChunkId(), multiChunkOutputStream);
+
+		for (Chunk chunk : chunks) {
+			multiChunk.write(chunk);
+		}
+
+		multiChunk.close();
+		return multiChunkOutputStream.toByteArray();
+	}
+
+	@Benchmark
+	public void readMultiChunk(Blackhole blackhole) throws Exception {
+		MultiChunk multiChunk = multiChunker.createMultiChunk(new ByteArrayInputStream(multiChunkBytes));
+		Chunk chunk;
+
+		while (null != (chunk = multiChunk.read())) {
+			blackhole.consume(chunk.getContent());
+		}
+
+		multiChunk.close();
+	}
+
+	@Benchmark
+	public long readSingleChunkFromFile() throws Exception {
+		MultiChunk multiChunk = multiChunker.createMultiChunk(multiChunkFile);
+		InputStream chunkInputStream = multiChunk.getChunkInputStream(chunks.get(chunks.size() / 2).getChecksum());
+
+		long chunkLength = 0;
+		int read;
+
+		while (-1 != (read = chunkInputStream.read(readBuffer))) {
+			chunkLength += read;
+		}
+
+		chunkInputStream.close();
+		multiChunk.close();
+
+		return chunkLength;
+	}
+
+	private MultiChunkId createMultiChunkId() {
+		return new MultiChunkId(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20 });
+	}
+}
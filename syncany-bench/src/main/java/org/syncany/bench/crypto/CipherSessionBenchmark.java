@@ -0,0 +1,127 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.bench.crypto;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.syncany.bench.BenchmarkUtil;
+import org.syncany.crypto.CipherSession;
+import org.syncany.crypto.CipherSpec;
+import org.syncany.crypto.CipherSpecs;
+import org.syncany.crypto.CipherUtil;
+import org.syncany.crypto.MultiCipherOutputStream;
+import org.syncany.crypto.SaltedSecretKey;
+
+/**
+ * Measures the contention on a single {@link CipherSession} that is shared by 16 threads,
+ * as it is when multiple multichunks are encrypted or decrypted in parallel.
+ *
+ * <p>The benchmarks request write keys (mostly cached, derived every
+ * {@link #WRITE_KEY_REUSE_COUNT} uses), read keys for a set of salts that is slightly
+ * larger than the read cache (so that keys are evicted and derived again), and encrypt
+ * small payloads, so that the time spent in the session dominates.
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Threads(16)
+@Fork(1)
+public class CipherSessionBenchmark {
+	public static final int READ_KEY_CACHE_SIZE = 20;
+	public static final int WRITE_KEY_REUSE_COUNT = 100;
+	public static final int READ_KEY_SALT_COUNT = 24;
+	public static final int PAYLOAD_SIZE = 1024;
+
+	private CipherSession cipherSession;
+	private CipherSpec cipherSpec;
+	private List<CipherSpec> cipherSpecs;
+
+	private byte[][] readKeySalts;
+	private byte[] plaintext;
+
+	@Setup
+	public void setUp() throws Exception {
+		CipherUtil.init();
+
+		SaltedSecretKey masterKey = new SaltedSecretKey(new SecretKeySpec(BenchmarkUtil.createRandomArray(64), "AnyAlgorithm"),
+				BenchmarkUtil.createRandomArray(64));
+
+		cipherSession = new CipherSession(masterKey, READ_KEY_CACHE_SIZE, WRITE_KEY_REUSE_COUNT);
+		cipherSpec = CipherSpecs.getCipherSpec(CipherSpecs.AES_128_GCM);
+
+		cipherSpecs = new ArrayList<CipherSpec>();
+		cipherSpecs.add(cipherSpec);
+
+		readKeySalts = new byte[READ_KEY_SALT_COUNT][];
+
+		for (int i = 0; i < readKeySalts.length; i++) {
+			readKeySalts[i] = BenchmarkUtil.createRandomArray(MultiCipherOutputStream.SALT_SIZE);
+		}
+
+		plaintext = BenchmarkUtil.createRandomArray(PAYLOAD_SIZE);
+	}
+
+	@Benchmark
+	public SaltedSecretKey getWriteSecretKey() throws Exception {
+		return cipherSession.getWriteSecretKey(cipherSpec);
+	}
+
+	@Benchmark
+	public SaltedSecretKey getReadSecretKey(ThreadState threadState) throws Exception {
+		byte[] readKeySalt = readKeySalts[threadState.random.nextInt(readKeySalts.length)];
+		return cipherSession.getReadSecretKey(cipherSpec, readKeySalt);
+	}
+
+	@Benchmark
+	public byte[] encrypt() throws Exception {
+		ByteArrayOutputStream ciphertextOutputStream = new ByteArrayOutputStream(PAYLOAD_SIZE + 1024);
+		OutputStream encryptingOutputStream = new MultiCipherOutputStream(ciphertextOutputStream, cipherSpecs, cipherSession);
+
+		encryptingOutputStream.write(plaintext);
+		encryptingOutputStream.close();
+
+		return ciphertextOutputStream.toByteArray();
+	}
+
+	@State(Scope.Thread)
+	public static class ThreadState {
+		private Random random = new Random();
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.bench.crypto;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.syncany.bench.BenchmarkUtil;
+import org.syncany.crypto.BouncyCastleGcmCipherProvider;
+import org.syncany.crypto.GcmCipherProvider;
+import org.syncany.crypto.JceGcmCipherProvider;
+
+/**
+ * Compares the AES-GCM throughput of the {@link JceGcmCipherProvider} (SunJCE, with AES-NI/CLMUL
+ * intrinsics where available) and the {@link BouncyCastleGcmCipherProvider} on a single thread, 
+ * by encrypting and decrypting multichunk-sized data.
+ *
+ * <p>Both providers produce the same ciphertext, so the decryption benchmark decrypts the
+ * same ciphertext with either provider.
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class GcmCipherProviderBenchmark {
+	public static final int DATA_SIZE = 4 * 1024 * 1024;
+
+	@Param({ "jce", "bc" })
+	public String providerName;
+
+	@Param({ "128", "256" })
+	public int keySize;
+
+	private GcmCipherProvider provider;
+	private byte[] secretKey;
+	private byte[] iv;
+
+	private byte[] plaintext;
+	private byte[] ciphertext;
+	private byte[] readBuffer;
+
+	@Setup
+	public void setUp() throws Exception {
+		if ("jce".equals(providerName)) {
+			if (!JceGcmCipherProvider.isSupported("AES", keySize)) {
+				throw new IllegalStateException("JCE provider does not support AES-GCM with " + keySize + " bit keys in this JRE.");
+			}
+
+			provider = new JceGcmCipherProvider("AES");
+		}
+		else if ("bc".equals(providerName)) {
+			provider = new BouncyCastleGcmCipherProvider("AES");
+		}
+		else {
+			throw new IllegalArgumentException("Unknown provider: " + providerName);
+		}
+
+		secretKey = BenchmarkUtil.createRandomArray(keySize / 8);
+		iv = BenchmarkUtil.createRandomArray(16);
+
+		plaintext = BenchmarkUtil.createRandomArray(DATA_SIZE);
+		readBuffer = new byte[64 * 1024];
+		ciphertext = encrypt();
+	}
+
+	@Benchmark
+	public byte[] encrypt() throws Exception {
+		ByteArrayOutputStream ciphertextOutputStream = new ByteArrayOutputStream(DATA_SIZE + 1024);
+		OutputStream encryptingOutputStream = provider.newCipherOutputStream(ciphertextOutputStream, secretKey, iv);
+
+		for (int offset = 0; offset < plaintext.length; offset += readBuffer.length) {
+			encryptingOutputStream.write(plaintext, offset, Math.min(readBuffer.length, plaintext.length - offset));
+		}
+
+		encryptingOutputStream.close();
+		return ciphertextOutputStream.toByteArray();
+	}
+
+	@Benchmark
+	public long decrypt() throws Exception {
+		InputStream decryptingInputStream = provider.newCipherInputStream(new ByteArrayInputStream(ciphertext), secretKey, iv);
+		long plaintextLength = 0;
+		int read;
+
+		while (-1 != (read = decryptingInputStream.read(readBuffer))) {
+			plaintextLength += read;
+		}
+
+		decryptingInputStream.close();
+		return plaintextLength;
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.bench.crypto;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.syncany.bench.BenchmarkUtil;
+import org.syncany.crypto.CipherSession;
+import org.syncany.crypto.CipherSpec;
+import org.syncany.crypto.CipherSpecs;
+import org.syncany.crypto.CipherUtil;
+import org.syncany.crypto.MultiCipherInputStream;
+import org.syncany.crypto.MultiCipherOutputStream;
+import org.syncany.crypto.SaltedSecretKey;
+
+/**
+ * Measures encryption and decryption of multichunk-sized data with the
+ * {@link MultiCipherOutputStream} and {@link MultiCipherInputStream}, for a single
+ * cipher (AES-128-GCM) and for the default cipher cascade (AES-128-GCM + Twofish-128-GCM).
+ *
+ * <p>The master key is random (not derived from a password), and the {@link CipherSession}
+ * is reused across invocations, so that the (cached) key derivation is not part of the
+ * measurement, just as when many multichunks are written in a row.
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class MultiCipherBenchmark {
+	@Param({ "aes128", "aes128-twofish128" })
+	public String cipherSuite;
+
+	@Param({ "65536", "4194304" })
+	public int dataSize;
+
+	private byte[] plaintext;
+	private byte[] ciphertext;
+	private byte[] readBuffer;
+
+	private List<CipherSpec> cipherSpecs;
+	private CipherSession cipherSession;
+
+	@Setup
+	public void setUp() throws Exception {
+		CipherUtil.init();
+
+		SaltedSecretKey masterKey = new SaltedSecretKey(new SecretKeySpec(BenchmarkUtil.createRandomArray(64), "AnyAlgorithm"),
+				BenchmarkUtil.createRandomArray(64));
+
+		cipherSpecs = createCipherSpecs(cipherSuite);
+		cipherSession = new CipherSession(masterKey);
+
+		plaintext = BenchmarkUtil.createRandomArray(dataSize);
+		ciphertext = encrypt();
+		readBuffer = new byte[64 * 1024];
+	}
+
+	@Benchmark
+	public byte[] encrypt() throws Exception {
+		ByteArrayOutputStream ciphertextOutputStream = new ByteArrayOutputStream(dataSize + 1024);
+		OutputStream encryptingOutputStream = new MultiCipherOutputStream(ciphertextOutputStream, cipherSpecs, cipherSession);
+
+		encryptingOutputStream.write(plaintext);
+		encryptingOutputStream.close();
+
+		return ciphertextOutputStream.toByteArray();
+	}
+
+	@Benchmark
+	public long decrypt() throws Exception {
+		InputStream decryptingInputStream = new MultiCipherInputStream(new ByteArrayInputStream(ciphertext), cipherSession);
+		long plaintextLength = 0;
+		int read;
+
+		while (-1 != (read = decryptingInputStream.read(readBuffer))) {
+			plaintextLength += read;
+		}
+
+		decryptingInputStream.close();
+		return plaintextLength;
+	}
+
+	private List<CipherSpec> createCipherSpecs(String cipherSuiteName) {
+		List<CipherSpec> cipherSpecs = new ArrayList<CipherSpec>();
+
+		if ("aes128".equals(cipherSuiteName)) {
+			cipherSpecs.add(CipherSpecs.getCipherSpec(CipherSpecs.AES_128_GCM));
+		}
+		else if ("aes128-twofish128".equals(cipherSuiteName)) {
+			cipherSpecs.addAll(CipherSpecs.getDefaultCipherSpecs());
+		}
+		else {
+			throw new IllegalArgumentException("Unknown cipher suite: " + cipherSuiteName);
+		}
+
+		return cipherSpecs;
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.bench.database;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.syncany.bench.BenchmarkUtil;
+import org.syncany.chunk.GzipTransformer;
+import org.syncany.chunk.NoTransformer;
+import org.syncany.chunk.Transformer;
+import org.syncany.database.DatabaseVersion;
+import org.syncany.database.DatabaseVersionHeader.DatabaseVersionType;
+import org.syncany.database.MemoryDatabase;
+import org.syncany.database.dao.DatabaseXmlSerializer;
+import org.syncany.database.dao.DatabaseXmlSerializer.DatabaseReadType;
+
+/**
+ * Measures writing and reading database files (as uploaded by <tt>sy up</tt> and
+ * downloaded by <tt>sy down</tt>) with the {@link DatabaseXmlSerializer}. The database
+ * file contains a single database version with the given number of new files (see
+ * {@link BenchmarkUtil#createDatabaseVersion(int)}).
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DatabaseXmlSerializerBenchmark {
+	@Param({ "1000", "10000" })
+	public int fileCount;
+
+	@Param({ "none", "gzip" })
+	public String transformer;
+
+	private File tempDir;
+	private File databaseFile;
+
+	private DatabaseXmlSerializer serializer;
+	private List<DatabaseVersion> databaseVersions;
+
+	@Setup
+	public void setUp() throws Exception {
+		tempDir = BenchmarkUtil.createTempDirectory("xml");
+		databaseFile = new File(tempDir, "db-benchclient-0000000001");
+
+		serializer = new DatabaseXmlSerializer(createTransformer(transformer));
+		databaseVersions = Arrays.asList(BenchmarkUtil.createDatabaseVersion(fileCount));
+
+		save();
+	}
+
+	@TearDown
+	public void tearDown() {
+		BenchmarkUtil.deleteDirectory(tempDir);
+	}
+
+	@Benchmark
+	public long save() throws Exception {
+		serializer.save(databaseVersions, databaseFile);
+		return databaseFile.length();
+	}
+
+	@Benchmark
+	public MemoryDatabase load() throws Exception {
+		MemoryDatabase memoryDatabase = new MemoryDatabase();
+		serializer.load(memoryDatabase, databaseFile, null, null, DatabaseReadType.FULL, DatabaseVersionType.DEFAULT, null);
+
+		return memoryDatabase;
+	}
+
+	@Benchmark
+	public MemoryDatabase loadHeaderOnly() throws Exception {
+		MemoryDatabase memoryDatabase = new MemoryDatabase();
+		serializer.load(memoryDatabase, databaseFile, null, null, DatabaseReadType.HEADER_ONLY, DatabaseVersionType.DEFAULT, null);
+
+		return memoryDatabase;
+	}
+
+	private Transformer createTransformer(String transformerName) {
+		if ("none".equals(transformerName)) {
+			return new NoTransformer();
+		}
+		else if ("gzip".equals(transformerName)) {
+			return new GzipTransformer();
+		}
+		else {
+			throw new IllegalArgumentException("Unknown transformer: " + transformerName);
+		}
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.bench.database;
+
+import java.io.File;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.syncany.bench.BenchmarkUtil;
+import org.syncany.config.Logging;
+import org.syncany.database.ChunkEntry;
+import org.syncany.database.ChunkEntry.ChunkChecksum;
+import org.syncany.database.DatabaseConnectionFactory;
+import org.syncany.database.DatabaseVersion;
+import org.syncany.database.FileContent;
+import org.syncany.database.FileVersion;
+import org.syncany.database.PartialFileHistory;
+import org.syncany.database.PartialFileHistory.FileHistoryId;
+import org.syncany.database.dao.ChunkSqlDao;
+import org.syncany.database.dao.DatabaseVersionSqlDao;
+import org.syncany.database.dao.FileContentSqlDao;
+import org.syncany.database.dao.FileHistorySqlDao;
+import org.syncany.database.dao.FileVersionSqlDao;
+import org.syncany.database.dao.MultiChunkSqlDao;
+
+/**
+ * Measures the SQL queries on the local database that are on the hot path of the
+ * index process and the file tree operations (<tt>sy ls</tt>, <tt>sy status</tt>, etc.):
+ * Chunk lookups via {@link ChunkSqlDao#getChunk(ChunkChecksum)} (with a warm cache, and
+ * the cache load itself), and file tree and file history queries via the {@link FileVersionSqlDao}.
+ *
+ * <p>The database contains a single database version with the given number of files
+ * (see {@link BenchmarkUtil#createDatabaseVersion(int)}).
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SqlDaoBenchmark {
+	@Param({ "1000", "10000" })
+	public int fileCount;
+
+	private File tempDir;
+	private Connection connection;
+
+	private ChunkSqlDao chunkDao;
+	private FileVersionSqlDao fileVersionDao;
+
+	private List<ChunkChecksum> chunkChecksums;
+	private List<FileHistoryId> fileHistoryIds;
+	private int nextIndex;
+
+	@Setup
+	public void setUp() throws Exception {
+		Logging.disableLogging();
+
+		tempDir = BenchmarkUtil.createTempDirectory("sql");
+		connection = DatabaseConnectionFactory.createConnection(new File(tempDir, "db"));
+
+		chunkDao = new ChunkSqlDao(connection);
+		fileVersionDao = new FileVersionSqlDao(connection);
+
+		FileContentSqlDao fileContentDao = new FileContentSqlDao(connection);
+		FileHistorySqlDao fileHistoryDao = new FileHistorySqlDao(connection, fileVersionDao);
+		MultiChunkSqlDao multiChunkDao = new MultiChunkSqlDao(connection);
+		DatabaseVersionSqlDao databaseVersionDao = new DatabaseVersionSqlDao(connection, chunkDao, fileContentDao, fileVersionDao, fileHistoryDao,
+				multiChunkDao);
+
+		DatabaseVersion databaseVersion = BenchmarkUtil.createDatabaseVersion(fileCount);
+		databaseVersionDao.persistDatabaseVersion(databaseVersion);
+
+		chunkChecksums = new ArrayList<ChunkChecksum>();
+		fileHistoryIds = new ArrayList<FileHistoryId>();
+
+		for (FileContent fileContent : databaseVersion.getFileContents()) {
+			chunkChecksums.addAll(fileContent.getChunks());
+		}
+
+		for (PartialFileHistory fileHistory : databaseVersion.getFileHistories()) {
+			fileHistoryIds.add(fileHistory.getFileHistoryId());
+		}
+
+		nextIndex = 0;
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		connection.prepareStatement("shutdown").execute();
+		connection.close();
+
+		BenchmarkUtil.deleteDirectory(tempDir);
+	}
+
+	@Benchmark
+	public ChunkEntry getChunk() {
+		nextIndex = (nextIndex + 1) % chunkChecksums.size();
+		return chunkDao.getChunk(chunkChecksums.get(nextIndex));
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 5)
+	@Measurement(iterations = 20)
+	public ChunkEntry getChunkWithCacheLoad() {
+		chunkDao.clearCache();
+		return chunkDao.getChunk(chunkChecksums.get(0));
+	}
+
+	@Benchmark
+	public Map<String, FileVersion> getCurrentFileTree() {
+		return fileVersionDao.getCurrentFileTree();
+	}
+
+	@Benchmark
+	public Map<String, FileVersion> getCurrentFileTreeWithPrefix() {
+		return fileVersionDao.getCurrentFileTree("folder1/");
+	}
+
+	@Benchmark
+	public Map<String, FileVersion> getFileTreeOfFolder() {
+		return fileVersionDao.getFileTree("folder1/%", null, false, null);
+	}
+
+	@Benchmark
+	public List<FileVersion> getFileHistory() {
+		nextIndex = (nextIndex + 1) % fileHistoryIds.size();
+		return fileVersionDao.getFileHistory(fileHistoryIds.get(nextIndex));
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.bench.plugins;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.syncany.bench.BenchmarkUtil;
+import org.syncany.plugins.local.LocalTransferManager;
+import org.syncany.plugins.local.LocalTransferSettings;
+import org.syncany.plugins.transfer.files.MultichunkRemoteFile;
+
+/**
+ * Measures uploading a single large file to a local repository on the same file
+ * system, as in <tt>sy up</tt> with the repository on a mounted network share:
+ *
+ * <ul>
+ *   <li><tt>stream-copy</tt>: Copy and rename using commons-io (the previous implementation)</li>
+ *   <li><tt>transfer-to</tt>: {@link LocalTransferManager} without hard links, i.e. zero-copy transfer and atomic rename</li>
+ *   <li><tt>hard-link</tt>: {@link LocalTransferManager} with hard links enabled</li>
+ * </ul>
+ *
+ * <p>Each invocation uploads the file once; the uploaded file is deleted before the next
+ * invocation. The default file size is small enough for a quick run; to measure a 10 GB
+ * upload, run JMH with <tt>-p fileSizeMb=10240</tt> (and enough free disk space for two copies).
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LocalTransferManagerBenchmark {
+	private static final String MULTICHUNK_NAME = "multichunk-84f7e2b31440aaef9b73de3cadcf4e449aeb55a1";
+
+	@Param({ "256", "1024" })
+	public int fileSizeMb;
+
+	@Param({ "stream-copy", "transfer-to", "hard-link" })
+	public String method;
+
+	private File tempDir;
+	private File localFile;
+	private File repoDir;
+	private File repoFile;
+
+	private LocalTransferManager transferManager;
+	private MultichunkRemoteFile remoteFile;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		tempDir = BenchmarkUtil.createTempDirectory("local-tm");
+		localFile = createLargeFile(new File(tempDir, "local"), fileSizeMb);
+		repoDir = new File(tempDir, "repo");
+
+		if (!repoDir.mkdir()) {
+			throw new Exception("Cannot create repository directory " + repoDir);
+		}
+
+		LocalTransferSettings settings = new LocalTransferSettings();
+		settings.setRepositoryPath(repoDir);
+		settings.setHardLinksEnabled("hard-link".equals(method));
+
+		transferManager = new LocalTransferManager(settings, null);
+		transferManager.init(true);
+
+		remoteFile = new MultichunkRemoteFile(MULTICHUNK_NAME);
+		repoFile = new File(new File(repoDir, "multichunks"), MULTICHUNK_NAME);
+	}
+
+	@Setup(Level.Invocation)
+	public void deleteUploadedFile() {
+		repoFile.delete();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		BenchmarkUtil.deleteDirectory(tempDir);
+	}
+
+	@Benchmark
+	public long upload() throws Exception {
+		if ("stream-copy".equals(method)) {
+			File tempRepoFile = new File(repoFile.getParentFile(), ".temp-" + repoFile.getName());
+
+			FileUtils.copyFile(localFile, tempRepoFile);
+			FileUtils.moveFile(tempRepoFile, repoFile);
+		}
+		else {
+			transferManager.upload(localFile, remoteFile);
+		}
+
+		return repoFile.length();
+	}
+
+	private File createLargeFile(File file, int sizeMb) throws Exception {
+		byte[] randomMegabyte = BenchmarkUtil.createRandomArray(1024 * 1024);
+		FileOutputStream fileOutputStream = new FileOutputStream(file);
+
+		try {
+			for (int i = 0; i < sizeMb; i++) {
+				fileOutputStream.write(randomMegabyte);
+			}
+		}
+		finally {
+			fileOutputStream.close();
+		}
+
+		return file;
+	}
+}
@@ -67,6 +67,7 @@ public class DownCommand extends Command {
 
 		OptionSpec<String> optionConflictStrategy = parser.acceptsAll(asList("C", "conflict-strategy")).withRequiredArg();
 		OptionSpec<Void> optionNoApply = parser.acceptsAll(asList("A", "no-apply"));
+		OptionSpec<Integer> optionDownloadThreads = parser.acceptsAll(asList("download-threads")).withRequiredArg().ofType(Integer.class);
 
 		OptionSet options = parser.parse(operationArguments);
 
@@ -80,6 +81,11 @@ public class DownCommand extends Command {
 		if (options.has(optionNoApply)) {
 			operationOptions.setApplyChanges(false);
 		}
+		
+		// --download-threads=<count>
+		if (options.has(optionDownloadThreads)) {
+			operationOptions.setDownloadThreads(options.valueOf(optionDownloadThreads));
+		}
 
 		return operationOptions;
 	}
@@ -29,11 +29,14 @@ import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
 
+import org.syncany.chunk.AdaptiveGzipTransformer;
 import org.syncany.chunk.Chunker;
 import org.syncany.chunk.CipherTransformer;
 import org.syncany.chunk.FixedChunker;
 import org.syncany.chunk.GzipTransformer;
+import org.syncany.chunk.Lz4Transformer;
 import org.syncany.chunk.MultiChunker;
+import org.syncany.chunk.Transformer;
 import org.syncany.chunk.ZipMultiChunker;
 import org.syncany.config.to.ConfigTO;
 import org.syncany.config.to.ConfigTO.ConnectionTO;
@@ -54,6 +57,7 @@ import org.syncany.util.StringUtil.StringJoinListener;
 
 public class InitCommand extends AbstractInitCommand {
 	public static final int REPO_ID_LENGTH = 32;
+	public static final List<String> COMPRESSION_TYPES = asList(GzipTransformer.TYPE, AdaptiveGzipTransformer.TYPE, Lz4Transformer.TYPE);
 
 	private InitOperationOptions operationOptions;	
 	
@@ -105,6 +109,10 @@ public class InitCommand extends AbstractInitCommand {
 		OptionSpec<String> optionPluginOpts = parser.acceptsAll(asList("o", "plugin-option")).withRequiredArg();
 		OptionSpec<Void> optionNonInteractive = parser.acceptsAll(asList("I", "no-interaction"));
 		OptionSpec<Void> optionAddDaemon = parser.acceptsAll(asList("n", "add-daemon"));
+		OptionSpec<String> optionDigest = parser.acceptsAll(asList("digest")).withRequiredArg();
+		OptionSpec<String> optionMultiChunker = parser.acceptsAll(asList("multichunker")).withRequiredArg();
+		OptionSpec<String> optionCompression = parser.acceptsAll(asList("compression")).withRequiredArg();
+		OptionSpec<Integer> optionCompressionLevel = parser.acceptsAll(asList("compression-level")).withRequiredArg().ofType(Integer.class);
 		
 		OptionSet options = parser.parse(operationArguments);	
 						
@@ -121,12 +129,42 @@ public class InitCommand extends AbstractInitCommand {
 		// Cipher specs: --no-encryption, --advanced 
 		List<CipherSpec> cipherSpecs = getCipherSpecs(encryptionEnabled, advancedModeEnabled);
 		
-		// Chunkers (not configurable)
+		// Chunkers (only checksum algorithm configurable): --digest=<algorithm>
 		ChunkerTO chunkerTO = getDefaultChunkerTO();
 		MultiChunkerTO multiChunkerTO = getDefaultMultiChunkerTO();
 
-		// Compression: --no-compression
-		List<TransformerTO> transformersTO = getTransformersTO(compressionEnabled, cipherSpecs);
+		if (options.has(optionDigest)) {
+			chunkerTO.getSettings().put(Chunker.PROPERTY_DIGEST, options.valueOf(optionDigest));
+		}
+		
+		// Multichunker: --multichunker=<zip|indexed>
+		if (options.has(optionMultiChunker)) {
+			String multiChunkerType = options.valueOf(optionMultiChunker);
+			
+			if (MultiChunker.getInstance(multiChunkerType) == null) {
+				throw new Exception("Invalid multichunker type: " + multiChunkerType);
+			}
+			
+			multiChunkerTO.setType(multiChunkerType);
+		}
+
+		// Compression: --no-compression, --compression=<gzip|adaptive-gzip|lz4>, --compression-level=<level>
+		String compressionType = GzipTransformer.TYPE;
+		Integer compressionLevel = null;
+		
+		if (options.has(optionCompression)) {
+			compressionType = options.valueOf(optionCompression);
+			
+			if (!COMPRESSION_TYPES.contains(compressionType)) {
+				throw new Exception("Invalid compression type: " + compressionType);
+			}
+		}
+		
+		if (options.has(optionCompressionLevel)) {
+			compressionLevel = options.valueOf(optionCompressionLevel);
+		}
+		
+		List<TransformerTO> transformersTO = getTransformersTO(compressionEnabled, compressionType, compressionLevel, cipherSpecs);
 				
 		// Create configTO and repoTO
 		ConfigTO configTO = createConfigTO(connectionTO);		
@@ -204,11 +242,13 @@ public class InitCommand extends AbstractInitCommand {
 		}		
 	}
 
-	private List<TransformerTO> getTransformersTO(boolean gzipEnabled, List<CipherSpec> cipherSpecs) {
+	private List<TransformerTO> getTransformersTO(boolean compressionEnabled, String compressionType, Integer compressionLevel,
+			List<CipherSpec> cipherSpecs) throws Exception {
+		
 		List<TransformerTO> transformersTO = new ArrayList<TransformerTO>();
 		
-		if (gzipEnabled) { 
-			transformersTO.add(getGzipTransformerTO());
+		if (compressionEnabled) { 
+			transformersTO.add(getCompressionTransformerTO(compressionType, compressionLevel));
 		}
 
 		if (cipherSpecs.size() > 0) {	
@@ -349,11 +389,19 @@ public class InitCommand extends AbstractInitCommand {
 		return multichunkerTO;		
 	}
 	
-	protected TransformerTO getGzipTransformerTO() {		
-		TransformerTO gzipTransformerTO = new TransformerTO();
-		gzipTransformerTO.setType(GzipTransformer.TYPE);
+	protected TransformerTO getCompressionTransformerTO(String compressionType, Integer compressionLevel) throws Exception {		
+		TransformerTO compressionTransformerTO = new TransformerTO();
+		compressionTransformerTO.setType(compressionType);
+		
+		if (compressionLevel != null) {
+			compressionTransformerTO.setSettings(new HashMap<String, String>());
+			compressionTransformerTO.getSettings().put(Transformer.PROPERTY_LEVEL, Integer.toString(compressionLevel));
+			
+			// Validate level 
+			Transformer.getInstance(compressionType).init(compressionTransformerTO.getSettings());
+		}
 		
-		return gzipTransformerTO;				
+		return compressionTransformerTO;				
 	}
 	
 	private TransformerTO getCipherTransformerTO(List<CipherSpec> cipherSpec) {
@@ -69,6 +69,10 @@ public class UpCommand extends Command {
 		parser.allowsUnrecognizedOptions();
 
 		OptionSpec<Void> optionForceUpload = parser.acceptsAll(asList("F", "force-upload"));
+		OptionSpec<Integer> optionChunkerThreads = parser.acceptsAll(asList("chunker-threads")).withRequiredArg().ofType(Integer.class);
+		OptionSpec<Integer> optionTransformerThreads = parser.acceptsAll(asList("transformer-threads")).withRequiredArg().ofType(Integer.class);
+		OptionSpec<Integer> optionTransferThreads = parser.acceptsAll(asList("transfer-threads")).withRequiredArg().ofType(Integer.class);
+		OptionSpec<Void> optionNoResume = parser.acceptsAll(asList("no-resume"));
 
 		OptionSet options = parser.parse(operationArgs);
 
@@ -78,6 +82,24 @@ public class UpCommand extends Command {
 		// --force
 		operationOptions.setForceUploadEnabled(options.has(optionForceUpload));
 
+		// --chunker-threads=<count>
+		if (options.has(optionChunkerThreads)) {
+			operationOptions.setChunkerThreads(options.valueOf(optionChunkerThreads));
+		}
+
+		// --transformer-threads=<count>
+		if (options.has(optionTransformerThreads)) {
+			operationOptions.setTransformerThreads(options.valueOf(optionTransformerThreads));
+		}
+
+		// --transfer-threads=<count>
+		if (options.has(optionTransferThreads)) {
+			operationOptions.setTransferThreads(options.valueOf(optionTransferThreads));
+		}
+
+		// --no-resume
+		operationOptions.setResumeEnabled(!options.has(optionNoResume));
+
 		return operationOptions;
 	}
 
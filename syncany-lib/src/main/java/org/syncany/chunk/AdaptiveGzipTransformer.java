@@ -0,0 +1,536 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Implements a {@link Transformer} that compresses the input/output stream using
+ * the Deflate algorithm (as used by Gzip), but only where compression pays off. Unlike
+ * the {@link GzipTransformer}, it does not waste CPU on already compressed data such as
+ * JPEGs, videos, archives or encrypted files.
+ *
+ * <p>The stream is split into blocks of {@link #BLOCK_SIZE} bytes. For each block, the
+ * compressibility is estimated (see {@link #isCompressible(byte[], int, int) isCompressible()}).
+ * Compressible blocks are deflated, all others are stored raw. The choice is recorded
+ * in the block header. The format is as follows:
+ *
+ * <pre>
+ *   Header:   magic "SyAZ" (4 bytes) | version (1 byte)
+ *   Blocks:   { block type (1 byte) | stored length (int) | original length (int) | CRC32 of original data (int) | data }*
+ *             end of stream marker (1 byte) | CRC32 of all original data (int)
+ * </pre>
+ *
+ * <p>Like the Gzip trailer, the checksums make sure that a corrupted stream is not silently
+ * decoded to wrong data: A mismatch results in an {@link IOException}. Streams of version 1
+ * (without checksums) can still be read.
+ *
+ * <p>Because the format differs from the Gzip format, this transformer has its own type
+ * <tt>adaptive-gzip</tt>. Existing repositories using <tt>gzip</tt> are not affected.
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class AdaptiveGzipTransformer extends Transformer {
+	private static final Logger logger = Logger.getLogger(AdaptiveGzipTransformer.class.getSimpleName());
+
+	public static final String TYPE = "adaptive-gzip";
+	public static final int VERSION = 2;
+	public static final int BLOCK_SIZE = 128 * 1024;
+
+	private static final byte[] MAGIC = new byte[] { 'S', 'y', 'A', 'Z' };
+	private static final int VERSION_WITHOUT_CHECKSUMS = 1;
+	private static final int MAX_BLOCK_SIZE = 16 * 1024 * 1024;
+
+	private static final int BLOCK_TYPE_RAW = 0;
+	private static final int BLOCK_TYPE_DEFLATE = 1;
+	private static final int END_OF_STREAM = 0xff;
+
+	private static final int ENTROPY_SAMPLE_SIZE = 4 * 1024;
+	private static final double ENTROPY_THRESHOLD = 7.0; // bits per byte
+	private static final int TRIAL_SIZE = 8 * 1024;
+	private static final double TRIAL_RATIO_THRESHOLD = 0.9;
+
+	private int level;
+
+	public AdaptiveGzipTransformer() {
+		this(Deflater.DEFAULT_COMPRESSION, null);
+	}
+
+	public AdaptiveGzipTransformer(Transformer nextTransformer) {
+		this(Deflater.DEFAULT_COMPRESSION, nextTransformer);
+	}
+
+	public AdaptiveGzipTransformer(int level, Transformer nextTransformer) {
+		super(nextTransformer);
+		this.level = level;
+	}
+
+	/**
+	 * Initializes the transformer. The only (optional) setting is the compression
+	 * level {@link #PROPERTY_LEVEL} (1-9) for compressible blocks.
+	 */
+	@Override
+	public void init(Map<String, String> settings) throws Exception {
+		level = parseLevel(settings, Deflater.DEFAULT_COMPRESSION, Deflater.BEST_SPEED, Deflater.BEST_COMPRESSION);
+	}
+
+	@Override
+	public OutputStream createOutputStream(OutputStream out) throws IOException {
+		if (nextTransformer == null) {
+			return new AdaptiveDeflaterOutputStream(out, level);
+		}
+		else {
+			return new AdaptiveDeflaterOutputStream(nextTransformer.createOutputStream(out), level);
+		}
+	}
+
+	@Override
+	public InputStream createInputStream(InputStream in) throws IOException {
+		if (nextTransformer == null) {
+			return new AdaptiveInflaterInputStream(in);
+		}
+		else {
+			return new AdaptiveInflaterInputStream(nextTransformer.createInputStream(in));
+		}
+	}
+
+	/**
+	 * Estimates whether the given data is worth compressing. The estimate is cheap compared
+	 * to compressing the data: First, the byte entropy of a sample of the data is calculated.
+	 * Low-entropy data (e.g. text) is considered compressible. For high-entropy data, a short
+	 * prefix is trial-compressed with the fastest compression level, to detect data that is
+	 * compressible despite its byte distribution (e.g. repetitive binary data).
+	 *
+	 * @param buffer Buffer containing the data
+	 * @param offset Offset of the data in the buffer
+	 * @param length Length of the data
+	 * @return True if the data should be compressed, false if it should be stored raw
+	 */
+	public static boolean isCompressible(byte[] buffer, int offset, int length) {
+		if (length == 0) {
+			return false;
+		}
+		else if (calculateSampleEntropy(buffer, offset, length) < ENTROPY_THRESHOLD) {
+			return true;
+		}
+		else {
+			return calculateTrialRatio(buffer, offset, Math.min(length, TRIAL_SIZE)) < TRIAL_RATIO_THRESHOLD;
+		}
+	}
+
+	private static double calculateSampleEntropy(byte[] buffer, int offset, int length) {
+		int[] frequencies = new int[256];
+		int stride = Math.max(1, length / ENTROPY_SAMPLE_SIZE);
+		int sampleCount = 0;
+
+		for (int i = offset; i < offset + length; i += stride) {
+			frequencies[buffer[i] & 0xff]++;
+			sampleCount++;
+		}
+
+		double entropy = 0;
+
+		for (int frequency : frequencies) {
+			if (frequency > 0) {
+				double probability = (double) frequency / sampleCount;
+				entropy -= probability * Math.log(probability);
+			}
+		}
+
+		return entropy / Math.log(2);
+	}
+
+	private static double calculateTrialRatio(byte[] buffer, int offset, int length) {
+		Deflater trialDeflater = new Deflater(Deflater.BEST_SPEED, true);
+
+		try {
+			trialDeflater.setInput(buffer, offset, length);
+			trialDeflater.finish();
+
+			byte[] trialBuffer = new byte[length];
+			int trialLength = 0;
+
+			while (!trialDeflater.finished() && trialLength < trialBuffer.length) {
+				trialLength += trialDeflater.deflate(trialBuffer, trialLength, trialBuffer.length - trialLength);
+			}
+
+			return (trialDeflater.finished()) ? (double) trialLength / length : 1.0;
+		}
+		finally {
+			trialDeflater.end();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return (nextTransformer == null) ? "AdaptiveGzip" : "AdaptiveGzip-" + nextTransformer;
+	}
+
+	/**
+	 * Output stream that collects the written bytes in blocks, and writes each block
+	 * either deflated or raw, depending on its compressibility.
+	 */
+	public static class AdaptiveDeflaterOutputStream extends OutputStream {
+		private DataOutputStream out;
+		private Deflater deflater;
+		private CRC32 blockChecksum;
+		private CRC32 streamChecksum;
+
+		private byte[] block;
+		private byte[] compressedBlock;
+		private int blockLength;
+
+		private boolean headerWritten;
+		private boolean closed;
+
+		private int rawBlockCount;
+		private int deflatedBlockCount;
+
+		public AdaptiveDeflaterOutputStream(OutputStream out, int level) {
+			this.out = new DataOutputStream(out);
+			this.deflater = new Deflater(level, true);
+			this.blockChecksum = new CRC32();
+			this.streamChecksum = new CRC32();
+
+			this.block = new byte[BLOCK_SIZE];
+			this.compressedBlock = new byte[BLOCK_SIZE];
+			this.blockLength = 0;
+
+			this.headerWritten = false;
+			this.closed = false;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] buffer, int offset, int length) throws IOException {
+			if (closed) {
+				throw new IOException("Stream closed.");
+			}
+
+			while (length > 0) {
+				int copyLength = Math.min(length, block.length - blockLength);
+				System.arraycopy(buffer, offset, block, blockLength, copyLength);
+
+				blockLength += copyLength;
+				offset += copyLength;
+				length -= copyLength;
+
+				if (blockLength == block.length) {
+					writeBlock();
+				}
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+
+			try {
+				writeBlock();
+
+				out.writeByte(END_OF_STREAM);
+				out.writeInt((int) streamChecksum.getValue());
+				out.close();
+
+				logger.log(Level.FINE, "Adaptive compression: {0} block(s) deflated, {1} block(s) stored raw.", new Object[] {
+						deflatedBlockCount, rawBlockCount });
+			}
+			finally {
+				deflater.end();
+				closed = true;
+			}
+		}
+
+		private void writeBlock() throws IOException {
+			if (!headerWritten) {
+				out.write(MAGIC);
+				out.writeByte(VERSION);
+
+				headerWritten = true;
+			}
+
+			if (blockLength == 0) {
+				return;
+			}
+
+			blockChecksum.reset();
+			blockChecksum.update(block, 0, blockLength);
+			streamChecksum.update(block, 0, blockLength);
+
+			int compressedLength = (isCompressible(block, 0, blockLength)) ? deflateBlock() : -1;
+
+			if (compressedLength >= 0) {
+				out.writeByte(BLOCK_TYPE_DEFLATE);
+				out.writeInt(compressedLength);
+				out.writeInt(blockLength);
+				out.writeInt((int) blockChecksum.getValue());
+				out.write(compressedBlock, 0, compressedLength);
+
+				deflatedBlockCount++;
+			}
+			else {
+				out.writeByte(BLOCK_TYPE_RAW);
+				out.writeInt(blockLength);
+				out.writeInt(blockLength);
+				out.writeInt((int) blockChecksum.getValue());
+				out.write(block, 0, blockLength);
+
+				rawBlockCount++;
+			}
+
+			blockLength = 0;
+		}
+
+		/**
+		 * Deflates the current block, and returns the compressed length, or -1 if the
+		 * compressed block is not smaller than the original block.
+		 */
+		private int deflateBlock() {
+			deflater.reset();
+			deflater.setInput(block, 0, blockLength);
+			deflater.finish();
+
+			int compressedLength = 0;
+
+			while (!deflater.finished() && compressedLength < blockLength) {
+				compressedLength += deflater.deflate(compressedBlock, compressedLength, blockLength - compressedLength);
+			}
+
+			return (deflater.finished() && compressedLength < blockLength) ? compressedLength : -1;
+		}
+	}
+
+	/**
+	 * Input stream that reads the blocks written by {@link AdaptiveDeflaterOutputStream},
+	 * and inflates them if necessary.
+	 */
+	public static class AdaptiveInflaterInputStream extends InputStream {
+		private DataInputStream in;
+		private Inflater inflater;
+		private CRC32 blockChecksum;
+		private CRC32 streamChecksum;
+
+		private byte[] block;
+		private byte[] compressedBlock;
+		private int blockPosition;
+		private int blockLength;
+
+		private boolean headerRead;
+		private boolean checksumsEnabled;
+		private boolean endOfStream;
+
+		public AdaptiveInflaterInputStream(InputStream in) {
+			this.in = new DataInputStream(new BufferedInputStream(in));
+			this.inflater = new Inflater(true);
+			this.blockChecksum = new CRC32();
+			this.streamChecksum = new CRC32();
+
+			this.block = new byte[BLOCK_SIZE];
+			this.compressedBlock = new byte[BLOCK_SIZE];
+			this.blockPosition = 0;
+			this.blockLength = 0;
+
+			this.headerRead = false;
+			this.endOfStream = false;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (!fillBlock()) {
+				return -1;
+			}
+
+			return block[blockPosition++] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if (length == 0) {
+				return 0;
+			}
+			else if (!fillBlock()) {
+				return -1;
+			}
+
+			int readLength = Math.min(length, blockLength - blockPosition);
+			System.arraycopy(block, blockPosition, buffer, offset, readLength);
+
+			blockPosition += readLength;
+			return readLength;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return blockLength - blockPosition;
+		}
+
+		@Override
+		public void close() throws IOException {
+			inflater.end();
+			in.close();
+		}
+
+		private boolean fillBlock() throws IOException {
+			while (blockPosition == blockLength) {
+				if (endOfStream) {
+					return false;
+				}
+
+				readBlock();
+			}
+
+			return true;
+		}
+
+		private void readBlock() throws IOException {
+			try {
+				if (!headerRead) {
+					readHeader();
+				}
+
+				int blockType = in.readUnsignedByte();
+
+				if (blockType == END_OF_STREAM) {
+					if (checksumsEnabled) {
+						verifyChecksum(streamChecksum, in.readInt(), "stream");
+					}
+
+					endOfStream = true;
+					return;
+				}
+
+				int storedLength = in.readInt();
+				int originalLength = in.readInt();
+				int expectedBlockChecksum = (checksumsEnabled) ? in.readInt() : 0;
+
+				if (storedLength < 0 || originalLength < 0 || originalLength > MAX_BLOCK_SIZE) {
+					throw new IOException("Invalid compressed stream: Illegal block length " + storedLength + "/" + originalLength);
+				}
+
+				if (block.length < originalLength) {
+					block = new byte[originalLength];
+				}
+
+				if (blockType == BLOCK_TYPE_RAW && storedLength == originalLength) {
+					in.readFully(block, 0, originalLength);
+				}
+				else if (blockType == BLOCK_TYPE_DEFLATE && storedLength <= originalLength) {
+					inflateBlock(storedLength, originalLength);
+				}
+				else {
+					throw new IOException("Invalid compressed stream: Unknown block type " + blockType);
+				}
+
+				if (checksumsEnabled) {
+					blockChecksum.reset();
+					blockChecksum.update(block, 0, originalLength);
+					streamChecksum.update(block, 0, originalLength);
+
+					verifyChecksum(blockChecksum, expectedBlockChecksum, "block");
+				}
+
+				blockPosition = 0;
+				blockLength = originalLength;
+			}
+			catch (EOFException e) {
+				throw new IOException("Invalid compressed stream: Unexpected end of stream", e);
+			}
+		}
+
+		private void readHeader() throws IOException {
+			byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+
+			if (!Arrays.equals(MAGIC, magic)) {
+				throw new IOException("Invalid compressed stream: Magic bytes do not match");
+			}
+
+			int version = in.readUnsignedByte();
+
+			if (version != VERSION && version != VERSION_WITHOUT_CHECKSUMS) {
+				throw new IOException("Unsupported compressed stream version: " + version);
+			}
+
+			checksumsEnabled = (version != VERSION_WITHOUT_CHECKSUMS);
+			headerRead = true;
+		}
+
+		private void verifyChecksum(CRC32 checksum, int expectedChecksum, String description) throws IOException {
+			if ((int) checksum.getValue() != expectedChecksum) {
+				throw new IOException("Invalid compressed stream: CRC32 mismatch in " + description);
+			}
+		}
+
+		private void inflateBlock(int storedLength, int originalLength) throws IOException {
+			if (compressedBlock.length < storedLength) {
+				compressedBlock = new byte[storedLength];
+			}
+
+			in.readFully(compressedBlock, 0, storedLength);
+
+			try {
+				inflater.reset();
+				inflater.setInput(compressedBlock, 0, storedLength);
+
+				int inflatedLength = 0;
+
+				while (inflatedLength < originalLength && !inflater.finished()) {
+					int inflatedNow = inflater.inflate(block, inflatedLength, originalLength - inflatedLength);
+
+					if (inflatedNow == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+						break;
+					}
+
+					inflatedLength += inflatedNow;
+				}
+
+				if (inflatedLength != originalLength) {
+					throw new IOException("Invalid compressed stream: Block does not match original length " + originalLength);
+				}
+			}
+			catch (DataFormatException e) {
+				throw new IOException("Invalid compressed stream: Cannot inflate block", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,215 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Measures the garbage collection activity and the allocation rate of the JVM
+ * between {@link #start(ChunkBufferPool)} and {@link #stop()}, as well as the
+ * buffer requests and allocations of a {@link ChunkBufferPool}. It is used by the
+ * {@link Deduper} to make the effect of chunk buffer pooling visible.
+ *
+ * <p>The number of allocated bytes is the sum of the bytes allocated by all threads
+ * that are alive when the metrics are stopped. It is hence an approximation, and it is
+ * only available on JVMs that support thread allocation accounting (e.g. HotSpot);
+ * otherwise, {@link #getAllocatedBytes()} returns -1.
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class AllocationMetrics {
+	private ChunkBufferPool bufferPool;
+
+	private long startTime;
+	private long startGcCount;
+	private long startGcTime;
+	private long startAllocatedBytes;
+	private long startBufferAcquireCount;
+	private long startBufferAllocationCount;
+	private long startBufferAllocatedBytes;
+
+	private long duration;
+	private long gcCount;
+	private long gcTime;
+	private long allocatedBytes;
+	private long bufferAcquireCount;
+	private long bufferAllocationCount;
+	private long bufferAllocatedBytes;
+
+	private AllocationMetrics(ChunkBufferPool bufferPool) {
+		this.bufferPool = bufferPool;
+	}
+
+	/**
+	 * Starts measuring.
+	 *
+	 * @param bufferPool Pool whose buffer statistics are included in the metrics
+	 * @return Started metrics; call {@link #stop()} to finish the measurement
+	 */
+	public static AllocationMetrics start(ChunkBufferPool bufferPool) {
+		AllocationMetrics metrics = new AllocationMetrics(bufferPool);
+
+		metrics.startTime = System.nanoTime();
+		metrics.startGcCount = getTotalGcCount();
+		metrics.startGcTime = getTotalGcTime();
+		metrics.startAllocatedBytes = getTotalAllocatedBytes();
+		metrics.startBufferAcquireCount = bufferPool.getAcquireCount();
+		metrics.startBufferAllocationCount = bufferPool.getAllocationCount();
+		metrics.startBufferAllocatedBytes = bufferPool.getAllocatedBytes();
+
+		return metrics;
+	}
+
+	/**
+	 * Stops measuring. The getters return the differences between start and stop.
+	 *
+	 * @return This object
+	 */
+	public AllocationMetrics stop() {
+		long endAllocatedBytes = getTotalAllocatedBytes();
+
+		duration = System.nanoTime() - startTime;
+		gcCount = getTotalGcCount() - startGcCount;
+		gcTime = getTotalGcTime() - startGcTime;
+		allocatedBytes = (startAllocatedBytes >= 0 && endAllocatedBytes >= 0) ? Math.max(0, endAllocatedBytes - startAllocatedBytes) : -1;
+		bufferAcquireCount = bufferPool.getAcquireCount() - startBufferAcquireCount;
+		bufferAllocationCount = bufferPool.getAllocationCount() - startBufferAllocationCount;
+		bufferAllocatedBytes = bufferPool.getAllocatedBytes() - startBufferAllocatedBytes;
+
+		return this;
+	}
+
+	/**
+	 * Returns the measured duration in milliseconds.
+	 */
+	public long getDuration() {
+		return duration / 1000000;
+	}
+
+	/**
+	 * Returns the number of garbage collections (of all collectors).
+	 */
+	public long getGcCount() {
+		return gcCount;
+	}
+
+	/**
+	 * Returns the accumulated garbage collection time in milliseconds.
+	 */
+	public long getGcTime() {
+		return gcTime;
+	}
+
+	/**
+	 * Returns the approximate number of bytes allocated on the heap, or -1 if the JVM
+	 * does not support measuring it.
+	 */
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	/**
+	 * Returns the approximate allocation rate in MB/s, or -1 if the JVM does not support
+	 * measuring it.
+	 */
+	public double getAllocationRate() {
+		if (allocatedBytes < 0) {
+			return -1;
+		}
+
+		return (double) allocatedBytes / 1024 / 1024 / Math.max(1, duration) * 1000000000L;
+	}
+
+	/**
+	 * Returns the number of buffers requested from the pool.
+	 */
+	public long getBufferAcquireCount() {
+		return bufferAcquireCount;
+	}
+
+	/**
+	 * Returns the number of buffers that could not be taken from the pool.
+	 */
+	public long getBufferAllocationCount() {
+		return bufferAllocationCount;
+	}
+
+	/**
+	 * Returns the total size of the buffers that could not be taken from the pool in bytes.
+	 */
+	public long getBufferAllocatedBytes() {
+		return bufferAllocatedBytes;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d ms, %d GC(s) taking %d ms, %s allocated (%s), %d of %d chunk buffer(s) newly allocated (%d KB)",
+				getDuration(), gcCount, gcTime, (allocatedBytes >= 0) ? (allocatedBytes / 1024 / 1024) + " MB" : "unknown",
+				(allocatedBytes >= 0) ? String.format("%.1f MB/s", getAllocationRate()) : "unknown rate", bufferAllocationCount,
+				bufferAcquireCount, bufferAllocatedBytes / 1024);
+	}
+
+	private static long getTotalGcCount() {
+		long totalGcCount = 0;
+
+		for (GarbageCollectorMXBean garbageCollector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			totalGcCount += Math.max(0, garbageCollector.getCollectionCount());
+		}
+
+		return totalGcCount;
+	}
+
+	private static long getTotalGcTime() {
+		long totalGcTime = 0;
+
+		for (GarbageCollectorMXBean garbageCollector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			totalGcTime += Math.max(0, garbageCollector.getCollectionTime());
+		}
+
+		return totalGcTime;
+	}
+
+	private static long getTotalAllocatedBytes() {
+		try {
+			ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+			if (!(threadBean instanceof com.sun.management.ThreadMXBean)) {
+				return -1;
+			}
+
+			com.sun.management.ThreadMXBean sunThreadBean = (com.sun.management.ThreadMXBean) threadBean;
+
+			if (!sunThreadBean.isThreadAllocatedMemorySupported() || !sunThreadBean.isThreadAllocatedMemoryEnabled()) {
+				return -1;
+			}
+
+			long totalAllocatedBytes = 0;
+
+			for (long threadAllocatedBytes : sunThreadBean.getThreadAllocatedBytes(threadBean.getAllThreadIds())) {
+				totalAllocatedBytes += Math.max(0, threadAllocatedBytes);
+			}
+
+			return totalAllocatedBytes;
+		}
+		catch (LinkageError e) {
+			return -1; // Not a HotSpot-compatible JVM
+		}
+	}
+}
@@ -0,0 +1,284 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Pure Java implementation of the unkeyed BLAKE2b hash function as specified
+ * in <a href="https://tools.ietf.org/html/rfc7693">RFC 7693</a>.
+ *
+ * <p>BLAKE2b is a cryptographic hash function that is at least as secure as SHA1, and
+ * faster than the JRE's software SHA1 implementation on 64-bit platforms. Note that JREs
+ * using hardware SHA instructions (intrinsics) may still compute SHA1 faster. 
+ * 
+ * <p>The digest is registered by the {@link ChunkDigestProvider} with a 160-bit and a 
+ * 256-bit output length, so that it can be used as chunk/file checksum algorithm via 
+ * {@link MessageDigest#getInstance(String)}.
+ *
+ * @see <a href="https://blake2.net/">BLAKE2 - fast secure hashing</a>
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class Blake2bDigest extends MessageDigest implements Cloneable {
+	public static final String ALGORITHM_160 = "BLAKE2B-160";
+	public static final String ALGORITHM_256 = "BLAKE2B-256";
+
+	private static final int BLOCK_SIZE = 128;
+	private static final int ROUNDS = 12;
+
+	private static final long[] IV = new long[] {
+		0x6a09e667f3bcc908L, 0xbb67ae8584caa73bL, 0x3c6ef372fe94f82bL, 0xa54ff53a5f1d36f1L,
+		0x510e527fade682d1L, 0x9b05688c2b3e6c1fL, 0x1f83d9abfb41bd6bL, 0x5be0cd19137e2179L
+	};
+
+	private static final byte[][] SIGMA = new byte[][] {
+		{  0,  1,  2,  3,  4,  5,  6,  7,  8,  9, 10, 11, 12, 13, 14, 15 },
+		{ 14, 10,  4,  8,  9, 15, 13,  6,  1, 12,  0,  2, 11,  7,  5,  3 },
+		{ 11,  8, 12,  0,  5,  2, 15, 13, 10, 14,  3,  6,  7,  1,  9,  4 },
+		{  7,  9,  3,  1, 13, 12, 11, 14,  2,  6,  5, 10,  4,  0, 15,  8 },
+		{  9,  0,  5,  7,  2,  4, 10, 15, 14,  1, 11, 12,  6,  8,  3, 13 },
+		{  2, 12,  6, 10,  0, 11,  8,  3,  4, 13,  7,  5, 15, 14,  1,  9 },
+		{ 12,  5,  1, 15, 14, 13,  4, 10,  0,  7,  6,  3,  9,  2,  8, 11 },
+		{ 13, 11,  7, 14, 12,  1,  3,  9,  5,  0, 15,  4,  8,  6,  2, 10 },
+		{  6, 15, 14,  9, 11,  3,  0,  8, 12,  2, 13,  7,  1,  4, 10,  5 },
+		{ 10,  2,  8,  4,  7,  6,  1,  5, 15, 11,  9, 14,  3, 12, 13,  0 },
+		{  0,  1,  2,  3,  4,  5,  6,  7,  8,  9, 10, 11, 12, 13, 14, 15 },
+		{ 14, 10,  4,  8,  9, 15, 13,  6,  1, 12,  0,  2, 11,  7,  5,  3 }
+	};
+
+	private final int digestLength;
+
+	private long[] h;
+	private long[] m;
+	private long[] v;
+	private byte[] buffer;
+	private int bufferLength;
+	private long counter; // Inputs > 2^63 bytes are not supported
+
+	/**
+	 * Creates a new BLAKE2b digest with the given output length.
+	 *
+	 * @param digestLength Length of the digest in bytes (1-64)
+	 */
+	public Blake2bDigest(int digestLength) {
+		super("BLAKE2B-" + (digestLength * 8));
+
+		if (digestLength < 1 || digestLength > 64) {
+			throw new IllegalArgumentException("Invalid BLAKE2b digest length: " + digestLength);
+		}
+
+		this.digestLength = digestLength;
+
+		this.h = new long[8];
+		this.m = new long[16];
+		this.v = new long[16];
+		this.buffer = new byte[BLOCK_SIZE];
+
+		engineReset();
+	}
+
+	@Override
+	protected int engineGetDigestLength() {
+		return digestLength;
+	}
+
+	@Override
+	protected void engineReset() {
+		System.arraycopy(IV, 0, h, 0, 8);
+		h[0] ^= 0x01010000L ^ digestLength;
+
+		bufferLength = 0;
+		counter = 0;
+	}
+
+	@Override
+	protected void engineUpdate(byte input) {
+		if (bufferLength == BLOCK_SIZE) {
+			counter += BLOCK_SIZE;
+			compress(buffer, 0, false);
+			bufferLength = 0;
+		}
+
+		buffer[bufferLength++] = input;
+	}
+
+	@Override
+	protected void engineUpdate(byte[] input, int offset, int length) {
+		if (length <= 0) {
+			return;
+		}
+
+		// Fill buffer; the last block must be kept for the finalization
+		if (bufferLength > 0) {
+			int fillLength = Math.min(BLOCK_SIZE - bufferLength, length);
+
+			System.arraycopy(input, offset, buffer, bufferLength, fillLength);
+			bufferLength += fillLength;
+			offset += fillLength;
+			length -= fillLength;
+
+			if (length == 0) {
+				return;
+			}
+
+			counter += BLOCK_SIZE;
+			compress(buffer, 0, false);
+			bufferLength = 0;
+		}
+
+		// Compress full blocks directly from the input
+		while (length > BLOCK_SIZE) {
+			counter += BLOCK_SIZE;
+			compress(input, offset, false);
+
+			offset += BLOCK_SIZE;
+			length -= BLOCK_SIZE;
+		}
+
+		System.arraycopy(input, offset, buffer, 0, length);
+		bufferLength = length;
+	}
+
+	@Override
+	protected byte[] engineDigest() {
+		counter += bufferLength;
+
+		Arrays.fill(buffer, bufferLength, BLOCK_SIZE, (byte) 0);
+		compress(buffer, 0, true);
+
+		byte[] digest = new byte[digestLength];
+
+		for (int i = 0; i < digestLength; i++) {
+			digest[i] = (byte) (h[i >>> 3] >>> (8 * (i & 7)));
+		}
+
+		engineReset();
+		return digest;
+	}
+
+	@Override
+	public Object clone() throws CloneNotSupportedException {
+		Blake2bDigest clonedDigest = (Blake2bDigest) super.clone();
+
+		clonedDigest.h = h.clone();
+		clonedDigest.m = new long[16];
+		clonedDigest.v = new long[16];
+		clonedDigest.buffer = buffer.clone();
+
+		return clonedDigest;
+	}
+
+	private void compress(byte[] block, int offset, boolean lastBlock) {
+		for (int i = 0; i < 16; i++) {
+			m[i] = readLongLittleEndian(block, offset + i * 8);
+		}
+
+		System.arraycopy(h, 0, v, 0, 8);
+		System.arraycopy(IV, 0, v, 8, 8);
+
+		v[12] ^= counter;
+
+		if (lastBlock) {
+			v[14] = ~v[14];
+		}
+
+		for (int round = 0; round < ROUNDS; round++) {
+			round(v, m, SIGMA[round]);
+		}
+
+		for (int i = 0; i < 8; i++) {
+			h[i] ^= v[i] ^ v[i + 8];
+		}
+	}
+
+	/**
+	 * Performs one round (eight applications of the mixing function G) on the 
+	 * working vector. The state is kept in local variables within the round.
+	 */
+	private static void round(long[] v, long[] m, byte[] s) {
+		long v0 = v[0], v1 = v[1], v2 = v[2], v3 = v[3], v4 = v[4], v5 = v[5], v6 = v[6], v7 = v[7];
+		long v8 = v[8], v9 = v[9], v10 = v[10], v11 = v[11], v12 = v[12], v13 = v[13], v14 = v[14], v15 = v[15];
+
+		v0 += v4 + m[s[0]]; v12 = Long.rotateRight(v12 ^ v0, 32);
+		v8 += v12; v4 = Long.rotateRight(v4 ^ v8, 24);
+		v0 += v4 + m[s[1]]; v12 = Long.rotateRight(v12 ^ v0, 16);
+		v8 += v12; v4 = Long.rotateRight(v4 ^ v8, 63);
+		v1 += v5 + m[s[2]]; v13 = Long.rotateRight(v13 ^ v1, 32);
+		v9 += v13; v5 = Long.rotateRight(v5 ^ v9, 24);
+		v1 += v5 + m[s[3]]; v13 = Long.rotateRight(v13 ^ v1, 16);
+		v9 += v13; v5 = Long.rotateRight(v5 ^ v9, 63);
+		v2 += v6 + m[s[4]]; v14 = Long.rotateRight(v14 ^ v2, 32);
+		v10 += v14; v6 = Long.rotateRight(v6 ^ v10, 24);
+		v2 += v6 + m[s[5]]; v14 = Long.rotateRight(v14 ^ v2, 16);
+		v10 += v14; v6 = Long.rotateRight(v6 ^ v10, 63);
+		v3 += v7 + m[s[6]]; v15 = Long.rotateRight(v15 ^ v3, 32);
+		v11 += v15; v7 = Long.rotateRight(v7 ^ v11, 24);
+		v3 += v7 + m[s[7]]; v15 = Long.rotateRight(v15 ^ v3, 16);
+		v11 += v15; v7 = Long.rotateRight(v7 ^ v11, 63);
+
+		v0 += v5 + m[s[8]]; v15 = Long.rotateRight(v15 ^ v0, 32);
+		v10 += v15; v5 = Long.rotateRight(v5 ^ v10, 24);
+		v0 += v5 + m[s[9]]; v15 = Long.rotateRight(v15 ^ v0, 16);
+		v10 += v15; v5 = Long.rotateRight(v5 ^ v10, 63);
+		v1 += v6 + m[s[10]]; v12 = Long.rotateRight(v12 ^ v1, 32);
+		v11 += v12; v6 = Long.rotateRight(v6 ^ v11, 24);
+		v1 += v6 + m[s[11]]; v12 = Long.rotateRight(v12 ^ v1, 16);
+		v11 += v12; v6 = Long.rotateRight(v6 ^ v11, 63);
+		v2 += v7 + m[s[12]]; v13 = Long.rotateRight(v13 ^ v2, 32);
+		v8 += v13; v7 = Long.rotateRight(v7 ^ v8, 24);
+		v2 += v7 + m[s[13]]; v13 = Long.rotateRight(v13 ^ v2, 16);
+		v8 += v13; v7 = Long.rotateRight(v7 ^ v8, 63);
+		v3 += v4 + m[s[14]]; v14 = Long.rotateRight(v14 ^ v3, 32);
+		v9 += v14; v4 = Long.rotateRight(v4 ^ v9, 24);
+		v3 += v4 + m[s[15]]; v14 = Long.rotateRight(v14 ^ v3, 16);
+		v9 += v14; v4 = Long.rotateRight(v4 ^ v9, 63);
+
+		v[0] = v0; v[1] = v1; v[2] = v2; v[3] = v3; v[4] = v4; v[5] = v5; v[6] = v6; v[7] = v7;
+		v[8] = v8; v[9] = v9; v[10] = v10; v[11] = v11; v[12] = v12; v[13] = v13; v[14] = v14; v[15] = v15;
+	}
+
+	private static long readLongLittleEndian(byte[] bytes, int offset) {
+		return (bytes[offset] & 0xffL)
+			| (bytes[offset + 1] & 0xffL) << 8
+			| (bytes[offset + 2] & 0xffL) << 16
+			| (bytes[offset + 3] & 0xffL) << 24
+			| (bytes[offset + 4] & 0xffL) << 32
+			| (bytes[offset + 5] & 0xffL) << 40
+			| (bytes[offset + 6] & 0xffL) << 48
+			| (bytes[offset + 7] & 0xffL) << 56;
+	}
+
+	/**
+	 * BLAKE2b with a 160-bit output, i.e. the same checksum width as SHA1.
+	 */
+	public static class Blake2b160 extends Blake2bDigest {
+		public Blake2b160() {
+			super(20);
+		}
+	}
+
+	/**
+	 * BLAKE2b with a 256-bit output.
+	 */
+	public static class Blake2b256 extends Blake2bDigest {
+		public Blake2b256() {
+			super(32);
+		}
+	}
+}
@@ -0,0 +1,527 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Pure Java implementation of the BLAKE3 hash function (default hash mode,
+ * 256-bit output). The implementation follows the structure of the BLAKE3
+ * reference implementation: Input is split into 1 KB chunks, each chunk is
+ * compressed in 64 byte blocks, and the chunk chaining values are merged
+ * into a binary tree using a stack.
+ *
+ * <p>This implementation is single-threaded and does not use SIMD; it is
+ * mainly fast because BLAKE3 uses only 7 rounds of a 32-bit compression function.
+ * The digest is registered by the {@link ChunkDigestProvider} so that it can be used
+ * as chunk/file checksum algorithm via {@link MessageDigest#getInstance(String)}.
+ *
+ * @see <a href="https://github.com/BLAKE3-team/BLAKE3-specs">BLAKE3 specification</a>
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class Blake3Digest extends MessageDigest implements Cloneable {
+	public static final String ALGORITHM = "BLAKE3-256";
+
+	private static final int DIGEST_LENGTH = 32;
+	private static final int BLOCK_LENGTH = 64;
+	private static final int CHUNK_LENGTH = 1024;
+	private static final int MAX_TREE_DEPTH = 54;
+
+	private static final int CHUNK_START = 1 << 0;
+	private static final int CHUNK_END = 1 << 1;
+	private static final int PARENT = 1 << 2;
+	private static final int ROOT = 1 << 3;
+
+	private static final int[] IV = new int[] {
+		0x6A09E667, 0xBB67AE85, 0x3C6EF372, 0xA54FF53A, 0x510E527F, 0x9B05688C, 0x1F83D9AB, 0x5BE0CD19
+	};
+
+	// Current chunk
+	private int[] chunkChainingValue;
+	private long chunkCounter;
+	private byte[] block;
+	private int blockLength;
+	private int blocksCompressed;
+
+	// Chaining value stack of completed subtrees
+	private int[][] chainingValueStack;
+	private int chainingValueStackSize;
+
+	// Work arrays
+	private int[] blockWords;
+	private int[] state;
+
+	public Blake3Digest() {
+		super(ALGORITHM);
+
+		this.chunkChainingValue = new int[8];
+		this.block = new byte[BLOCK_LENGTH];
+		this.chainingValueStack = new int[MAX_TREE_DEPTH][8];
+
+		this.blockWords = new int[16];
+		this.state = new int[16];
+
+		engineReset();
+	}
+
+	@Override
+	protected int engineGetDigestLength() {
+		return DIGEST_LENGTH;
+	}
+
+	@Override
+	protected void engineReset() {
+		System.arraycopy(IV, 0, chunkChainingValue, 0, 8);
+
+		chunkCounter = 0;
+		blockLength = 0;
+		blocksCompressed = 0;
+		chainingValueStackSize = 0;
+	}
+
+	@Override
+	protected void engineUpdate(byte input) {
+		engineUpdate(new byte[] { input }, 0, 1);
+	}
+
+	@Override
+	protected void engineUpdate(byte[] input, int offset, int length) {
+		while (length > 0) {
+			// Finish current chunk if it is full and more input follows
+			if (blocksCompressed * BLOCK_LENGTH + blockLength == CHUNK_LENGTH) {
+				int[] chunkResult = new int[8];
+
+				compress(chunkChainingValue, block, 0, chunkCounter, BLOCK_LENGTH, CHUNK_END | chunkStartFlag(), state);
+				System.arraycopy(state, 0, chunkResult, 0, 8);
+
+				addChunkChainingValue(chunkResult, chunkCounter + 1);
+				startChunk(chunkCounter + 1);
+			}
+
+			// Compress full block of the current chunk, keeping the last block in the buffer
+			if (blockLength == BLOCK_LENGTH) {
+				compress(chunkChainingValue, block, 0, chunkCounter, BLOCK_LENGTH, chunkStartFlag(), state);
+				System.arraycopy(state, 0, chunkChainingValue, 0, 8);
+
+				blocksCompressed++;
+				blockLength = 0;
+			}
+
+			// Compress full blocks directly from input (if more input follows within this chunk)
+			if (blockLength == 0) {
+				while (length > BLOCK_LENGTH && blocksCompressed < CHUNK_LENGTH / BLOCK_LENGTH - 1) {
+					compress(chunkChainingValue, input, offset, chunkCounter, BLOCK_LENGTH, chunkStartFlag(), state);
+					System.arraycopy(state, 0, chunkChainingValue, 0, 8);
+
+					blocksCompressed++;
+					offset += BLOCK_LENGTH;
+					length -= BLOCK_LENGTH;
+				}
+			}
+
+			int copyLength = Math.min(BLOCK_LENGTH - blockLength, length);
+
+			System.arraycopy(input, offset, block, blockLength, copyLength);
+			blockLength += copyLength;
+			offset += copyLength;
+			length -= copyLength;
+		}
+	}
+
+	@Override
+	protected byte[] engineDigest() {
+		// Output of the current chunk (the root, if there is only one chunk)
+		Arrays.fill(block, blockLength, BLOCK_LENGTH, (byte) 0);
+
+		int[] outputChainingValue = chunkChainingValue.clone();
+		int[] outputBlockWords = new int[16];
+		int outputBlockLength = blockLength;
+		int outputFlags = CHUNK_END | chunkStartFlag();
+		long outputCounter = chunkCounter;
+
+		readBlockWords(block, 0, outputBlockWords);
+
+		// Merge with all subtrees on the stack (right to left)
+		for (int i = chainingValueStackSize - 1; i >= 0; i--) {
+			compress(outputChainingValue, outputBlockWords, outputCounter, outputBlockLength, outputFlags, state);
+
+			System.arraycopy(chainingValueStack[i], 0, outputBlockWords, 0, 8);
+			System.arraycopy(state, 0, outputBlockWords, 8, 8);
+			System.arraycopy(IV, 0, outputChainingValue, 0, 8);
+
+			outputCounter = 0;
+			outputBlockLength = BLOCK_LENGTH;
+			outputFlags = PARENT;
+		}
+
+		// Root output
+		compress(outputChainingValue, outputBlockWords, outputCounter, outputBlockLength, outputFlags | ROOT, state);
+
+		byte[] digest = new byte[DIGEST_LENGTH];
+
+		for (int i = 0; i < DIGEST_LENGTH; i++) {
+			digest[i] = (byte) (state[i >>> 2] >>> (8 * (i & 3)));
+		}
+
+		engineReset();
+		return digest;
+	}
+
+	@Override
+	public Object clone() throws CloneNotSupportedException {
+		Blake3Digest clonedDigest = (Blake3Digest) super.clone();
+
+		clonedDigest.chunkChainingValue = chunkChainingValue.clone();
+		clonedDigest.block = block.clone();
+		clonedDigest.chainingValueStack = new int[MAX_TREE_DEPTH][];
+
+		for (int i = 0; i < MAX_TREE_DEPTH; i++) {
+			clonedDigest.chainingValueStack[i] = chainingValueStack[i].clone();
+		}
+
+		clonedDigest.blockWords = new int[16];
+		clonedDigest.state = new int[16];
+
+		return clonedDigest;
+	}
+
+	private int chunkStartFlag() {
+		return (blocksCompressed == 0) ? CHUNK_START : 0;
+	}
+
+	private void startChunk(long newChunkCounter) {
+		System.arraycopy(IV, 0, chunkChainingValue, 0, 8);
+
+		chunkCounter = newChunkCounter;
+		blockLength = 0;
+		blocksCompressed = 0;
+	}
+
+	/**
+	 * Pushes the chaining value of a completed chunk onto the stack, after merging it
+	 * with all completed subtrees of the same size. The number of trailing zero bits of
+	 * the total chunk count is the number of subtrees to merge.
+	 */
+	private void addChunkChainingValue(int[] newChainingValue, long totalChunks) {
+		while ((totalChunks & 1) == 0) {
+			chainingValueStackSize--;
+
+			System.arraycopy(chainingValueStack[chainingValueStackSize], 0, blockWords, 0, 8);
+			System.arraycopy(newChainingValue, 0, blockWords, 8, 8);
+
+			compress(IV, blockWords, 0, BLOCK_LENGTH, PARENT, state);
+			System.arraycopy(state, 0, newChainingValue, 0, 8);
+
+			totalChunks >>>= 1;
+		}
+
+		System.arraycopy(newChainingValue, 0, chainingValueStack[chainingValueStackSize], 0, 8);
+		chainingValueStackSize++;
+	}
+
+	private void compress(int[] chainingValue, byte[] blockBytes, int offset, long counter, int length, int flags, int[] out) {
+		readBlockWords(blockBytes, offset, blockWords);
+		compress(chainingValue, blockWords, counter, length, flags, out);
+	}
+
+	private static void compress(int[] chainingValue, int[] m, long counter, int length, int flags, int[] out) {
+		int m0 = m[0], m1 = m[1], m2 = m[2], m3 = m[3], m4 = m[4], m5 = m[5], m6 = m[6], m7 = m[7];
+		int m8 = m[8], m9 = m[9], m10 = m[10], m11 = m[11], m12 = m[12], m13 = m[13], m14 = m[14], m15 = m[15];
+
+		int s0 = chainingValue[0];
+		int s1 = chainingValue[1];
+		int s2 = chainingValue[2];
+		int s3 = chainingValue[3];
+		int s4 = chainingValue[4];
+		int s5 = chainingValue[5];
+		int s6 = chainingValue[6];
+		int s7 = chainingValue[7];
+		int s8 = IV[0];
+		int s9 = IV[1];
+		int s10 = IV[2];
+		int s11 = IV[3];
+		int s12 = (int) counter;
+		int s13 = (int) (counter >>> 32);
+		int s14 = length;
+		int s15 = flags;
+
+		// The message permutation between rounds is applied to the word indices
+		// Round 1
+		s0 += s4 + m0; s12 = Integer.rotateRight(s12 ^ s0, 16);
+		s8 += s12; s4 = Integer.rotateRight(s4 ^ s8, 12);
+		s0 += s4 + m1; s12 = Integer.rotateRight(s12 ^ s0, 8);
+		s8 += s12; s4 = Integer.rotateRight(s4 ^ s8, 7);
+		s1 += s5 + m2; s13 = Integer.rotateRight(s13 ^ s1, 16);
+		s9 += s13; s5 = Integer.rotateRight(s5 ^ s9, 12);
+		s1 += s5 + m3; s13 = Integer.rotateRight(s13 ^ s1, 8);
+		s9 += s13; s5 = Integer.rotateRight(s5 ^ s9, 7);
+		s2 += s6 + m4; s14 = Integer.rotateRight(s14 ^ s2, 16);
+		s10 += s14; s6 = Integer.rotateRight(s6 ^ s10, 12);
+		s2 += s6 + m5; s14 = Integer.rotateRight(s14 ^ s2, 8);
+		s10 += s14; s6 = Integer.rotateRight(s6 ^ s10, 7);
+		s3 += s7 + m6; s15 = Integer.rotateRight(s15 ^ s3, 16);
+		s11 += s15; s7 = Integer.rotateRight(s7 ^ s11, 12);
+		s3 += s7 + m7; s15 = Integer.rotateRight(s15 ^ s3, 8);
+		s11 += s15; s7 = Integer.rotateRight(s7 ^ s11, 7);
+		s0 += s5 + m8; s15 = Integer.rotateRight(s15 ^ s0, 16);
+		s10 += s15; s5 = Integer.rotateRight(s5 ^ s10, 12);
+		s0 += s5 + m9; s15 = Integer.rotateRight(s15 ^ s0, 8);
+		s10 += s15; s5 = Integer.rotateRight(s5 ^ s10, 7);
+		s1 += s6 + m10; s12 = Integer.rotateRight(s12 ^ s1, 16);
+		s11 += s12; s6 = Integer.rotateRight(s6 ^ s11, 12);
+		s1 += s6 + m11; s12 = Integer.rotateRight(s12 ^ s1, 8);
+		s11 += s12; s6 = Integer.rotateRight(s6 ^ s11, 7);
+		s2 += s7 + m12; s13 = Integer.rotateRight(s13 ^ s2, 16);
+		s8 += s13; s7 = Integer.rotateRight(s7 ^ s8, 12);
+		s2 += s7 + m13; s13 = Integer.rotateRight(s13 ^ s2, 8);
+		s8 += s13; s7 = Integer.rotateRight(s7 ^ s8, 7);
+		s3 += s4 + m14; s14 = Integer.rotateRight(s14 ^ s3, 16);
+		s9 += s14; s4 = Integer.rotateRight(s4 ^ s9, 12);
+		s3 += s4 + m15; s14 = Integer.rotateRight(s14 ^ s3, 8);
+		s9 += s14; s4 = Integer.rotateRight(s4 ^ s9, 7);
+
+		// Round 2
+		s0 += s4 + m2; s12 = Integer.rotateRight(s12 ^ s0, 16);
+		s8 += s12; s4 = Integer.rotateRight(s4 ^ s8, 12);
+		s0 += s4 + m6; s12 = Integer.rotateRight(s12 ^ s0, 8);
+		s8 += s12; s4 = Integer.rotateRight(s4 ^ s8, 7);
+		s1 += s5 + m3; s13 = Integer.rotateRight(s13 ^ s1, 16);
+		s9 += s13; s5 = Integer.rotateRight(s5 ^ s9, 12);
+		s1 += s5 + m10; s13 = Integer.rotateRight(s13 ^ s1, 8);
+		s9 += s13; s5 = Integer.rotateRight(s5 ^ s9, 7);
+		s2 += s6 + m7; s14 = Integer.rotateRight(s14 ^ s2, 16);
+		s10 += s14; s6 = Integer.rotateRight(s6 ^ s10, 12);
+		s2 += s6 + m0; s14 = Integer.rotateRight(s14 ^ s2, 8);
+		s10 += s14; s6 = Integer.rotateRight(s6 ^ s10, 7);
+		s3 += s7 + m4; s15 = Integer.rotateRight(s15 ^ s3, 16);
+		s11 += s15; s7 = Integer.rotateRight(s7 ^ s11, 12);
+		s3 += s7 + m13; s15 = Integer.rotateRight(s15 ^ s3, 8);
+		s11 += s15; s7 = Integer.rotateRight(s7 ^ s11, 7);
+		s0 += s5 + m1; s15 = Integer.rotateRight(s15 ^ s0, 16);
+		s10 += s15; s5 = Integer.rotateRight(s5 ^ s10, 12);
+		s0 += s5 + m11; s15 = Integer.rotateRight(s15 ^ s0, 8);
+		s10 += s15; s5 = Integer.rotateRight(s5 ^ s10, 7);
+		s1 += s6 + m12; s12 = Integer.rotateRight(s12 ^ s1, 16);
+		s11 += s12; s6 = Integer.rotateRight(s6 ^ s11, 12);
+		s1 += s6 + m5; s12 = Integer.rotateRight(s12 ^ s1, 8);
+		s11 += s12; s6 = Integer.rotateRight(s6 ^ s11, 7);
+		s2 += s7 + m9; s13 = Integer.rotateRight(s13 ^ s2, 16);
+		s8 += s13; s7 = Integer.rotateRight(s7 ^ s8, 12);
+		s2 += s7 + m14; s13 = Integer.rotateRight(s13 ^ s2, 8);
+		s8 += s13; s7 = Integer.rotateRight(s7 ^ s8, 7);
+		s3 += s4 + m15; s14 = Integer.rotateRight(s14 ^ s3, 16);
+		s9 += s14; s4 = Integer.rotateRight(s4 ^ s9, 12);
+		s3 += s4 + m8; s14 = Integer.rotateRight(s14 ^ s3, 8);
+		s9 += s14; s4 = Integer.rotateRight(s4 ^ s9, 7);
+
+		// Round 3
+		s0 += s4 + m3; s12 = Integer.rotateRight(s12 ^ s0, 16);
+		s8 += s12; s4 = Integer.rotateRight(s4 ^ s8, 12);
+		s0 += s4 + m4; s12 = Integer.rotateRight(s12 ^ s0, 8);
+		s8 += s12; s4 = Integer.rotateRight(s4 ^ s8, 7);
+		s1 += s5 + m10; s13 = Integer.rotateRight(s13 ^ s1, 16);
+		s9 += s13; s5 = Integer.rotateRight(s5 ^ s9, 12);
+		s1 += s5 + m12; s13 = Integer.rotateRight(s13 ^ s1, 8);
+		s9 += s13; s5 = Integer.rotateRight(s5 ^ s9, 7);
+		s2 += s6 + m13; s14 = Integer.rotateRight(s14 ^ s2, 16);
+		s10 += s14; s6 = Integer.rotateRight(s6 ^ s10, 12);
+		s2 += s6 + m2; s14 = Integer.rotateRight(s14 ^ s2, 8);
+		s10 += s14; s6 = Integer.rotateRight(s6 ^ s10, 7);
+		s3 += s7 + m7; s15 = Integer.rotateRight(s15 ^ s3, 16);
+		s11 += s15; s7 = Integer.rotateRight(s7 ^ s11, 12);
+		s3 += s7 + m14; s15 = Integer.rotateRight(s15 ^ s3, 8);
+		s11 += s15; s7 = Integer.rotateRight(s7 ^ s11, 7);
+		s0 += s5 + m6; s15 = Integer.rotateRight(s15 ^ s0, 16);
+		s10 += s15; s5 = Integer.rotateRight(s5 ^ s10, 12);
+		s0 += s5 + m5; s15 = Integer.rotateRight(s15 ^ s0, 8);
+		s10 += s15; s5 = Integer.rotateRight(s5 ^ s10, 7);
+		s1 += s6 + m9; s12 = Integer.rotateRight(s12 ^ s1, 16);
+		s11 += s12; s6 = Integer.rotateRight(s6 ^ s11, 12);
+		s1 += s6 + m0; s12 = Integer.rotateRight(s12 ^ s1, 8);
+		s11 += s12; s6 = Integer.rotateRight(s6 ^ s11, 7);
+		s2 += s7 + m11; s13 = Integer.rotateRight(s13 ^ s2, 16);
+		s8 += s13; s7 = Integer.rotateRight(s7 ^ s8, 12);
+		s2 += s7 + m15; s13 = Integer.rotateRight(s13 ^ s2, 8);
+		s8 += s13; s7 = Integer.rotateRight(s7 ^ s8, 7);
+		s3 += s4 + m8; s14 = Integer.rotateRight(s14 ^ s3, 16);
+		s9 += s14; s4 = Integer.rotateRight(s4 ^ s9, 12);
+		s3 += s4 + m1; s14 = Integer.rotateRight(s14 ^ s3, 8);
+		s9 += s14; s4 = Integer.rotateRight(s4 ^ s9, 7);
+
+		// Round 4
+		s0 += s4 + m10; s12 = Integer.rotateRight(s12 ^ s0, 16);
+		s8 += s12; s4 = Integer.rotateRight(s4 ^ s8, 12);
+		s0 += s4 + m7; s12 = Integer.rotateRight(s12 ^ s0, 8);
+		s8 += s12; s4 = Integer.rotateRight(s4 ^ s8, 7);
+		s1 += s5 + m12; s13 = Integer.rotateRight(s13 ^ s1, 16);
+		s9 += s13; s5 = Integer.rotateRight(s5 ^ s9, 12);
+		s1 += s5 + m9; s13 = Integer.rotateRight(s13 ^ s1, 8);
+		s9 += s13; s5 = Integer.rotateRight(s5 ^ s9, 7);
+		s2 += s6 + m14; s14 = Integer.rotateRight(s14 ^ s2, 16);
+		s10 += s14; s6 = Integer.rotateRight(s6 ^ s10, 12);
+		s2 += s6 + m3; s14 = Integer.rotateRight(s14 ^ s2, 8);
+		s10 += s14; s6 = Integer.rotateRight(s6 ^ s10, 7);
+		s3 += s7 + m13; s15 = Integer.rotateRight(s15 ^ s3, 16);
+		s11 += s15; s7 = Integer.rotateRight(s7 ^ s11, 12);
+		s3 += s7 + m15; s15 = Integer.rotateRight(s15 ^ s3, 8);
+		s11 += s15; s7 = Integer.rotateRight(s7 ^ s11, 7);
+		s0 += s5 + m4; s15 = Integer.rotateRight(s15 ^ s0, 16);
+		s10 += s15; s5 = Integer.rotateRight(s5 ^ s10, 12);
+		s0 += s5 + m0; s15 = Integer.rotateRight(s15 ^ s0, 8);
+		s10 += s15; s5 = Integer.rotateRight(s5 ^ s10, 7);
+		s1 += s6 + m11; s12 = Integer.rotateRight(s12 ^ s1, 16);
+		s11 += s12; s6 = Integer.rotateRight(s6 ^ s11, 12);
+		s1 += s6 + m2; s12 = Integer.rotateRight(s12 ^ s1, 8);
+		s11 += s12; s6 = Integer.rotateRight(s6 ^ s11, 7);
+		s2 += s7 + m5; s13 = Integer.rotateRight(s13 ^ s2, 16);
+		s8 += s13; s7 = Integer.rotateRight(s7 ^ s8, 12);
+		s2 += s7 + m8; s13 = Integer.rotateRight(s13 ^ s2, 8);
+		s8 += s13; s7 = Integer.rotateRight(s7 ^ s8, 7);
+		s3 += s4 + m1; s14 = Integer.rotateRight(s14 ^ s3, 16);
+		s9 += s14; s4 = Integer.rotateRight(s4 ^ s9, 12);
+		s3 += s4 + m6; s14 = Integer.rotateRight(s14 ^ s3, 8);
+		s9 += s14; s4 = Integer.rotateRight(s4 ^ s9, 7);
+
+		// Round 5
+		s0 += s4 + m12; s12 = Integer.rotateRight(s12 ^ s0, 16);
+		s8 += s12; s4 = Integer.rotateRight(s4 ^ s8, 12);
+		s0 += s4 + m13; s12 = Integer.rotateRight(s12 ^ s0, 8);
+		s8 += s12; s4 = Integer.rotateRight(s4 ^ s8, 7);
+		s1 += s5 + m9; s13 = Integer.rotateRight(s13 ^ s1, 16);
+		s9 += s13; s5 = Integer.rotateRight(s5 ^ s9, 12);
+		s1 += s5 + m11; s13 = Integer.rotateRight(s13 ^ s1, 8);
+		s9 += s13; s5 = Integer.rotateRight(s5 ^ s9, 7);
+		s2 += s6 + m15; s14 = Integer.rotateRight(s14 ^ s2, 16);
+		s10 += s14; s6 = Integer.rotateRight(s6 ^ s10, 12);
+		s2 += s6 + m10; s14 = Integer.rotateRight(s14 ^ s2, 8);
+		s10 += s14; s6 = Integer.rotateRight(s6 ^ s10, 7);
+		s3 += s7 + m14; s15 = Integer.rotateRight(s15 ^ s3, 16);
+		s11 += s15; s7 = Integer.rotateRight(s7 ^ s11, 12);
+		s3 += s7 + m8; s15 = Integer.rotateRight(s15 ^ s3, 8);
+		s11 += s15; s7 = Integer.rotateRight(s7 ^ s11, 7);
+		s0 += s5 + m7; s15 = Integer.rotateRight(s15 ^ s0, 16);
+		s10 += s15; s5 = Integer.rotateRight(s5 ^ s10, 12);
+		s0 += s5 + m2; s15 = Integer.rotateRight(s15 ^ s0, 8);
+		s10 += s15; s5 = Integer.rotateRight(s5 ^ s10, 7);
+		s1 += s6 + m5; s12 = Integer.rotateRight(s12 ^ s1, 16);
+		s11 += s12; s6 = Integer.rotateRight(s6 ^ s11, 12);
+		s1 += s6 + m3; s12 = Integer.rotateRight(s12 ^ s1, 8);
+		s11 += s12; s6 = Integer.rotateRight(s6 ^ s11, 7);
+		s2 += s7 + m0; s13 = Integer.rotateRight(s13 ^ s2, 16);
+		s8 += s13; s7 = Integer.rotateRight(s7 ^ s8, 12);
+		s2 += s7 + m1; s13 = Integer.rotateRight(s13 ^ s2, 8);
+		s8 += s13; s7 = Integer.rotateRight(s7 ^ s8, 7);
+		s3 += s4 + m6; s14 = Integer.rotateRight(s14 ^ s3, 16);
+		s9 += s14; s4 = Integer.rotateRight(s4 ^ s9, 12);
+		s3 += s4 + m4; s14 = Integer.rotateRight(s14 ^ s3, 8);
+		s9 += s14; s4 = Integer.rotateRight(s4 ^ s9, 7);
+
+		// Round 6
+		s0 += s4 + m9; s12 = Integer.rotateRight(s12 ^ s0, 16);
+		s8 += s12; s4 = Integer.rotateRight(s4 ^ s8, 12);
+		s0 += s4 + m14; s12 = Integer.rotateRight(s12 ^ s0, 8);
+		s8 += s12; s4 = Integer.rotateRight(s4 ^ s8, 7);
+		s1 += s5 + m11; s13 = Integer.rotateRight(s13 ^ s1, 16);
+		s9 += s13; s5 = Integer.rotateRight(s5 ^ s9, 12);
+		s1 += s5 + m5; s13 = Integer.rotateRight(s13 ^ s1, 8);
+		s9 += s13; s5 = Integer.rotateRight(s5 ^ s9, 7);
+		s2 += s6 + m8; s14 = Integer.rotateRight(s14 ^ s2, 16);
+		s10 += s14; s6 = Integer.rotateRight(s6 ^ s10, 12);
+		s2 += s6 + m12; s14 = Integer.rotateRight(s14 ^ s2, 8);
+		s10 += s14; s6 = Integer.rotateRight(s6 ^ s10, 7);
+		s3 += s7 + m15; s15 = Integer.rotateRight(s15 ^ s3, 16);
+		s11 += s15; s7 = Integer.rotateRight(s7 ^ s11, 12);
+		s3 += s7 + m1; s15 = Integer.rotateRight(s15 ^ s3, 8);
+		s11 += s15; s7 = Integer.rotateRight(s7 ^ s11, 7);
+		s0 += s5 + m13; s15 = Integer.rotateRight(s15 ^ s0, 16);
+		s10 += s15; s5 = Integer.rotateRight(s5 ^ s10, 12);
+		s0 += s5 + m3; s15 = Integer.rotateRight(s15 ^ s0, 8);
+		s10 += s15; s5 = Integer.rotateRight(s5 ^ s10, 7);
+		s1 += s6 + m0; s12 = Integer.rotateRight(s12 ^ s1, 16);
+		s11 += s12; s6 = Integer.rotateRight(s6 ^ s11, 12);
+		s1 += s6 + m10; s12 = Integer.rotateRight(s12 ^ s1, 8);
+		s11 += s12; s6 = Integer.rotateRight(s6 ^ s11, 7);
+		s2 += s7 + m2; s13 = Integer.rotateRight(s13 ^ s2, 16);
+		s8 += s13; s7 = Integer.rotateRight(s7 ^ s8, 12);
+		s2 += s7 + m6; s13 = Integer.rotateRight(s13 ^ s2, 8);
+		s8 += s13; s7 = Integer.rotateRight(s7 ^ s8, 7);
+		s3 += s4 + m4; s14 = Integer.rotateRight(s14 ^ s3, 16);
+		s9 += s14; s4 = Integer.rotateRight(s4 ^ s9, 12);
+		s3 += s4 + m7; s14 = Integer.rotateRight(s14 ^ s3, 8);
+		s9 += s14; s4 = Integer.rotateRight(s4 ^ s9, 7);
+
+		// Round 7
+		s0 += s4 + m11; s12 = Integer.rotateRight(s12 ^ s0, 16);
+		s8 += s12; s4 = Integer.rotateRight(s4 ^ s8, 12);
+		s0 += s4 + m15; s12 = Integer.rotateRight(s12 ^ s0, 8);
+		s8 += s12; s4 = Integer.rotateRight(s4 ^ s8, 7);
+		s1 += s5 + m5; s13 = Integer.rotateRight(s13 ^ s1, 16);
+		s9 += s13; s5 = Integer.rotateRight(s5 ^ s9, 12);
+		s1 += s5 + m0; s13 = Integer.rotateRight(s13 ^ s1, 8);
+		s9 += s13; s5 = Integer.rotateRight(s5 ^ s9, 7);
+		s2 += s6 + m1; s14 = Integer.rotateRight(s14 ^ s2, 16);
+		s10 += s14; s6 = Integer.rotateRight(s6 ^ s10, 12);
+		s2 += s6 + m9; s14 = Integer.rotateRight(s14 ^ s2, 8);
+		s10 += s14; s6 = Integer.rotateRight(s6 ^ s10, 7);
+		s3 += s7 + m8; s15 = Integer.rotateRight(s15 ^ s3, 16);
+		s11 += s15; s7 = Integer.rotateRight(s7 ^ s11, 12);
+		s3 += s7 + m6; s15 = Integer.rotateRight(s15 ^ s3, 8);
+		s11 += s15; s7 = Integer.rotateRight(s7 ^ s11, 7);
+		s0 += s5 + m14; s15 = Integer.rotateRight(s15 ^ s0, 16);
+		s10 += s15; s5 = Integer.rotateRight(s5 ^ s10, 12);
+		s0 += s5 + m10; s15 = Integer.rotateRight(s15 ^ s0, 8);
+		s10 += s15; s5 = Integer.rotateRight(s5 ^ s10, 7);
+		s1 += s6 + m2; s12 = Integer.rotateRight(s12 ^ s1, 16);
+		s11 += s12; s6 = Integer.rotateRight(s6 ^ s11, 12);
+		s1 += s6 + m12; s12 = Integer.rotateRight(s12 ^ s1, 8);
+		s11 += s12; s6 = Integer.rotateRight(s6 ^ s11, 7);
+		s2 += s7 + m3; s13 = Integer.rotateRight(s13 ^ s2, 16);
+		s8 += s13; s7 = Integer.rotateRight(s7 ^ s8, 12);
+		s2 += s7 + m4; s13 = Integer.rotateRight(s13 ^ s2, 8);
+		s8 += s13; s7 = Integer.rotateRight(s7 ^ s8, 7);
+		s3 += s4 + m7; s14 = Integer.rotateRight(s14 ^ s3, 16);
+		s9 += s14; s4 = Integer.rotateRight(s4 ^ s9, 12);
+		s3 += s4 + m13; s14 = Integer.rotateRight(s14 ^ s3, 8);
+		s9 += s14; s4 = Integer.rotateRight(s4 ^ s9, 7);
+
+		out[0] = s0 ^ s8;
+		out[1] = s1 ^ s9;
+		out[2] = s2 ^ s10;
+		out[3] = s3 ^ s11;
+		out[4] = s4 ^ s12;
+		out[5] = s5 ^ s13;
+		out[6] = s6 ^ s14;
+		out[7] = s7 ^ s15;
+		out[8] = s8 ^ chainingValue[0];
+		out[9] = s9 ^ chainingValue[1];
+		out[10] = s10 ^ chainingValue[2];
+		out[11] = s11 ^ chainingValue[3];
+		out[12] = s12 ^ chainingValue[4];
+		out[13] = s13 ^ chainingValue[5];
+		out[14] = s14 ^ chainingValue[6];
+		out[15] = s15 ^ chainingValue[7];
+	}
+
+	private static void readBlockWords(byte[] bytes, int offset, int[] words) {
+		for (int i = 0; i < 16; i++) {
+			int j = offset + i * 4;
+			words[i] = (bytes[j] & 0xff) | (bytes[j + 1] & 0xff) << 8 | (bytes[j + 2] & 0xff) << 16 | (bytes[j + 3] & 0xff) << 24;
+		}
+	}
+}
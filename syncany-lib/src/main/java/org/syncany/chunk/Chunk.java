@@ -21,6 +21,11 @@ package org.syncany.chunk;
  * A chunk represent a certain part of a file. It is created during the
  * deduplication process by a {@link Chunker}. 
  * 
+ * <p>The contents of a chunk may be backed by a pooled {@link ChunkBuffer}. In that case,
+ * the chunk holds a reference to the buffer, and the consumer of the chunk (usually the
+ * {@link Deduper}) should call {@link #release()} once it is done with the chunk, so that
+ * the buffer can be returned to the {@link ChunkBufferPool}.
+ * 
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
 public class Chunk {
@@ -28,18 +33,38 @@ public class Chunk {
     private byte[] contents;
     private int size;
     private byte[] fileChecksum;
+    private ChunkBuffer buffer;
 
     /*package*/ Chunk(byte[] checksum, byte[] contents, int size, byte[] fileChecksum) {
         this.checksum = checksum;
         this.contents = contents;
         this.size = size;
         this.fileChecksum = fileChecksum;
+        this.buffer = null;
+    }
+
+    /**
+     * Creates a chunk backed by a pooled buffer. The chunk takes over the given
+     * reference to the buffer, i.e. the caller must {@link ChunkBuffer#retain() retain} 
+     * the buffer if it continues to use it itself.
+     */
+    /*package*/ Chunk(byte[] checksum, ChunkBuffer buffer, int size, byte[] fileChecksum) {
+        this(checksum, buffer.getArray(), size, fileChecksum);
+        this.buffer = buffer;
     }
 
     public byte[] getChecksum() {
         return checksum;
     }
 
+    /**
+     * Returns the contents of this chunk. Only the first {@link #getSize()} bytes
+     * of the returned array belong to the chunk.
+     * 
+     * <p><b>Note:</b> Chunkers may reuse the underlying array for the next chunk. The
+     * contents are hence only valid until the next chunk is requested from the
+     * {@link Chunker.ChunkEnumeration ChunkEnumeration}.
+     */
     public byte[] getContent() {
         return contents;
     }
@@ -50,5 +75,19 @@ public class Chunk {
 
     public int getSize() {
         return size;
-    }                
+    }
+    
+    /**
+     * Releases the chunk's reference to its pooled buffer (if any). After the chunk has
+     * been released, its contents must not be used anymore; checksum, size and file checksum 
+     * remain valid. Calling this method more than once has no effect.
+     */
+    public void release() {
+        if (buffer != null) {
+            buffer.release();
+            
+            buffer = null;
+            contents = null;
+        }
+    }
 }
\ No newline at end of file
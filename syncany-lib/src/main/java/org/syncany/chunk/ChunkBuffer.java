@@ -0,0 +1,94 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A reference-counted byte buffer acquired from a {@link ChunkBufferPool}. A buffer
+ * starts with a reference count of one when it is acquired. Every additional owner
+ * (e.g. a {@link Chunk} borrowing the buffer of a chunk enumeration) must call
+ * {@link #retain()}, and every owner must call {@link #release()} when it is done
+ * with the buffer. Once the last reference is released, the underlying array is
+ * returned to the pool and must not be used anymore.
+ *
+ * <p>Forgetting to release a buffer is harmless: The array is simply garbage collected
+ * instead of being reused.
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class ChunkBuffer {
+	private ChunkBufferPool pool;
+	private byte[] array;
+	private AtomicInteger referenceCount;
+
+	/*package*/ ChunkBuffer(ChunkBufferPool pool, byte[] array) {
+		this.pool = pool;
+		this.array = array;
+		this.referenceCount = new AtomicInteger(1);
+	}
+
+	/**
+	 * Returns the underlying array. The array may be larger than the size
+	 * requested from the pool.
+	 */
+	public byte[] getArray() {
+		return array;
+	}
+
+	/**
+	 * Adds a reference to this buffer.
+	 *
+	 * @return This buffer
+	 * @throws IllegalStateException If the buffer has already been returned to the pool
+	 */
+	public ChunkBuffer retain() {
+		while (true) {
+			int count = referenceCount.get();
+
+			if (count <= 0) {
+				throw new IllegalStateException("Chunk buffer has already been released.");
+			}
+
+			if (referenceCount.compareAndSet(count, count + 1)) {
+				return this;
+			}
+		}
+	}
+
+	/**
+	 * Removes a reference from this buffer, and returns the array to the pool if
+	 * this was the last reference.
+	 *
+	 * @throws IllegalStateException If the buffer has already been returned to the pool
+	 */
+	public void release() {
+		int count = referenceCount.decrementAndGet();
+
+		if (count == 0) {
+			pool.recycle(array);
+		}
+		else if (count < 0) {
+			throw new IllegalStateException("Chunk buffer has already been released.");
+		}
+	}
+
+	public int getReferenceCount() {
+		return referenceCount.get();
+	}
+}
@@ -0,0 +1,184 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe pool of byte arrays used for chunk contents, chunker read buffers and
+ * the like. Instead of allocating a new array for every file or every chunk, the
+ * chunk enumerations and the {@link ChunkPrefetcher} {@link #acquire(int) acquire} a
+ * reference-counted {@link ChunkBuffer} from the pool, and the array is returned
+ * to the pool when the last reference is {@link ChunkBuffer#release() released}.
+ *
+ * <p>Arrays are grouped by size classes: Requests up to {@link #LARGE_BUFFER_SIZE} bytes
+ * are rounded up to the next power of two (min. {@link #MIN_BUFFER_SIZE}), larger requests
+ * to the next multiple of {@link #LARGE_BUFFER_SIZE}. The pool retains at most
+ * <tt>maxPooledBytes</tt> bytes; arrays returned beyond that are left to the garbage collector.
+ *
+ * <p>Pooled arrays are kept in array-based queues (one per size class), so that returning
+ * an array to the pool does not create any garbage itself.
+ *
+ * <p>The pool counts how many buffers were requested and how many of them had to be newly
+ * allocated, so that the effect of pooling can be monitored (see {@link AllocationMetrics}).
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class ChunkBufferPool {
+	public static final int MIN_BUFFER_SIZE = 1024;
+	public static final int LARGE_BUFFER_SIZE = 1024 * 1024;
+	public static final long DEFAULT_MAX_POOLED_BYTES = 64 * 1024 * 1024;
+
+	private static final ChunkBufferPool defaultPool = new ChunkBufferPool(DEFAULT_MAX_POOLED_BYTES);
+
+	private long maxPooledBytes;
+	private ConcurrentMap<Integer, ArrayDeque<byte[]>> pooledArrays;
+	private AtomicLong pooledBytes;
+
+	private AtomicLong acquireCount;
+	private AtomicLong allocationCount;
+	private AtomicLong allocatedBytes;
+
+	public ChunkBufferPool(long maxPooledBytes) {
+		this.maxPooledBytes = maxPooledBytes;
+		this.pooledArrays = new ConcurrentHashMap<Integer, ArrayDeque<byte[]>>();
+		this.pooledBytes = new AtomicLong(0);
+
+		this.acquireCount = new AtomicLong(0);
+		this.allocationCount = new AtomicLong(0);
+		this.allocatedBytes = new AtomicLong(0);
+	}
+
+	/**
+	 * Returns the pool shared by all chunkers.
+	 */
+	public static ChunkBufferPool getDefaultPool() {
+		return defaultPool;
+	}
+
+	/**
+	 * Returns a buffer of at least the given size, with a reference count of one. The
+	 * array is taken from the pool if possible, and newly allocated otherwise. The
+	 * contents of a pooled array are not cleared.
+	 *
+	 * @param minSize Minimum size of the returned array in bytes
+	 * @return Buffer with an array of at least <tt>minSize</tt> bytes
+	 */
+	public ChunkBuffer acquire(int minSize) {
+		int sizeClass = getSizeClass(minSize);
+		ArrayDeque<byte[]> arrays = pooledArrays.get(sizeClass);
+		byte[] array = null;
+
+		if (arrays != null) {
+			synchronized (arrays) {
+				array = arrays.poll();
+			}
+		}
+
+		acquireCount.incrementAndGet();
+
+		if (array != null) {
+			pooledBytes.addAndGet(-array.length);
+		}
+		else {
+			array = new byte[sizeClass];
+
+			allocationCount.incrementAndGet();
+			allocatedBytes.addAndGet(sizeClass);
+		}
+
+		return new ChunkBuffer(this, array);
+	}
+
+	/**
+	 * Removes all arrays from the pool (but keeps the statistics).
+	 */
+	public void clear() {
+		for (ArrayDeque<byte[]> arrays : pooledArrays.values()) {
+			synchronized (arrays) {
+				byte[] array;
+
+				while ((array = arrays.poll()) != null) {
+					pooledBytes.addAndGet(-array.length);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of buffers requested via {@link #acquire(int)}.
+	 */
+	public long getAcquireCount() {
+		return acquireCount.get();
+	}
+
+	/**
+	 * Returns the number of buffers that could not be taken from the pool, and had to be
+	 * newly allocated.
+	 */
+	public long getAllocationCount() {
+		return allocationCount.get();
+	}
+
+	/**
+	 * Returns the total size of all newly allocated arrays in bytes.
+	 */
+	public long getAllocatedBytes() {
+		return allocatedBytes.get();
+	}
+
+	/**
+	 * Returns the total size of the arrays currently held by the pool in bytes.
+	 */
+	public long getPooledBytes() {
+		return pooledBytes.get();
+	}
+
+	/*package*/ void recycle(byte[] array) {
+		if (pooledBytes.addAndGet(array.length) > maxPooledBytes) {
+			pooledBytes.addAndGet(-array.length);
+			return; // Pool full, leave array to GC
+		}
+
+		ArrayDeque<byte[]> arrays = pooledArrays.get(array.length);
+
+		if (arrays == null) {
+			pooledArrays.putIfAbsent(array.length, new ArrayDeque<byte[]>());
+			arrays = pooledArrays.get(array.length);
+		}
+
+		synchronized (arrays) {
+			arrays.offer(array);
+		}
+	}
+
+	private static int getSizeClass(int size) {
+		if (size <= MIN_BUFFER_SIZE) {
+			return MIN_BUFFER_SIZE;
+		}
+		else if (size <= LARGE_BUFFER_SIZE) {
+			return Integer.highestOneBit(size - 1) << 1;
+		}
+		else {
+			return ((size - 1) / LARGE_BUFFER_SIZE + 1) * LARGE_BUFFER_SIZE;
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.Security;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Security provider that makes additional (faster) chunk and file checksum
+ * algorithms available via {@link MessageDigest#getInstance(String)}. Because all
+ * parts of the application (chunkers, assembler, file comparison, etc.) create
+ * their digests by name, registering this provider is all that is needed to use
+ * these algorithms end-to-end.
+ *
+ * <p>The provider is registered by {@link #init()}, which is called whenever the
+ * {@link Chunker} class is loaded. Supported algorithms are:
+ *
+ * <ul>
+ *  <li>{@link Blake2bDigest#ALGORITHM_160 BLAKE2B-160}: BLAKE2b with a 160-bit checksum (same width as SHA1)</li>
+ *  <li>{@link Blake2bDigest#ALGORITHM_256 BLAKE2B-256}: BLAKE2b with a 256-bit checksum</li>
+ *  <li>{@link Blake3Digest#ALGORITHM BLAKE3-256}: BLAKE3 with a 256-bit checksum</li>
+ * </ul>
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class ChunkDigestProvider extends Provider {
+	private static final long serialVersionUID = -5367434120523578117L;
+
+	public static final String PROVIDER_ID = "SyncanyDigest";
+	private static final AtomicBoolean initialized = new AtomicBoolean(false);
+
+	public ChunkDigestProvider() {
+		super(PROVIDER_ID, 1.0, "Syncany chunk digest provider (BLAKE2b, BLAKE3)");
+
+		put("MessageDigest." + Blake2bDigest.ALGORITHM_160, Blake2bDigest.Blake2b160.class.getName());
+		put("MessageDigest." + Blake2bDigest.ALGORITHM_256, Blake2bDigest.Blake2b256.class.getName());
+		put("MessageDigest." + Blake3Digest.ALGORITHM, Blake3Digest.class.getName());
+	}
+
+	/**
+	 * Registers the provider (if it has not been registered before).
+	 */
+	public static synchronized void init() {
+		if (!initialized.get()) {
+			if (Security.getProvider(PROVIDER_ID) == null) {
+				Security.addProvider(new ChunkDigestProvider());
+			}
+
+			initialized.set(true);
+		}
+	}
+
+	/**
+	 * Checks whether the given digest algorithm is available, i.e. whether it is
+	 * provided by the JRE, by Bouncy Castle or by this provider.
+	 *
+	 * @param digestAlgorithm Digest algorithm, e.g. SHA1 or BLAKE2B-160
+	 * @throws IllegalArgumentException If the algorithm is not available
+	 */
+	public static void checkAlgorithm(String digestAlgorithm) {
+		init();
+
+		try {
+			MessageDigest.getInstance(digestAlgorithm);
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalArgumentException("Digest algorithm not available: " + digestAlgorithm, e);
+		}
+	}
+}
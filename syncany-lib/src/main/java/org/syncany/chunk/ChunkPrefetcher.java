@@ -0,0 +1,432 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.syncany.chunk.Chunker.ChunkEnumeration;
+import org.syncany.chunk.Chunker.SingleChunkEnumeration;
+
+/**
+ * The chunk prefetcher implements the first stage of the {@link Deduper} pipeline: 
+ * It chunks and hashes files ahead of the deduplication on multiple worker threads,
+ * so that the (single-threaded) deduplication stage only has to look up and write
+ * the chunks.
+ * 
+ * <p>Files are chunked in the order of the given file list, at most <tt>threads</tt> files 
+ * ahead of the file that is currently deduplicated. Chunks are handed to the deduplication
+ * stage via a small bounded queue per file, so that the memory used for prefetched chunks 
+ * is bounded even for very large files.
+ * 
+ * <p>Consecutive small files (see {@link Chunker#isSmallFile(long)}) are prefetched in batches
+ * of up to {@value #SMALL_FILE_BATCH_SIZE} files by a single worker task, so that the per-file
+ * overhead of submitting and scheduling tasks does not dominate the (tiny) chunking work.
+ * 
+ * <p>Files must be requested in ascending order via {@link #getChunks(int)}. Because the
+ * {@link DeduperListener} captures the file properties when a file is started, a prefetched
+ * file is only used if its size and modification date have not changed since the worker 
+ * started reading it. Otherwise, the caller must chunk the file itself.
+ * 
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class ChunkPrefetcher {
+	private static final Logger logger = Logger.getLogger(ChunkPrefetcher.class.getSimpleName());
+	private static final int CHUNK_QUEUE_SIZE = 8;
+	private static final long CHUNK_QUEUE_OFFER_TIMEOUT_MILLIS = 100;
+	private static final int SMALL_FILE_BATCH_SIZE = 256;
+	private static final long SMALL_FILE_BATCH_MAX_BYTES = 4 * 1024 * 1024;
+	
+	private Chunker chunker;
+	private List<File> files;
+	private int threads;
+	private ExecutorService executor;
+	
+	private PrefetchTask[] tasks;
+	private int nextFileIndexToSubmit;
+	
+	public ChunkPrefetcher(Chunker chunker, List<File> files, int threads) {
+		this.chunker = chunker;
+		this.files = files;
+		this.threads = threads;
+		this.executor = Executors.newFixedThreadPool(threads, new PrefetchThreadFactory());
+		
+		this.tasks = new PrefetchTask[files.size()];
+		this.nextFileIndexToSubmit = 0;
+	}
+	
+	/**
+	 * Returns the prefetched chunks of the file with the given index, or <tt>null</tt> if the
+	 * file cannot be prefetched (not a regular file, or changed since it was read). Files with
+	 * a lower index that have not been requested are discarded.
+	 *  
+	 * @param fileIndex Index of the file in the file list; must be larger than the index of the last call
+	 * @return Enumeration of the file's chunks, or <tt>null</tt> if the file must be chunked by the caller
+	 */
+	public ChunkEnumeration getChunks(int fileIndex) {
+		discardBefore(fileIndex);
+		submitTasks(fileIndex + threads);
+		
+		PrefetchTask task = tasks[fileIndex];
+		tasks[fileIndex] = null;
+		
+		if (task == null) {
+			return null;
+		}
+		
+		File file = files.get(fileIndex);
+		
+		if (task.startLength != file.length() || task.startLastModified != file.lastModified()) {
+			logger.log(Level.FINE, "- File changed after prefetching started, discarding prefetched chunks: {0}", file);
+			
+			task.cancel();
+			return null;
+		}
+		
+		return task;
+	}
+	
+	/**
+	 * Stops all worker threads and discards all prefetched chunks.
+	 */
+	public void close() {
+		discardBefore(tasks.length);
+		executor.shutdownNow();
+	}
+	
+	private void discardBefore(int fileIndex) {
+		for (int i = 0; i < Math.min(fileIndex, nextFileIndexToSubmit); i++) {
+			if (tasks[i] != null) {
+				tasks[i].cancel();
+				tasks[i] = null;
+			}
+		}
+	}
+	
+	private void submitTasks(int maxFileIndex) {
+		while (nextFileIndexToSubmit < files.size() && nextFileIndexToSubmit <= maxFileIndex) {
+			File file = files.get(nextFileIndexToSubmit);
+			
+			if (isSmallFile(file)) {
+				submitSmallFileBatch();
+			}
+			else {
+				if (file.isFile()) {
+					PrefetchTask task = new PrefetchTask(file);
+					task.future = executor.submit(task);
+					
+					tasks[nextFileIndexToSubmit] = task;
+				}
+				
+				nextFileIndexToSubmit++;
+			}
+		}
+	}
+	
+	/**
+	 * Submits a batch of consecutive small files (starting at the next file to submit) 
+	 * as a single worker task. The batch ends at the first file that is not a small file,
+	 * or if the maximum number of files or bytes per batch is reached.
+	 */
+	private void submitSmallFileBatch() {
+		List<PrefetchTask> batchTasks = new ArrayList<PrefetchTask>();
+		long batchBytes = 0;
+		
+		while (nextFileIndexToSubmit < files.size() && batchTasks.size() < SMALL_FILE_BATCH_SIZE && batchBytes < SMALL_FILE_BATCH_MAX_BYTES) {
+			File file = files.get(nextFileIndexToSubmit);
+			
+			if (!isSmallFile(file)) {
+				break;
+			}
+			
+			PrefetchTask task = new PrefetchTask(file);
+			
+			tasks[nextFileIndexToSubmit] = task;
+			batchTasks.add(task);
+			
+			batchBytes += task.startLength;
+			nextFileIndexToSubmit++;
+		}
+		
+		executor.submit(new SmallFileBatchTask(batchTasks));
+	}
+	
+	private boolean isSmallFile(File file) {
+		return chunker.isSmallFile(file.length()) && file.isFile();
+	}
+	
+	/**
+	 * Prefetches a batch of small files on a single worker thread, one after the other.
+	 * Cancelled files are skipped. 
+	 */
+	private class SmallFileBatchTask implements Callable<Void> {
+		private List<PrefetchTask> batchTasks;
+		
+		public SmallFileBatchTask(List<PrefetchTask> batchTasks) {
+			this.batchTasks = batchTasks;
+		}
+		
+		@Override
+		public Void call() throws Exception {
+			for (PrefetchTask task : batchTasks) {
+				if (Thread.currentThread().isInterrupted()) {
+					break;
+				}
+				
+				if (!task.cancelled) {
+					task.call();
+				}
+			}
+			
+			return null;
+		}
+	}
+	
+	/**
+	 * Chunks a single file on a worker thread and emits the chunks (in order) to the
+	 * deduplication stage. Emitted chunks are copies (backed by buffers from the chunker's
+	 * {@link ChunkBufferPool}), because chunkers reuse their chunk buffers. Only chunks of 
+	 * small files are emitted as is, because they own their buffers.
+	 * 
+	 * <p>The task is either submitted on its own, or as part of a {@link SmallFileBatchTask}.
+	 * In the latter case, it has no future of its own; {@link #cancel()} then interrupts the
+	 * batch worker thread, but only while it is still working on this task. Chunks are never 
+	 * put into the queue of a cancelled task, so a worker cannot block on a queue that is 
+	 * no longer read.
+	 */
+	private class PrefetchTask implements Callable<Void>, ChunkEnumeration {
+		private final Chunk END_OF_FILE = new Chunk(null, (byte[]) null, 0, null);
+		
+		private File file;
+		private Future<?> future;
+		private Thread workerThread;
+		private volatile boolean cancelled;
+		private volatile long startLength;
+		private volatile long startLastModified;
+		
+		private BlockingQueue<Chunk> chunkQueue;
+		private Chunk nextChunk;
+		private volatile Exception exception;
+		
+		public PrefetchTask(File file) {
+			this.file = file;
+			this.startLength = file.length();
+			this.startLastModified = file.lastModified();
+			
+			this.chunkQueue = new ArrayBlockingQueue<Chunk>(CHUNK_QUEUE_SIZE);
+			this.nextChunk = null;
+			this.cancelled = false;
+		}
+
+		@Override
+		public Void call() throws Exception {
+			synchronized (this) {
+				if (cancelled) {
+					return null;
+				}
+				
+				workerThread = Thread.currentThread();
+			}
+			
+			try {
+				if (chunkFile()) {
+					emit(END_OF_FILE);
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt(); // Stop the batch (if any), unless only this file was cancelled
+			}
+			finally {
+				synchronized (this) {
+					workerThread = null;
+					
+					if (cancelled) {
+						Thread.interrupted(); // Only this file was cancelled, continue with the batch (if any)
+					}
+				}
+				
+				if (cancelled) {
+					discardChunks();
+				}
+			}
+			
+			return null;
+		}
+		
+		/**
+		 * Chunks the file and emits its chunks. Errors are stored and reported to the 
+		 * deduplication stage when it reaches the end of the file.
+		 * 
+		 * @return Returns <tt>false</tt> if the task was cancelled, <tt>true</tt> otherwise
+		 */
+		private boolean chunkFile() throws InterruptedException {
+			ChunkEnumeration chunkEnumeration = null;
+			
+			try {
+				startLength = file.length();
+				startLastModified = file.lastModified();
+				
+				chunkEnumeration = chunker.createChunks(file);
+				
+				while (chunkEnumeration.hasMoreElements()) {
+					Chunk chunk = chunkEnumeration.nextElement();
+					
+					if (chunk == null) {
+						throw new IOException("Error while retrieving next chunk of " + file);
+					}
+					
+					if (!(chunkEnumeration instanceof SingleChunkEnumeration)) {
+						ChunkBuffer chunkCopyBuffer = chunker.getBufferPool().acquire(chunk.getSize());
+						System.arraycopy(chunk.getContent(), 0, chunkCopyBuffer.getArray(), 0, chunk.getSize());
+						
+						chunk.release();
+						chunk = new Chunk(chunk.getChecksum(), chunkCopyBuffer, chunk.getSize(), chunk.getFileChecksum());
+					}
+					
+					if (!emit(chunk)) {
+						return false;
+					}
+				}
+			}
+			catch (InterruptedException e) {
+				throw e;
+			}
+			catch (Exception e) {
+				exception = e;
+			}
+			finally {
+				if (chunkEnumeration != null) {
+					chunkEnumeration.close();
+				}
+			}
+			
+			return true;
+		}
+		
+		/**
+		 * Puts the given chunk into the queue, unless the task is cancelled. Waiting for 
+		 * free space in the queue is interrupted regularly to check whether the task has 
+		 * been cancelled in the meantime.
+		 * 
+		 * @return Returns <tt>false</tt> if the task was cancelled and the chunk was discarded
+		 */
+		private boolean emit(Chunk chunk) throws InterruptedException {
+			while (!cancelled) {
+				if (chunkQueue.offer(chunk, CHUNK_QUEUE_OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+					return true;
+				}
+			}
+			
+			chunk.release();
+			return false;
+		}
+		
+		@Override
+		public boolean hasMoreElements() {
+			return peek() != END_OF_FILE || exception != null; // nextElement() returns null if an error occurred
+		}
+
+		@Override
+		public Chunk nextElement() {
+			Chunk chunk = peek();
+			
+			if (chunk == END_OF_FILE) {
+				return null;
+			}
+			
+			nextChunk = null;
+			return chunk;
+		}
+
+		@Override
+		public void close() {
+			cancel();
+		}
+		
+		public void cancel() {
+			synchronized (this) {
+				cancelled = true;
+				
+				if (future != null) {
+					future.cancel(true);
+				}
+				else if (workerThread != null) {
+					workerThread.interrupt();
+				}
+			}
+			
+			discardChunks();
+		}
+		
+		/**
+		 * Returns the buffers of discarded chunks to the pool. This is called by both the
+		 * cancelling thread and the worker thread, so that chunks emitted just before the
+		 * cancellation are released as well.
+		 */
+		private void discardChunks() {
+			Chunk discardedChunk;
+			
+			while ((discardedChunk = chunkQueue.poll()) != null) {
+				discardedChunk.release();
+			}
+		}
+		
+		private Chunk peek() {
+			if (nextChunk == null) {
+				try {
+					nextChunk = chunkQueue.take();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					nextChunk = END_OF_FILE;
+				}
+				
+				if (nextChunk == END_OF_FILE && exception != null) {
+					logger.log(Level.SEVERE, "Error while retrieving next chunk.", exception);
+				}
+			}
+			
+			return nextChunk;
+		}
+	}
+	
+	private static class PrefetchThreadFactory implements ThreadFactory {
+		private AtomicInteger threadNumber = new AtomicInteger(1);
+		
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "ChunkPref-" + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+			
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,40 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.io.IOException;
+
+/**
+ * A chunk sink receives the chunks of a {@link MultiChunk} when the multichunk is
+ * walked sequentially with {@link MultiChunk#readAll(ChunkSink) readAll()}, e.g. to
+ * restore, verify or repack the chunks of a multichunk.
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public interface ChunkSink {
+	/**
+	 * Called for each chunk of the multichunk, in the order in which the chunks
+	 * are stored. The given slice is only valid during this call, and does not have
+	 * to be read entirely.
+	 *
+	 * @param chunkSlice Checksum and payload of the chunk
+	 * @return True to continue with the next chunk, false to stop reading the multichunk
+	 * @throws IOException If the chunk cannot be processed; aborts reading the multichunk
+	 */
+	public boolean onChunk(ChunkSlice chunkSlice) throws IOException;
+}
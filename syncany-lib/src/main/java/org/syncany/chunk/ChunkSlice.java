@@ -0,0 +1,213 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A chunk slice is the payload of a single chunk while a {@link MultiChunk} is
+ * read sequentially (see {@link MultiChunk#nextChunkSlice()}). It is an input stream
+ * that only supports bulk reads efficiently, and additionally allows reading the payload
+ * directly into a caller-supplied buffer, or transferring it to a {@link WritableByteChannel}.
+ *
+ * <p>A slice is only valid until the next slice is requested from the multichunk. It
+ * does not have to be read entirely; the multichunk skips the remaining bytes. Closing
+ * a slice does not close the underlying multichunk.
+ *
+ * <p>This default implementation reads from an underlying input stream, limited to the
+ * payload size (if known). Multichunk implementations may override the bulk operations.
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class ChunkSlice extends InputStream {
+	private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+	protected byte[] checksum;
+	protected long size;
+
+	private InputStream in;
+	protected long remaining;
+
+	/**
+	 * Creates a new chunk slice reading the payload from the given input stream.
+	 *
+	 * @param checksum Checksum of the chunk
+	 * @param size Size of the payload in bytes, or -1 if the input stream ends with the payload
+	 * @param in Input stream positioned at the start of the payload
+	 */
+	public ChunkSlice(byte[] checksum, long size, InputStream in) {
+		this.checksum = checksum;
+		this.size = size;
+		this.in = in;
+		this.remaining = (size >= 0) ? size : Long.MAX_VALUE;
+	}
+
+	protected ChunkSlice(byte[] checksum, long size) {
+		this(checksum, size, null);
+	}
+
+	public byte[] getChecksum() {
+		return checksum;
+	}
+
+	/**
+	 * Returns the size of the payload in bytes, or -1 if it is not known
+	 * before the payload has been read entirely.
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] singleByte = new byte[1];
+		return (read(singleByte, 0, 1) == -1) ? -1 : singleByte[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		if (remaining == 0) {
+			return -1;
+		}
+		else if (length == 0) {
+			return 0;
+		}
+
+		int read = in.read(buffer, offset, (int) Math.min(length, remaining));
+
+		if (read == -1) {
+			if (size >= 0) {
+				throw new IOException("Unexpected end of multichunk; chunk payload incomplete.");
+			}
+
+			remaining = 0;
+			return -1;
+		}
+
+		remaining -= read;
+		return read;
+	}
+
+	/**
+	 * Reads the (remaining) payload into the given buffer, starting at the given offset.
+	 *
+	 * @return Number of bytes read
+	 * @throws IOException If the payload does not fit into the buffer, or cannot be read
+	 */
+	public int readFully(byte[] buffer, int offset) throws IOException {
+		int position = offset;
+		int read;
+
+		while (position < buffer.length && -1 != (read = read(buffer, position, buffer.length - position))) {
+			position += read;
+		}
+
+		if (position == buffer.length && read() != -1) {
+			throw new IOException("Chunk payload does not fit into buffer of size " + buffer.length);
+		}
+
+		return position - offset;
+	}
+
+	/**
+	 * Returns the (remaining) payload as a new byte array.
+	 */
+	public byte[] toByteArray() throws IOException {
+		if (size >= 0 && remaining <= Integer.MAX_VALUE) {
+			byte[] payload = new byte[(int) remaining];
+			readFully(payload, 0);
+
+			return payload;
+		}
+		else {
+			ByteArrayOutputStream payloadOutputStream = new ByteArrayOutputStream();
+			copyTo(payloadOutputStream);
+
+			return payloadOutputStream.toByteArray();
+		}
+	}
+
+	/**
+	 * Transfers the (remaining) payload to the given channel.
+	 *
+	 * @return Number of bytes transferred
+	 */
+	public long transferTo(WritableByteChannel target) throws IOException {
+		byte[] buffer = new byte[TRANSFER_BUFFER_SIZE];
+		long transferred = 0;
+		int read;
+
+		while (-1 != (read = read(buffer, 0, buffer.length))) {
+			ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+
+			while (byteBuffer.hasRemaining()) {
+				target.write(byteBuffer);
+			}
+
+			transferred += read;
+		}
+
+		return transferred;
+	}
+
+	/**
+	 * Skips the remaining payload, so that the underlying stream is positioned
+	 * at the end of the payload.
+	 */
+	public void skipRemaining() throws IOException {
+		byte[] buffer = null;
+
+		while (remaining > 0) {
+			long skipped = (in != null) ? in.skip(Math.min(remaining, TRANSFER_BUFFER_SIZE)) : 0;
+
+			if (skipped <= 0) {
+				buffer = (buffer != null) ? buffer : new byte[TRANSFER_BUFFER_SIZE];
+
+				if (read(buffer, 0, buffer.length) == -1) {
+					break;
+				}
+			}
+			else {
+				remaining -= skipped;
+			}
+		}
+	}
+
+	@Override
+	public int available() throws IOException {
+		return (size >= 0) ? (int) Math.min(remaining, Integer.MAX_VALUE) : in.available();
+	}
+
+	@Override
+	public void close() {
+		// Does not close the multichunk
+	}
+
+	private void copyTo(ByteArrayOutputStream outputStream) throws IOException {
+		byte[] buffer = new byte[TRANSFER_BUFFER_SIZE];
+		int read;
+
+		while (-1 != (read = read(buffer, 0, buffer.length))) {
+			outputStream.write(buffer, 0, read);
+		}
+	}
+}
@@ -18,8 +18,17 @@
 package org.syncany.chunk;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Enumeration;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.syncany.util.StringUtil;
 
 /**
  * The chunker implements a core part of the deduplication process by breaking
@@ -32,12 +41,86 @@ import java.util.Enumeration;
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
 public abstract class Chunker {	
+	private static final Logger logger = Logger.getLogger(Chunker.class.getSimpleName());
+
 	/**
 	 * Property used by the config to indicate the exact or 
 	 * approximate size of a chunk. In bytes. 
 	 */
 	public static final String PROPERTY_SIZE = "size";
 	
+	/**
+	 * Property used by the config to set the chunk and file checksum algorithm,
+	 * e.g. SHA1 or BLAKE2B-160. Must be a digest available via the {@link ChunkDigestProvider}.
+	 * Only supported by chunkers that override {@link #setChecksumAlgorithm(String)}. 
+	 */
+	public static final String PROPERTY_DIGEST = "digest";
+	
+	/**
+	 * Property used by the config to set the minimum file size (in bytes) above 
+	 * which files are read via memory-mapped windows instead of a file input stream.
+	 * 
+	 * @see #setMappedFileThreshold(long)
+	 */
+	public static final String PROPERTY_MAPPED_FILE_THRESHOLD = "mappedfilethreshold";
+	
+	/**
+	 * Default minimum file size above which files are memory-mapped (256 MB). 
+	 */
+	public static final long DEFAULT_MAPPED_FILE_THRESHOLD = 256 * 1024 * 1024;
+	
+	protected long mappedFileThreshold = DEFAULT_MAPPED_FILE_THRESHOLD;
+	protected ChunkBufferPool bufferPool = ChunkBufferPool.getDefaultPool();
+	
+	private ThreadLocal<MessageDigest> smallFileDigest = new ThreadLocal<MessageDigest>();
+	
+	static {
+		ChunkDigestProvider.init();
+	}
+	
+	/**
+	 * If a chunker is instantiated via the default constructor (e.g. via a config file), 
+	 * it must be initialized using this method. The settings passed to the method depend
+	 * on the implementation of the chunker.
+	 * 
+	 * <p>The default implementation only evaluates the generic {@link #PROPERTY_MAPPED_FILE_THRESHOLD} 
+	 * and {@link #PROPERTY_DIGEST} settings. Chunkers that can be instantiated via {@link #getInstance(String) getInstance()} 
+	 * should override it (and call this method).
+	 *   
+	 * @param settings Implementation-specific setting map, may be <tt>null</tt>
+	 * @throws IllegalArgumentException If the given settings are invalid
+	 */
+	public void init(Map<String, String> settings) {
+		String mappedFileThresholdStr = (settings != null) ? settings.get(PROPERTY_MAPPED_FILE_THRESHOLD) : null;
+		
+		if (mappedFileThresholdStr != null) {
+			try {
+				setMappedFileThreshold(Long.parseLong(mappedFileThresholdStr));
+			}
+			catch (NumberFormatException e) {
+				throw new IllegalArgumentException(String.format("Property %s could not be parsed as Long.", PROPERTY_MAPPED_FILE_THRESHOLD));
+			}
+		}
+		
+		String digestAlgorithm = (settings != null) ? settings.get(PROPERTY_DIGEST) : null;
+		
+		if (digestAlgorithm != null) {
+			ChunkDigestProvider.checkAlgorithm(digestAlgorithm);
+			setChecksumAlgorithm(digestAlgorithm);
+		}
+	}
+	
+	/**
+	 * Sets the chunk and file checksum algorithm. The default implementation does not allow
+	 * changing the algorithm; chunkers that support it must override this method.
+	 * 
+	 * @param checksumAlgorithm Digest algorithm, e.g. SHA1 or BLAKE2B-160
+	 * @throws IllegalArgumentException If the chunker does not support changing the algorithm
+	 */
+	protected void setChecksumAlgorithm(String checksumAlgorithm) {
+		throw new IllegalArgumentException("Chunker " + this + " does not support setting the checksum algorithm.");
+	}
+	
     /**
      * Opens the given file and creates enumeration of {@link Chunk}s. This method 
      * should not read the file into memory at once, but instead read and emit new 
@@ -51,6 +134,143 @@ public abstract class Chunker {
      * @throws IOException If any file exceptions occur
      */	
 	public abstract ChunkEnumeration createChunks(File file) throws IOException;
+	
+	/**
+	 * Sets the minimum file size (in bytes) above which files are read via a 
+	 * {@link MappedFileInputStream} instead of a {@link FileInputStream}. Chunk boundaries
+	 * do not depend on this setting.
+	 * 
+	 * @param mappedFileThreshold Minimum file size in bytes; <tt>Long.MAX_VALUE</tt> to never map files 
+	 */
+	public void setMappedFileThreshold(long mappedFileThreshold) {
+		this.mappedFileThreshold = mappedFileThreshold;
+	}
+	
+	public long getMappedFileThreshold() {
+		return mappedFileThreshold;
+	}
+	
+	/**
+	 * Sets the pool from which the chunk enumerations acquire their buffers. By default,
+	 * the {@link ChunkBufferPool#getDefaultPool() default pool} is used.
+	 * 
+	 * <p>Chunks emitted by the enumerations are backed by these buffers, and should be 
+	 * {@link Chunk#release() released} by the consumer when it is done with them.
+	 */
+	public void setBufferPool(ChunkBufferPool bufferPool) {
+		this.bufferPool = bufferPool;
+	}
+	
+	public ChunkBufferPool getBufferPool() {
+		return bufferPool;
+	}
+	
+	/**
+	 * Opens the given file for chunking. Files larger than or equal to the 
+	 * {@link #setMappedFileThreshold(long) mapped file threshold} are memory-mapped,
+	 * smaller files are read via a regular file input stream.
+	 */
+	protected InputStream openFile(File file) throws IOException {
+		if (file.length() >= mappedFileThreshold) {
+			return new MappedFileInputStream(file);
+		}
+		else {
+			return new FileInputStream(file);
+		}
+	}
+			
+	/**
+	 * Returns the file size (in bytes) up to which the chunker always emits a non-empty
+	 * file as exactly one chunk, whose chunk checksum equals its file checksum. Files up to
+	 * this size can be chunked via {@link #createSmallFileChunks(File)}. 
+	 * 
+	 * <p>The default implementation returns 0, i.e. no file is treated as a small file.
+	 * Chunkers with a minimum chunk size should return it.
+	 */
+	protected int getSmallFileThreshold() {
+		return 0;
+	}
+	
+	/**
+	 * Returns true if a file with the given length is a small file, i.e. if it is
+	 * not empty and its length does not exceed the {@link #getSmallFileThreshold() small file threshold}. 
+	 */
+	protected boolean isSmallFile(long fileLength) {
+		return fileLength > 0 && fileLength <= getSmallFileThreshold();
+	}
+	
+	/**
+	 * Creates the chunk enumeration of a small file (fast path): The file is read with a single
+	 * read into a pooled buffer, and a single digest is calculated and used as both chunk and file
+	 * checksum. No fingerprinter or read buffer is needed. The resulting chunk is identical to
+	 * the one emitted by the chunker's regular enumeration.
+	 * 
+	 * <p>If the file is not a {@link #isSmallFile(long) small file}, or if it is empty when
+	 * read, this method returns <tt>null</tt>, and the caller must use the regular enumeration.
+	 * 
+	 * @param file The file that is supposed to be chunked
+	 * @return An enumeration of exactly one chunk, or <tt>null</tt> if the file is not a small file
+	 * @throws IOException If the file cannot be read
+	 */
+	protected ChunkEnumeration createSmallFileChunks(File file) throws IOException {
+		long fileLength = file.length();
+		
+		if (!isSmallFile(fileLength)) {
+			return null;
+		}
+		
+		ChunkBuffer chunkBuffer = bufferPool.acquire((int) fileLength);
+		byte[] buffer = chunkBuffer.getArray();
+		int size = 0;
+		
+		try (InputStream in = new FileInputStream(file)) {
+			while (size < fileLength) {
+				int read = in.read(buffer, size, (int) fileLength - size);
+				
+				if (read == -1) {
+					break;
+				}
+				
+				size += read;
+			}
+		}
+		catch (IOException e) {
+			chunkBuffer.release();
+			throw e;
+		}
+		
+		if (size == 0) {
+			chunkBuffer.release();
+			return null; // File changed, use regular enumeration
+		}
+		
+		MessageDigest digest = getSmallFileDigest();
+		digest.update(buffer, 0, size);
+		
+		byte[] checksum = digest.digest();
+		return new SingleChunkEnumeration(new Chunk(checksum, chunkBuffer, size, checksum.clone()));
+	}
+	
+	/**
+	 * Returns a (reset) message digest for the small file fast path. Digests are cached 
+	 * per thread to avoid looking up a new instance for every file.
+	 */
+	private MessageDigest getSmallFileDigest() {
+		MessageDigest digest = smallFileDigest.get();
+		
+		if (digest == null || !digest.getAlgorithm().equals(getChecksumAlgorithm())) {
+			try {
+				digest = MessageDigest.getInstance(getChecksumAlgorithm());
+				smallFileDigest.set(digest);
+			}
+			catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		
+		digest.reset();
+		return digest;
+	}
 			
 	/**
 	 * Returns a string representation of the chunker implementation.
@@ -64,6 +284,33 @@ public abstract class Chunker {
      */
     public abstract String getChecksumAlgorithm();
     
+	/**
+	 * Instantiates a chunker by its name using the default constructor. After creating
+	 * a new chunker, it must be initialized using the {@link #init(Map) init()} method.  
+	 * 
+	 * <p>The given type attribute is mapped to fully qualified class name (FQCN) of the form
+	 * <tt>org.syncany.chunk.XChunker</tt>, where <tt>X</tt> is the camel-cased type
+	 * attribute.  
+	 * 
+	 * @param type Type/name of the chunker (corresponds to its camel case class name)
+	 * @return Returns a new chunker, or <tt>null</tt> if the FQCN cannot be found or the class cannot be instantiated
+	 */
+	public static Chunker getInstance(String type) {
+		String thisPackage = Chunker.class.getPackage().getName();
+		String camelCaseName = StringUtil.toCamelCase(type);
+		String fqClassName = thisPackage + "." + camelCaseName + Chunker.class.getSimpleName();
+
+		// Try to load!
+		try {
+			Class<?> clazz = Class.forName(fqClassName);
+			return (Chunker) clazz.newInstance();
+		}
+		catch (Exception ex) {
+			logger.log(Level.INFO, "Could not find chunker FQCN " + fqClassName, ex);
+			return null;
+		}
+	}
+    
     /**
      * The chunk enumeration is implemented by the actual chunkers and emits a new
      * chunk when {@link ChunkEnumeration#nextElement() nextElement()} is called. When no more 
@@ -87,4 +334,38 @@ public abstract class Chunker {
     	 */
     	public void close();   
     }
-}
\ No newline at end of file
+    
+    /**
+     * Enumeration of exactly one chunk, as created by the small file fast path (see 
+     * {@link Chunker#createSmallFileChunks(File) createSmallFileChunks()}). Unlike the regular 
+     * enumerations, the emitted chunk owns its buffer, i.e. it is not reused by the enumeration.
+     */
+    public static class SingleChunkEnumeration implements ChunkEnumeration {
+    	private Chunk chunk;
+    	
+    	public SingleChunkEnumeration(Chunk chunk) {
+    		this.chunk = chunk;
+    	}
+    	
+		@Override
+		public boolean hasMoreElements() {
+			return chunk != null;
+		}
+
+		@Override
+		public Chunk nextElement() {
+			Chunk nextChunk = chunk;
+			chunk = null;
+			
+			return nextChunk;
+		}
+
+		@Override
+		public void close() {
+			if (chunk != null) {
+				chunk.release();
+				chunk = null;
+			}
+		}
+    }
+}
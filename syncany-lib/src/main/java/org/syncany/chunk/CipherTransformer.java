@@ -43,6 +43,11 @@ import org.syncany.util.StringUtil;
  * key. It can be instantiated using a property list (from a config file) or
  * by passing the dependencies to the constructor.
  * 
+ * <p>By default, the transformer writes unsegmented streams that can be read
+ * by all clients. Segmented streams (see {@link MultiCipherOutputStream}) must
+ * be explicitly enabled per repository via {@link #PROPERTY_SEGMENT_SIZE}, and
+ * should only be enabled once all clients of the repository can read them.
+ * 
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
 public class CipherTransformer extends Transformer {
@@ -50,24 +55,33 @@ public class CipherTransformer extends Transformer {
 	public static final String PROPERTY_CIPHER_SPECS = "cipherspecs";
 	public static final String PROPERTY_MASTER_KEY = "masterkey";
 	public static final String PROPERTY_MASTER_KEY_SALT = "mastersalt";
+	public static final String PROPERTY_SEGMENT_SIZE = "segmentsize";
 	
 	private List<CipherSpec> cipherSpecs;
 	private CipherSession cipherSession;
+	private int segmentSize;
 	
 	public CipherTransformer() {
 		this.cipherSpecs = new ArrayList<CipherSpec>();
 		this.cipherSession = null;
+		this.segmentSize = 0;
 	}
 	
     public CipherTransformer(List<CipherSpec> cipherSpecs, SaltedSecretKey masterKey) {
+    	this(cipherSpecs, masterKey, 0);
+    }    
+    
+    public CipherTransformer(List<CipherSpec> cipherSpecs, SaltedSecretKey masterKey, int segmentSize) {
     	this.cipherSpecs = cipherSpecs;
     	this.cipherSession = new CipherSession(masterKey);
+    	this.segmentSize = segmentSize;
     }    
     
     /**
      * Initializes the cipher transformer using a settings map. Required settings
      * are: {@link #PROPERTY_CIPHER_SPECS}, {@link #PROPERTY_MASTER_KEY} and 
-     * {@link #PROPERTY_MASTER_KEY_SALT}.
+     * {@link #PROPERTY_MASTER_KEY_SALT}. The optional setting {@link #PROPERTY_SEGMENT_SIZE}
+     * enables segmented streams; if it is missing or zero, unsegmented streams are written.
      */
     @Override
     public void init(Map<String, String> settings) throws Exception {
@@ -81,6 +95,7 @@ public class CipherTransformer extends Transformer {
     	
     	initCipherSpecs(cipherSpecsListStr);
     	initCipherSession(masterKeyStr, masterKeySaltStr);    	
+    	initSegmentSize(settings.get(PROPERTY_SEGMENT_SIZE));
     }
     
     private void initCipherSpecs(String cipherSpecListStr) throws Exception {
@@ -98,6 +113,24 @@ public class CipherTransformer extends Transformer {
     	}
 	}
 
+	private void initSegmentSize(String segmentSizeStr) throws Exception {
+		if (segmentSizeStr == null) {
+			segmentSize = 0;
+		}
+		else {
+			try {
+				segmentSize = Integer.parseInt(segmentSizeStr);
+			}
+			catch (NumberFormatException e) {
+				throw new Exception("Invalid setting '" + PROPERTY_SEGMENT_SIZE + "': " + segmentSizeStr, e);
+			}
+			
+			if (segmentSize < 0) {
+				throw new Exception("Setting '" + PROPERTY_SEGMENT_SIZE + "' must not be negative: " + segmentSize);
+			}
+		}
+	}
+
 	private void initCipherSession(String masterKeyStr, String masterKeySaltStr) {
 		byte[] masterKeySalt = StringUtil.fromHex(masterKeySaltStr);
 		byte[] masterKeyBytes = StringUtil.fromHex(masterKeyStr);
@@ -112,7 +145,7 @@ public class CipherTransformer extends Transformer {
 			throw new RuntimeException("Cipher session is not initialized. Call init() before!");
 		}
 		
-    	return new MultiCipherOutputStream(out, cipherSpecs, cipherSession);    	
+    	return new MultiCipherOutputStream(out, cipherSpecs, cipherSession, segmentSize);    	
     }
 
     @Override
@@ -17,10 +17,22 @@
  */
 package org.syncany.chunk;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.syncany.chunk.Chunker.ChunkEnumeration;
 import org.syncany.database.MultiChunkEntry.MultiChunkId;
@@ -36,6 +48,18 @@ import org.syncany.database.MultiChunkEntry.MultiChunkId;
  * <p>This class does not maintain a chunk index itself. Instead, it calls a listener to
  * lookup a chunk, and skips further chunk processing if the chunk already exists. 
  * 
+ * <p>The deduper can run as a pipeline on multiple threads: If more than one chunker thread
+ * is configured, files are chunked and hashed ahead of time by a {@link ChunkPrefetcher}. If more
+ * than one transformer thread is configured, multichunks are written to memory first, and 
+ * transformed (compressed/encrypted) and written to disk by a pool of worker threads after
+ * they have been closed. The deduplication itself (chunk lookup, multichunk assignment) is
+ * always done on the calling thread, and all {@link DeduperListener} methods are called on 
+ * the calling thread, in the original file order. The only exception is 
+ * {@link DeduperListener#onMultiChunkClose(MultiChunk) onMultiChunkClose()}: It is called once
+ * the multichunk file has been written and synced to disk, which might be after the next
+ * multichunk has been opened. All multichunk files are completely written when 
+ * {@link #deduplicate(List, DeduperListener) deduplicate()} returns.
+ * 
  * <p>For a detailed description of the algorithm, please refer to chapter 5.3 of the thesis:
  * <i>"Minimizing remote storage usage and synchronization time using deduplication and
  * multichunking: Syncany as an example"</i>
@@ -44,14 +68,35 @@ import org.syncany.database.MultiChunkEntry.MultiChunkId;
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
 public class Deduper {	
+	private static final Logger logger = Logger.getLogger(Deduper.class.getSimpleName());
+	
 	private Chunker chunker;
 	private MultiChunker multiChunker;
 	private Transformer transformer;
+	private int chunkerThreads;
+	private int transformerThreads;
+	private AllocationMetrics allocationMetrics;
 
 	public Deduper(Chunker chunker, MultiChunker multiChunker, Transformer transformer) {		
+		this(chunker, multiChunker, transformer, 1, 1);
+	}
+	
+	/**
+	 * Creates a new (possibly multi-threaded) deduper. 
+	 * 
+	 * @param chunker Chunker used to break files into chunks
+	 * @param multiChunker Multichunker used to combine new chunks to multichunks
+	 * @param transformer Transformer used to compress/encrypt multichunks
+	 * @param chunkerThreads Number of threads that chunk and hash files in parallel; 1 to chunk on the calling thread
+	 * @param transformerThreads Number of threads that transform and write multichunks in parallel; 1 to write on the calling thread
+	 */
+	public Deduper(Chunker chunker, MultiChunker multiChunker, Transformer transformer, int chunkerThreads, int transformerThreads) {
 		this.chunker = chunker;
 		this.multiChunker = multiChunker;
 		this.transformer = transformer;
+		this.chunkerThreads = chunkerThreads;
+		this.transformerThreads = transformerThreads;
+		this.allocationMetrics = null;
 	}
 	
 	/**
@@ -59,12 +104,37 @@ public class Deduper {
 	 * 
 	 * <p>A brief description of the algorithm (and further links to a detailed description)
 	 * are given in the {@link Deduper}.
+	 * 
+	 * <p>Chunks are {@link Chunk#release() released} after they have been passed to the listener
+	 * and written to the multichunk, so that their buffers can be reused. Listeners must hence not
+	 * access the chunk contents after {@link DeduperListener#onFileAddChunk(File, Chunk) onFileAddChunk()}.
 	 *  	
 	 * @param files List of files to be deduplicated
 	 * @param listener Listener to react of file/chunk/multichunk events, and to implement the chunk index
 	 * @throws IOException If a file cannot be read or an unexpected exception occurs
 	 */
 	public void deduplicate(List<File> files, DeduperListener listener) throws IOException {
+		AllocationMetrics runAllocationMetrics = AllocationMetrics.start(chunker.getBufferPool());
+		
+		ChunkPrefetcher chunkPrefetcher = (chunkerThreads > 1) ? new ChunkPrefetcher(chunker, files, chunkerThreads) : null;
+		MultiChunkWriter multiChunkWriter = (transformerThreads > 1) ? new MultiChunkWriter(transformerThreads, listener) : null;
+		
+		try {
+			deduplicate(files, listener, chunkPrefetcher, multiChunkWriter, runAllocationMetrics);
+		}
+		finally {
+			if (chunkPrefetcher != null) {
+				chunkPrefetcher.close();
+			}
+			
+			if (multiChunkWriter != null) {
+				multiChunkWriter.close();
+			}
+		}
+	}
+	
+	private void deduplicate(List<File> files, DeduperListener listener, ChunkPrefetcher chunkPrefetcher, MultiChunkWriter multiChunkWriter,
+			AllocationMetrics runAllocationMetrics) throws IOException {
 		Chunk chunk = null;
 		MultiChunk multiChunk = null;
 		
@@ -84,15 +154,26 @@ public class Deduper {
 			boolean dedupContents = listener.onFileStart(file, i);
 
 			if (dedupContents) {
-				// Create chunks from file
-				ChunkEnumeration chunksEnum = chunker.createChunks(file);
+				// Create chunks from file (or take prefetched chunks)
+				ChunkEnumeration chunksEnum = (chunkPrefetcher != null) ? chunkPrefetcher.getChunks(i) : null;
+				
+				if (chunksEnum == null) {
+					chunksEnum = chunker.createChunks(file);
+				}
 
 				while (chunksEnum.hasMoreElements()) {
 					chunk = chunksEnum.nextElement();
+					
+					if (chunk == null) {
+						chunksEnum.close();
+						throw new IOException("Error while chunking file " + file);
+					}
 
 					// old chunk
 					if (!listener.onChunk(chunk)) {
 						listener.onFileAddChunk(file, chunk);
+						chunk.release();
+						
 						continue;
 					}
 
@@ -100,9 +181,7 @@ public class Deduper {
 					else {					
 						// - Check if multichunk full
 						if (multiChunk != null && multiChunk.isFull()) {
-							multiChunk.close();
-							listener.onMultiChunkClose(multiChunk);
-
+							closeMultiChunk(multiChunk, listener, multiChunkWriter);
 							multiChunk = null;
 						}
 
@@ -111,9 +190,11 @@ public class Deduper {
 							MultiChunkId newMultiChunkId = listener.createNewMultiChunkId(chunk);
 							File multiChunkFile = listener.getMultiChunkFile(newMultiChunkId);
 							
-							multiChunk = multiChunker.createMultiChunk(newMultiChunkId, 
-								transformer.createOutputStream(new FileOutputStream(multiChunkFile)));
-
+							OutputStream multiChunkOutputStream = (multiChunkWriter != null) 
+									? multiChunkWriter.createOutputStream(multiChunkFile)
+									: transformer.createOutputStream(createMultiChunkFileOutputStream(multiChunkFile));
+							
+							multiChunk = multiChunker.createMultiChunk(newMultiChunkId, multiChunkOutputStream);
 							listener.onMultiChunkOpen(multiChunk);
 						}
 
@@ -122,7 +203,8 @@ public class Deduper {
 						listener.onMultiChunkWrite(multiChunk, chunk);						
 					}
 
-					listener.onFileAddChunk(file, chunk);										
+					listener.onFileAddChunk(file, chunk);
+					chunk.release();
 				}
 
 				// Closing file is necessary!
@@ -142,13 +224,187 @@ public class Deduper {
 
 		// Close and add last multichunk
 		if (multiChunk != null) {
-			// Data
-			multiChunk.close();
-			listener.onMultiChunkClose(multiChunk);
-
+			closeMultiChunk(multiChunk, listener, multiChunkWriter);
 			multiChunk = null;
 		}	
 		
+		// Wait for transformer threads (fires the remaining onMultiChunkClose() events)
+		if (multiChunkWriter != null) {
+			multiChunkWriter.await();
+		}
+		
+		// Measure before onFinish(), because the listener's work is not part of the deduplication
+		allocationMetrics = runAllocationMetrics.stop();
+		logger.log(Level.INFO, "Deduplication finished: {0}", allocationMetrics);
+		
 		listener.onFinish();
-	}	
+	}
+	
+	/**
+	 * Returns the GC and allocation metrics of the last (successful) run of 
+	 * {@link #deduplicate(List, DeduperListener) deduplicate()}, or <tt>null</tt>
+	 * if it has not been run yet.
+	 */
+	public AllocationMetrics getAllocationMetrics() {
+		return allocationMetrics;
+	}
+	
+	private void closeMultiChunk(MultiChunk multiChunk, DeduperListener listener, MultiChunkWriter multiChunkWriter) throws IOException {
+		if (multiChunkWriter != null) {
+			multiChunkWriter.close(multiChunk);
+		}
+		else {
+			multiChunk.close();
+			listener.onMultiChunkClose(multiChunk);
+		}
+	}
+	
+	/**
+	 * Creates the output stream for a multichunk file. When the stream is closed, the file 
+	 * is synced to disk before {@link DeduperListener#onMultiChunkClose(MultiChunk) onMultiChunkClose()}
+	 * is called, so that listeners can rely on the multichunk file being durable.
+	 */
+	private static OutputStream createMultiChunkFileOutputStream(File multiChunkFile) throws IOException {
+		return new FileOutputStream(multiChunkFile) {
+			private boolean closed = false;
+			
+			@Override
+			public void close() throws IOException {
+				if (!closed) {
+					closed = true;
+					
+					try {
+						getFD().sync();
+					}
+					finally {
+						super.close();
+					}
+				}
+			}
+		};
+	}
+	
+	/**
+	 * The multichunk writer implements the last stage of the deduplication pipeline: It
+	 * buffers a multichunk in memory while it is written, and transforms (compresses/encrypts)
+	 * and writes it to the multichunk file on a worker thread when it is closed. 
+	 * 
+	 * <p>At most <tt>threads</tt> multichunks are transformed at a time, and at most as many
+	 * are queued. If the queue is full, the multichunk is transformed on the calling thread. 
+	 * 
+	 * <p>{@link DeduperListener#onMultiChunkClose(MultiChunk) onMultiChunkClose()} is called 
+	 * on the calling thread, in the order in which the multichunks were closed, once the 
+	 * multichunk file has been completely written and synced to disk. 
+	 */
+	private class MultiChunkWriter {
+		private ThreadPoolExecutor executor;
+		private DeduperListener listener;
+		private LinkedList<PendingMultiChunk> pendingMultiChunks;
+		
+		public MultiChunkWriter(int threads, DeduperListener listener) {
+			this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(threads), 
+					new MultiChunkWriterThreadFactory(), new ThreadPoolExecutor.CallerRunsPolicy());
+			this.listener = listener;
+			this.pendingMultiChunks = new LinkedList<PendingMultiChunk>();
+		}
+		
+		public OutputStream createOutputStream(final File multiChunkFile) throws IOException {
+			checkPendingMultiChunks(false);
+			
+			final PendingMultiChunk pendingMultiChunk = new PendingMultiChunk();
+			pendingMultiChunks.add(pendingMultiChunk);
+			
+			return new ByteArrayOutputStream() {
+				private boolean closed = false;
+				
+				@Override
+				public void close() throws IOException {
+					if (!closed) {
+						closed = true;
+						pendingMultiChunk.writeFuture = executor.submit(new Runnable() {
+							@Override
+							public void run() {
+								writeMultiChunk(multiChunkFile);
+							}
+						});
+					}
+				}
+				
+				private void writeMultiChunk(File multiChunkFile) {
+					try {
+						OutputStream transformedOutputStream = transformer.createOutputStream(createMultiChunkFileOutputStream(multiChunkFile));
+						
+						writeTo(transformedOutputStream);
+						transformedOutputStream.close();
+					}
+					catch (IOException e) {
+						throw new RuntimeException("Cannot write multichunk file " + multiChunkFile, e);
+					}
+				}
+			};
+		}
+		
+		/**
+		 * Closes the given (currently open) multichunk, i.e. submits it to be transformed
+		 * and written. The listener is notified once the multichunk is written.
+		 */
+		public void close(MultiChunk multiChunk) throws IOException {
+			multiChunk.close(); // Closes the output stream created above
+			pendingMultiChunks.getLast().multiChunk = multiChunk;
+			
+			checkPendingMultiChunks(false);
+		}
+		
+		/**
+		 * Waits until all multichunks have been written. 
+		 * 
+		 * @throws IOException If any of the multichunks could not be written
+		 */
+		public void await() throws IOException {
+			checkPendingMultiChunks(true);
+		}
+		
+		public void close() {
+			executor.shutdownNow();
+		}
+		
+		private void checkPendingMultiChunks(boolean wait) throws IOException {
+			while (!pendingMultiChunks.isEmpty() && pendingMultiChunks.getFirst().isClosed() && (wait || pendingMultiChunks.getFirst().writeFuture.isDone())) {
+				PendingMultiChunk pendingMultiChunk = pendingMultiChunks.removeFirst();
+				
+				try {
+					pendingMultiChunk.writeFuture.get();
+				}
+				catch (InterruptedException e) {
+					throw new IOException("Interrupted while waiting for multichunk to be written.", e);
+				}
+				catch (ExecutionException e) {
+					throw new IOException(e.getCause());
+				}
+				
+				listener.onMultiChunkClose(pendingMultiChunk.multiChunk);
+			}
+		}
+	}
+	
+	private static class PendingMultiChunk {
+		private MultiChunk multiChunk;
+		private Future<?> writeFuture;
+		
+		public boolean isClosed() {
+			return multiChunk != null && writeFuture != null;
+		}
+	}
+	
+	private static class MultiChunkWriterThreadFactory implements ThreadFactory {
+		private AtomicInteger threadNumber = new AtomicInteger(1);
+		
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "MultiChWr-" + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+			
+			return thread;
+		}
+	}
 }
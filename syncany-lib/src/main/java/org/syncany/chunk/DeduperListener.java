@@ -137,6 +137,11 @@ public interface DeduperListener {
 	 * Called by {@link Deduper} during the deduplication process whenever a multichunk is closed. This can 
 	 * happen either because the multichunk is full (max. size reached/exceeded), or because there are no 
 	 * more files to chunk/index.
+	 * 
+	 * <p>The method is only called once the multichunk file has been completely written and synced
+	 * to disk. If multichunks are written in the background (multiple transformer threads), this can
+	 * be after the next multichunk has been opened. Multichunks are always closed in the order in
+	 * which they were opened.
 	 *  
 	 * @param multiChunk The multichunk that's being closed 
 	 */
@@ -0,0 +1,369 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The FastCDC chunker is a content-based {@link Chunker} using the Gear rolling hash 
+ * and normalized chunking, based on the paper of Wen Xia et al., 2016.
+ * 
+ * <p>Unlike the {@link TttdChunker}, the Gear hash does not need to remove the outgoing
+ * byte from the window: Each byte only shifts the fingerprint by one bit and adds a 
+ * random 64-bit value from the {@link #GEAR} table. A breakpoint is found if all bits
+ * selected by a mask are zero, so each byte costs one shift, one add and one mask test.
+ * 
+ * <p>The chunker implements the following techniques of the paper:
+ * <ul>
+ *  <li><b>Cut-point skipping:</b> The first <i>minSize</i> bytes of a chunk are not hashed at all.</li>
+ *  <li><b>Normalized chunking:</b> Before <i>avgSize</i> is reached, a harder mask with more bits 
+ *      (<i>maskS</i>) is used; after that, an easier mask with less bits (<i>maskL</i>). This
+ *      narrows the chunk size distribution around the average chunk size.</li>
+ *  <li><b>Maximum size:</b> If no breakpoint is found, chunks are cut at <i>maxSize</i>.</li>
+ * </ul>
+ * 
+ * <p>Chunk boundaries depend on the {@link #GEAR} table and the masks. Both must never
+ * change, because existing repositories rely on stable chunk boundaries for deduplication.
+ *
+ * @see <a href="https://www.usenix.org/conference/atc16/technical-sessions/presentation/xia">FastCDC: a Fast and Efficient Content-Defined Chunking Approach for Data Deduplication</a>, 
+ *      2016, Wen Xia, Yukun Zhou, Hong Jiang, Dan Feng, Yu Hua, Yuchong Hu, Yucheng Zhang, Qing Liu
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class FastCdcChunker extends Chunker implements ParallelizableChunker {
+	private static final Logger logger = Logger.getLogger(FastCdcChunker.class.getSimpleName());
+
+	public static final String TYPE = "fast-cdc";
+	public static final String DEFAULT_DIGEST_ALG = "SHA1";
+	public static final int DEFAULT_AVG_CHUNK_SIZE = 8 * 1024;
+	public static final int DEFAULT_NORMALIZATION_LEVEL = 2;
+
+	/**
+	 * Gear table with 256 pseudo-random 64-bit values, one for each possible byte value. The
+	 * table is generated deterministically using the SplitMix64 generator with a fixed seed.
+	 */
+	private static final long[] GEAR = createGearTable(0x5379_6e63_616e_7921L);
+
+	private int minSize;
+	private int avgSize;
+	private int maxSize;
+	private long maskS;
+	private long maskL;
+	private String checksumAlgorithm;
+
+	/**
+	 * Creates a new FastCDC chunker with the default average chunk size; must be initialized
+	 * with {@link #init(Map)} if the chunker is instantiated via {@link Chunker#getInstance(String)}.
+	 */
+	public FastCdcChunker() {
+		this(DEFAULT_AVG_CHUNK_SIZE);
+	}
+
+	/**
+	 * Creates a new FastCDC chunker with the given average chunk size. The minimum chunk
+	 * size is a quarter of the average size, the maximum size is eight times the average size 
+	 * (as suggested in the paper: 2 KB / 8 KB / 64 KB).
+	 * 
+	 * @param avgSize Average (expected) chunk size in bytes
+	 */
+	public FastCdcChunker(int avgSize) {
+		this(avgSize / 4, avgSize, avgSize * 8, DEFAULT_NORMALIZATION_LEVEL, DEFAULT_DIGEST_ALG);
+	}
+
+	/**
+	 * Creates a new FastCDC chunker.
+	 * 
+	 * @param minSize Minimum chunk size in bytes; the first bytes of a chunk are not hashed 
+	 * @param avgSize Average (expected) chunk size in bytes; switches from the hard to the easy mask 
+	 * @param maxSize Maximum chunk size in bytes
+	 * @param normalizationLevel Number of bits the two masks differ from <tt>log2(avgSize)</tt>
+	 * @param checksumAlgorithm Algorithm to calculate the chunk and file checksums (e.g. SHA1)
+	 */
+	public FastCdcChunker(int minSize, int avgSize, int maxSize, int normalizationLevel, String checksumAlgorithm) {
+		initSizes(minSize, avgSize, maxSize, normalizationLevel);
+		this.checksumAlgorithm = checksumAlgorithm;
+	}
+
+	/**
+	 * Initializes the chunker using a settings map. Besides the generic settings of the
+	 * {@link Chunker} (e.g. the {@link Chunker#PROPERTY_DIGEST digest}), the only supported 
+	 * setting is the average chunk size {@link Chunker#PROPERTY_SIZE} in bytes. If it is not given, the {@link #DEFAULT_AVG_CHUNK_SIZE default} is used.
+	 */
+	@Override
+	public void init(Map<String, String> settings) {
+		super.init(settings);
+		
+		String sizeStr = (settings != null) ? settings.get(PROPERTY_SIZE) : null;
+
+		if (sizeStr != null) {
+			try {
+				int avgSize = Integer.parseInt(sizeStr);
+				initSizes(avgSize / 4, avgSize, avgSize * 8, DEFAULT_NORMALIZATION_LEVEL);
+			}
+			catch (NumberFormatException e) {
+				throw new IllegalArgumentException(String.format("Property %s could not be parsed as Integer.", PROPERTY_SIZE));
+			}
+		}
+	}
+
+	private void initSizes(int minSize, int avgSize, int maxSize, int normalizationLevel) {
+		if (minSize < 0 || minSize > avgSize || avgSize > maxSize || avgSize < 64) {
+			throw new IllegalArgumentException("Invalid chunk sizes; must be 0 <= minSize <= avgSize <= maxSize, and avgSize >= 64.");
+		}
+
+		int bits = 31 - Integer.numberOfLeadingZeros(avgSize); // floor(log2(avgSize))
+
+		this.minSize = minSize;
+		this.avgSize = avgSize;
+		this.maxSize = maxSize;
+		this.maskS = createMask(bits + normalizationLevel);
+		this.maskL = createMask(bits - normalizationLevel);
+	}
+
+	@Override
+	public ChunkEnumeration createChunks(File file) throws IOException {
+		ChunkEnumeration smallFileChunks = createSmallFileChunks(file);
+		return (smallFileChunks != null) ? smallFileChunks : new FastCdcEnumeration(openFile(file));
+	}
+
+	/**
+	 * Files up to <i>minSize</i> bytes are not hashed at all, and are hence 
+	 * emitted as a single chunk.
+	 */
+	@Override
+	protected int getSmallFileThreshold() {
+		return minSize;
+	}
+
+	@Override
+	public String getChecksumAlgorithm() {
+		return checksumAlgorithm;
+	}
+
+	@Override
+	protected void setChecksumAlgorithm(String checksumAlgorithm) {
+		this.checksumAlgorithm = checksumAlgorithm;
+	}
+
+	@Override
+	public String toString() {
+		return "FastCDC-" + minSize + "-" + avgSize + "-" + maxSize + "-" + checksumAlgorithm;
+	}
+
+	/**
+	 * Returns the size of the first chunk in the given buffer, i.e. the position 
+	 * after the first breakpoint. If no breakpoint is found, <tt>min(len, maxSize)</tt>
+	 * is returned. 
+	 * 
+	 * @param buf Buffer containing the data to be chunked, starting at offset <tt>off</tt>
+	 * @param off Offset of the chunk start in the buffer
+	 * @param len Number of bytes available in the buffer (starting at <tt>off</tt>)
+	 * @return Size of the next chunk 
+	 */
+	@Override
+	public int nextBreakpoint(byte[] buf, int off, int len) {
+		if (len <= minSize) {
+			return len;
+		}
+
+		int normalSize = Math.min(avgSize, len);
+		int limit = Math.min(maxSize, len);
+		long fingerprint = 0;
+		int i = minSize;
+
+		for (; i < normalSize; i++) {
+			fingerprint = (fingerprint << 1) + GEAR[buf[off + i] & 0xff];
+
+			if ((fingerprint & maskS) == 0) {
+				return i + 1;
+			}
+		}
+
+		for (; i < limit; i++) {
+			fingerprint = (fingerprint << 1) + GEAR[buf[off + i] & 0xff];
+
+			if ((fingerprint & maskL) == 0) {
+				return i + 1;
+			}
+		}
+
+		return limit;
+	}
+
+	@Override
+	public int getMaxChunkSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Creates a mask selecting the upper <tt>bits</tt> bits of the fingerprint. Because the
+	 * Gear hash shifts left, the upper bits depend on the most bytes (up to 64), so they
+	 * behave like a sliding window fingerprint.
+	 */
+	private static long createMask(int bits) {
+		return (bits <= 0) ? 0L : -1L << (64 - Math.min(bits, 63));
+	}
+
+	private static long[] createGearTable(long seed) {
+		long[] gear = new long[256];
+		long state = seed;
+
+		for (int i = 0; i < gear.length; i++) {
+			state += 0x9e3779b97f4a7c15L;
+
+			long z = state;
+			z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+			z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+
+			gear[i] = z ^ (z >>> 31);
+		}
+
+		return gear;
+	}
+
+	/**
+	 * The FastCDC enumeration emits the chunks of a single input stream. It reads the input
+	 * stream in bulk into a pooled buffer of twice the maximum chunk size, and emits chunks that
+	 * borrow their contents from this buffer.
+	 * 
+	 * <p><b>Note:</b> The contents of an emitted {@link Chunk} are only valid until the next 
+	 * call to {@link #nextElement()}.
+	 */
+	public class FastCdcEnumeration implements ChunkEnumeration {
+		private InputStream in;
+		private boolean closed;
+		private boolean eof;
+
+		private ChunkBuffer chunkBuffer;
+		private byte[] buf;
+		private int bufLen;
+		private int lastChunkSize;
+
+		private MessageDigest chunkDigest;
+		private MessageDigest fileDigest;
+
+		public FastCdcEnumeration(InputStream in) throws IOException {
+			this.in = in;
+			this.closed = false;
+			this.eof = false;
+
+			this.chunkBuffer = bufferPool.acquire(2 * maxSize);
+			this.buf = chunkBuffer.getArray();
+			this.bufLen = 0;
+			this.lastChunkSize = 0;
+
+			try {
+				this.chunkDigest = MessageDigest.getInstance(checksumAlgorithm);
+				this.fileDigest = MessageDigest.getInstance(checksumAlgorithm);
+			}
+			catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+
+			// Empty files have no chunks
+			fillBuffer(1);
+
+			if (bufLen == 0) {
+				close();
+				closed = true;
+			}
+		}
+
+		@Override
+		public boolean hasMoreElements() {
+			return !closed;
+		}
+
+		@Override
+		public Chunk nextElement() {
+			if (closed) {
+				return null;
+			}
+
+			try {
+				// Move remaining bytes of previous chunk to the front
+				if (lastChunkSize > 0) {
+					System.arraycopy(buf, lastChunkSize, buf, 0, bufLen - lastChunkSize);
+					bufLen -= lastChunkSize;
+				}
+
+				fillBuffer(maxSize);
+
+				int chunkSize = nextBreakpoint(buf, 0, bufLen);
+				lastChunkSize = chunkSize;
+
+				// Look ahead (behind the chunk) to determine if this is the last chunk
+				if (bufLen == chunkSize) {
+					fillBuffer(chunkSize + 1);
+				}
+
+				if (bufLen == chunkSize && eof) {
+					in.close();
+					closed = true;
+				}
+
+				chunkDigest.reset();
+				chunkDigest.update(buf, 0, chunkSize);
+
+				byte[] chunkChecksum = chunkDigest.digest();
+				byte[] fileChecksum = (closed) ? fileDigest.digest() : null;
+
+				return new Chunk(chunkChecksum, chunkBuffer.retain(), chunkSize, fileChecksum);
+			}
+			catch (IOException ex) {
+				logger.log(Level.SEVERE, "Error while retrieving next chunk.", ex);
+				return null;
+			}
+		}
+
+		@Override
+		public void close() {
+			try { in.close(); }
+			catch (Exception e) { /* Not necessary */ }
+
+			if (chunkBuffer != null) {
+				chunkBuffer.release();
+				chunkBuffer = null;
+			}
+		}
+
+		/**
+		 * Reads from the input stream until the buffer holds at least <tt>minBufLen</tt> 
+		 * bytes, or the end of the stream is reached. Reads are done in bulk, i.e. each read 
+		 * tries to fill the entire remaining buffer. 
+		 */
+		private void fillBuffer(int minBufLen) throws IOException {
+			while (!eof && bufLen < minBufLen) {
+				int read = in.read(buf, bufLen, buf.length - bufLen);
+
+				if (read == -1) {
+					eof = true;
+				}
+				else {
+					fileDigest.update(buf, bufLen, read);
+					bufLen += read;
+				}
+			}
+		}
+	}
+}
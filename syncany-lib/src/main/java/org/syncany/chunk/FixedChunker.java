@@ -18,7 +18,6 @@
 package org.syncany.chunk;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.MessageDigest;
@@ -38,7 +37,7 @@ import java.util.logging.Logger;
  * 
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
-public class FixedChunker extends Chunker {
+public class FixedChunker extends Chunker implements ParallelizableChunker {
     private static final Logger logger = Logger.getLogger(FixedChunker.class.getSimpleName());   
 
     public static final String DEFAULT_DIGEST_ALG = "SHA1";
@@ -70,30 +69,53 @@ public class FixedChunker extends Chunker {
   
     @Override
     public ChunkEnumeration createChunks(File file) throws IOException {
-    	return new FixedChunkEnumeration(new FileInputStream(file));
+    	ChunkEnumeration smallFileChunks = createSmallFileChunks(file);
+    	return (smallFileChunks != null) ? smallFileChunks : new FixedChunkEnumeration(openFile(file));
+    }
+    
+    @Override
+    protected int getSmallFileThreshold() {
+    	return chunkSize;
     }
     
 	@Override
 	public String getChecksumAlgorithm() {
 		return checksumAlgorithm;
 	}    
+	
+	@Override
+	protected void setChecksumAlgorithm(String checksumAlgorithm) {
+		this.checksumAlgorithm = checksumAlgorithm;
+	}
 
     @Override
     public String toString() {
         return "Fixed-"+chunkSize+"-"+checksumAlgorithm;
     }
+    
+    @Override
+    public int nextBreakpoint(byte[] buf, int off, int len) {
+    	return Math.min(len, chunkSize);
+    }
+    
+    @Override
+    public int getMaxChunkSize() {
+    	return chunkSize;
+    }
 
     public class FixedChunkEnumeration implements ChunkEnumeration {
     	private MessageDigest digest;
         private MessageDigest fileDigest;    
         
         private InputStream in;           
+        private ChunkBuffer chunkBuffer;
         private byte[] buffer;
         private boolean closed;
         
         public FixedChunkEnumeration(InputStream in) {
             this.in = in;
-            this.buffer = new byte[chunkSize];
+            this.chunkBuffer = bufferPool.acquire(chunkSize);
+            this.buffer = chunkBuffer.getArray();
             this.closed = false;
             
             try {
@@ -128,7 +150,7 @@ public class FixedChunker extends Chunker {
         @Override
         public Chunk nextElement() {    
             try {
-                int read = in.read(buffer);
+                int read = in.read(buffer, 0, chunkSize);
                 
                 if (read == -1) {
                     return null;
@@ -149,7 +171,7 @@ public class FixedChunker extends Chunker {
                 byte[] fileChecksum = (closed) ? fileDigest.digest() : null;
 
                 // Create chunk
-                return new Chunk(digest.digest(), buffer, read, fileChecksum);
+                return new Chunk(digest.digest(), chunkBuffer.retain(), read, fileChecksum);
             } 
             catch (IOException ex) {                
                 logger.log(Level.SEVERE, "Error while retrieving next chunk.", ex);
@@ -161,6 +183,11 @@ public class FixedChunker extends Chunker {
         public void close() {
         	try { in.close(); }
         	catch (Exception e) { /* Not necessary */ }
+        	
+        	if (chunkBuffer != null) {
+        		chunkBuffer.release();
+        		chunkBuffer = null;
+        	}
         }
     }
 }
\ No newline at end of file
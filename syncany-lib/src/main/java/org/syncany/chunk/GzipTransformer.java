@@ -29,11 +29,16 @@ import java.util.zip.GZIPOutputStream;
  * Implements a {@link Transformer} that transforms the input/output stream
  * using the Gzip compression algorithm.
  * 
+ * <p>If more than one thread is used (default: one per available processor), large 
+ * streams are compressed in parallel by the {@link ParallelGzipOutputStream}. Its output
+ * is standard Gzip, so the input stream is the same in both cases.
+ * 
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
 public class GzipTransformer extends Transformer {
     public static final String TYPE = "gzip";
 	private int level;
+	private int threads;
     
     public GzipTransformer() {
         this(Deflater.DEFAULT_COMPRESSION, null);
@@ -44,24 +49,49 @@ public class GzipTransformer extends Transformer {
     }
     
     public GzipTransformer(int level, Transformer nextTransformer) {
+        this(level, Runtime.getRuntime().availableProcessors(), nextTransformer);
+    }
+    
+    /**
+     * Creates a new Gzip transformer.
+     * 
+     * @param level Compression level (1-9, or {@link Deflater#DEFAULT_COMPRESSION})
+     * @param threads Max. number of threads used to compress a single stream; 1 disables parallel compression
+     * @param nextTransformer The next transformer (to be applied after this transformer)
+     */
+    public GzipTransformer(int level, int threads, Transformer nextTransformer) {
         super(nextTransformer);
         this.level = level;
+        this.threads = threads;
     }
     
+    /**
+     * Initializes the transformer. The only (optional) setting is the compression
+     * level {@link #PROPERTY_LEVEL} (1-9). If it is not given, the default level is used.
+     */
     @Override
     public void init(Map<String, String> settings) throws Exception {
-    	// Nothing here    	
+    	level = parseLevel(settings, Deflater.DEFAULT_COMPRESSION, Deflater.BEST_SPEED, Deflater.BEST_COMPRESSION);
     }
     
     @Override
     public OutputStream createOutputStream(OutputStream out) throws IOException {
         if (nextTransformer == null) {
-            return new GZIPOutputStreamEx(out, level);
+            return createGzipOutputStream(out);
         }
         else {
-            return new GZIPOutputStreamEx(nextTransformer.createOutputStream(out), level);
+            return createGzipOutputStream(nextTransformer.createOutputStream(out));
         }
     }
+    
+    private OutputStream createGzipOutputStream(OutputStream out) throws IOException {
+    	if (threads > 1) {
+    		return new ParallelGzipOutputStream(out, level, threads);
+    	}
+    	else {
+    		return new GZIPOutputStreamEx(out, level);
+    	}
+    }
 
     @Override
     public InputStream createInputStream(InputStream in) throws IOException {
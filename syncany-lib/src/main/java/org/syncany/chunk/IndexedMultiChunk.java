@@ -0,0 +1,488 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.syncany.database.MultiChunkEntry.MultiChunkId;
+
+/**
+ * The indexed multichunk is a compact binary container format for chunks. Unlike
+ * the {@link ZipMultiChunk}, it has no per-chunk file headers and no textual entry names,
+ * and a chunk can be located with a single seek (after reading the footer index).
+ *
+ * <p>All numbers are stored in big-endian byte order. The format is as follows:
+ *
+ * <pre>
+ *   Header:   magic "SyMC" (4 bytes) | version (1 byte) | checksum length L (1 byte)
+ *   Records:  { payload length (int) | checksum (L bytes) | payload }*
+ *             end of records marker -1 (int)
+ *   Index:    { checksum (L bytes) | payload offset (long) | payload length (int) }*
+ *             sorted by checksum (unsigned, lexicographic)
+ *   Trailer:  index offset (long) | index entry count (int) | magic "SyIX" (4 bytes)
+ * </pre>
+ *
+ * <p>The records allow reading a multichunk sequentially via {@link #read()} or {@link #nextChunkSlice()}.
+ * Random access via {@link #getChunkInputStream(byte[])} is only possible if the multichunk
+ * is opened from a file: The trailer is read from the end of the file, and the index is
+ * searched using binary search. Large indexes are memory-mapped instead of read into memory.
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class IndexedMultiChunk extends MultiChunk {
+	public static final int VERSION = 1;
+
+	private static final byte[] MAGIC = new byte[] { 'S', 'y', 'M', 'C' };
+	private static final byte[] INDEX_MAGIC = new byte[] { 'S', 'y', 'I', 'X' };
+
+	private static final int HEADER_SIZE = 6;
+	private static final int TRAILER_SIZE = 16;
+	private static final int END_OF_RECORDS = -1;
+	private static final int MAPPED_INDEX_THRESHOLD = 64 * 1024;
+
+	private int checksumLength;
+
+	// Write mode
+	private OutputStream out;
+	private long offset;
+	private List<IndexEntry> indexEntries;
+
+	// Sequential read mode
+	private DataInputStream in;
+	private long readPosition;
+	private ChunkSlice currentChunkSlice;
+	private boolean endOfRecords;
+
+	// Random access read mode
+	private RandomAccessFile randomAccessFile;
+	private FileChannel channel;
+	private ByteBuffer index;
+	private int indexEntryCount;
+
+	public IndexedMultiChunk(InputStream is) {
+		super(0);
+
+		this.checksumLength = -1;
+		this.in = new DataInputStream(new BufferedInputStream(is));
+		this.endOfRecords = false;
+	}
+
+	public IndexedMultiChunk(File file) throws IOException {
+		super(0);
+
+		this.checksumLength = -1;
+		this.randomAccessFile = new RandomAccessFile(file, "r");
+		this.channel = randomAccessFile.getChannel();
+		this.readPosition = HEADER_SIZE;
+		this.endOfRecords = false;
+
+		try {
+			readIndex();
+		}
+		catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	public IndexedMultiChunk(MultiChunkId id, int minSize, OutputStream os) {
+		super(id, minSize);
+
+		this.checksumLength = -1;
+		this.out = os;
+		this.offset = 0;
+		this.indexEntries = new ArrayList<IndexEntry>();
+	}
+
+	@Override
+	public boolean isFull() {
+		return size >= minSize*1024; // minSize is in KB!
+	}
+
+	@Override
+	public void write(Chunk chunk) throws IOException {
+		byte[] checksum = chunk.getChecksum();
+
+		if (checksumLength == -1) {
+			writeHeader(checksum.length);
+		}
+		else if (checksum.length != checksumLength) {
+			throw new IOException("All chunks of a multichunk must have the same checksum length; expected " + checksumLength + ", got " + checksum.length);
+		}
+
+		ByteBuffer recordHeader = ByteBuffer.allocate(4 + checksumLength);
+		recordHeader.putInt(chunk.getSize());
+		recordHeader.put(checksum);
+
+		out.write(recordHeader.array());
+		out.write(chunk.getContent(), 0, chunk.getSize());
+
+		indexEntries.add(new IndexEntry(checksum, offset + recordHeader.capacity(), chunk.getSize()));
+
+		offset += recordHeader.capacity() + chunk.getSize();
+		size += chunk.getSize();
+	}
+
+	@Override
+	public Chunk read() throws IOException {
+		ChunkSlice chunkSlice = nextChunkSlice();
+
+		if (chunkSlice == null) {
+			return null;
+		}
+
+		byte[] contents = chunkSlice.toByteArray();
+		return new Chunk(chunkSlice.getChecksum(), contents, contents.length, null);
+	}
+
+	/**
+	 * Returns the next record as chunk slice. If the multichunk was opened from a file,
+	 * the records are read via positional reads, and the slice's payload can be transferred
+	 * without copying (see {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel) transferTo()}).
+	 */
+	@Override
+	public ChunkSlice nextChunkSlice() throws IOException {
+		if (endOfRecords) {
+			return null;
+		}
+
+		if (channel != null) {
+			currentChunkSlice = nextChunkSliceFromFile();
+		}
+		else {
+			currentChunkSlice = nextChunkSliceFromStream();
+		}
+
+		endOfRecords = (currentChunkSlice == null);
+		return currentChunkSlice;
+	}
+
+	private ChunkSlice nextChunkSliceFromFile() throws IOException {
+		int chunkSize = checkChunkSize(readFully(readPosition, 4).getInt());
+
+		if (chunkSize == END_OF_RECORDS) {
+			return null;
+		}
+
+		byte[] checksum = readFully(readPosition + 4, checksumLength).array();
+		long payloadOffset = readPosition + 4 + checksumLength;
+
+		readPosition = payloadOffset + chunkSize;
+		return new ChannelChunkSlice(checksum, payloadOffset, chunkSize);
+	}
+
+	private ChunkSlice nextChunkSliceFromStream() throws IOException {
+		if (checksumLength == -1) {
+			readHeader(in);
+		}
+		else if (currentChunkSlice != null) {
+			currentChunkSlice.skipRemaining();
+		}
+
+		int chunkSize = checkChunkSize(in.readInt());
+
+		if (chunkSize == END_OF_RECORDS) {
+			return null;
+		}
+
+		byte[] checksum = new byte[checksumLength];
+		in.readFully(checksum);
+
+		return new ChunkSlice(checksum, chunkSize, in);
+	}
+
+	private int checkChunkSize(int chunkSize) throws IOException {
+		if (chunkSize < 0 && chunkSize != END_OF_RECORDS) {
+			throw new IOException("Invalid multichunk: Negative chunk size " + chunkSize);
+		}
+
+		return chunkSize;
+	}
+
+	@Override
+	public InputStream getChunkInputStream(byte[] checksum) throws IOException {
+		if (index == null) {
+			throw new IOException("Random access is only possible if the multichunk is read from a file.");
+		}
+
+		int entryLength = checksumLength + 12;
+		int low = 0;
+		int high = indexEntryCount - 1;
+
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int compareResult = compareChecksum(middle * entryLength, checksum);
+
+			if (compareResult < 0) {
+				low = middle + 1;
+			}
+			else if (compareResult > 0) {
+				high = middle - 1;
+			}
+			else {
+				long payloadOffset = index.getLong(middle * entryLength + checksumLength);
+				int payloadLength = index.getInt(middle * entryLength + checksumLength + 8);
+
+				return new ChannelChunkSlice(checksum, payloadOffset, payloadLength);
+			}
+		}
+
+		return null;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (out != null) {
+			writeFooter();
+			out.close();
+		}
+
+		if (in != null) {
+			in.close();
+		}
+
+		if (randomAccessFile != null) {
+			randomAccessFile.close();
+		}
+	}
+
+	private void writeHeader(int checksumLength) throws IOException {
+		if (checksumLength > 255) {
+			throw new IOException("Checksum length not supported: " + checksumLength);
+		}
+
+		this.checksumLength = checksumLength;
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.put(MAGIC);
+		header.put((byte) VERSION);
+		header.put((byte) checksumLength);
+
+		out.write(header.array());
+		offset += HEADER_SIZE;
+	}
+
+	private void writeFooter() throws IOException {
+		if (checksumLength == -1) {
+			writeHeader(0); // Empty multichunk
+		}
+
+		Collections.sort(indexEntries);
+
+		ByteBuffer footer = ByteBuffer.allocate(4 + indexEntries.size() * (checksumLength + 12) + TRAILER_SIZE);
+		footer.putInt(END_OF_RECORDS);
+
+		for (IndexEntry indexEntry : indexEntries) {
+			footer.put(indexEntry.checksum);
+			footer.putLong(indexEntry.offset);
+			footer.putInt(indexEntry.length);
+		}
+
+		footer.putLong(offset + 4);
+		footer.putInt(indexEntries.size());
+		footer.put(INDEX_MAGIC);
+
+		out.write(footer.array());
+	}
+
+	private void readHeader(DataInputStream headerInputStream) throws IOException {
+		byte[] header = new byte[HEADER_SIZE];
+
+		try {
+			headerInputStream.readFully(header);
+		}
+		catch (EOFException e) {
+			throw new IOException("Invalid multichunk: Header too short", e);
+		}
+
+		parseHeader(ByteBuffer.wrap(header));
+	}
+
+	private void parseHeader(ByteBuffer header) throws IOException {
+		byte[] magic = new byte[MAGIC.length];
+		header.get(magic);
+
+		if (!Arrays.equals(MAGIC, magic)) {
+			throw new IOException("Invalid multichunk: Magic bytes do not match");
+		}
+
+		int version = header.get() & 0xff;
+
+		if (version != VERSION) {
+			throw new IOException("Unsupported multichunk version: " + version);
+		}
+
+		checksumLength = header.get() & 0xff;
+	}
+
+	private void readIndex() throws IOException {
+		long fileLength = channel.size();
+
+		if (fileLength < HEADER_SIZE + 4 + TRAILER_SIZE) {
+			throw new IOException("Invalid multichunk: File too short");
+		}
+
+		parseHeader(readFully(0, HEADER_SIZE));
+
+		ByteBuffer trailer = readFully(fileLength - TRAILER_SIZE, TRAILER_SIZE);
+		long indexOffset = trailer.getLong();
+		indexEntryCount = trailer.getInt();
+
+		byte[] indexMagic = new byte[INDEX_MAGIC.length];
+		trailer.get(indexMagic);
+
+		long indexLength = (long) indexEntryCount * (checksumLength + 12);
+
+		if (!Arrays.equals(INDEX_MAGIC, indexMagic) || indexEntryCount < 0 || indexOffset + indexLength != fileLength - TRAILER_SIZE) {
+			throw new IOException("Invalid multichunk: Index trailer is corrupt");
+		}
+
+		if (indexLength >= MAPPED_INDEX_THRESHOLD) {
+			index = channel.map(MapMode.READ_ONLY, indexOffset, indexLength);
+		}
+		else {
+			index = readFully(indexOffset, (int) indexLength);
+		}
+	}
+
+	private ByteBuffer readFully(long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) == -1) {
+				throw new EOFException("Unexpected end of multichunk file.");
+			}
+		}
+
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Compares the checksum of the index entry at the given index position with the given
+	 * checksum (unsigned, lexicographic).
+	 */
+	private int compareChecksum(int indexPosition, byte[] checksum) {
+		for (int i = 0; i < Math.min(checksumLength, checksum.length); i++) {
+			int compareResult = (index.get(indexPosition + i) & 0xff) - (checksum[i] & 0xff);
+
+			if (compareResult != 0) {
+				return compareResult;
+			}
+		}
+
+		return checksumLength - checksum.length;
+	}
+
+	private static class IndexEntry implements Comparable<IndexEntry> {
+		private byte[] checksum;
+		private long offset;
+		private int length;
+
+		public IndexEntry(byte[] checksum, long offset, int length) {
+			this.checksum = checksum;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		@Override
+		public int compareTo(IndexEntry other) {
+			for (int i = 0; i < checksum.length; i++) {
+				int compareResult = (checksum[i] & 0xff) - (other.checksum[i] & 0xff);
+
+				if (compareResult != 0) {
+					return compareResult;
+				}
+			}
+
+			return 0;
+		}
+	}
+
+	/**
+	 * Chunk slice that reads a single chunk's payload via positional reads from the
+	 * multichunk file's channel, and transfers it without copying if possible. Closing
+	 * the slice does not close the multichunk.
+	 */
+	private class ChannelChunkSlice extends ChunkSlice {
+		private long position;
+
+		public ChannelChunkSlice(byte[] checksum, long position, int length) {
+			super(checksum, length);
+			this.position = position;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if (remaining == 0) {
+				return -1;
+			}
+
+			int read = channel.read(ByteBuffer.wrap(buffer, offset, (int) Math.min(length, remaining)), position);
+
+			if (read == -1) {
+				throw new EOFException("Unexpected end of multichunk file.");
+			}
+
+			position += read;
+			remaining -= read;
+
+			return read;
+		}
+
+		@Override
+		public long transferTo(WritableByteChannel target) throws IOException {
+			long transferred = 0;
+
+			while (remaining > 0) {
+				long transferredNow = channel.transferTo(position, remaining, target);
+
+				if (transferredNow <= 0) {
+					throw new EOFException("Unexpected end of multichunk file.");
+				}
+
+				position += transferredNow;
+				remaining -= transferredNow;
+				transferred += transferredNow;
+			}
+
+			return transferred;
+		}
+
+		@Override
+		public void skipRemaining() {
+			position += remaining;
+			remaining = 0;
+		}
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.syncany.database.MultiChunkEntry.MultiChunkId;
+
+/**
+ * The indexed multichunker creates {@link IndexedMultiChunk}s, a compact binary
+ * container format with a footer index that allows locating a chunk with a single
+ * seek. See {@link IndexedMultiChunk} for a description of the format.
+ *
+ * <p>The multichunker can be selected via the multichunker type <tt>indexed</tt> in the
+ * repository config. Repositories created with the {@link ZipMultiChunker} are not affected.
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class IndexedMultiChunker extends MultiChunker {
+	public static final String TYPE = "indexed";
+
+	public IndexedMultiChunker() {
+		// Nothing
+	}
+
+	public IndexedMultiChunker(int minMultiChunkSize) {
+		super(minMultiChunkSize);
+	}
+
+	@Override
+	public MultiChunk createMultiChunk(InputStream is) {
+		return new IndexedMultiChunk(is);
+	}
+
+	@Override
+	public MultiChunk createMultiChunk(File file) throws IOException {
+		return new IndexedMultiChunk(file);
+	}
+
+	@Override
+	public MultiChunk createMultiChunk(MultiChunkId id, OutputStream os) throws IOException {
+		return new IndexedMultiChunk(id, minMultiChunkSize, os);
+	}
+
+	@Override
+	public String toString() {
+		return "Indexed-" + minMultiChunkSize;
+	}
+}
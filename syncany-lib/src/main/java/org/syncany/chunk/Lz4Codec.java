@@ -0,0 +1,351 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Pure Java implementation of the LZ4 block format, as specified in the
+ * <a href="https://github.com/lz4/lz4/blob/dev/doc/lz4_Block_format.md">LZ4 block format description</a>.
+ * LZ4 trades compression ratio for speed: Compression is typically several times
+ * faster than Deflate, and decompression is faster still.
+ *
+ * <p>The compression level selects the match finder: Level {@link #MIN_LEVEL} uses a
+ * single hash table probe (like the reference implementation's fast mode). Higher levels
+ * walk a hash chain to find longer matches, with the number of probed candidates doubling
+ * with each level up to {@link #MAX_LEVEL}. All levels skip ahead faster the longer no
+ * match has been found, so that incompressible data is passed through quickly.
+ *
+ * <p>Instances are not thread-safe, because they hold the match finder's tables
+ * to avoid reallocating them for every block.
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class Lz4Codec {
+	public static final int MIN_LEVEL = 1;
+	public static final int MAX_LEVEL = 9;
+
+	private static final int MIN_MATCH = 4;
+	private static final int LAST_LITERALS = 5;
+	private static final int MATCH_FIND_LIMIT = 12;
+	private static final int MAX_DISTANCE = 65535;
+
+	private static final int HASH_LOG = 16;
+	private static final int CHAIN_MASK = 65535;
+	private static final int SKIP_STRENGTH = 6;
+	private static final int CHAIN_SKIP_STRENGTH = 8;
+	private static final int NICE_MATCH_LENGTH = 256;
+	private static final int RUN_MASK = 15;
+
+	private int level;
+	private int maxAttempts;
+
+	private int[] hashTable;
+	private int[] chainTable;
+
+	public Lz4Codec(int level) {
+		if (level < MIN_LEVEL || level > MAX_LEVEL) {
+			throw new IllegalArgumentException("Invalid LZ4 compression level " + level + "; must be between " + MIN_LEVEL + " and " + MAX_LEVEL);
+		}
+
+		this.level = level;
+		this.maxAttempts = 1 << (level - 1);
+
+		this.hashTable = new int[1 << HASH_LOG];
+		this.chainTable = (level > MIN_LEVEL) ? new int[CHAIN_MASK + 1] : null;
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	/**
+	 * Returns the maximum size of a compressed block for the given input length, i.e. the
+	 * size of the destination buffer that is guaranteed to be sufficient for {@link #compress(byte[], int, int, byte[], int, int) compress()}.
+	 */
+	public static int maxCompressedLength(int length) {
+		return length + length / 255 + 16;
+	}
+
+	/**
+	 * Compresses the given source data into the destination buffer.
+	 *
+	 * @return Length of the compressed data, or -1 if it does not fit into the destination buffer
+	 */
+	public int compress(byte[] src, int srcOffset, int srcLength, byte[] dest, int destOffset, int destMaxLength) {
+		int srcEnd = srcOffset + srcLength;
+		int matchFindLimit = srcEnd - MATCH_FIND_LIMIT;
+		int matchLimit = srcEnd - LAST_LITERALS;
+
+		int destEnd = destOffset + destMaxLength;
+		int op = destOffset;
+
+		int anchor = srcOffset;
+		int ip = srcOffset;
+
+		Arrays.fill(hashTable, -1);
+
+		while (ip < matchFindLimit) {
+			int matchPosition = -1;
+			int matchLength = 0;
+
+			int hash = hash(src, ip);
+			int candidate = hashTable[hash];
+
+			insert(hash, ip);
+
+			for (int attempts = maxAttempts; attempts > 0 && candidate >= 0 && ip - candidate <= MAX_DISTANCE; attempts--) {
+				// Only candidates that extend beyond the current best match are compared entirely
+				boolean longerCandidate = matchLength == 0 || src[candidate + matchLength] == src[ip + matchLength];
+
+				if (longerCandidate && readInt(src, candidate) == readInt(src, ip)) {
+					int candidateLength = MIN_MATCH + countMatch(src, candidate + MIN_MATCH, ip + MIN_MATCH, matchLimit);
+
+					if (candidateLength > matchLength) {
+						matchPosition = candidate;
+						matchLength = candidateLength;
+					}
+				}
+
+				if (chainTable == null || matchLength >= NICE_MATCH_LENGTH || ip + matchLength >= matchLimit) {
+					break;
+				}
+
+				int nextCandidate = chainTable[candidate & CHAIN_MASK];
+				candidate = (nextCandidate < candidate) ? nextCandidate : -1;
+			}
+
+			if (matchPosition < 0) {
+				ip += 1 + ((ip - anchor) >>> ((chainTable == null) ? SKIP_STRENGTH : CHAIN_SKIP_STRENGTH));
+				continue;
+			}
+
+			// Extend match backwards
+			while (ip > anchor && matchPosition > srcOffset && src[ip - 1] == src[matchPosition - 1]) {
+				ip--;
+				matchPosition--;
+				matchLength++;
+			}
+
+			op = writeSequence(src, anchor, ip - anchor, ip - matchPosition, matchLength, dest, op, destEnd);
+
+			if (op < 0) {
+				return -1;
+			}
+
+			// Index positions within the match
+			int matchEnd = ip + matchLength;
+
+			if (chainTable != null) {
+				for (int position = ip + 1; position < matchEnd && position < matchFindLimit; position++) {
+					insert(hash(src, position), position);
+				}
+			}
+			else if (matchEnd - 2 < matchFindLimit) {
+				insert(hash(src, matchEnd - 2), matchEnd - 2);
+			}
+
+			ip = matchEnd;
+			anchor = ip;
+		}
+
+		op = writeLastLiterals(src, anchor, srcEnd - anchor, dest, op, destEnd);
+		return (op < 0) ? -1 : op - destOffset;
+	}
+
+	/**
+	 * Decompresses the given compressed block into the destination buffer.
+	 *
+	 * @return Length of the decompressed data
+	 * @throws IOException If the compressed data is corrupt, or does not fit into the destination buffer
+	 */
+	public static int decompress(byte[] src, int srcOffset, int srcLength, byte[] dest, int destOffset, int destMaxLength) throws IOException {
+		int srcEnd = srcOffset + srcLength;
+		int destEnd = destOffset + destMaxLength;
+
+		int ip = srcOffset;
+		int op = destOffset;
+
+		while (true) {
+			if (ip >= srcEnd) {
+				throw new IOException("Invalid LZ4 block: Unexpected end of block");
+			}
+
+			int token = src[ip++] & 0xff;
+
+			// Literals
+			int literalLength = token >>> 4;
+
+			if (literalLength == RUN_MASK) {
+				int lengthByte;
+
+				do {
+					if (ip >= srcEnd) {
+						throw new IOException("Invalid LZ4 block: Unexpected end of block");
+					}
+
+					lengthByte = src[ip++] & 0xff;
+					literalLength += lengthByte;
+				} while (lengthByte == 255);
+			}
+
+			if (literalLength > srcEnd - ip || literalLength > destEnd - op) {
+				throw new IOException("Invalid LZ4 block: Literals exceed block");
+			}
+
+			System.arraycopy(src, ip, dest, op, literalLength);
+
+			ip += literalLength;
+			op += literalLength;
+
+			if (ip == srcEnd) {
+				break; // Last sequence has no match
+			}
+
+			// Match
+			if (ip + 2 > srcEnd) {
+				throw new IOException("Invalid LZ4 block: Unexpected end of block");
+			}
+
+			int offset = (src[ip] & 0xff) | ((src[ip + 1] & 0xff) << 8);
+			ip += 2;
+
+			if (offset == 0 || offset > op - destOffset) {
+				throw new IOException("Invalid LZ4 block: Illegal match offset " + offset);
+			}
+
+			int matchLength = token & RUN_MASK;
+
+			if (matchLength == RUN_MASK) {
+				int lengthByte;
+
+				do {
+					if (ip >= srcEnd) {
+						throw new IOException("Invalid LZ4 block: Unexpected end of block");
+					}
+
+					lengthByte = src[ip++] & 0xff;
+					matchLength += lengthByte;
+				} while (lengthByte == 255);
+			}
+
+			matchLength += MIN_MATCH;
+
+			if (matchLength > destEnd - op) {
+				throw new IOException("Invalid LZ4 block: Match exceeds destination buffer");
+			}
+
+			if (offset >= matchLength) {
+				System.arraycopy(dest, op - offset, dest, op, matchLength);
+			}
+			else {
+				for (int i = 0; i < matchLength; i++) {
+					dest[op + i] = dest[op - offset + i]; // Overlapping match
+				}
+			}
+
+			op += matchLength;
+		}
+
+		return op - destOffset;
+	}
+
+	private void insert(int hash, int position) {
+		if (chainTable != null) {
+			chainTable[position & CHAIN_MASK] = hashTable[hash];
+		}
+
+		hashTable[hash] = position;
+	}
+
+	private static int writeSequence(byte[] src, int literalOffset, int literalLength, int offset, int matchLength, byte[] dest, int op, int destEnd) {
+		int maxSequenceLength = 1 + literalLength + literalLength / 255 + 1 + 2 + matchLength / 255 + 1;
+
+		if (op + maxSequenceLength > destEnd) {
+			return -1;
+		}
+
+		int tokenPosition = op++;
+		int matchLengthCode = matchLength - MIN_MATCH;
+
+		op = writeLength(literalLength, dest, op);
+		System.arraycopy(src, literalOffset, dest, op, literalLength);
+		op += literalLength;
+
+		dest[op++] = (byte) offset;
+		dest[op++] = (byte) (offset >>> 8);
+
+		op = writeLength(matchLengthCode, dest, op);
+
+		int literalToken = Math.min(literalLength, RUN_MASK);
+		int matchToken = Math.min(matchLengthCode, RUN_MASK);
+
+		dest[tokenPosition] = (byte) ((literalToken << 4) | matchToken);
+		return op;
+	}
+
+	private static int writeLastLiterals(byte[] src, int literalOffset, int literalLength, byte[] dest, int op, int destEnd) {
+		if (op < 0 || op + 1 + literalLength + literalLength / 255 + 1 > destEnd) {
+			return -1;
+		}
+
+		dest[op++] = (byte) (Math.min(literalLength, RUN_MASK) << 4);
+		op = writeLength(literalLength, dest, op);
+
+		System.arraycopy(src, literalOffset, dest, op, literalLength);
+		return op + literalLength;
+	}
+
+	/**
+	 * Writes the length extension bytes of a literal or match length, if the
+	 * length does not fit into the token's 4 bits.
+	 */
+	private static int writeLength(int length, byte[] dest, int op) {
+		if (length >= RUN_MASK) {
+			int remainingLength = length - RUN_MASK;
+
+			while (remainingLength >= 255) {
+				dest[op++] = (byte) 255;
+				remainingLength -= 255;
+			}
+
+			dest[op++] = (byte) remainingLength;
+		}
+
+		return op;
+	}
+
+	private static int countMatch(byte[] src, int matchPosition, int position, int limit) {
+		int length = 0;
+
+		while (position + length < limit && src[matchPosition + length] == src[position + length]) {
+			length++;
+		}
+
+		return length;
+	}
+
+	private static int hash(byte[] src, int position) {
+		return (readInt(src, position) * -1640531535) >>> (32 - HASH_LOG);
+	}
+
+	private static int readInt(byte[] src, int position) {
+		return (src[position] & 0xff) | ((src[position + 1] & 0xff) << 8) | ((src[position + 2] & 0xff) << 16) | ((src[position + 3] & 0xff) << 24);
+	}
+}
@@ -0,0 +1,392 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Implements a {@link Transformer} that compresses the input/output stream using
+ * the LZ4 algorithm (see {@link Lz4Codec}). Compared to the {@link GzipTransformer},
+ * the compression ratio is lower, but compression is much faster, so that compression
+ * does not become the bottleneck on fast networks.
+ *
+ * <p>The compression level can be set via the {@link #PROPERTY_LEVEL} setting, from
+ * {@link Lz4Codec#MIN_LEVEL} (fastest, default) to {@link Lz4Codec#MAX_LEVEL} (best
+ * compression). The level only affects compression; decompression speed is the same for
+ * all levels. The stream is split into blocks of {@link #BLOCK_SIZE} bytes, each of which
+ * is compressed independently, or stored raw if compressing does not make it smaller:
+ *
+ * <pre>
+ *   Header:   magic "SyLZ" (4 bytes) | version (1 byte)
+ *   Blocks:   { stored length (int) | original length (int) | CRC32 of original data (int) | data }*
+ *             end of stream marker 0 (int) | CRC32 of all original data (int)
+ * </pre>
+ *
+ * <p>A block is stored raw if its stored length equals its original length. Like the Gzip
+ * trailer, the checksums make sure that a corrupted stream is not silently decoded to wrong
+ * data: A mismatch results in an {@link IOException}. Streams of version 1 (without checksums)
+ * can still be read.
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class Lz4Transformer extends Transformer {
+	public static final String TYPE = "lz4";
+
+	public static final int VERSION = 2;
+	public static final int BLOCK_SIZE = 256 * 1024;
+
+	private static final byte[] MAGIC = new byte[] { 'S', 'y', 'L', 'Z' };
+	private static final int VERSION_WITHOUT_CHECKSUMS = 1;
+	private static final int MAX_BLOCK_SIZE = 16 * 1024 * 1024;
+	private static final int END_OF_STREAM = 0;
+
+	private int level;
+
+	public Lz4Transformer() {
+		this(Lz4Codec.MIN_LEVEL, null);
+	}
+
+	public Lz4Transformer(Transformer nextTransformer) {
+		this(Lz4Codec.MIN_LEVEL, nextTransformer);
+	}
+
+	public Lz4Transformer(int level, Transformer nextTransformer) {
+		super(nextTransformer);
+		this.level = level;
+	}
+
+	/**
+	 * Initializes the transformer. The only (optional) setting is the compression
+	 * level {@link #PROPERTY_LEVEL}. If it is not given, the fastest level is used.
+	 */
+	@Override
+	public void init(Map<String, String> settings) throws Exception {
+		level = parseLevel(settings, Lz4Codec.MIN_LEVEL, Lz4Codec.MIN_LEVEL, Lz4Codec.MAX_LEVEL);
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	@Override
+	public OutputStream createOutputStream(OutputStream out) throws IOException {
+		if (nextTransformer == null) {
+			return new Lz4OutputStream(out, level);
+		}
+		else {
+			return new Lz4OutputStream(nextTransformer.createOutputStream(out), level);
+		}
+	}
+
+	@Override
+	public InputStream createInputStream(InputStream in) throws IOException {
+		if (nextTransformer == null) {
+			return new Lz4InputStream(in);
+		}
+		else {
+			return new Lz4InputStream(nextTransformer.createInputStream(in));
+		}
+	}
+
+	@Override
+	public String toString() {
+		return (nextTransformer == null) ? "Lz4" : "Lz4-" + nextTransformer;
+	}
+
+	/**
+	 * Output stream that collects the written bytes in blocks, and writes
+	 * each block LZ4-compressed (or raw, if it is incompressible).
+	 */
+	public static class Lz4OutputStream extends OutputStream {
+		private DataOutputStream out;
+		private Lz4Codec codec;
+		private CRC32 blockChecksum;
+		private CRC32 streamChecksum;
+
+		private byte[] block;
+		private byte[] compressedBlock;
+		private int blockLength;
+
+		private boolean headerWritten;
+		private boolean closed;
+
+		public Lz4OutputStream(OutputStream out, int level) {
+			this.out = new DataOutputStream(out);
+			this.codec = new Lz4Codec(level);
+			this.blockChecksum = new CRC32();
+			this.streamChecksum = new CRC32();
+
+			this.block = new byte[BLOCK_SIZE];
+			this.compressedBlock = new byte[BLOCK_SIZE];
+			this.blockLength = 0;
+
+			this.headerWritten = false;
+			this.closed = false;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] buffer, int offset, int length) throws IOException {
+			if (closed) {
+				throw new IOException("Stream closed.");
+			}
+
+			while (length > 0) {
+				int copyLength = Math.min(length, block.length - blockLength);
+				System.arraycopy(buffer, offset, block, blockLength, copyLength);
+
+				blockLength += copyLength;
+				offset += copyLength;
+				length -= copyLength;
+
+				if (blockLength == block.length) {
+					writeBlock();
+				}
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!closed) {
+				closed = true;
+
+				writeBlock();
+
+				out.writeInt(END_OF_STREAM);
+				out.writeInt((int) streamChecksum.getValue());
+				out.close();
+			}
+		}
+
+		private void writeBlock() throws IOException {
+			if (!headerWritten) {
+				out.write(MAGIC);
+				out.writeByte(VERSION);
+
+				headerWritten = true;
+			}
+
+			if (blockLength == 0) {
+				return;
+			}
+
+			blockChecksum.reset();
+			blockChecksum.update(block, 0, blockLength);
+			streamChecksum.update(block, 0, blockLength);
+
+			// Compressed block must be smaller than the original block, or it is stored raw
+			int compressedLength = codec.compress(block, 0, blockLength, compressedBlock, 0, blockLength - 1);
+
+			if (compressedLength >= 0) {
+				out.writeInt(compressedLength);
+				out.writeInt(blockLength);
+				out.writeInt((int) blockChecksum.getValue());
+				out.write(compressedBlock, 0, compressedLength);
+			}
+			else {
+				out.writeInt(blockLength);
+				out.writeInt(blockLength);
+				out.writeInt((int) blockChecksum.getValue());
+				out.write(block, 0, blockLength);
+			}
+
+			blockLength = 0;
+		}
+	}
+
+	/**
+	 * Input stream that reads the blocks written by {@link Lz4OutputStream},
+	 * and decompresses them if necessary.
+	 */
+	public static class Lz4InputStream extends InputStream {
+		private DataInputStream in;
+		private CRC32 blockChecksum;
+		private CRC32 streamChecksum;
+
+		private byte[] block;
+		private byte[] compressedBlock;
+		private int blockPosition;
+		private int blockLength;
+
+		private boolean headerRead;
+		private boolean checksumsEnabled;
+		private boolean endOfStream;
+
+		public Lz4InputStream(InputStream in) {
+			this.in = new DataInputStream(new BufferedInputStream(in));
+			this.blockChecksum = new CRC32();
+			this.streamChecksum = new CRC32();
+
+			this.block = new byte[BLOCK_SIZE];
+			this.compressedBlock = new byte[BLOCK_SIZE];
+			this.blockPosition = 0;
+			this.blockLength = 0;
+
+			this.headerRead = false;
+			this.endOfStream = false;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (!fillBlock()) {
+				return -1;
+			}
+
+			return block[blockPosition++] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if (length == 0) {
+				return 0;
+			}
+			else if (!fillBlock()) {
+				return -1;
+			}
+
+			int readLength = Math.min(length, blockLength - blockPosition);
+			System.arraycopy(block, blockPosition, buffer, offset, readLength);
+
+			blockPosition += readLength;
+			return readLength;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return blockLength - blockPosition;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+
+		private boolean fillBlock() throws IOException {
+			while (blockPosition == blockLength) {
+				if (endOfStream) {
+					return false;
+				}
+
+				readBlock();
+			}
+
+			return true;
+		}
+
+		private void readBlock() throws IOException {
+			try {
+				if (!headerRead) {
+					readHeader();
+				}
+
+				int storedLength = in.readInt();
+
+				if (storedLength == END_OF_STREAM) {
+					if (checksumsEnabled) {
+						verifyChecksum(streamChecksum, in.readInt(), "stream");
+					}
+
+					endOfStream = true;
+					return;
+				}
+
+				int originalLength = in.readInt();
+				int expectedBlockChecksum = (checksumsEnabled) ? in.readInt() : 0;
+
+				if (storedLength < 0 || originalLength <= 0 || originalLength > MAX_BLOCK_SIZE || storedLength > originalLength) {
+					throw new IOException("Invalid LZ4 stream: Illegal block length " + storedLength + "/" + originalLength);
+				}
+
+				if (block.length < originalLength) {
+					block = new byte[originalLength];
+				}
+
+				if (storedLength == originalLength) {
+					in.readFully(block, 0, originalLength);
+				}
+				else {
+					if (compressedBlock.length < storedLength) {
+						compressedBlock = new byte[storedLength];
+					}
+
+					in.readFully(compressedBlock, 0, storedLength);
+
+					if (Lz4Codec.decompress(compressedBlock, 0, storedLength, block, 0, originalLength) != originalLength) {
+						throw new IOException("Invalid LZ4 stream: Block does not match original length " + originalLength);
+					}
+				}
+
+				if (checksumsEnabled) {
+					blockChecksum.reset();
+					blockChecksum.update(block, 0, originalLength);
+					streamChecksum.update(block, 0, originalLength);
+
+					verifyChecksum(blockChecksum, expectedBlockChecksum, "block");
+				}
+
+				blockPosition = 0;
+				blockLength = originalLength;
+			}
+			catch (EOFException e) {
+				throw new IOException("Invalid LZ4 stream: Unexpected end of stream", e);
+			}
+		}
+
+		private void readHeader() throws IOException {
+			byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+
+			if (!Arrays.equals(MAGIC, magic)) {
+				throw new IOException("Invalid LZ4 stream: Magic bytes do not match");
+			}
+
+			int version = in.readUnsignedByte();
+
+			if (version != VERSION && version != VERSION_WITHOUT_CHECKSUMS) {
+				throw new IOException("Unsupported LZ4 stream version: " + version);
+			}
+
+			checksumsEnabled = (version != VERSION_WITHOUT_CHECKSUMS);
+			headerRead = true;
+		}
+
+		private void verifyChecksum(CRC32 checksum, int expectedChecksum, String description) throws IOException {
+			if ((int) checksum.getValue() != expectedChecksum) {
+				throw new IOException("Invalid LZ4 stream: CRC32 mismatch in " + description);
+			}
+		}
+	}
+}
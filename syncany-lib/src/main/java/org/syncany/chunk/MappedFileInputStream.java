@@ -0,0 +1,210 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Input stream that reads a file via memory-mapped windows instead of via
+ * <tt>read()</tt> system calls. It is used by the {@link Chunker}s for large files
+ * (see {@link Chunker#setMappedFileThreshold(long)}).
+ * 
+ * <p>The file is mapped read-only, one window of at most <tt>windowSize</tt> bytes at
+ * a time. Bulk reads copy directly from the mapped window to the caller's buffer. 
+ * Unlike {@link java.io.FileInputStream}, a bulk read only returns less than the 
+ * requested number of bytes at the end of the file.
+ * 
+ * <p>Mapped windows are unmapped deterministically when the next window is mapped and when 
+ * the stream is {@link #close() closed}, instead of waiting for the garbage collector. This
+ * releases address space and (on Windows) the file lock immediately. If unmapping is 
+ * not supported by the JVM, the mapping is released by the garbage collector.
+ * 
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class MappedFileInputStream extends InputStream {
+	private static final Logger logger = Logger.getLogger(MappedFileInputStream.class.getSimpleName());
+	
+	public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+	
+	private RandomAccessFile randomAccessFile;
+	private FileChannel fileChannel;
+	private long fileSize;
+	private int windowSize;
+	
+	private MappedByteBuffer window;
+	private long windowOffset;
+	
+	public MappedFileInputStream(File file) throws IOException {
+		this(file, DEFAULT_WINDOW_SIZE);
+	}
+	
+	public MappedFileInputStream(File file, int windowSize) throws IOException {
+		this.randomAccessFile = new RandomAccessFile(file, "r");
+		this.fileChannel = randomAccessFile.getChannel();
+		this.fileSize = fileChannel.size();
+		this.windowSize = windowSize;
+		
+		this.window = null;
+		this.windowOffset = 0;		
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!nextWindowIfRequired()) {
+			return -1;
+		}
+		
+		return window.get() & 0xff;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		
+		int read = 0;
+		
+		while (read < len && nextWindowIfRequired()) {
+			int readFromWindow = Math.min(len - read, window.remaining());
+			window.get(b, off + read, readFromWindow);
+			
+			read += readFromWindow;
+		}
+		
+		return (read > 0) ? read : -1;
+	}
+	
+	@Override
+	public long skip(long n) throws IOException {
+		long position = getPosition();
+		long skipped = Math.max(0, Math.min(n, fileSize - position));
+		
+		if (window != null && skipped <= window.remaining()) {
+			window.position(window.position() + (int) skipped);
+		}
+		else if (skipped > 0) {
+			unmapWindow();
+			windowOffset = position + skipped;
+		}
+		
+		return skipped;
+	}
+	
+	@Override
+	public int available() throws IOException {
+		return (int) Math.min(Integer.MAX_VALUE, fileSize - getPosition());
+	}
+	
+	@Override
+	public void close() throws IOException {
+		unmapWindow();
+		
+		fileChannel.close();
+		randomAccessFile.close();
+	}
+	
+	private long getPosition() {
+		return (window != null) ? windowOffset + window.position() : windowOffset;
+	}
+	
+	/**
+	 * Maps the next window of the file if the current window is exhausted (or if 
+	 * no window has been mapped yet). 
+	 * 
+	 * @return True if there are bytes remaining in the current window, false if the end of the file has been reached
+	 */
+	private boolean nextWindowIfRequired() throws IOException {
+		if (window != null && window.hasRemaining()) {
+			return true;
+		}
+		
+		long nextWindowOffset = getPosition();
+		
+		if (nextWindowOffset >= fileSize) {
+			return false;
+		}
+		
+		unmapWindow();
+		
+		long nextWindowSize = Math.min(windowSize, fileSize - nextWindowOffset);
+		
+		window = fileChannel.map(MapMode.READ_ONLY, nextWindowOffset, nextWindowSize);
+		windowOffset = nextWindowOffset;
+		
+		return true;
+	}
+	
+	private void unmapWindow() {
+		if (window != null) {
+			windowOffset = getPosition();
+			
+			unmap(window);
+			window = null;
+		}
+	}
+	
+	/**
+	 * Unmaps the given buffer using the JVM-internal cleaner. Java does not offer a public 
+	 * API to do that, so this method tries the Java 9+ way (<tt>Unsafe.invokeCleaner()</tt>) 
+	 * and the Java 7/8 way (<tt>DirectBuffer.cleaner().clean()</tt>) via reflection.
+	 * 
+	 * <p>The buffer must not be accessed after this method has been called.
+	 */
+	private static void unmap(MappedByteBuffer buffer) {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleanerMethod = unsafeClass.getMethod("invokeCleaner", java.nio.ByteBuffer.class);
+			
+			Field theUnsafeField = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafeField.setAccessible(true);
+			
+			invokeCleanerMethod.invoke(theUnsafeField.get(null), buffer);
+			return;
+		}
+		catch (Exception e) {
+			// Not Java 9+, try Java 7/8 way below
+		}
+		
+		try {
+			Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			
+			Object cleaner = cleanerMethod.invoke(buffer);
+			
+			if (cleaner != null) {
+				Method cleanMethod = cleaner.getClass().getMethod("clean");
+				cleanMethod.setAccessible(true);
+				cleanMethod.invoke(cleaner);
+			}
+		}
+		catch (Exception e) {
+			logger.log(Level.FINE, "Cannot unmap mapped byte buffer; leaving it to the garbage collector.", e);
+		}
+	}
+}
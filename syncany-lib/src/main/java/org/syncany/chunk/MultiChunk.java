@@ -17,6 +17,7 @@
  */
 package org.syncany.chunk;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -35,9 +36,9 @@ import org.syncany.database.MultiChunkEntry.MultiChunkId;
  *      for each chunk, and {@link #isFull()} is checked for the size. 
  * 
  *  <li>When a multichunk is <i>read</i> from a file or an input stream, it can be processed sequentially using
- *      the {@link #read()} method (not used in current code!), or in a random order using the 
- *      {@link #getChunkInputStream(byte[]) getChunkInputStream()} method. Because of the latter method,
- *      <b>it is essential that random read access on a multichunk is possible</b>.
+ *      the {@link #read()}, {@link #nextChunkSlice()} or {@link #readAll(ChunkSink) readAll()} methods, or in a 
+ *      random order using the {@link #getChunkInputStream(byte[]) getChunkInputStream()} method. Because of the 
+ *      latter method, <b>it is essential that random read access on a multichunk is possible</b>.
  * </ul>
  * 
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
@@ -102,6 +103,45 @@ public abstract class MultiChunk {
      */
     // TODO [low] Method is only used by tests, not necessary anymore? Required for 'cleanup'?
     public abstract Chunk read() throws IOException; 
+    
+    /**
+     * In read mode, this method can be used to <b>sequentially</b> read the chunks of a multichunk 
+     * without copying each payload into a new array: It returns the next chunk's checksum and payload 
+     * as a bulk-readable {@link ChunkSlice}, or <tt>null</tt> if no more chunks are available.
+     * 
+     * <p>The slice is only valid until the next call to this method (or to {@link #read()}). Implementations 
+     * should override the default implementation, which is based on {@link #read()}.
+     * 
+     * @return Returns the next chunk slice, or <tt>null</tt> if no chunk is available (anymore)
+     * @throws IOException If an exception occurs when reading from the multichunk
+     */
+    public ChunkSlice nextChunkSlice() throws IOException {
+    	Chunk chunk = read();
+    	
+    	if (chunk == null) {
+    		return null;
+    	}
+    	
+    	return new ChunkSlice(chunk.getChecksum(), chunk.getSize(), new ByteArrayInputStream(chunk.getContent(), 0, chunk.getSize()));
+    }
+    
+    /**
+     * In read mode, this method walks all (remaining) chunks of a multichunk sequentially, and 
+     * passes them to the given sink until the sink returns false. It can be used to restore, verify
+     * or repack entire multichunks.
+     * 
+     * @param chunkSink Sink to which the chunks are passed, in the order in which they are stored
+     * @throws IOException If an exception occurs when reading from the multichunk, or in the sink
+     */
+    public void readAll(ChunkSink chunkSink) throws IOException {
+    	ChunkSlice chunkSlice;
+    	
+    	while (null != (chunkSlice = nextChunkSlice())) {
+    		if (!chunkSink.onChunk(chunkSlice)) {
+    			break;
+    		}
+    	}
+    }
 
     /** 
      * In read mode, this method can be used to read {@link Chunk}s in <b>random access mode</b>, using a chunk 
@@ -0,0 +1,454 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.syncany.database.ChunkEntry.ChunkChecksum;
+import org.syncany.database.MultiChunkEntry.MultiChunkId;
+
+/**
+ * The multichunk window reads chunks directly from transformed (compressed/encrypted)
+ * multichunk files, and makes sure that a multichunk is decrypted as rarely as possible.
+ *
+ * <p>When a chunk of a multichunk is requested, the multichunk file is decrypted and
+ * demultiplexed once, and its chunks are kept in memory. Since the chunks of a file are
+ * typically stored in the same or in consecutive multichunks, most chunk lookups are served
+ * from memory. The window holds at most {@link #DEFAULT_MAX_SIZE} bytes of chunk data in
+ * memory; the least recently used multichunks are evicted first.
+ *
+ * <p>Evicted multichunks, as well as multichunks that are larger than the window, are
+ * written to a spill file in the given spill directory (typically the local cache), together
+ * with an in-memory index of the chunk offsets. Chunks of these multichunks are read from
+ * the spill file instead of decrypting the multichunk again. The spill files hold at most
+ * {@link #DEFAULT_MAX_SPILL_SIZE} bytes; only multichunks evicted from there are decrypted
+ * again. Spill files are deleted by {@link #clear()}.
+ *
+ * <p>Multichunks are always read to the very end, so that the authentication tags of the
+ * cipher transformer are verified before any chunk of the multichunk is returned.
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class MultiChunkWindow {
+	private static final Logger logger = Logger.getLogger(MultiChunkWindow.class.getSimpleName());
+
+	public static final long DEFAULT_MAX_SIZE = 32 * 1024 * 1024;
+	public static final long DEFAULT_MAX_SPILL_SIZE = 256 * 1024 * 1024;
+
+	private static final String SPILL_FILE_PREFIX = "temp-window-";
+	private static final String SPILL_FILE_SUFFIX = ".tmp";
+
+	private MultiChunker multiChunker;
+	private Transformer transformer;
+	private File spillDir;
+	private long maxSize;
+	private long maxSpillSize;
+
+	private LinkedHashMap<MultiChunkId, Map<ChunkChecksum, byte[]>> multiChunks;
+	private Map<MultiChunkId, Long> multiChunkSizes;
+	private long size;
+
+	private LinkedHashMap<MultiChunkId, SpilledMultiChunk> spilledMultiChunks;
+	private long spillSize;
+
+	public MultiChunkWindow(MultiChunker multiChunker, Transformer transformer, File spillDir) {
+		this(multiChunker, transformer, spillDir, DEFAULT_MAX_SIZE, DEFAULT_MAX_SPILL_SIZE);
+	}
+
+	public MultiChunkWindow(MultiChunker multiChunker, Transformer transformer, File spillDir, long maxSize, long maxSpillSize) {
+		this.multiChunker = multiChunker;
+		this.transformer = transformer;
+		this.spillDir = spillDir;
+		this.maxSize = maxSize;
+		this.maxSpillSize = maxSpillSize;
+
+		this.multiChunks = new LinkedHashMap<MultiChunkId, Map<ChunkChecksum, byte[]>>(16, 0.75f, true);
+		this.multiChunkSizes = new HashMap<MultiChunkId, Long>();
+		this.size = 0;
+
+		this.spilledMultiChunks = new LinkedHashMap<MultiChunkId, SpilledMultiChunk>(16, 0.75f, true);
+		this.spillSize = 0;
+	}
+
+	/**
+	 * Decrypts and demultiplexes the given multichunk file, and adds its chunks to the window.
+	 * This method can be used to verify the integrity of a downloaded multichunk:
+	 * It throws an exception if the multichunk cannot be decrypted or read entirely.
+	 *
+	 * @param multiChunkId Identifier of the multichunk
+	 * @param multiChunkFile Transformed (e.g. compressed and encrypted) multichunk file
+	 * @throws IOException If the multichunk cannot be decrypted or read, e.g. because it has been tampered with
+	 */
+	public synchronized void load(MultiChunkId multiChunkId, File multiChunkFile) throws IOException {
+		MultiChunkSink multiChunkSink = readMultiChunk(multiChunkFile, null);
+		put(multiChunkId, multiChunkSink);
+	}
+
+	/**
+	 * Returns an input stream with the content of the given chunk. The chunk is read
+	 * from the window if its multichunk is loaded (in memory or in a spill file), or else 
+	 * from the given multichunk file.
+	 *
+	 * @param multiChunkId Identifier of the multichunk containing the chunk
+	 * @param multiChunkFile Transformed (e.g. compressed and encrypted) multichunk file
+	 * @param chunkChecksum Checksum of the requested chunk
+	 * @return Returns the chunk content, or <tt>null</tt> if the multichunk does not contain the chunk
+	 * @throws IOException If the multichunk cannot be decrypted or read, e.g. because it has been tampered with
+	 */
+	public synchronized InputStream getChunkInputStream(MultiChunkId multiChunkId, File multiChunkFile, ChunkChecksum chunkChecksum) throws IOException {
+		Map<ChunkChecksum, byte[]> chunks = multiChunks.get(multiChunkId);
+
+		if (chunks != null) {
+			byte[] chunk = chunks.get(chunkChecksum);
+			return (chunk != null) ? new ByteArrayInputStream(chunk) : null;
+		}
+
+		SpilledMultiChunk spilledMultiChunk = spilledMultiChunks.get(multiChunkId);
+
+		if (spilledMultiChunk != null) {
+			try {
+				byte[] chunk = spilledMultiChunk.readChunk(chunkChecksum);
+				return (chunk != null) ? new ByteArrayInputStream(chunk) : null;
+			}
+			catch (IOException e) {
+				logger.log(Level.WARNING, "Multichunk window: Cannot read spill file of multichunk " + multiChunkId + ", decrypting again.", e);
+				removeSpilled(multiChunkId);
+			}
+		}
+
+		MultiChunkSink multiChunkSink = readMultiChunk(multiChunkFile, chunkChecksum);
+		byte[] chunk = multiChunkSink.getRequestedChunk();
+
+		put(multiChunkId, multiChunkSink);
+		return (chunk != null) ? new ByteArrayInputStream(chunk) : null;
+	}
+
+	/**
+	 * Removes all multichunks from the window, and deletes all spill files.
+	 */
+	public synchronized void clear() {
+		multiChunks.clear();
+		multiChunkSizes.clear();
+		size = 0;
+
+		for (SpilledMultiChunk spilledMultiChunk : spilledMultiChunks.values()) {
+			spilledMultiChunk.delete();
+		}
+
+		spilledMultiChunks.clear();
+		spillSize = 0;
+	}
+
+	private MultiChunkSink readMultiChunk(File multiChunkFile, ChunkChecksum requestedChecksum) throws IOException {
+		MultiChunkSink multiChunkSink = new MultiChunkSink(requestedChecksum);
+		boolean multiChunkRead = false;
+
+		try {
+			InputStream multiChunkInputStream = transformer.createInputStream(new BufferedInputStream(new FileInputStream(multiChunkFile)));
+
+			try {
+				MultiChunk multiChunk = multiChunker.createMultiChunk(multiChunkInputStream);
+				multiChunk.readAll(multiChunkSink);
+
+				// Read remaining data (e.g. container index, authentication tags)
+				byte[] buffer = new byte[8192];
+				while (-1 != multiChunkInputStream.read(buffer));
+			}
+			finally {
+				multiChunkInputStream.close();
+			}
+
+			multiChunkSink.close();
+			multiChunkRead = true;
+		}
+		finally {
+			if (!multiChunkRead) {
+				multiChunkSink.abort(); // Do not keep chunks of unverified multichunks
+			}
+		}
+
+		return multiChunkSink;
+	}
+
+	private void put(MultiChunkId multiChunkId, MultiChunkSink multiChunkSink) {
+		if (multiChunkSink.getChunks() != null) {
+			put(multiChunkId, multiChunkSink.getChunks());
+		}
+		else {
+			putSpilled(multiChunkId, multiChunkSink.getSpilledMultiChunk());
+		}
+	}
+
+	private void put(MultiChunkId multiChunkId, Map<ChunkChecksum, byte[]> chunks) {
+		if (multiChunks.containsKey(multiChunkId)) {
+			return;
+		}
+
+		long multiChunkSize = 0;
+
+		for (byte[] chunk : chunks.values()) {
+			multiChunkSize += chunk.length;
+		}
+
+		Iterator<Map.Entry<MultiChunkId, Map<ChunkChecksum, byte[]>>> eldestIterator = multiChunks.entrySet().iterator();
+
+		while (size + multiChunkSize > maxSize && eldestIterator.hasNext()) {
+			Map.Entry<MultiChunkId, Map<ChunkChecksum, byte[]>> eldestEntry = eldestIterator.next();
+			eldestIterator.remove();
+
+			size -= multiChunkSizes.remove(eldestEntry.getKey());
+			spill(eldestEntry.getKey(), eldestEntry.getValue());
+		}
+
+		removeSpilled(multiChunkId);
+
+		multiChunks.put(multiChunkId, chunks);
+		multiChunkSizes.put(multiChunkId, multiChunkSize);
+		size += multiChunkSize;
+	}
+
+	private void spill(MultiChunkId multiChunkId, Map<ChunkChecksum, byte[]> chunks) {
+		SpilledMultiChunk spilledMultiChunk = null;
+
+		try {
+			spilledMultiChunk = new SpilledMultiChunk(createSpillFile());
+
+			for (Map.Entry<ChunkChecksum, byte[]> chunk : chunks.entrySet()) {
+				spilledMultiChunk.writeChunk(chunk.getKey(), chunk.getValue());
+			}
+
+			spilledMultiChunk.close();
+		}
+		catch (IOException e) {
+			logger.log(Level.WARNING, "Multichunk window: Cannot write spill file, evicted multichunk " + multiChunkId + " entirely.", e);
+
+			if (spilledMultiChunk != null) {
+				spilledMultiChunk.delete();
+			}
+
+			return;
+		}
+
+		logger.log(Level.FINE, "Multichunk window: Evicted multichunk " + multiChunkId + " to spill file");
+		putSpilled(multiChunkId, spilledMultiChunk);
+	}
+
+	private void putSpilled(MultiChunkId multiChunkId, SpilledMultiChunk spilledMultiChunk) {
+		if (multiChunks.containsKey(multiChunkId) || spilledMultiChunks.containsKey(multiChunkId) || spilledMultiChunk.getSize() > maxSpillSize) {
+			spilledMultiChunk.delete();
+			return;
+		}
+
+		Iterator<Map.Entry<MultiChunkId, SpilledMultiChunk>> eldestIterator = spilledMultiChunks.entrySet().iterator();
+
+		while (spillSize + spilledMultiChunk.getSize() > maxSpillSize && eldestIterator.hasNext()) {
+			Map.Entry<MultiChunkId, SpilledMultiChunk> eldestEntry = eldestIterator.next();
+			eldestIterator.remove();
+
+			spillSize -= eldestEntry.getValue().getSize();
+			eldestEntry.getValue().delete();
+
+			logger.log(Level.FINE, "Multichunk window: Evicted multichunk " + eldestEntry.getKey() + " from spill file");
+		}
+
+		spilledMultiChunks.put(multiChunkId, spilledMultiChunk);
+		spillSize += spilledMultiChunk.getSize();
+	}
+
+	private void removeSpilled(MultiChunkId multiChunkId) {
+		SpilledMultiChunk spilledMultiChunk = spilledMultiChunks.remove(multiChunkId);
+
+		if (spilledMultiChunk != null) {
+			spillSize -= spilledMultiChunk.getSize();
+			spilledMultiChunk.delete();
+		}
+	}
+
+	private File createSpillFile() throws IOException {
+		return File.createTempFile(SPILL_FILE_PREFIX, SPILL_FILE_SUFFIX, spillDir);
+	}
+
+	/**
+	 * Collects the chunks of a multichunk in memory until their total size exceeds the
+	 * window size. After that, all chunks are written to a spill file. The requested chunk
+	 * (if any) is always kept in memory.
+	 */
+	private class MultiChunkSink implements ChunkSink {
+		private ChunkChecksum requestedChecksum;
+		private byte[] requestedChunk;
+
+		private Map<ChunkChecksum, byte[]> chunks;
+		private long chunksSize;
+
+		private SpilledMultiChunk spilledMultiChunk;
+
+		public MultiChunkSink(ChunkChecksum requestedChecksum) {
+			this.requestedChecksum = requestedChecksum;
+			this.requestedChunk = null;
+
+			this.chunks = new HashMap<ChunkChecksum, byte[]>();
+			this.chunksSize = 0;
+
+			this.spilledMultiChunk = null;
+		}
+
+		@Override
+		public boolean onChunk(ChunkSlice chunkSlice) throws IOException {
+			ChunkChecksum chunkChecksum = new ChunkChecksum(chunkSlice.getChecksum());
+			byte[] chunk = chunkSlice.toByteArray();
+
+			if (chunkChecksum.equals(requestedChecksum)) {
+				requestedChunk = chunk;
+			}
+
+			if (chunks != null && chunksSize + chunk.length > maxSize) {
+				spillChunks(); // Too large for the window
+			}
+
+			if (chunks != null) {
+				chunks.put(chunkChecksum, chunk);
+				chunksSize += chunk.length;
+			}
+			else {
+				spilledMultiChunk.writeChunk(chunkChecksum, chunk);
+			}
+
+			return true;
+		}
+
+		private void spillChunks() throws IOException {
+			spilledMultiChunk = new SpilledMultiChunk(createSpillFile());
+
+			for (Map.Entry<ChunkChecksum, byte[]> chunk : chunks.entrySet()) {
+				spilledMultiChunk.writeChunk(chunk.getKey(), chunk.getValue());
+			}
+
+			chunks = null;
+		}
+
+		public void close() throws IOException {
+			if (spilledMultiChunk != null) {
+				spilledMultiChunk.close();
+			}
+		}
+
+		public void abort() {
+			if (spilledMultiChunk != null) {
+				spilledMultiChunk.delete();
+			}
+		}
+
+		public Map<ChunkChecksum, byte[]> getChunks() {
+			return chunks;
+		}
+
+		public SpilledMultiChunk getSpilledMultiChunk() {
+			return spilledMultiChunk;
+		}
+
+		public byte[] getRequestedChunk() {
+			return requestedChunk;
+		}
+	}
+
+	/**
+	 * Decrypted chunks of a multichunk in a spill file, and the offset and
+	 * length of each chunk in that file.
+	 */
+	private static class SpilledMultiChunk {
+		private File spillFile;
+		private OutputStream spillOutputStream;
+
+		private Map<ChunkChecksum, long[]> chunkLocations;
+		private long size;
+
+		public SpilledMultiChunk(File spillFile) throws IOException {
+			this.spillFile = spillFile;
+			this.spillOutputStream = new BufferedOutputStream(new FileOutputStream(spillFile));
+
+			this.chunkLocations = new HashMap<ChunkChecksum, long[]>();
+			this.size = 0;
+		}
+
+		public void writeChunk(ChunkChecksum chunkChecksum, byte[] chunk) throws IOException {
+			spillOutputStream.write(chunk);
+
+			chunkLocations.put(chunkChecksum, new long[] { size, chunk.length });
+			size += chunk.length;
+		}
+
+		public byte[] readChunk(ChunkChecksum chunkChecksum) throws IOException {
+			long[] chunkLocation = chunkLocations.get(chunkChecksum);
+
+			if (chunkLocation == null) {
+				return null;
+			}
+
+			RandomAccessFile spillRandomAccessFile = new RandomAccessFile(spillFile, "r");
+
+			try {
+				byte[] chunk = new byte[(int) chunkLocation[1]];
+
+				spillRandomAccessFile.seek(chunkLocation[0]);
+				spillRandomAccessFile.readFully(chunk);
+
+				return chunk;
+			}
+			finally {
+				spillRandomAccessFile.close();
+			}
+		}
+
+		public void close() throws IOException {
+			if (spillOutputStream != null) {
+				spillOutputStream.close();
+				spillOutputStream = null;
+			}
+		}
+
+		public void delete() {
+			try {
+				close();
+			}
+			catch (IOException e) {
+				logger.log(Level.FINE, "Multichunk window: Cannot close spill file " + spillFile, e);
+			}
+
+			spillFile.delete();
+		}
+
+		public long getSize() {
+			return size;
+		}
+	}
+}
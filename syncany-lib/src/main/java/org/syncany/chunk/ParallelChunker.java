@@ -0,0 +1,459 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The parallel chunker chunks large files on multiple cores, and emits exactly the 
+ * same chunks (in the same order) as the underlying {@link ParallelizableChunker} would
+ * emit sequentially. Files smaller than the parallel file threshold are delegated to
+ * the underlying chunker.
+ * 
+ * <p>Large files are split into segments of {@link #DEFAULT_SEGMENT_SIZE} bytes. Each segment 
+ * is chunked <i>speculatively</i> by a worker thread, starting at the segment's first byte,
+ * and the chunk checksums are calculated by the worker. Because the real chunk sequence of
+ * the file (determined by the previous segment) usually does not start exactly at the 
+ * segment start, the enumeration re-synchronizes at the segment edges: It chunks sequentially
+ * from the real chunk start until it hits a chunk start of the speculative sequence. Since
+ * the breakpoints of a parallelizable chunker only depend on the chunk start, all following
+ * chunks of the segment are identical to the speculative ones.
+ * 
+ * <p>Chunks are emitted in file order, so {@link DeduperListener} callbacks and the order of 
+ * chunks in a file content are unchanged. The file checksum is calculated sequentially 
+ * while the chunks are emitted. At most as many segments as there are worker threads are 
+ * read ahead, limiting memory usage to about <tt>threads * (segmentSize + maxChunkSize)</tt>.
+ * 
+ * @see ParallelizableChunker
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class ParallelChunker extends Chunker {
+	private static final Logger logger = Logger.getLogger(ParallelChunker.class.getSimpleName());
+	
+	/**
+	 * Property used by the config to set the minimum file size (in bytes) above
+	 * which files are chunked in parallel. If the property is not set, files are
+	 * never chunked in parallel. 
+	 */
+	public static final String PROPERTY_PARALLEL_FILE_THRESHOLD = "parallelfilethreshold";
+	
+	public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+	
+	private Chunker chunker;
+	private ParallelizableChunker parallelizableChunker;
+	private long parallelFileThreshold;
+	private int segmentSize;
+	private int threads;
+	private ExecutorService executor;
+	
+	/**
+	 * Creates a new parallel chunker using one worker thread per available processor and 
+	 * the default segment size.
+	 * 
+	 * @param chunker Underlying chunker; must implement {@link ParallelizableChunker}
+	 * @param parallelFileThreshold Minimum file size in bytes above which files are chunked in parallel
+	 */
+	public ParallelChunker(Chunker chunker, long parallelFileThreshold) {
+		this(chunker, parallelFileThreshold, DEFAULT_SEGMENT_SIZE, Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Creates a new parallel chunker.
+	 * 
+	 * @param chunker Underlying chunker; must implement {@link ParallelizableChunker}
+	 * @param parallelFileThreshold Minimum file size in bytes above which files are chunked in parallel
+	 * @param segmentSize Size of the segments chunked by the worker threads; must be larger than the max. chunk size
+	 * @param threads Number of worker threads
+	 */
+	public ParallelChunker(Chunker chunker, long parallelFileThreshold, int segmentSize, int threads) {
+		if (!(chunker instanceof ParallelizableChunker)) {
+			throw new IllegalArgumentException("Chunker " + chunker + " cannot be parallelized.");
+		}
+		
+		this.chunker = chunker;
+		this.parallelizableChunker = (ParallelizableChunker) chunker;
+		this.parallelFileThreshold = parallelFileThreshold;
+		this.segmentSize = segmentSize;
+		this.threads = threads;
+		
+		if (segmentSize <= parallelizableChunker.getMaxChunkSize()) {
+			throw new IllegalArgumentException("Segment size must be larger than the max. chunk size.");
+		}
+		
+		this.executor = createExecutor(threads);
+	}
+	
+	@Override
+	public void init(Map<String, String> settings) {
+		chunker.init(settings);
+	}
+	
+	@Override
+	public void setMappedFileThreshold(long mappedFileThreshold) {
+		chunker.setMappedFileThreshold(mappedFileThreshold);
+	}
+	
+	@Override
+	public long getMappedFileThreshold() {
+		return chunker.getMappedFileThreshold();
+	}
+	
+	@Override
+	public void setBufferPool(ChunkBufferPool bufferPool) {
+		super.setBufferPool(bufferPool);
+		chunker.setBufferPool(bufferPool);
+	}
+
+	@Override
+	public ChunkEnumeration createChunks(File file) throws IOException {
+		if (file.length() >= parallelFileThreshold) {
+			return new ParallelChunkEnumeration(file);
+		}
+		else {
+			return chunker.createChunks(file);
+		}
+	}
+	
+	@Override
+	protected int getSmallFileThreshold() {
+		return chunker.getSmallFileThreshold();
+	}
+
+	@Override
+	public String getChecksumAlgorithm() {
+		return chunker.getChecksumAlgorithm();
+	}
+	
+	@Override
+	public String toString() {
+		return chunker.toString();
+	}
+	
+	public Chunker getChunker() {
+		return chunker;
+	}
+
+	private static ExecutorService createExecutor(int threads) {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), 
+			new ThreadFactory() {
+				private AtomicInteger threadNumber = new AtomicInteger(1);
+	
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "ParChunker-" + threadNumber.getAndIncrement());
+					thread.setDaemon(true);
+					
+					return thread;
+				}
+			});
+		
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+	
+	/**
+	 * Chunk enumeration that reads and chunks segments of a file in parallel, and 
+	 * emits the re-synchronized chunks in file order. 
+	 * 
+	 * <p><b>Note:</b> The contents of an emitted {@link Chunk} are only valid until the next 
+	 * call to {@link #nextElement()}.
+	 */
+	public class ParallelChunkEnumeration implements ChunkEnumeration {
+		private RandomAccessFile randomAccessFile;
+		private FileChannel fileChannel;
+		private long fileSize;
+		private boolean closed;
+		
+		private long nextSegmentOffset;
+		private LinkedList<Future<Segment>> segmentQueue;
+		
+		private Segment segment;
+		private int speculativeChunkIndex;
+		private long position;
+		
+		private ChunkBuffer chunkBuffer;
+		private MessageDigest chunkDigest;
+		private MessageDigest fileDigest;
+		
+		public ParallelChunkEnumeration(File file) throws IOException {
+			this.randomAccessFile = new RandomAccessFile(file, "r");
+			this.fileChannel = randomAccessFile.getChannel();
+			this.fileSize = fileChannel.size();
+			this.closed = (fileSize == 0);
+			
+			this.nextSegmentOffset = 0;
+			this.segmentQueue = new LinkedList<Future<Segment>>();
+			
+			this.segment = null;
+			this.speculativeChunkIndex = -1;
+			this.position = 0;
+			
+			this.chunkBuffer = bufferPool.acquire(parallelizableChunker.getMaxChunkSize());
+			
+			try {
+				this.chunkDigest = MessageDigest.getInstance(getChecksumAlgorithm());
+				this.fileDigest = MessageDigest.getInstance(getChecksumAlgorithm());
+			}
+			catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+			
+			if (closed) {
+				close();
+			}
+			else {
+				submitSegments();
+			}
+		}
+
+		@Override
+		public boolean hasMoreElements() {
+			return !closed;
+		}
+
+		@Override
+		public Chunk nextElement() {
+			if (closed) {
+				return null;
+			}
+			
+			try {
+				// Move to next segment (and re-synchronize)
+				while (segment == null || position >= segment.end) {
+					if (segment != null) {
+						segment.buffer.release();
+					}
+					
+					segment = segmentQueue.removeFirst().get();
+					speculativeChunkIndex = segment.indexOfChunkStart(position);
+					
+					submitSegments();
+				}
+				
+				int chunkOffset = (int) (position - segment.offset);
+				int chunkSize;
+				byte[] chunkChecksum;
+				
+				if (speculativeChunkIndex >= 0) {
+					// In sync: Use chunk from worker
+					chunkSize = segment.chunkSizes[speculativeChunkIndex];
+					chunkChecksum = segment.chunkChecksums[speculativeChunkIndex];
+					
+					speculativeChunkIndex = (speculativeChunkIndex+1 < segment.chunkCount) ? speculativeChunkIndex+1 : -1;
+				}
+				else {
+					// Not in sync (yet): Chunk sequentially until a speculative chunk start is hit
+					chunkSize = parallelizableChunker.nextBreakpoint(segment.data, chunkOffset, segment.dataLength - chunkOffset);
+					
+					chunkDigest.reset();
+					chunkDigest.update(segment.data, chunkOffset, chunkSize);
+					chunkChecksum = chunkDigest.digest();
+					
+					speculativeChunkIndex = segment.indexOfChunkStart(position + chunkSize);
+				}
+				
+				System.arraycopy(segment.data, chunkOffset, chunkBuffer.getArray(), 0, chunkSize);				
+				fileDigest.update(chunkBuffer.getArray(), 0, chunkSize);
+				
+				position += chunkSize;
+				
+				// The chunk holds its own reference to the buffer, so it stays valid after close()
+				byte[] fileChecksum = (position >= fileSize) ? fileDigest.digest() : null;
+				Chunk chunk = new Chunk(chunkChecksum, chunkBuffer.retain(), chunkSize, fileChecksum);
+				
+				// Close if this was the last chunk
+				if (position >= fileSize) {
+					close();
+				}
+				
+				return chunk;
+			}
+			catch (Exception e) {
+				logger.log(Level.SEVERE, "Error while retrieving next chunk.", e);
+				close();
+				
+				return null;
+			}
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+			
+			for (Future<Segment> segmentFuture : segmentQueue) {
+				if (!segmentFuture.cancel(true)) {
+					releaseSegment(segmentFuture);
+				}
+			}
+			
+			segmentQueue.clear();
+			
+			if (segment != null) {
+				segment.buffer.release();
+				segment = null;
+			}
+			
+			if (chunkBuffer != null) {
+				chunkBuffer.release();
+				chunkBuffer = null;
+			}
+			
+			try { fileChannel.close(); randomAccessFile.close(); }
+			catch (Exception e) { /* Not necessary */ }
+		}
+		
+		/**
+		 * Returns the buffer of a segment that has already been chunked to the pool. 
+		 * Buffers of cancelled or failed segments are left to the garbage collector.
+		 */
+		private void releaseSegment(Future<Segment> segmentFuture) {
+			try {
+				segmentFuture.get().buffer.release();
+			}
+			catch (Exception e) {
+				// Not necessary
+			}
+		}
+		
+		/**
+		 * Submits segments to the worker threads until as many segments as 
+		 * there are workers are queued (or the end of the file is reached).
+		 */
+		private void submitSegments() {
+			while (segmentQueue.size() < threads && nextSegmentOffset < fileSize) {
+				final long segmentOffset = nextSegmentOffset;
+				final long segmentEnd = Math.min(fileSize, segmentOffset + segmentSize);
+				
+				segmentQueue.add(executor.submit(new Callable<Segment>() {
+					@Override
+					public Segment call() throws Exception {
+						return chunkSegment(segmentOffset, segmentEnd);
+					}
+				}));
+				
+				nextSegmentOffset = segmentEnd;
+			}
+		}
+		
+		/**
+		 * Reads the given segment (plus the max. chunk size to finish the last chunk) and 
+		 * chunks it speculatively, starting at the first byte of the segment. 
+		 */
+		private Segment chunkSegment(long segmentOffset, long segmentEnd) throws Exception {
+			int dataLength = (int) (Math.min(fileSize, segmentEnd + parallelizableChunker.getMaxChunkSize()) - segmentOffset);
+			ChunkBuffer buffer = bufferPool.acquire(dataLength);
+			byte[] data = buffer.getArray();
+			ByteBuffer dataBuffer = ByteBuffer.wrap(data, 0, dataLength);
+			
+			while (dataBuffer.hasRemaining()) {
+				if (fileChannel.read(dataBuffer, segmentOffset + dataBuffer.position()) == -1) {
+					buffer.release();
+					throw new IOException("Unexpected end of file; file changed while chunking.");
+				}
+			}
+			
+			MessageDigest segmentChunkDigest = MessageDigest.getInstance(getChecksumAlgorithm());
+			Segment segment = new Segment(segmentOffset, segmentEnd, buffer, dataLength);
+			int chunkOffset = 0;
+			
+			while (chunkOffset < segmentEnd - segmentOffset) {
+				int chunkSize = parallelizableChunker.nextBreakpoint(data, chunkOffset, dataLength - chunkOffset);
+				
+				segmentChunkDigest.reset();
+				segmentChunkDigest.update(data, chunkOffset, chunkSize);
+				
+				segment.addChunk(chunkOffset, chunkSize, segmentChunkDigest.digest());
+				chunkOffset += chunkSize;
+			}
+			
+			return segment;
+		}
+	}
+	
+	/**
+	 * A segment of a file and its speculatively calculated chunks. The segment
+	 * data contains the bytes from <tt>offset</tt> to <tt>end</tt>, plus up to the 
+	 * max. chunk size of bytes after it.
+	 */
+	private static class Segment {
+		private long offset;
+		private long end;
+		private ChunkBuffer buffer;
+		private byte[] data;
+		private int dataLength;
+		
+		private int chunkCount;
+		private long[] chunkStarts;
+		private int[] chunkSizes;
+		private byte[][] chunkChecksums;
+		
+		public Segment(long offset, long end, ChunkBuffer buffer, int dataLength) {
+			this.offset = offset;
+			this.end = end;
+			this.buffer = buffer;
+			this.data = buffer.getArray();
+			this.dataLength = dataLength;
+			
+			this.chunkCount = 0;
+			this.chunkStarts = new long[64];
+			this.chunkSizes = new int[64];
+			this.chunkChecksums = new byte[64][];
+		}
+		
+		public void addChunk(int chunkOffset, int chunkSize, byte[] chunkChecksum) {
+			if (chunkCount == chunkStarts.length) {
+				chunkStarts = Arrays.copyOf(chunkStarts, chunkCount * 2);
+				chunkSizes = Arrays.copyOf(chunkSizes, chunkCount * 2);
+				chunkChecksums = Arrays.copyOf(chunkChecksums, chunkCount * 2);
+			}
+			
+			chunkStarts[chunkCount] = offset + chunkOffset;
+			chunkSizes[chunkCount] = chunkSize;
+			chunkChecksums[chunkCount] = chunkChecksum;
+			
+			chunkCount++;
+		}
+		
+		/**
+		 * Returns the index of the speculative chunk starting at the given file 
+		 * position, or -1 if no speculative chunk starts there.
+		 */
+		public int indexOfChunkStart(long position) {
+			int index = Arrays.binarySearch(chunkStarts, 0, chunkCount, position);
+			return (index >= 0) ? index : -1;
+		}
+	}
+}
@@ -0,0 +1,313 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip output stream that compresses blocks of the input on multiple threads, similar
+ * to <a href="http://zlib.net/pigz/">pigz</a>. The output is a single standard Gzip
+ * member that can be read by any Gzip decoder, e.g. the {@link java.util.zip.GZIPInputStream GZIPInputStream}.
+ *
+ * <p>The input is split into blocks of the given block size. Each block is compressed
+ * independently into a raw Deflate stream that ends with a sync flush marker (an empty
+ * stored block), so that the compressed blocks can be concatenated. To retain most of
+ * the compression ratio, the last 32 KB of the previous block are used as preset
+ * dictionary for each block. The CRC-32 checksum of the Gzip trailer is calculated
+ * while writing.
+ *
+ * <p>The blocks are compressed on a thread pool shared by all streams. At most
+ * <tt>threads</tt> blocks of a stream are compressed at the same time. If the stream is
+ * smaller than a single block, it is compressed on the calling thread on {@link #close()}.
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+	public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+	private static final byte[] GZIP_HEADER = new byte[] { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+	private static ExecutorService sharedExecutor;
+
+	private OutputStream out;
+	private int level;
+	private int blockSize;
+	private int threads;
+
+	private byte[] block;
+	private int blockLength;
+	private byte[] previousBlock;
+
+	private CRC32 crc;
+	private long totalLength;
+	private LinkedList<Future<byte[]>> compressedBlockFutures;
+
+	private boolean headerWritten;
+	private boolean closed;
+
+	public ParallelGzipOutputStream(OutputStream out, int level, int threads) {
+		this(out, level, DEFAULT_BLOCK_SIZE, threads);
+	}
+
+	public ParallelGzipOutputStream(OutputStream out, int level, int blockSize, int threads) {
+		if (blockSize < DICTIONARY_SIZE || threads < 1) {
+			throw new IllegalArgumentException("Block size must be at least " + DICTIONARY_SIZE + " bytes, and at least one thread is required.");
+		}
+
+		this.out = out;
+		this.level = level;
+		this.blockSize = blockSize;
+		this.threads = threads;
+
+		this.block = new byte[blockSize];
+		this.blockLength = 0;
+		this.previousBlock = null;
+
+		this.crc = new CRC32();
+		this.totalLength = 0;
+		this.compressedBlockFutures = new LinkedList<Future<byte[]>>();
+
+		this.headerWritten = false;
+		this.closed = false;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] buffer, int offset, int length) throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed.");
+		}
+
+		crc.update(buffer, offset, length);
+		totalLength += length;
+
+		while (length > 0) {
+			int copyLength = Math.min(length, blockSize - blockLength);
+			System.arraycopy(buffer, offset, block, blockLength, copyLength);
+
+			blockLength += copyLength;
+			offset += copyLength;
+			length -= copyLength;
+
+			if (blockLength == blockSize) {
+				submitBlock();
+			}
+		}
+	}
+
+	/**
+	 * Writes all blocks that have been compressed so far, without waiting for blocks
+	 * that are still being compressed. The data of the current (incomplete) block is not
+	 * flushed, because flushing it would reduce the compression ratio.
+	 */
+	@Override
+	public void flush() throws IOException {
+		writeCompressedBlocks(false);
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+
+		closed = true;
+
+		try {
+			writeHeader();
+
+			// Last block; compressed on this thread, while the others are still being compressed
+			byte[] lastCompressedBlock = new BlockCompressor(block, blockLength, previousBlock, level, true).call();
+
+			writeCompressedBlocks(true);
+			out.write(lastCompressedBlock);
+
+			writeTrailer();
+			out.close();
+		}
+		catch (IOException e) {
+			cancelCompressedBlocks();
+			throw e;
+		}
+	}
+
+	private void submitBlock() throws IOException {
+		writeHeader();
+
+		// Limit blocks in progress (and thereby memory usage)
+		if (compressedBlockFutures.size() >= threads) {
+			writeCompressedBlock(compressedBlockFutures.removeFirst());
+		}
+
+		compressedBlockFutures.add(getSharedExecutor().submit(new BlockCompressor(block, blockLength, previousBlock, level, false)));
+
+		previousBlock = block;
+		block = new byte[blockSize];
+		blockLength = 0;
+
+		writeCompressedBlocks(false);
+	}
+
+	private void writeCompressedBlocks(boolean wait) throws IOException {
+		while (!compressedBlockFutures.isEmpty() && (wait || compressedBlockFutures.getFirst().isDone())) {
+			writeCompressedBlock(compressedBlockFutures.removeFirst());
+		}
+	}
+
+	private void writeCompressedBlock(Future<byte[]> compressedBlockFuture) throws IOException {
+		try {
+			out.write(compressedBlockFuture.get());
+		}
+		catch (InterruptedException e) {
+			cancelCompressedBlocks();
+			Thread.currentThread().interrupt();
+
+			throw new IOException("Interrupted while waiting for block to be compressed.", e);
+		}
+		catch (ExecutionException e) {
+			cancelCompressedBlocks();
+			throw new IOException("Cannot compress block.", e.getCause());
+		}
+	}
+
+	private void cancelCompressedBlocks() {
+		for (Future<byte[]> compressedBlockFuture : compressedBlockFutures) {
+			compressedBlockFuture.cancel(true);
+		}
+
+		compressedBlockFutures.clear();
+	}
+
+	private void writeHeader() throws IOException {
+		if (!headerWritten) {
+			out.write(GZIP_HEADER);
+			headerWritten = true;
+		}
+	}
+
+	private void writeTrailer() throws IOException {
+		writeIntLittleEndian((int) crc.getValue());
+		writeIntLittleEndian((int) totalLength); // Modulo 2^32, as per RFC 1952
+	}
+
+	private void writeIntLittleEndian(int value) throws IOException {
+		out.write(new byte[] { (byte) value, (byte) (value >>> 8), (byte) (value >>> 16), (byte) (value >>> 24) });
+	}
+
+	private static synchronized ExecutorService getSharedExecutor() {
+		if (sharedExecutor == null) {
+			int threads = Runtime.getRuntime().availableProcessors();
+
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					private AtomicInteger threadNumber = new AtomicInteger(1);
+
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "ParGzip-" + threadNumber.getAndIncrement());
+						thread.setDaemon(true);
+
+						return thread;
+					}
+				});
+
+			executor.allowCoreThreadTimeOut(true);
+			sharedExecutor = executor;
+		}
+
+		return sharedExecutor;
+	}
+
+	/**
+	 * Compresses a single block into a raw Deflate stream. All but the last block end
+	 * with a sync flush, the last block ends the Deflate stream.
+	 */
+	private static class BlockCompressor implements Callable<byte[]> {
+		private byte[] block;
+		private int blockLength;
+		private byte[] previousBlock;
+		private int level;
+		private boolean lastBlock;
+
+		public BlockCompressor(byte[] block, int blockLength, byte[] previousBlock, int level, boolean lastBlock) {
+			this.block = block;
+			this.blockLength = blockLength;
+			this.previousBlock = previousBlock;
+			this.level = level;
+			this.lastBlock = lastBlock;
+		}
+
+		@Override
+		public byte[] call() {
+			Deflater deflater = new Deflater(level, true);
+
+			try {
+				if (previousBlock != null) {
+					deflater.setDictionary(previousBlock, previousBlock.length - DICTIONARY_SIZE, DICTIONARY_SIZE);
+				}
+
+				deflater.setInput(block, 0, blockLength);
+
+				ByteArrayOutputStream compressedBlockOutputStream = new ByteArrayOutputStream(blockLength / 2 + 64);
+				byte[] buffer = new byte[64 * 1024];
+
+				if (lastBlock) {
+					deflater.finish();
+
+					while (!deflater.finished()) {
+						int compressedLength = deflater.deflate(buffer);
+						compressedBlockOutputStream.write(buffer, 0, compressedLength);
+					}
+				}
+				else {
+					int compressedLength;
+
+					do {
+						compressedLength = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+						compressedBlockOutputStream.write(buffer, 0, compressedLength);
+					} while (compressedLength == buffer.length);
+				}
+
+				return compressedBlockOutputStream.toByteArray();
+			}
+			finally {
+				deflater.end();
+			}
+		}
+	}
+}
@@ -0,0 +1,58 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.chunk;
+
+/**
+ * A parallelizable chunker determines each breakpoint only from the start of
+ * the current chunk and the data following it, i.e. it does not carry any state
+ * from one chunk to the next. 
+ * 
+ * <p>This property allows the {@link ParallelChunker} to chunk segments of a file 
+ * independently on multiple cores: As soon as the chunk sequence of a segment hits 
+ * the same chunk start as the chunk sequence of the previous segment, both sequences
+ * are identical from there on.
+ * 
+ * @see ParallelChunker
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public interface ParallelizableChunker {
+	/**
+	 * Returns the size of the chunk starting at <tt>off</tt> in the given buffer. The 
+	 * method must return the same value as the chunker's sequential {@link Chunker.ChunkEnumeration ChunkEnumeration}
+	 * would, if <tt>len</tt> is at least {@link #getMaxChunkSize()}, or if the buffer 
+	 * contains all remaining bytes of the file. 
+	 * 
+	 * @param buf Buffer containing the data to be chunked
+	 * @param off Offset of the chunk start in the buffer
+	 * @param len Number of bytes available in the buffer (starting at <tt>off</tt>)
+	 * @return Size of the chunk starting at <tt>off</tt> (0 only if <tt>len</tt> is 0)
+	 */
+	public int nextBreakpoint(byte[] buf, int off, int len);
+	
+	/**
+	 * Returns the maximum size of a chunk in bytes.
+	 */
+	public int getMaxChunkSize();
+	
+	/**
+	 * Returns the checksum algorithm used to calculate the chunk and file checksums.
+	 * 
+	 * @see Chunker#getChecksumAlgorithm()
+	 */
+	public String getChecksumAlgorithm();
+}
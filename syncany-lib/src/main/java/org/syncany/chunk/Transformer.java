@@ -42,6 +42,13 @@ import org.syncany.util.StringUtil;
  */
 public abstract class Transformer {
 	private static final Logger logger = Logger.getLogger(Transformer.class.getSimpleName());
+	
+	/**
+	 * Property used by compressing transformers to set the compression level, 
+	 * e.g. <tt>1</tt> for the fastest compression and <tt>9</tt> for the best compression. 
+	 */
+	public static final String PROPERTY_LEVEL = "level";
+	
     protected Transformer nextTransformer;
     
     /**
@@ -125,6 +132,40 @@ public abstract class Transformer {
 		}		
 	}    
 
+	/**
+	 * Parses the {@link #PROPERTY_LEVEL compression level} setting, if it is given. Used by
+	 * compressing transformers in their {@link #init(Map) init()} method.
+	 * 
+	 * @param settings Implementation-specific setting map (may be <tt>null</tt>)
+	 * @param defaultLevel Level to return if the setting is not given
+	 * @param minLevel Minimum allowed level
+	 * @param maxLevel Maximum allowed level
+	 * @return Returns the parsed level, or the default level
+	 * @throws Exception If the setting is not a number, or not within the allowed range
+	 */
+	protected int parseLevel(Map<String, String> settings, int defaultLevel, int minLevel, int maxLevel) throws Exception {
+		String levelStr = (settings != null) ? settings.get(PROPERTY_LEVEL) : null;
+
+		if (levelStr == null) {
+			return defaultLevel;
+		}
+		
+		int level;
+		
+		try {
+			level = Integer.parseInt(levelStr);
+		}
+		catch (NumberFormatException e) {
+			throw new Exception("Setting '" + PROPERTY_LEVEL + "' must be a number, but is '" + levelStr + "'");
+		}
+
+		if (level < minLevel || level > maxLevel) {
+			throw new Exception("Setting '" + PROPERTY_LEVEL + "' must be between " + minLevel + " and " + maxLevel + ", but is " + level);
+		}
+		
+		return level;
+	}
+
 	public void setNextTransformer(Transformer nextTransformer) {
 		this.nextTransformer = nextTransformer;
 	}
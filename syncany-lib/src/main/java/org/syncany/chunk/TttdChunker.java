@@ -18,7 +18,6 @@
 package org.syncany.chunk;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.MessageDigest;
@@ -116,8 +115,18 @@ public class TttdChunker extends Chunker {
    
     @Override
     public ChunkEnumeration createChunks(File file) throws IOException {
-        return new TTTDEnumeration(new FileInputStream(file));
+        ChunkEnumeration smallFileChunks = createSmallFileChunks(file);
+        return (smallFileChunks != null) ? smallFileChunks : new TTTDEnumeration(openFile(file));
     }    
+    
+    /**
+     * Files up to <i>Tmin</i> bytes never contain a breakpoint, and are hence
+     * emitted as a single chunk. 
+     */
+    @Override
+    protected int getSmallFileThreshold() {
+    	return Math.min(Tmin, Tmax-1);
+    }
 
 	@Override
 	public String getChecksumAlgorithm() {
@@ -129,12 +138,28 @@ public class TttdChunker extends Chunker {
         return name;
     }
     
-    public class TTTDEnumeration implements ChunkEnumeration {        
+    /**
+     * The TTTD enumeration emits the chunks of a single input stream. To avoid per-byte
+     * reads and per-chunk allocations, it reads the input stream in blocks of
+     * {@link #READ_BUFFER_SIZE} bytes and reuses one chunk buffer of size <i>Tmax</i> for 
+     * the entire enumeration. Both buffers are taken from the chunker's {@link ChunkBufferPool}.
+     * 
+     * <p><b>Note:</b> The contents of an emitted {@link Chunk} are borrowed from the enumeration's
+     * chunk buffer. They are only valid until the next call to {@link #nextElement()}.
+     */
+    public class TTTDEnumeration implements ChunkEnumeration {  
+        private static final int READ_BUFFER_SIZE = 64*1024;
+        
         private InputStream in;           
         private boolean closed;
+        
+        private ChunkBuffer readBuffer;
         private byte[] c;
         private int clen;
         private int cpos;
+
+        private ChunkBuffer chunkBuffer;
+        private byte[] buf;
         
         private MessageDigest chunkDigest;
         private MessageDigest fileDigest;
@@ -143,9 +168,14 @@ public class TttdChunker extends Chunker {
         public TTTDEnumeration(InputStream in) throws IOException {
             this.in = in;
             this.closed = false;
-            this.c = new byte[8192];
-            this.clen = -1;
-            this.cpos = -1;         
+            
+            this.readBuffer = bufferPool.acquire(READ_BUFFER_SIZE);
+            this.c = readBuffer.getArray();
+            this.clen = 0;
+            this.cpos = 0;         
+            
+            this.chunkBuffer = bufferPool.acquire(Tmax);
+            this.buf = chunkBuffer.getArray();
 
             try {
                 this.fingerprinter = Fingerprinter.getInstance(fingerprintAlgorithm);                
@@ -174,118 +204,151 @@ public class TttdChunker extends Chunker {
             fingerprinter.reset();
                 
             try {
-                int backupBreak = 0;                
-                int breakpoint = -1;
-                                
-                byte[] buf = new byte[Tmax];
-                int bufpos = -1;
-                                
-                while (bufpos < buf.length-1) {
-                    if (cpos == -1 || cpos == clen-1) {
-                        cpos = -1;
-                        clen = readFromInputStreamFixed(c, in);//in.read(c);
-                        
-                        if (clen == -1) {
-                            break;
-                        }
-                                            
-                        fileDigest.update(c, 0, clen);                        
-                    }
-                        
-                    bufpos++; cpos++;
-                    buf[bufpos] = c[cpos];   
-
-                    if (bufpos < Tmin) {
-                        continue;
-                    }
-                    else if (bufpos == Tmin) {
-                        fingerprinter.check(buf, bufpos-windowSize, windowSize);
-                    }
-                    else {
-                        fingerprinter.roll(buf[bufpos]);
-                    }
-
-                    int hash = fingerprinter.getValue();
-
-                    // The value of r (right side) plays no role! #39  
-                    if ((hash % Ddash) == Ddash-1) {      
-                        backupBreak = bufpos;     
-                    }
-
-                    if ((hash % D) == D-1) {
-                        breakpoint = bufpos;
-                        break;
-                    }
-
-                    if (bufpos < Tmax){
-                        continue;
-                    }
-
-                    if (backupBreak != 0) {
-                        breakpoint = backupBreak;
-                        break;
-                    }
-                    else {
-                        breakpoint = bufpos;
-                        break;
-                    }
-                }
-                                    
+                int chunkSize = nextBreakpoint();                                    
+                
                 // Close if this was the last bytes
                 if (clen == -1) {
                     in.close();
                     closed = true;
                 }         
                 
-                // EOF as breakpoint
-                if (breakpoint == -1) {
-                    breakpoint = bufpos;
-                }
-                
-                // Increase breakpoint
-                breakpoint++;
-                
                 // Create chunk
-                chunkDigest.update(buf, 0, breakpoint);
+                chunkDigest.update(buf, 0, chunkSize);
                 
                 byte[] chunkChecksum = chunkDigest.digest();
-                byte[] chunkContents = buf;
-                int chunkSize = breakpoint;
                 byte[] fileChecksum = (clen == -1) ? fileDigest.digest() : null;
                 
-                return new Chunk(chunkChecksum, chunkContents, chunkSize, fileChecksum);
+                return new Chunk(chunkChecksum, chunkBuffer.retain(), chunkSize, fileChecksum);
             } 
             catch (IOException ex) {                
                 logger.log(Level.SEVERE, "Error while retrieving next chunk.", ex);
                 return null;
             }
-        }     
+        }
+        
+        /**
+         * Fills the chunk buffer and returns the size of the next chunk. 
+         * 
+         * <p>The first <i>Tmin</i> bytes cannot contain a breakpoint, so they are copied
+         * in bulk. Only after that, the window fingerprint is calculated and rolled byte by byte.
+         * Breakpoints are identical to the ones of the original byte-by-byte implementation:
+         * The first window covers the <i>windowSize</i> bytes before position <i>Tmin</i>, and
+         * chunks are cut at <i>Tmax</i> if <i>D</i> does not find a breakpoint. The backup
+         * divisor <i>D'</i> is not applied, because the original implementation never reached 
+         * that branch; applying it would change the chunk boundaries of existing repositories.
+         * 
+         * @return Size of the chunk in bytes; 0 if the end of the stream has been reached 
+         */
+        private int nextBreakpoint() throws IOException {
+        	int bufLen = fillBuffer(0, Math.min(Tmin+1, Tmax));
+        	
+        	if (bufLen < Tmin+1) {
+        		return bufLen; // EOF, or Tmin >= Tmax
+        	}
+        	
+        	fingerprinter.check(buf, Tmin-windowSize, windowSize);
+        	
+        	if ((fingerprinter.getValue() % D) == D-1) {
+        		return bufLen;
+        	}
+        	
+        	while (bufLen < Tmax) {
+        		if (cpos == clen && !readNextBlock()) {
+        			return bufLen; // EOF
+        		}
+        		
+        		byte b = c[cpos++];
+        		buf[bufLen++] = b;
+        		
+        		fingerprinter.roll(b);
+        		
+        		// The value of r (right side) plays no role! #39
+        		if ((fingerprinter.getValue() % D) == D-1) {
+        			return bufLen;
+        		}
+        	}
+        	
+        	return bufLen;
+        }
+        
+        /**
+         * Copies bytes from the read buffer to the chunk buffer (starting at <tt>bufLen</tt>)
+         * until the chunk buffer holds <tt>targetLen</tt> bytes, or until the end of the
+         * stream is reached. 
+         * 
+         * @return Number of bytes in the chunk buffer
+         */
+        private int fillBuffer(int bufLen, int targetLen) throws IOException {
+        	while (bufLen < targetLen) {
+        		if (cpos == clen && !readNextBlock()) {
+        			break;
+        		}
+        		
+        		int copyLen = Math.min(clen-cpos, targetLen-bufLen);
+        		System.arraycopy(c, cpos, buf, bufLen, copyLen);
+        		
+        		cpos += copyLen;
+        		bufLen += copyLen;
+        	}
+        	
+        	return bufLen;
+        }
+        
+        /**
+         * Reads the next block from the input stream into the read buffer and updates
+         * the file checksum. 
+         * 
+         * @return True if data was read, false if the end of the stream has been reached 
+         */
+        private boolean readNextBlock() throws IOException {
+        	if (clen == -1) {
+        		return false;
+        	}
+        	
+        	cpos = 0;
+        	clen = readFromInputStreamFixed(c, READ_BUFFER_SIZE, in);
+        	
+        	if (clen == -1) {
+        		return false;
+        	}
+        	
+        	fileDigest.update(c, 0, clen);
+        	return true;
+        }
         
         @Override
         public void close() {
         	try { in.close(); }
         	catch (Exception e) { /* Not necessary */ }
+        	
+        	if (chunkBuffer != null) {
+        		readBuffer.release();
+        		chunkBuffer.release();
+        		
+        		readBuffer = null;
+        		chunkBuffer = null;
+        	}
         }   
         
         /**
          * Fixes the read errors occurring with Cipher streams in the standard
-         * Java read implementation.
+         * Java read implementation: Reads until the buffer is full or the end of 
+         * the stream is reached, instead of returning after a partial read.
          */
-        private int readFromInputStreamFixed(byte[] readToBuffer, InputStream inputStream) throws IOException {    		
+        private int readFromInputStreamFixed(byte[] readToBuffer, int length, InputStream inputStream) throws IOException {    		
     		int bytesRead = 0;
     		
-    		while (bytesRead < readToBuffer.length) {
-    			int byteRead = inputStream.read();
+    		while (bytesRead < length) {
+    			int read = inputStream.read(readToBuffer, bytesRead, length-bytesRead);
     			
-    			if (byteRead == -1) {
-    				return (bytesRead != 0) ? bytesRead : -1;
+    			if (read == -1) {
+    				break;
     			}
     			
-    			readToBuffer[bytesRead] = (byte) byteRead;
-    			bytesRead++;
+    			bytesRead += read;
     		}
     		
     		return (bytesRead != 0) ? bytesRead : -1;
     	}
     }
-}
\ No newline at end of file
+}
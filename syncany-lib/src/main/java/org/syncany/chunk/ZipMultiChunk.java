@@ -17,11 +17,11 @@
  */
 package org.syncany.chunk;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Enumeration;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
@@ -39,6 +39,8 @@ public class ZipMultiChunk extends MultiChunk {
     private ZipOutputStream zipOut;
     private ZipInputStream zipIn;
     private ZipFile zipFile;
+    private Enumeration<? extends ZipEntry> zipFileEntries;
+    private InputStream zipFileEntryInputStream;
 
     public ZipMultiChunk(InputStream is) {
         super(0);
@@ -84,20 +86,58 @@ public class ZipMultiChunk extends MultiChunk {
     
     @Override
     public Chunk read() throws IOException {
-        ZipEntry entry = zipIn.getNextEntry();
+    	ChunkSlice chunkSlice = nextChunkSlice();
 
-        if (entry == null) {
+        if (chunkSlice == null) {
             return null;
         }
         
-        int read;
-        ByteArrayOutputStream contentByteArray = new ByteArrayOutputStream();
-        
-        while (-1 != (read = zipIn.read())) {
-        	contentByteArray.write(read);
-        }       
-        
-        return new Chunk(StringUtil.fromHex(entry.getName()), contentByteArray.toByteArray(), contentByteArray.size(), null);
+        byte[] contents = chunkSlice.toByteArray();
+        return new Chunk(chunkSlice.getChecksum(), contents, contents.length, null);
+    }
+    
+    /**
+     * Returns the next zip entry as chunk slice. When reading from a stream, the entry size is 
+     * typically unknown (-1), because the entries are written with a data descriptor. When reading
+     * from a file, the entries are returned in the order of the central directory.
+     */
+    @Override
+    public ChunkSlice nextChunkSlice() throws IOException {
+    	if (zipFile != null) {
+    		return nextChunkSliceFromFile();
+    	}
+    	
+    	ZipEntry entry = zipIn.getNextEntry(); // Skips the rest of the previous entry
+    	
+    	if (entry == null) {
+    		return null;
+    	}
+    	
+    	return new ChunkSlice(StringUtil.fromHex(entry.getName()), entry.getSize(), zipIn);
+    }
+    
+    private ChunkSlice nextChunkSliceFromFile() throws IOException {
+    	if (zipFileEntries == null) {
+    		zipFileEntries = zipFile.entries();
+    	}
+    	
+    	closeZipFileEntryInputStream();
+    	
+    	if (!zipFileEntries.hasMoreElements()) {
+    		return null;
+    	}
+    	
+    	ZipEntry entry = zipFileEntries.nextElement();
+    	zipFileEntryInputStream = zipFile.getInputStream(entry);
+    	
+    	return new ChunkSlice(StringUtil.fromHex(entry.getName()), entry.getSize(), zipFileEntryInputStream);
+    }
+    
+    private void closeZipFileEntryInputStream() throws IOException {
+    	if (zipFileEntryInputStream != null) {
+    		zipFileEntryInputStream.close();
+    		zipFileEntryInputStream = null;
+    	}
     }
    
 
@@ -117,6 +157,7 @@ public class ZipMultiChunk extends MultiChunk {
         }
 
         if (zipFile != null) {
+        	closeZipFileEntryInputStream();
             zipFile.close();
         }
     }
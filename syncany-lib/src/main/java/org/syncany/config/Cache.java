@@ -47,7 +47,6 @@ public class Cache {
 
     private static long DEFAULT_CACHE_KEEP_BYTES = 500*1024*1024;
 	private static String FILE_FORMAT_MULTICHUNK_ENCRYPTED = "multichunk-%s";
-	private static String FILE_FORMAT_MULTICHUNK_DECRYPTED = "multichunk-%s-decrypted";
     private static String FILE_FORMAT_DATABASE_FILE_ENCRYPTED = "%s";
     
     private long keepBytes;
@@ -58,14 +57,6 @@ public class Cache {
     	this.keepBytes = DEFAULT_CACHE_KEEP_BYTES;
     }
     
-    /**
-     * Returns a file path of a decrypted multichunk file, 
-     * given the identifier of a multichunk.
-     */
-    public File getDecryptedMultiChunkFile(MultiChunkId multiChunkId) {
-    	return getFileInCache(FILE_FORMAT_MULTICHUNK_DECRYPTED, multiChunkId.toString());
-    }    
-
     /**
      * Returns a file path of a encrypted multichunk file, 
      * given the identifier of a multichunk.
@@ -23,17 +23,24 @@ import java.util.ArrayList;
 import org.syncany.chunk.Chunker;
 import org.syncany.chunk.CipherTransformer;
 import org.syncany.chunk.FixedChunker;
+import org.syncany.chunk.MultiChunkWindow;
 import org.syncany.chunk.MultiChunker;
 import org.syncany.chunk.NoTransformer;
+import org.syncany.chunk.ParallelChunker;
+import org.syncany.chunk.ParallelizableChunker;
 import org.syncany.chunk.Transformer;
 import org.syncany.config.to.ConfigTO;
 import org.syncany.config.to.RepoTO;
+import org.syncany.config.to.RepoTO.ChunkerTO;
 import org.syncany.config.to.RepoTO.MultiChunkerTO;
 import org.syncany.config.to.RepoTO.TransformerTO;
+import org.syncany.config.to.RetryTO;
 import org.syncany.crypto.SaltedSecretKey;
 import org.syncany.database.DatabaseConnectionFactory;
 import org.syncany.database.VectorClock;
 import org.syncany.plugins.Plugins;
+import org.syncany.plugins.transfer.CircuitBreaker;
+import org.syncany.plugins.transfer.RetryPolicy;
 import org.syncany.plugins.transfer.StorageException;
 import org.syncany.plugins.transfer.TransferPlugin;
 import org.syncany.plugins.transfer.TransferSettings;
@@ -71,6 +78,8 @@ public class Config {
 	// Files in .syncany/state
 	public static final String FILE_PORT = "port.xml";
 	public static final String FILE_CLEANUP = "cleanup.xml";
+	public static final String FILE_TRANSACTION = "transaction.xml";
+	public static final String FILE_TRANSACTION_DATABASE = "transaction-database.xml";
 
 	private byte[] repoId;
 	private String machineName;
@@ -87,9 +96,12 @@ public class Config {
 	private Cache cache;
 	private TransferPlugin plugin;
 	private TransferSettings connection;
+	private RetryPolicy retryPolicy;
+	private CircuitBreaker circuitBreaker;
 	private Chunker chunker;
 	private MultiChunker multiChunker;
 	private Transformer transformer;
+	private MultiChunkWindow multiChunkWindow;
 	private IgnoredFiles ignoredFiles;
 
 	static {
@@ -109,6 +121,7 @@ public class Config {
 		initIgnoredFile();
 		initRepo(repoTO);
 		initConnection(configTO);
+		initRetry(configTO);
 	}
 
 	private void initNames(ConfigTO configTO) throws ConfigException {
@@ -148,6 +161,7 @@ public class Config {
 			initChunker(repoTO);
 			initMultiChunker(repoTO);
 			initTransformers(repoTO);
+			initMultiChunkWindow();
 		}
 		catch (Exception e) {
 			throw new ConfigException("Unable to initialize repository information from config.", e);
@@ -159,10 +173,43 @@ public class Config {
 	}
 
 	private void initChunker(RepoTO repoTO) throws Exception {
-		// TODO [feature request] make chunking options configurable, something like described in #29
+		// TODO [feature request] make all chunking options configurable, something like described in #29
 		// See: https://github.com/syncany/syncany/issues/29#issuecomment-43425647
 
-		chunker = new FixedChunker(512 * 1024, "SHA1");
+		ChunkerTO chunkerTO = repoTO.getChunkerTO();
+
+		if (chunkerTO == null || FixedChunker.TYPE.equals(chunkerTO.getType())) {
+			// Size setting of the fixed chunker has never been evaluated; existing repositories rely on 512 KB chunks
+			chunker = new FixedChunker(512 * 1024, "SHA1");
+			
+			if (chunkerTO != null) {
+				chunker.init(chunkerTO.getSettings());
+			}
+		}
+		else {
+			chunker = Chunker.getInstance(chunkerTO.getType());
+
+			if (chunker == null) {
+				throw new ConfigException("Invalid chunker type or settings: " + chunkerTO.getType());
+			}
+
+			chunker.init(chunkerTO.getSettings());
+		}
+		
+		initParallelChunker(chunkerTO);
+	}
+
+	private void initParallelChunker(ChunkerTO chunkerTO) throws ConfigException {
+		String parallelFileThresholdStr = (chunkerTO != null && chunkerTO.getSettings() != null) 
+				? chunkerTO.getSettings().get(ParallelChunker.PROPERTY_PARALLEL_FILE_THRESHOLD) : null;
+		
+		if (parallelFileThresholdStr != null) {
+			if (!(chunker instanceof ParallelizableChunker)) {
+				throw new ConfigException("Chunker " + chunker + " does not support parallel chunking.");
+			}
+			
+			chunker = new ParallelChunker(chunker, Long.parseLong(parallelFileThresholdStr));
+		}
 	}
 
 	private void initMultiChunker(RepoTO repoTO) throws ConfigException {
@@ -215,6 +262,10 @@ public class Config {
 		}
 	}
 
+	private void initMultiChunkWindow() {
+		multiChunkWindow = new MultiChunkWindow(multiChunker, transformer, cacheDir);
+	}
+
 	private void initConnection(ConfigTO configTO) throws ConfigException {
 		if (configTO.getConnectionTO() != null) {
 			plugin = Plugins.get(configTO.getConnectionTO().getType(), TransferPlugin.class);
@@ -233,6 +284,36 @@ public class Config {
 		}
 	}
 
+	private void initRetry(ConfigTO configTO) throws ConfigException {
+		RetryTO retryTO = configTO.getRetryTO();
+
+		if (retryTO == null) {
+			retryPolicy = new RetryPolicy();
+			circuitBreaker = new CircuitBreaker();
+		}
+		else {
+			try {
+				RetryPolicy defaultRetryPolicy = new RetryPolicy();
+
+				int maxTries = (retryTO.getMaxTries() != null) ? retryTO.getMaxTries() : defaultRetryPolicy.getMaxTries();
+				long baseDelayMillis = (retryTO.getBaseDelayMillis() != null) ? retryTO.getBaseDelayMillis() : defaultRetryPolicy.getBaseDelayMillis();
+				long maxDelayMillis = (retryTO.getMaxDelayMillis() != null) ? retryTO.getMaxDelayMillis() : Math.max(baseDelayMillis,
+						defaultRetryPolicy.getMaxDelayMillis());
+				long budgetMillis = (retryTO.getBudgetMillis() != null) ? retryTO.getBudgetMillis() : defaultRetryPolicy.getBudgetMillis();
+
+				int failureThreshold = (retryTO.getFailureThreshold() != null) ? retryTO.getFailureThreshold()
+						: CircuitBreaker.DEFAULT_FAILURE_THRESHOLD;
+				long openMillis = (retryTO.getOpenMillis() != null) ? retryTO.getOpenMillis() : CircuitBreaker.DEFAULT_OPEN_MILLIS;
+
+				retryPolicy = new RetryPolicy(maxTries, baseDelayMillis, maxDelayMillis, budgetMillis);
+				circuitBreaker = new CircuitBreaker(failureThreshold, openMillis);
+			}
+			catch (IllegalArgumentException e) {
+				throw new ConfigException("Invalid retry settings: " + e.getMessage(), e);
+			}
+		}
+	}
+
 	public java.sql.Connection createDatabaseConnection() {
 		return DatabaseConnectionFactory.createConnection(getDatabaseFile());
 	}
@@ -277,6 +358,19 @@ public class Config {
 		this.connection = connection;
 	}
 
+	public RetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	/**
+	 * Returns the circuit breaker shared by all transfer managers created
+	 * for this config. Its state survives individual operations, so that
+	 * an outage detected by one operation makes the next one fail fast.
+	 */
+	public CircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
+
 	public byte[] getRepoId() {
 		return repoId;
 	}
@@ -301,6 +395,10 @@ public class Config {
 		return transformer;
 	}
 
+	public MultiChunkWindow getMultiChunkWindow() {
+		return multiChunkWindow;
+	}
+
 	public void setCache(Cache cache) {
 		this.cache = cache;
 	}
@@ -336,4 +434,12 @@ public class Config {
 	public File getCleanupFile() {
 		return new File(stateDir, FILE_CLEANUP);
 	}
+
+	public File getTransactionFile() {
+		return new File(stateDir, FILE_TRANSACTION);
+	}
+
+	public File getTransactionDatabaseFile() {
+		return new File(stateDir, FILE_TRANSACTION_DATABASE);
+	}
 }
@@ -64,6 +64,9 @@ public class ConfigTO {
 	@Element(name="cacheKeepBytes", required=false)
 	private Long cacheKeepBytes;
 
+	@Element(name="retry", required=false)
+	private RetryTO retryTO;
+
 	public static ConfigTO load(File file) throws ConfigException {
 		try {
 			return new Persister().read(ConfigTO.class, file);
@@ -113,6 +116,14 @@ public class ConfigTO {
 		this.cacheKeepBytes = cacheKeepBytes;
 	}
 
+	public RetryTO getRetryTO() {
+		return retryTO;
+	}
+
+	public void setRetryTO(RetryTO retryTO) {
+		this.retryTO = retryTO;
+	}
+
 	@Persist
 	public void prepare() {
 		if (masterKey != null) {
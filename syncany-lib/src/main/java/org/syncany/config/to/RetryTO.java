@@ -0,0 +1,96 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.config.to;
+
+import org.simpleframework.xml.Element;
+
+/**
+ * The retry transfer object configures how the {@link org.syncany.plugins.transfer.RetriableTransferManager}
+ * retries failed storage calls, and when its circuit breaker opens. All values are optional;
+ * missing values fall back to the defaults of {@link org.syncany.plugins.transfer.RetryPolicy} and
+ * {@link org.syncany.plugins.transfer.CircuitBreaker}.
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class RetryTO {
+	@Element(name = "maxTries", required = false)
+	private Integer maxTries;
+
+	@Element(name = "baseDelay", required = false)
+	private Long baseDelayMillis;
+
+	@Element(name = "maxDelay", required = false)
+	private Long maxDelayMillis;
+
+	@Element(name = "budget", required = false)
+	private Long budgetMillis;
+
+	@Element(name = "failureThreshold", required = false)
+	private Integer failureThreshold;
+
+	@Element(name = "openTime", required = false)
+	private Long openMillis;
+
+	public Integer getMaxTries() {
+		return maxTries;
+	}
+
+	public void setMaxTries(Integer maxTries) {
+		this.maxTries = maxTries;
+	}
+
+	public Long getBaseDelayMillis() {
+		return baseDelayMillis;
+	}
+
+	public void setBaseDelayMillis(Long baseDelayMillis) {
+		this.baseDelayMillis = baseDelayMillis;
+	}
+
+	public Long getMaxDelayMillis() {
+		return maxDelayMillis;
+	}
+
+	public void setMaxDelayMillis(Long maxDelayMillis) {
+		this.maxDelayMillis = maxDelayMillis;
+	}
+
+	public Long getBudgetMillis() {
+		return budgetMillis;
+	}
+
+	public void setBudgetMillis(Long budgetMillis) {
+		this.budgetMillis = budgetMillis;
+	}
+
+	public Integer getFailureThreshold() {
+		return failureThreshold;
+	}
+
+	public void setFailureThreshold(Integer failureThreshold) {
+		this.failureThreshold = failureThreshold;
+	}
+
+	public Long getOpenMillis() {
+		return openMillis;
+	}
+
+	public void setOpenMillis(Long openMillis) {
+		this.openMillis = openMillis;
+	}
+}
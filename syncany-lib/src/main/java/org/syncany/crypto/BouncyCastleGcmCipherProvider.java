@@ -0,0 +1,85 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.crypto;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.bouncycastle.crypto.BlockCipher;
+import org.bouncycastle.crypto.engines.AESEngine;
+import org.bouncycastle.crypto.engines.TwofishEngine;
+import org.bouncycastle.crypto.io.CipherInputStream;
+import org.bouncycastle.crypto.io.CipherOutputStream;
+import org.bouncycastle.crypto.modes.AEADBlockCipher;
+import org.bouncycastle.crypto.modes.GCMBlockCipher;
+import org.bouncycastle.crypto.params.AEADParameters;
+import org.bouncycastle.crypto.params.KeyParameter;
+
+/**
+ * GCM cipher provider using the BouncyCastle lightweight API, i.e. the {@link GCMBlockCipher}
+ * and BouncyCastle's {@link CipherInputStream}/{@link CipherOutputStream}. Contrary to the JCE 
+ * <tt>CipherInputStream</tt> in Java 7, the BouncyCastle input stream verifies the authentication
+ * tag and throws an exception if the ciphertext has been tampered with.
+ * 
+ * <p>This provider is available on all platforms and for all block ciphers used by Syncany, 
+ * but it does not benefit from CPU instructions for AES and GHASH. 
+ * 
+ * @see JceGcmCipherProvider
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class BouncyCastleGcmCipherProvider extends GcmCipherProvider {
+	private String blockCipher;
+	
+	/**
+	 * Creates a new BouncyCastle GCM provider.
+	 * 
+	 * @param blockCipher Name of the block cipher, either <tt>AES</tt> or <tt>Twofish</tt>
+	 */
+	public BouncyCastleGcmCipherProvider(String blockCipher) {
+		if (!"AES".equals(blockCipher) && !"Twofish".equals(blockCipher)) {
+			throw new IllegalArgumentException("Unsupported block cipher for GCM: " + blockCipher);
+		}
+		
+		this.blockCipher = blockCipher;
+	}
+	
+	@Override
+	public String getName() {
+		return "BC/" + blockCipher;
+	}
+	
+	@Override
+	public OutputStream newCipherOutputStream(OutputStream underlyingOutputStream, byte[] secretKey, byte[] iv) throws CipherException {
+		AEADBlockCipher cipher = new GCMBlockCipher(createBlockCipher()); 
+		cipher.init(true, new AEADParameters(new KeyParameter(secretKey), MAC_SIZE, iv));
+		
+		return new CipherOutputStream(underlyingOutputStream, cipher);
+	}
+
+	@Override
+	public InputStream newCipherInputStream(InputStream underlyingInputStream, byte[] secretKey, byte[] iv) throws CipherException {
+		AEADBlockCipher cipher = new GCMBlockCipher(createBlockCipher()); 
+		cipher.init(false, new AEADParameters(new KeyParameter(secretKey), MAC_SIZE, iv));
+		
+		return new CipherInputStream(underlyingInputStream, cipher);
+	}
+	
+	private BlockCipher createBlockCipher() {
+		return ("AES".equals(blockCipher)) ? new AESEngine() : new TwofishEngine();
+	}
+}
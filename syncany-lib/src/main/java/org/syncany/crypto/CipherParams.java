@@ -106,6 +106,10 @@ public abstract class CipherParams {
     /**
      * Hash function used in the HKDF key derivation algorithm for deriving
      * keys from a master key.
+     * 
+     * <p>Digests are stateful and this instance is shared by all threads. It must
+     * therefore never be used directly, but only as a prototype to copy from (see
+     * {@link CipherUtil#createDerivedKey(byte[], byte[], String, int)}).
      * 
 	 * <p><b>Warning:</b> Changing this constant may lead to unrecoverable ciphertext data
 	 * Do not change this constant unless you know what you are doing! 
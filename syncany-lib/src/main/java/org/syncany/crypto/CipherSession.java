@@ -21,14 +21,20 @@ import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.spec.InvalidKeySpecException;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.crypto.SecretKey;
 
+import org.syncany.crypto.WriteKeyPreparer.PreparedWriteKey;
 import org.syncany.util.StringUtil;
 
 /**
@@ -45,13 +51,18 @@ import org.syncany.util.StringUtil;
  *       purpose of reusing keys is to increase performance. Because the master
  *       key is cryptographically strong, the derived keys can be reused a few 
  *       times without any drawbacks on security. The class keeps one secret key
- *       per {@link CipherSpec}.
+ *       per {@link CipherSpec}. New write keys are derived ahead of time in the 
+ *       background (see {@link WriteKeyPreparer}), so that replacing a used-up key
+ *       does not block the writing thread.
  *   
  *   <li>Keys used by {@link MultiCipherInputStream} (when reading files) are 
  *       cached in order to minimize the amount of keys that have to be created when
- *       files are processed. 
+ *       files are processed. The least recently used key is evicted when the cache is full.
  * </ul>
  * 
+ * <p>A cipher session is thread-safe, so that multiple multichunks can be encrypted and
+ * decrypted in parallel using the same session. 
+ * 
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
 public class CipherSession {
@@ -61,11 +72,12 @@ public class CipherSession {
 	
 	private SecretKey masterKey;	
 	
-	private Map<CipherSpecWithSalt, SecretKeyCacheEntry> secretKeyReadCache;
+	private Map<CipherSpecWithSalt, FutureTask<SaltedSecretKey>> secretKeyReadCache;
 	private int secretKeyReadCacheSize;
 	
-	private Map<CipherSpec, SecretKeyCacheEntry> secretKeyWriteCache;
+	private ConcurrentMap<CipherSpec, SecretKeyCacheEntry> secretKeyWriteCache;
 	private int secretKeyWriteReuseCount;
+	private WriteKeyPreparer writeKeyPreparer;
 	
 	/**
 	 * Creates a new cipher session, using the given master key. Derived keys will be created
@@ -92,14 +104,28 @@ public class CipherSession {
 	 * @param secretKeyReadCacheSize Number of read keys to store in the cache (higher means more performance, but more memory usage)
 	 * @param secretKeyWriteReuseCount Number of times to reuse a write key (higher means more performance, but lower security)
 	 */
-	public CipherSession(SaltedSecretKey masterKey, int secretKeyReadCacheSize, int secretKeyWriteReuseCount) {
+	public CipherSession(SaltedSecretKey masterKey, final int secretKeyReadCacheSize, int secretKeyWriteReuseCount) {
 		this.masterKey = masterKey;
 
-		this.secretKeyReadCache = new LinkedHashMap<CipherSpecWithSalt, SecretKeyCacheEntry>();
+		this.secretKeyReadCache = new LinkedHashMap<CipherSpecWithSalt, FutureTask<SaltedSecretKey>>(16, 0.75f, true) {
+			private static final long serialVersionUID = -8473127536419373424L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<CipherSpecWithSalt, FutureTask<SaltedSecretKey>> eldest) {
+				if (size() > secretKeyReadCacheSize) {
+					logger.log(Level.FINE, "- Removed least recently used READ secret key from cache.");
+					return true;
+				}
+				
+				return false;
+			}
+		};
+		
 		this.secretKeyReadCacheSize = secretKeyReadCacheSize;
 		
-		this.secretKeyWriteCache = new HashMap<CipherSpec, SecretKeyCacheEntry>();
+		this.secretKeyWriteCache = new ConcurrentHashMap<CipherSpec, SecretKeyCacheEntry>();
 		this.secretKeyWriteReuseCount = secretKeyWriteReuseCount;
+		this.writeKeyPreparer = new WriteKeyPreparer(masterKey);
 	}	
 
 	/**
@@ -114,114 +140,150 @@ public class CipherSession {
 	 * than the threshold defined in {@link #secretKeyWriteReuseCount} (as set in {@link #CipherSession(SaltedSecretKey, int, int) the constructor},
 	 * a new key is created and added to the cache.
 	 * 
-	 * <p>If a new key needs to be created, {@link CipherUtil} is used to do so.
+	 * <p>If a new key needs to be created, it is taken from the {@link WriteKeyPreparer}, which
+	 * derives keys in the background using {@link CipherUtil}.
 	 * 
 	 * <p>Contrary to the read cache, the write cache key is a only {@link CipherSpec}, i.e. only one secret key
 	 * per cipher spec can be held in the cache.
 	 * 
+	 * <p>This method is thread-safe and does not block: The use count is increased atomically, so
+	 * that a key is never used more often than allowed, even if many threads request a key at the 
+	 * same time. If multiple threads replace a used-up key at the same time, only one of the new keys 
+	 * is cached; the others are used only once.
+	 * 
 	 * @param cipherSpec Defines the type of key to be created (or retrieved); used as key for the cache retrieval
 	 * @return Returns a newly created secret key or a cached key
 	 * @throws Exception If an error occurs with key creation
 	 */
 	public SaltedSecretKey getWriteSecretKey(CipherSpec cipherSpec) throws Exception {
+		return getPreparedWriteKey(cipherSpec).getSaltedSecretKey();
+	}
+	
+	/**
+	 * Same as {@link #getWriteSecretKey(CipherSpec)}, but returns the key together with an
+	 * initialized {@link javax.crypto.Mac Mac} prototype if the cipher spec is a MAC algorithm. 
+	 */
+	PreparedWriteKey getPreparedWriteKey(CipherSpec cipherSpec) throws Exception {
 		SecretKeyCacheEntry secretKeyCacheEntry = secretKeyWriteCache.get(cipherSpec);
 		
-		// Remove key if use more than X times 
-		if (secretKeyCacheEntry != null && secretKeyCacheEntry.getUseCount() >= secretKeyWriteReuseCount) {
-			logger.log(Level.FINE, "- Removed WRITE secret key from cache, because it was used "+secretKeyCacheEntry.getUseCount()+" times.");				
-
-			secretKeyWriteCache.remove(cipherSpec);
-			secretKeyCacheEntry = null;
-		}
-				
-		// Return cached key, or create a new one
-		if (secretKeyCacheEntry != null) {					
-			secretKeyCacheEntry.increaseUseCount();
+		// Return cached key, if it has not been used more than X times
+		if (secretKeyCacheEntry != null) {
+			int useCount = secretKeyCacheEntry.increaseUseCount();
 			
-			logger.log(Level.FINE, "- Using CACHED WRITE secret key "+secretKeyCacheEntry.getSaltedSecretKey().getAlgorithm()+", with salt "+StringUtil.toHex(secretKeyCacheEntry.getSaltedSecretKey().getSalt()));
-			return secretKeyCacheEntry.getSaltedSecretKey();
+			if (useCount <= secretKeyWriteReuseCount) {
+				logger.log(Level.FINE, "- Using CACHED WRITE secret key "+secretKeyCacheEntry.getSaltedSecretKey().getAlgorithm()+", with salt "+StringUtil.toHex(secretKeyCacheEntry.getSaltedSecretKey().getSalt()));
+				return secretKeyCacheEntry.getPreparedWriteKey();
+			}
+			else {
+				logger.log(Level.FINE, "- Removed WRITE secret key from cache, because it was used "+(useCount-1)+" times.");				
+				secretKeyWriteCache.remove(cipherSpec, secretKeyCacheEntry);
+			}
 		}
-		else {			
-			SaltedSecretKey saltedSecretKey = createSaltedSecretKey(cipherSpec);
-						
-			secretKeyCacheEntry = new SecretKeyCacheEntry(saltedSecretKey);
-			secretKeyWriteCache.put(cipherSpec, secretKeyCacheEntry);
-			
-			logger.log(Level.FINE, "- Created NEW WRITE secret key "+secretKeyCacheEntry.getSaltedSecretKey().getAlgorithm()+", and added to cache, with salt "+StringUtil.toHex(saltedSecretKey.getSalt()));		
-			return saltedSecretKey;
-		}				
+		
+		// Take a new one from the preparer
+		PreparedWriteKey preparedWriteKey = writeKeyPreparer.take(cipherSpec);
+		SaltedSecretKey saltedSecretKey = preparedWriteKey.getSaltedSecretKey();
+		SecretKeyCacheEntry newSecretKeyCacheEntry = new SecretKeyCacheEntry(preparedWriteKey);
+		
+		if (secretKeyWriteCache.putIfAbsent(cipherSpec, newSecretKeyCacheEntry) == null) {
+			logger.log(Level.FINE, "- Created NEW WRITE secret key "+saltedSecretKey.getAlgorithm()+", and added to cache, with salt "+StringUtil.toHex(saltedSecretKey.getSalt()));
+		}
+		else {
+			logger.log(Level.FINE, "- Created NEW WRITE secret key "+saltedSecretKey.getAlgorithm()+" (not cached, concurrently replaced), with salt "+StringUtil.toHex(saltedSecretKey.getSalt()));
+		}
+		
+		return preparedWriteKey;
 	}	
 	
 	/**
 	 * Creates a new secret key or retrieves it from the read cache. If the given cipher spec / salt combination
-	 * is found in the cache, the cached secret key is returned. If not, a new key is created. Keys are removed
-	 * from the cache when the cache reached the size defined by {@link #secretKeyReadCacheSize} (as set in
-	 * {@link #CipherSession(SaltedSecretKey, int, int) the constructor}.
+	 * is found in the cache, the cached secret key is returned. If not, a new key is created. When the cache 
+	 * reaches the size defined by {@link #secretKeyReadCacheSize} (as set in {@link #CipherSession(SaltedSecretKey, int, int) 
+	 * the constructor}, the least recently used key is removed from the cache.
 	 * 
 	 * <p>If a new key needs to be created, {@link CipherUtil} is used to do so.
 	 * 
 	 * <p>Contrary to the write cache, the read cache key is a combination of {@link CipherSpec} and a salt. For 
 	 * each cipher spec, multiple salted keys can reside in the cache at the same time. 
 	 * 
+	 * <p>This method is thread-safe. The cache is only locked to look up or insert an entry; keys are
+	 * derived outside of the lock. If multiple threads request the same key at the same time, the key is 
+	 * only derived once, and the other threads wait for it.
+	 * 
 	 * @param cipherSpec Defines the type of key to be created (or retrieved); used as one part of the key for cache retrieval
 	 * @param salt Defines the salt for the key to be created (or retrieved); used as one part of the key for cache retrieval
 	 * @return Returns a newly created secret key or a cached key
 	 * @throws Exception If an error occurs with key creation
 	 */
-	public SaltedSecretKey getReadSecretKey(CipherSpec cipherSpec, byte[] salt) throws Exception {
+	public SaltedSecretKey getReadSecretKey(final CipherSpec cipherSpec, final byte[] salt) throws Exception {
 		CipherSpecWithSalt cipherSpecWithSalt = new CipherSpecWithSalt(cipherSpec, salt);
-		SecretKeyCacheEntry secretKeyCacheEntry = secretKeyReadCache.get(cipherSpecWithSalt);
+		FutureTask<SaltedSecretKey> secretKeyFuture;
+		boolean createSecretKey = false;
 		
-		if (secretKeyCacheEntry != null) {
-			logger.log(Level.FINE, "- Using CACHED READ secret key "+secretKeyCacheEntry.getSaltedSecretKey().getAlgorithm()+", with salt "+StringUtil.toHex(salt));
-			return secretKeyCacheEntry.getSaltedSecretKey();
+		synchronized (secretKeyReadCache) {
+			secretKeyFuture = secretKeyReadCache.get(cipherSpecWithSalt);
+			
+			if (secretKeyFuture == null) {
+				secretKeyFuture = new FutureTask<SaltedSecretKey>(new Callable<SaltedSecretKey>() {
+					@Override
+					public SaltedSecretKey call() throws Exception {
+						return createSaltedSecretKey(cipherSpec, salt);
+					}					
+				});
+				
+				secretKeyReadCache.put(cipherSpecWithSalt, secretKeyFuture);
+				createSecretKey = true;
+			}
+		}
+		
+		if (createSecretKey) {
+			secretKeyFuture.run();
+			logger.log(Level.FINE, "- Created NEW READ secret key "+cipherSpec.getAlgorithm()+", and added to cache, with salt "+StringUtil.toHex(salt));
 		}
 		else {
-			if (secretKeyReadCache.size() >= secretKeyReadCacheSize) {
-				CipherSpecWithSalt firstKey = secretKeyReadCache.keySet().iterator().next();
-				secretKeyReadCache.remove(firstKey);
-				
-				logger.log(Level.FINE, "- Removed oldest READ secret key from cache.");				
+			logger.log(Level.FINE, "- Using CACHED READ secret key "+cipherSpec.getAlgorithm()+", with salt "+StringUtil.toHex(salt));
+		}
+		
+		try {
+			return secretKeyFuture.get();
+		}
+		catch (ExecutionException e) {
+			synchronized (secretKeyReadCache) {
+				if (secretKeyReadCache.get(cipherSpecWithSalt) == secretKeyFuture) {
+					secretKeyReadCache.remove(cipherSpecWithSalt);
+				}
 			}
 			
-			SaltedSecretKey saltedSecretKey = createSaltedSecretKey(cipherSpec, salt);
-			secretKeyCacheEntry = new SecretKeyCacheEntry(saltedSecretKey);
-			
-			secretKeyReadCache.put(cipherSpecWithSalt, secretKeyCacheEntry);
-									
-			logger.log(Level.FINE, "- Created NEW READ secret key "+secretKeyCacheEntry.getSaltedSecretKey().getAlgorithm()+", and added to cache, with salt "+StringUtil.toHex(salt));
-			return saltedSecretKey;
+			throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
 		}
 	}		
 	
-	private SaltedSecretKey createSaltedSecretKey(CipherSpec cipherSpec) throws InvalidKeySpecException, NoSuchAlgorithmException, NoSuchProviderException {
-		byte[] salt = CipherUtil.createRandomArray(MultiCipherOutputStream.SALT_SIZE); 
-		return createSaltedSecretKey(cipherSpec, salt);
-	}
-	
 	private SaltedSecretKey createSaltedSecretKey(CipherSpec cipherSpec, byte[] salt) throws InvalidKeySpecException, NoSuchAlgorithmException, NoSuchProviderException {
 		return CipherUtil.createDerivedKey(masterKey, salt, cipherSpec);					
 	}
 
 	private static class SecretKeyCacheEntry {
-		private SaltedSecretKey saltedSecretKey;
-		private int useCount;
+		private PreparedWriteKey preparedWriteKey;
+		private AtomicInteger useCount;
 
-		public SecretKeyCacheEntry(SaltedSecretKey saltedSecretKey) {
-			this.saltedSecretKey = saltedSecretKey;
-			this.useCount = 1;
+		public SecretKeyCacheEntry(PreparedWriteKey preparedWriteKey) {
+			this.preparedWriteKey = preparedWriteKey;
+			this.useCount = new AtomicInteger(1);
 		}
 
-		public SaltedSecretKey getSaltedSecretKey() {
-			return saltedSecretKey;
+		public PreparedWriteKey getPreparedWriteKey() {
+			return preparedWriteKey;
 		}
 
-		public int getUseCount() {
-			return useCount;
+		public SaltedSecretKey getSaltedSecretKey() {
+			return preparedWriteKey.getSaltedSecretKey();
 		}
-		
-		public void increaseUseCount() {
-			useCount++;
+
+		/**
+		 * Increases the use count and returns the new use count.
+		 */
+		public int increaseUseCount() {
+			return useCount.incrementAndGet();
 		}
 	}
 	
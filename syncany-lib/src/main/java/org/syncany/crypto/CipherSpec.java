@@ -80,6 +80,23 @@ public abstract class CipherSpec {
 	public abstract OutputStream newCipherOutputStream(OutputStream underlyingOutputStream, byte[] secretKey, byte[] iv) throws CipherException;
 	public abstract InputStream newCipherInputStream(InputStream underlyingInputStream, byte[] secretKey, byte[] iv) throws CipherException;
 	
+	/**
+	 * Creates an encrypting stream for a single segment of a segmented stream (see {@link SegmentCipher}).
+	 * Since segments are bounded in size, implementations may use a faster cipher provider that buffers
+	 * the whole segment. By default, this method is identical to {@link #newCipherOutputStream(OutputStream, byte[], byte[]) newCipherOutputStream()}.
+	 */
+	public OutputStream newSegmentCipherOutputStream(OutputStream underlyingOutputStream, byte[] secretKey, byte[] iv) throws CipherException {
+		return newCipherOutputStream(underlyingOutputStream, secretKey, iv);
+	}
+	
+	/**
+	 * Creates a decrypting stream for a single segment of a segmented stream (see {@link SegmentCipher}).
+	 * By default, this method is identical to {@link #newCipherInputStream(InputStream, byte[], byte[]) newCipherInputStream()}.
+	 */
+	public InputStream newSegmentCipherInputStream(InputStream underlyingInputStream, byte[] secretKey, byte[] iv) throws CipherException {
+		return newCipherInputStream(underlyingInputStream, secretKey, iv);
+	}
+	
 	@Override
 	public String toString() {
 		return algorithm+", "+keySize+" bit";
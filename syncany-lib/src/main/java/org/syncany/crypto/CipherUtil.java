@@ -71,11 +71,13 @@ import org.bouncycastle.asn1.x500.style.BCStyle;
 import org.bouncycastle.cert.X509v3CertificateBuilder;
 import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
 import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.crypto.Digest;
 import org.bouncycastle.crypto.generators.HKDFBytesGenerator;
 import org.bouncycastle.crypto.params.HKDFParameters;
 import org.bouncycastle.operator.ContentSigner;
 import org.bouncycastle.operator.OperatorCreationException;
 import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.util.Memoable;
 
 /**
  * The cipher utility provides functions to create a master key using PBKDF2, 
@@ -228,6 +230,9 @@ public class CipherUtil {
 	 * <b>HMAC-based Extract-and-Expand Key Derivation Function (HKDF)</b> (see 
 	 * <a href="http://tools.ietf.org/html/rfc5869">RFC 5869</a>)
 	 * 
+	 * <p>This method is thread-safe. The {@link CipherSession} relies on this, because it
+	 * derives read and write keys on many threads at once without holding a lock.
+	 * 
 	 * @param inputKeyMaterial The input key material as raw data bytes, e.g. determined from {@link SecretKey#getEncoded()}
 	 * @param inputSalt Input salt used to generate the new key (a non-secret random value!)
 	 * @param outputKeyAlgorithm Defines the algorithm of the new output key (for {@link SecretKeySpec#getAlgorithm()})
@@ -238,7 +243,10 @@ public class CipherUtil {
 	public static SaltedSecretKey createDerivedKey(byte[] inputKeyMaterial, byte[] inputSalt, String outputKeyAlgorithm, int outputKeySize)
 			throws InvalidKeySpecException, NoSuchAlgorithmException, NoSuchProviderException {
 		
-		HKDFBytesGenerator hkdf = new HKDFBytesGenerator(KEY_DERIVATION_DIGEST);
+		// Digests are stateful, so the shared digest is copied to allow concurrent key derivation
+		Digest keyDerivationDigest = (Digest) ((Memoable) KEY_DERIVATION_DIGEST).copy();
+		
+		HKDFBytesGenerator hkdf = new HKDFBytesGenerator(keyDerivationDigest);
 		hkdf.init(new HKDFParameters(inputKeyMaterial, inputSalt, KEY_DERIVATION_INFO));
 
 		byte[] derivedKey = new byte[outputKeySize / 8];
@@ -0,0 +1,159 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.crypto;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A GCM cipher provider creates encrypting and decrypting streams for a block cipher
+ * in Galois/Counter Mode (GCM). All providers produce the same wire format: The 
+ * ciphertext, followed by a 128-bit authentication tag. Streams encrypted by one provider 
+ * can hence be decrypted by any other provider.
+ * 
+ * <p>Two implementations exist: The {@link BouncyCastleGcmCipherProvider} uses the 
+ * BouncyCastle lightweight API and supports all block ciphers used by Syncany (AES and Twofish).
+ * The {@link JceGcmCipherProvider} uses the JCE implementation of the JDK (<tt>SunJCE</tt>), 
+ * which is significantly faster for AES, because HotSpot replaces the AES and GHASH 
+ * operations with intrinsics (AES-NI/CLMUL instructions) where the CPU supports them. It is only
+ * available for AES, and only on Java 8 and newer.
+ * 
+ * <p>{@link #getPreferredProvider(String, int)} selects the JCE provider if it is available
+ * and produces the same output as the BouncyCastle provider, and falls back to BouncyCastle
+ * otherwise. The selection can be overridden with the system property 
+ * {@link #PROVIDER_PROPERTY} (<tt>jce</tt> or <tt>bc</tt>).
+ * 
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public abstract class GcmCipherProvider {
+	private static final Logger logger = Logger.getLogger(GcmCipherProvider.class.getSimpleName());
+
+	public static final String PROVIDER_PROPERTY = "org.syncany.crypto.gcmprovider";
+	public static final int MAC_SIZE = 128; // in bits
+	
+	private static final int SELF_TEST_IV_SIZE = 16; // in bytes
+	private static final int SELF_TEST_PLAINTEXT_SIZE = 100;
+	
+	/**
+	 * Returns the name of the provider, e.g. <tt>JCE/SunJCE</tt>.
+	 */
+	public abstract String getName();
+	
+	public abstract OutputStream newCipherOutputStream(OutputStream underlyingOutputStream, byte[] secretKey, byte[] iv) throws CipherException;
+	public abstract InputStream newCipherInputStream(InputStream underlyingInputStream, byte[] secretKey, byte[] iv) throws CipherException;
+	
+	/**
+	 * Returns the preferred GCM provider for the given block cipher and key size. The JCE
+	 * provider is preferred over the BouncyCastle provider if it supports the block cipher 
+	 * and key size (e.g. AES-256 requires the unlimited strength policy on older JREs), and if 
+	 * it passes a known-answer self test against the BouncyCastle provider.
+	 * 
+	 * @param blockCipher Name of the block cipher, e.g. <tt>AES</tt> or <tt>Twofish</tt>
+	 * @param keySize Key size in bits
+	 * @return Returns the preferred provider, never <tt>null</tt>
+	 */
+	public static GcmCipherProvider getPreferredProvider(String blockCipher, int keySize) {
+		BouncyCastleGcmCipherProvider bouncyCastleProvider = new BouncyCastleGcmCipherProvider(blockCipher);
+		String providerOverride = System.getProperty(PROVIDER_PROPERTY);
+		
+		if ("bc".equalsIgnoreCase(providerOverride)) {
+			logger.log(Level.INFO, "GCM provider for " + blockCipher + "-" + keySize + ": " + bouncyCastleProvider.getName() + " (forced by system property)");
+			return bouncyCastleProvider;
+		}
+		
+		if (JceGcmCipherProvider.isSupported(blockCipher, keySize)) {
+			JceGcmCipherProvider jceProvider = new JceGcmCipherProvider(blockCipher);
+			
+			if (producesSameOutput(jceProvider, bouncyCastleProvider, keySize)) {
+				logger.log(Level.FINE, "GCM provider for " + blockCipher + "-" + keySize + ": " + jceProvider.getName());
+				return jceProvider;
+			}
+			else {
+				logger.log(Level.WARNING, "GCM provider " + jceProvider.getName() + " failed self test for " + blockCipher + "-" + keySize + ", falling back to " + bouncyCastleProvider.getName());
+			}
+		}
+		else if ("jce".equalsIgnoreCase(providerOverride)) {
+			logger.log(Level.WARNING, "GCM provider JCE is not available for " + blockCipher + "-" + keySize + ", falling back to " + bouncyCastleProvider.getName());
+		}
+		
+		logger.log(Level.FINE, "GCM provider for " + blockCipher + "-" + keySize + ": " + bouncyCastleProvider.getName());
+		return bouncyCastleProvider;
+	}
+	
+	/**
+	 * Encrypts a fixed plaintext with both providers and verifies that the ciphertexts
+	 * are identical, and that each provider can decrypt the other provider's ciphertext.
+	 */
+	private static boolean producesSameOutput(GcmCipherProvider provider, GcmCipherProvider referenceProvider, int keySize) {
+		try {
+			byte[] secretKey = new byte[keySize / 8];
+			byte[] iv = new byte[SELF_TEST_IV_SIZE];
+			byte[] plaintext = new byte[SELF_TEST_PLAINTEXT_SIZE];
+			
+			for (int i = 0; i < plaintext.length; i++) {
+				plaintext[i] = (byte) i;
+			}
+			
+			byte[] ciphertext = encrypt(provider, plaintext, secretKey, iv);
+			byte[] referenceCiphertext = encrypt(referenceProvider, plaintext, secretKey, iv);
+			
+			return Arrays.equals(ciphertext, referenceCiphertext) 
+					&& Arrays.equals(plaintext, decrypt(provider, referenceCiphertext, secretKey, iv))
+					&& Arrays.equals(plaintext, decrypt(referenceProvider, ciphertext, secretKey, iv));
+		}
+		catch (Exception e) {
+			logger.log(Level.FINE, "GCM provider self test failed for " + provider.getName(), e);
+			return false;
+		}
+	}
+	
+	private static byte[] encrypt(GcmCipherProvider provider, byte[] plaintext, byte[] secretKey, byte[] iv) throws Exception {
+		ByteArrayOutputStream ciphertextOutputStream = new ByteArrayOutputStream();
+		OutputStream cipherOutputStream = provider.newCipherOutputStream(ciphertextOutputStream, secretKey, iv);
+		
+		cipherOutputStream.write(plaintext);
+		cipherOutputStream.close();
+		
+		return ciphertextOutputStream.toByteArray();
+	}
+	
+	private static byte[] decrypt(GcmCipherProvider provider, byte[] ciphertext, byte[] secretKey, byte[] iv) throws Exception {
+		InputStream cipherInputStream = provider.newCipherInputStream(new ByteArrayInputStream(ciphertext), secretKey, iv);
+		ByteArrayOutputStream plaintextOutputStream = new ByteArrayOutputStream();
+		
+		byte[] buffer = new byte[SELF_TEST_PLAINTEXT_SIZE];
+		int read;
+		
+		while (-1 != (read = cipherInputStream.read(buffer))) {
+			plaintextOutputStream.write(buffer, 0, read);
+		}
+		
+		cipherInputStream.close();
+		return plaintextOutputStream.toByteArray();
+	}
+	
+	@Override
+	public String toString() {
+		return getName();
+	}
+}
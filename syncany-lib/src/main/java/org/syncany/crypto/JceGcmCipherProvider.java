@@ -0,0 +1,271 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.crypto;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * GCM cipher provider using the JCE implementation of the JDK (<tt>SunJCE</tt>). On Java 8 
+ * and newer, HotSpot implements the AES block cipher and the GHASH function of this provider
+ * with CPU instructions (AES-NI/CLMUL) where available, which makes AES-GCM several times faster 
+ * than the BouncyCastle implementation.
+ * 
+ * <p>This provider does not use the JCE's {@link javax.crypto.CipherInputStream CipherInputStream},
+ * because it does not detect tampered ciphertext in Java 7 (it silently ignores the
+ * {@link AEADBadTagException}). Instead, the input stream of this provider verifies the 
+ * authentication tag at the end of the stream and throws an {@link IOException} if the 
+ * verification fails. Note that the JCE implementation does not release any plaintext 
+ * before the tag has been verified, i.e. the entire plaintext is buffered in memory 
+ * while decrypting. This provider is hence only used for the bounded segments of 
+ * segmented streams (see {@link SegmentCipher}), never for unsegmented streams.
+ * 
+ * @see BouncyCastleGcmCipherProvider
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class JceGcmCipherProvider extends GcmCipherProvider {
+	public static final String JCE_PROVIDER_ID = "SunJCE";
+	private static final int BUFFER_SIZE = 16 * 1024;
+	
+	private String blockCipher;
+	private String algorithm;
+	
+	/**
+	 * Creates a new JCE GCM provider. Use {@link #isSupported(String, int)} to check 
+	 * whether the block cipher is supported by the JCE provider.
+	 * 
+	 * @param blockCipher Name of the block cipher, e.g. <tt>AES</tt> 
+	 */
+	public JceGcmCipherProvider(String blockCipher) {
+		this.blockCipher = blockCipher;
+		this.algorithm = blockCipher + "/GCM/NoPadding";
+	}
+	
+	/**
+	 * Returns whether the JCE provider supports GCM for the given block cipher
+	 * and key size. 
+	 */
+	public static boolean isSupported(String blockCipher, int keySize) {
+		try {
+			Cipher.getInstance(blockCipher + "/GCM/NoPadding", JCE_PROVIDER_ID);
+			return Cipher.getMaxAllowedKeyLength(blockCipher) >= keySize;
+		}
+		catch (GeneralSecurityException e) {
+			return false;
+		}
+	}
+
+	@Override
+	public String getName() {
+		return "JCE/" + JCE_PROVIDER_ID + "/" + blockCipher;
+	}
+
+	@Override
+	public OutputStream newCipherOutputStream(OutputStream underlyingOutputStream, byte[] secretKey, byte[] iv) throws CipherException {
+		return new JceCipherOutputStream(underlyingOutputStream, createCipher(Cipher.ENCRYPT_MODE, secretKey, iv));
+	}
+
+	@Override
+	public InputStream newCipherInputStream(InputStream underlyingInputStream, byte[] secretKey, byte[] iv) throws CipherException {
+		return new JceCipherInputStream(underlyingInputStream, createCipher(Cipher.DECRYPT_MODE, secretKey, iv));
+	}
+	
+	private Cipher createCipher(int mode, byte[] secretKey, byte[] iv) throws CipherException {
+		try {
+			Cipher cipher = Cipher.getInstance(algorithm, JCE_PROVIDER_ID);
+			cipher.init(mode, new SecretKeySpec(secretKey, blockCipher), new GCMParameterSpec(MAC_SIZE, iv));
+			
+			return cipher;
+		}
+		catch (GeneralSecurityException e) {
+			throw new CipherException("Cannot initialize " + algorithm + " cipher with provider " + JCE_PROVIDER_ID, e);
+		}
+	}
+	
+	private static class JceCipherOutputStream extends FilterOutputStream {
+		private Cipher cipher;
+		private byte[] outputBuffer;
+		private boolean closed;
+		
+		public JceCipherOutputStream(OutputStream out, Cipher cipher) {
+			super(out);
+			
+			this.cipher = cipher;
+			this.outputBuffer = new byte[BUFFER_SIZE];
+			this.closed = false;
+		}
+		
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+		
+		@Override
+		public void write(byte[] buffer, int offset, int length) throws IOException {
+			if (closed) {
+				throw new IOException("Stream closed.");
+			}
+			
+			try {
+				int outputSize = cipher.getOutputSize(length);
+				
+				if (outputSize > outputBuffer.length) {
+					outputBuffer = new byte[outputSize];
+				}
+				
+				int outputLength = cipher.update(buffer, offset, length, outputBuffer, 0);
+				out.write(outputBuffer, 0, outputLength);
+			}
+			catch (GeneralSecurityException e) {
+				throw new IOException("Cannot encrypt data.", e);
+			}
+		}
+		
+		@Override
+		public void close() throws IOException {
+			if (!closed) {
+				closed = true;
+				
+				try {
+					out.write(cipher.doFinal()); // Remaining ciphertext and authentication tag
+				}
+				catch (GeneralSecurityException e) {
+					throw new IOException("Cannot encrypt data.", e);
+				}
+				finally {
+					out.close();
+				}
+			}
+		}
+	}
+	
+	private static class JceCipherInputStream extends FilterInputStream {
+		private Cipher cipher;
+		private byte[] inputBuffer;
+		
+		private byte[] outputBuffer;
+		private int outputPosition;
+		private int outputLength;
+		private boolean finished;
+		
+		public JceCipherInputStream(InputStream in, Cipher cipher) {
+			super(in);
+			
+			this.cipher = cipher;
+			this.inputBuffer = new byte[BUFFER_SIZE];
+			
+			this.outputBuffer = null;
+			this.outputPosition = 0;
+			this.outputLength = 0;
+			this.finished = false;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			byte[] singleByte = new byte[1];
+			return (read(singleByte, 0, 1) == -1) ? -1 : singleByte[0] & 0xff;
+		}
+		
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if (length == 0) {
+				return 0;
+			}
+			
+			if (!fillOutputBuffer()) {
+				return -1;
+			}
+			
+			int readLength = Math.min(length, outputLength - outputPosition);
+			System.arraycopy(outputBuffer, outputPosition, buffer, offset, readLength);
+			
+			outputPosition += readLength;
+			return readLength;
+		}
+		
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = 0;
+			
+			while (skipped < n && fillOutputBuffer()) {
+				int skipLength = (int) Math.min(n - skipped, outputLength - outputPosition);
+				
+				outputPosition += skipLength;
+				skipped += skipLength;
+			}
+			
+			return skipped;
+		}
+		
+		@Override
+		public int available() throws IOException {
+			return outputLength - outputPosition;
+		}
+		
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+		
+		/**
+		 * Decrypts ciphertext until plaintext is available, or until the end of the stream
+		 * is reached. At the end of the stream, the authentication tag is verified.
+		 * 
+		 * @return Returns <tt>true</tt> if plaintext is available, <tt>false</tt> at the end of the stream
+		 */
+		private boolean fillOutputBuffer() throws IOException {
+			while (outputPosition >= outputLength) {
+				if (finished) {
+					return false;
+				}
+				
+				int read = in.read(inputBuffer);
+				
+				try {
+					if (read == -1) {
+						outputBuffer = cipher.doFinal();
+						finished = true;
+					}
+					else {
+						outputBuffer = cipher.update(inputBuffer, 0, read);
+					}
+				}
+				catch (AEADBadTagException e) {
+					throw new IOException("Authentication tag mismatch; ciphertext has been altered.", e);
+				}
+				catch (GeneralSecurityException e) {
+					throw new IOException("Cannot decrypt data.", e);
+				}
+				
+				outputPosition = 0;
+				outputLength = (outputBuffer != null) ? outputBuffer.length : 0;
+			}
+			
+			return true;
+		}
+	}
+}
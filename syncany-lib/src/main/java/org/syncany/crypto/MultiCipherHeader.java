@@ -0,0 +1,215 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.crypto;
+
+import static org.syncany.crypto.CipherParams.CRYPTO_PROVIDER_ID;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+
+/**
+ * Reads and verifies the header of a stream written by the {@link MultiCipherOutputStream},
+ * and holds the cipher configuration needed to decrypt the rest of the stream. See
+ * {@link MultiCipherOutputStream} for a description of the format.
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+class MultiCipherHeader {
+	private int version;
+	private List<CipherSpec> cipherSpecs;
+	private List<byte[]> secretKeys;
+	private List<byte[]> ivs;
+	private int segmentSize;
+	private int length;
+
+	private MultiCipherHeader() {
+		this.cipherSpecs = new ArrayList<CipherSpec>();
+		this.secretKeys = new ArrayList<byte[]>();
+		this.ivs = new ArrayList<byte[]>();
+		this.segmentSize = 0;
+		this.length = 0;
+	}
+
+	/**
+	 * Reads the header from the given input stream and verifies its HMAC. After this
+	 * method returns, the input stream is positioned at the first ciphertext byte.
+	 */
+	public static MultiCipherHeader read(InputStream inputStream, CipherSession cipherSession) throws IOException {
+		try {
+			MultiCipherHeader header = new MultiCipherHeader();
+
+			header.readAndVerifyMagicNoHmac(inputStream);
+			header.readAndVerifyVersionNoHmac(inputStream);
+
+			Mac headerHmac = header.readHmacSaltAndInitHmac(inputStream, cipherSession);
+			header.readCipherSpecsAndUpdateHmac(inputStream, headerHmac, cipherSession);
+
+			if (header.version == MultiCipherOutputStream.STREAM_VERSION_SEGMENTED) {
+				header.readSegmentSizeAndUpdateHmac(inputStream, headerHmac);
+			}
+
+			header.readAndVerifyHmac(inputStream, headerHmac);
+
+			return header;
+		}
+		catch (IOException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new IOException(e);
+		}
+	}
+
+	public int getVersion() {
+		return version;
+	}
+
+	public boolean isSegmented() {
+		return version == MultiCipherOutputStream.STREAM_VERSION_SEGMENTED;
+	}
+
+	/**
+	 * Returns the length of the header in bytes, i.e. the offset of the first ciphertext byte.
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Wraps the given input stream in the nested cipher input streams of an
+	 * unsegmented (version 1) stream.
+	 */
+	public InputStream newCipherInputStream(InputStream underlyingInputStream) throws CipherException {
+		InputStream nestedCipherInputStream = underlyingInputStream;
+
+		for (int i = 0; i < cipherSpecs.size(); i++) {
+			nestedCipherInputStream = cipherSpecs.get(i).newCipherInputStream(nestedCipherInputStream, secretKeys.get(i), ivs.get(i));
+		}
+
+		return nestedCipherInputStream;
+	}
+
+	/**
+	 * Returns the segment cipher of a segmented (version 2) stream.
+	 */
+	public SegmentCipher newSegmentCipher() throws IOException {
+		if (!isSegmented()) {
+			throw new IOException("Stream version " + version + " is not segmented.");
+		}
+
+		return new SegmentCipher(cipherSpecs, secretKeys, ivs, segmentSize);
+	}
+
+	private void readAndVerifyMagicNoHmac(InputStream inputStream) throws IOException {
+		byte[] streamMagic = readNoHmac(inputStream, MultiCipherOutputStream.STREAM_MAGIC.length);
+
+		if (!Arrays.equals(MultiCipherOutputStream.STREAM_MAGIC, streamMagic)) {
+			throw new IOException("Not a Syncany-encrypted file, no magic!");
+		}
+	}
+
+	private void readAndVerifyVersionNoHmac(InputStream inputStream) throws IOException {
+		byte streamVersion = readNoHmac(inputStream, 1)[0];
+
+		if (streamVersion != MultiCipherOutputStream.STREAM_VERSION_UNSEGMENTED && streamVersion != MultiCipherOutputStream.STREAM_VERSION_SEGMENTED) {
+			throw new IOException("Stream version not supported: " + streamVersion);
+		}
+
+		version = streamVersion;
+	}
+
+	private Mac readHmacSaltAndInitHmac(InputStream inputStream, CipherSession cipherSession) throws Exception {
+		byte[] hmacSalt = readNoHmac(inputStream, MultiCipherOutputStream.SALT_SIZE);
+		SecretKey hmacSecretKey = cipherSession.getReadSecretKey(MultiCipherOutputStream.HMAC_SPEC, hmacSalt);
+
+		Mac hmac = Mac.getInstance(MultiCipherOutputStream.HMAC_SPEC.getAlgorithm(), CRYPTO_PROVIDER_ID);
+		hmac.init(hmacSecretKey);
+
+		return hmac;
+	}
+
+	private void readCipherSpecsAndUpdateHmac(InputStream inputStream, Mac hmac, CipherSession cipherSession) throws Exception {
+		int cipherSpecCount = readAndUpdateHmac(inputStream, 1, hmac)[0] & 0xff;
+
+		for (int i = 0; i < cipherSpecCount; i++) {
+			int cipherSpecId = readAndUpdateHmac(inputStream, 1, hmac)[0] & 0xff;
+			CipherSpec cipherSpec = CipherSpecs.getCipherSpec(cipherSpecId);
+
+			if (cipherSpec == null) {
+				throw new IOException("Cannot find cipher spec with ID " + cipherSpecId);
+			}
+
+			byte[] salt = readAndUpdateHmac(inputStream, MultiCipherOutputStream.SALT_SIZE, hmac);
+			byte[] iv = readAndUpdateHmac(inputStream, cipherSpec.getIvSize() / 8, hmac);
+
+			SecretKey secretKey = cipherSession.getReadSecretKey(cipherSpec, salt);
+
+			cipherSpecs.add(cipherSpec);
+			secretKeys.add(secretKey.getEncoded());
+			ivs.add(iv);
+		}
+	}
+
+	private void readSegmentSizeAndUpdateHmac(InputStream inputStream, Mac hmac) throws IOException {
+		byte[] segmentSizeBytes = readAndUpdateHmac(inputStream, 4, hmac);
+
+		segmentSize = ((segmentSizeBytes[0] & 0xff) << 24) | ((segmentSizeBytes[1] & 0xff) << 16)
+				| ((segmentSizeBytes[2] & 0xff) << 8) | (segmentSizeBytes[3] & 0xff);
+	}
+
+	private void readAndVerifyHmac(InputStream inputStream, Mac hmac) throws Exception {
+		byte[] calculatedHeaderHmac = hmac.doFinal();
+		byte[] readHeaderHmac = readNoHmac(inputStream, calculatedHeaderHmac.length);
+
+		if (!Arrays.equals(calculatedHeaderHmac, readHeaderHmac)) {
+			throw new Exception("Integrity exception: Calculated HMAC and read HMAC do not match.");
+		}
+	}
+
+	private byte[] readNoHmac(InputStream inputStream, int size) throws IOException {
+		byte[] bytes = new byte[size];
+		int offset = 0;
+
+		while (offset < size) {
+			int read = inputStream.read(bytes, offset, size - offset);
+
+			if (read == -1) {
+				throw new EOFException("Unexpected end of stream while reading header.");
+			}
+
+			offset += read;
+		}
+
+		length += size;
+		return bytes;
+	}
+
+	private byte[] readAndUpdateHmac(InputStream inputStream, int size, Mac hmac) throws IOException {
+		byte[] bytes = readNoHmac(inputStream, size);
+		hmac.update(bytes);
+
+		return bytes;
+	}
+}
@@ -17,67 +17,112 @@
  */
 package org.syncany.crypto;
 
-import static org.syncany.crypto.CipherParams.CRYPTO_PROVIDER_ID;
-
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Arrays;
-
-import javax.crypto.Mac;
-import javax.crypto.SecretKey;
-
+import java.io.PushbackInputStream;
+
+/**
+ * Implements an input stream that decrypts a stream written by the
+ * {@link MultiCipherOutputStream}. Both the unsegmented format (stream version
+ * {@link MultiCipherOutputStream#STREAM_VERSION_UNSEGMENTED}) and the segmented
+ * format ({@link MultiCipherOutputStream#STREAM_VERSION_SEGMENTED}) can be read.
+ * 
+ * <p>Segmented streams are decrypted one segment at a time. Each segment is 
+ * authenticated before any of its plaintext is returned. To read only parts of
+ * a segmented file, use the {@link MultiCipherRandomAccessReader}.
+ */
 public class MultiCipherInputStream extends InputStream {
 	private InputStream underlyingInputStream;
-
-	private InputStream cipherInputStream;
 	private CipherSession cipherSession;
 	
 	private boolean headerRead;
-	private Mac headerHmac;
+
+	// Unsegmented streams (version 1)
+	private InputStream cipherInputStream;
+	
+	// Segmented streams (version 2)
+	private SegmentCipher segmentCipher;
+	private PushbackInputStream segmentInputStream;
+	private byte[] encryptedSegment;
+	private long segmentIndex;
+	private boolean finalSegmentRead;
+	private byte[] segment;
+	private int segmentPosition;
 		
 	public MultiCipherInputStream(InputStream in, CipherSession cipherSession) throws IOException {
 		this.underlyingInputStream = in;		
-
-		this.cipherInputStream = null;
 		this.cipherSession = cipherSession;
 		
 		this.headerRead = false;		
-		this.headerHmac = null;		
+		this.cipherInputStream = null;
+		this.segmentCipher = null;
 	}
 
 	@Override
 	public int read() throws IOException {
-		readHeader();
-		return cipherInputStream.read();
+		byte[] singleByte = new byte[1];
+		return (read(singleByte, 0, 1) == -1) ? -1 : singleByte[0] & 0xff;
 	}
 	
 	@Override
 	public int read(byte[] b) throws IOException {
-		readHeader();
-		return cipherInputStream.read(b, 0, b.length);
+		return read(b, 0, b.length);
 	}
 	
 	@Override
 	public int read(byte[] b, int off, int len) throws IOException {
 		readHeader();
-		return cipherInputStream.read(b, off, len);
+		
+		if (segmentCipher == null) {
+			return cipherInputStream.read(b, off, len);
+		}
+		else {
+			if (len == 0) {
+				return 0;
+			}
+			
+			if (!readSegmentIfNecessary()) {
+				return -1;
+			}
+			
+			int readLength = Math.min(len, segment.length - segmentPosition);
+			System.arraycopy(segment, segmentPosition, b, off, readLength);
+			
+			segmentPosition += readLength;
+			return readLength;
+		}
 	}
 	
 	@Override
 	public void close() throws IOException {
-		cipherInputStream.close();
+		if (cipherInputStream != null) {
+			cipherInputStream.close();
+		}
+		else {
+			underlyingInputStream.close();
+		}
 	}	
 	
 	private void readHeader() throws IOException {
 		if (!headerRead) {
 			try {
-				readAndVerifyMagicNoHmac(underlyingInputStream);
-				readAndVerifyVersionNoHmac(underlyingInputStream);
-
-				headerHmac = readHmacSaltAndInitHmac(underlyingInputStream, cipherSession);				
-				cipherInputStream = readCipherSpecsAndUpdateHmac(underlyingInputStream, headerHmac, cipherSession);
-
-				readAndVerifyHmac(underlyingInputStream, headerHmac);			
+				MultiCipherHeader header = MultiCipherHeader.read(underlyingInputStream, cipherSession);
+				
+				if (header.isSegmented()) {
+					segmentCipher = header.newSegmentCipher();
+					segmentInputStream = new PushbackInputStream(underlyingInputStream, 1);
+					encryptedSegment = new byte[segmentCipher.getEncryptedSegmentSize()];
+					segmentIndex = 0;
+					finalSegmentRead = false;
+					segment = new byte[0];
+					segmentPosition = 0;
+				}
+				else {
+					cipherInputStream = header.newCipherInputStream(underlyingInputStream);
+				}
+			}
+			catch (IOException e) {
+				throw e;
 			}
 			catch (Exception e) {
 				throw new IOException(e);
@@ -87,82 +132,58 @@ public class MultiCipherInputStream extends InputStream {
 		}
 	}
 
-	private void readAndVerifyMagicNoHmac(InputStream inputStream) throws IOException {
-		byte[] streamMagic = new byte[MultiCipherOutputStream.STREAM_MAGIC.length];
-		inputStream.read(streamMagic);
-		
-		if (!Arrays.equals(MultiCipherOutputStream.STREAM_MAGIC, streamMagic)) {
-			throw new IOException("Not a Syncany-encrypted file, no magic!");
+	/**
+	 * Reads and decrypts the next segment if the current segment has been read 
+	 * completely. Returns <tt>false</tt> if the final segment has been read completely. 
+	 * 
+	 * <p>A segment is the final segment if it is shorter than a full segment, or 
+	 * if no data follows it. Since the final segment flag is part of the segment IV,
+	 * decryption fails if the stream was truncated (or extended) at a segment boundary.
+	 */
+	private boolean readSegmentIfNecessary() throws IOException {
+		while (segmentPosition == segment.length) {
+			if (finalSegmentRead) {
+				return false;
+			}
+			
+			int encryptedSegmentLength = readFully(segmentInputStream, encryptedSegment);
+			boolean finalSegment = encryptedSegmentLength < encryptedSegment.length || isEndOfStream(segmentInputStream);
+			
+			segment = segmentCipher.decrypt(segmentIndex, finalSegment, encryptedSegment, 0, encryptedSegmentLength);
+			segmentPosition = 0;
+			
+			segmentIndex++;
+			finalSegmentRead = finalSegment;
 		}
-	}
-
-	private void readAndVerifyVersionNoHmac(InputStream inputStream) throws IOException {
-		byte streamVersion = (byte) inputStream.read();
 		
-		if (streamVersion != MultiCipherOutputStream.STREAM_VERSION) {
-			throw new IOException("Stream version not supported: "+streamVersion);
-		}		
+		return true;
 	}
 	
-	private Mac readHmacSaltAndInitHmac(InputStream inputStream, CipherSession cipherSession) throws Exception {
-		byte[] hmacSalt = readNoHmac(inputStream, MultiCipherOutputStream.SALT_SIZE);
-		SecretKey hmacSecretKey = cipherSession.getReadSecretKey(MultiCipherOutputStream.HMAC_SPEC, hmacSalt);
+	private int readFully(InputStream inputStream, byte[] buffer) throws IOException {
+		int offset = 0;
 		
-		Mac hmac = Mac.getInstance(MultiCipherOutputStream.HMAC_SPEC.getAlgorithm(), CRYPTO_PROVIDER_ID);
-		hmac.init(hmacSecretKey);	
-		
-		return hmac;
-	}
-	
-	private InputStream readCipherSpecsAndUpdateHmac(InputStream underlyingInputStream, Mac hmac, CipherSession cipherSession) throws Exception {
-		int cipherSpecCount = readByteAndUpdateHmac(underlyingInputStream, hmac);		
-		InputStream nestedCipherInputStream = underlyingInputStream;
-		
-		for (int i=0; i<cipherSpecCount; i++) {
-			int cipherSpecId = readByteAndUpdateHmac(underlyingInputStream, hmac);				
-			CipherSpec cipherSpec = CipherSpecs.getCipherSpec(cipherSpecId);
+		while (offset < buffer.length) {
+			int read = inputStream.read(buffer, offset, buffer.length - offset);
 			
-			if (cipherSpec == null) {
-				throw new IOException("Cannot find cipher spec with ID "+cipherSpecId);
+			if (read == -1) {
+				break;
 			}
-
-			byte[] salt = readAndUpdateHmac(underlyingInputStream, MultiCipherOutputStream.SALT_SIZE, hmac);
-			byte[] iv = readAndUpdateHmac(underlyingInputStream, cipherSpec.getIvSize()/8, hmac);
 			
-			SecretKey secretKey = cipherSession.getReadSecretKey(cipherSpec, salt);			
-			nestedCipherInputStream = cipherSpec.newCipherInputStream(nestedCipherInputStream, secretKey.getEncoded(), iv);		
-		}	 
-		
-		return nestedCipherInputStream;
-	}
-
-	private void readAndVerifyHmac(InputStream inputStream, Mac hmac) throws Exception {
-		byte[] calculatedHeaderHmac = hmac.doFinal();
-		byte[] readHeaderHmac = readNoHmac(inputStream, calculatedHeaderHmac.length);
-		
-		if (!Arrays.equals(calculatedHeaderHmac, readHeaderHmac)) {
-			throw new Exception("Integrity exception: Calculated HMAC and read HMAC do not match.");
-		}			
-	}
-
-	private byte[] readNoHmac(InputStream inputStream, int size) throws IOException {
-		byte[] bytes = new byte[size];		
-		inputStream.read(bytes);	
-		
-		return bytes;
-	}
-
-	private byte[] readAndUpdateHmac(InputStream inputStream, int size, Mac hmac) throws IOException {
-		byte[] bytes = readNoHmac(inputStream, size);		
-		hmac.update(bytes);
+			offset += read;
+		}
 		
-		return bytes;
+		return offset;
 	}
-
-	private int readByteAndUpdateHmac(InputStream inputStream, Mac hmac) throws IOException {
-		int abyte = inputStream.read();
-		hmac.update((byte) abyte);
+	
+	private boolean isEndOfStream(PushbackInputStream inputStream) throws IOException {
+		int nextByte = inputStream.read();
 		
-		return abyte;
+		if (nextByte == -1) {
+			return true;
+		}
+		else {
+			inputStream.unread(nextByte);
+			return false;
+		}
 	}
-}
\ No newline at end of file
+}
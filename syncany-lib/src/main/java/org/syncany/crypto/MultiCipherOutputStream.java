@@ -17,14 +17,14 @@
  */
 package org.syncany.crypto;
 
-import static org.syncany.crypto.CipherParams.CRYPTO_PROVIDER_ID;
-
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.crypto.Mac;
 
+import org.syncany.crypto.WriteKeyPreparer.PreparedWriteKey;
 import org.syncany.crypto.specs.HmacSha256CipherSpec;
 
 /**
@@ -45,10 +45,23 @@ import org.syncany.crypto.specs.HmacSha256CipherSpec;
  *      12             yes (in header)  Salt for cipher i (12 bytes)
  *      aa             yes (in header)  IV for cipher i (cipher specific length, 0..x)
  *      
- *    20               no               Header HMAC (20 bytes, for "HmacSHA1")
+ *    04               yes (in header)  Segment size (=s, 4 bytes, big endian, version 2 only)
+ *    32               no               Header HMAC (32 bytes, for "HmacSHA256")
  *    bb               yes (in mode)    Ciphertext (HMAC'd by mode, e.g. GCM)
  * </pre>
  * 
+ * In version 1 (unsegmented, the default), the ciphertext is a single ciphertext per cipher, 
+ * so the stream can only be decrypted front to back. In version 2 (segmented), the 
+ * plaintext is split into segments of <i>s</i> bytes, and each segment is encrypted and
+ * authenticated individually, with a per-segment IV derived from the segment index (see 
+ * {@link SegmentCipher}). Every segment except the last one is exactly <i>s</i> bytes long 
+ * (plus one tag per cipher), so a reader can seek to the segment containing a certain 
+ * plaintext offset and decrypt only that segment (see {@link MultiCipherRandomAccessReader}).
+ * 
+ * Since older clients can only read version 1, segmented streams are only written if a 
+ * segment size is explicitly passed to the constructor (e.g. by a repository's cipher 
+ * transformer, see {@link org.syncany.chunk.CipherTransformer#PROPERTY_SEGMENT_SIZE}).
+ * 
  * It follows a few Do's and Don'ts:
  * - http://blog.cryptographyengineering.com/2011/11/how-not-to-use-symmetric-encryption.html
  * - http://security.stackexchange.com/questions/30170/after-how-much-data-encryption-aes-256-we-should-change-key
@@ -62,7 +75,10 @@ import org.syncany.crypto.specs.HmacSha256CipherSpec;
  */
 public class MultiCipherOutputStream extends OutputStream {
 	public static final byte[] STREAM_MAGIC = new byte[] { 0x53, 0x79, 0x02, 0x05 };
-	public static final byte STREAM_VERSION = 1;
+	public static final byte STREAM_VERSION_UNSEGMENTED = 1;
+	public static final byte STREAM_VERSION_SEGMENTED = 2;
+	public static final byte STREAM_VERSION = STREAM_VERSION_UNSEGMENTED;
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
 
 	public static final int SALT_SIZE = 12;	
 	public static final CipherSpec HMAC_SPEC = new HmacSha256CipherSpec();
@@ -71,61 +87,126 @@ public class MultiCipherOutputStream extends OutputStream {
 	
 	private List<CipherSpec> cipherSpecs;
 	private CipherSession cipherSession;
-	private OutputStream cipherOutputStream;
+	private int segmentSize;
 
 	private boolean headerWritten;	
 	private Mac headerHmac;
+
+	// Unsegmented streams (version 1)
+	private OutputStream cipherOutputStream;
+
+	// Segmented streams (version 2)
+	private SegmentCipher segmentCipher;
+	private byte[] segment;
+	private int segmentPosition;
+	private long segmentIndex;
 	
 	public MultiCipherOutputStream(OutputStream out, List<CipherSpec> cipherSpecs, CipherSession cipherSession) throws IOException {
+		this(out, cipherSpecs, cipherSession, 0);
+	}
+	
+	/**
+	 * Creates a new multi cipher output stream with the given segment size. A segment 
+	 * size of zero writes the unsegmented version 1 format, which can be read by older
+	 * clients, but cannot be decrypted partially. {@link #DEFAULT_SEGMENT_SIZE} is the
+	 * recommended size for segmented streams.
+	 * 
+	 * @param segmentSize Plaintext bytes per segment, or 0 to write an unsegmented stream
+	 */
+	public MultiCipherOutputStream(OutputStream out, List<CipherSpec> cipherSpecs, CipherSession cipherSession, int segmentSize) throws IOException {
+		if (segmentSize < 0) {
+			throw new IllegalArgumentException("Segment size must not be negative: " + segmentSize);
+		}
+		
 		this.underlyingOutputStream = out;	
 		
 		this.cipherSpecs = cipherSpecs;		
 		this.cipherSession = cipherSession;		
-		this.cipherOutputStream = null;
+		this.segmentSize = segmentSize;
 		
 		this.headerWritten = false;
 		this.headerHmac = null;		
+		
+		this.cipherOutputStream = null;
+		this.segmentCipher = null;
 	}
 	
 	@Override
 	public void write(int b) throws IOException {
-		writeHeader();
-		cipherOutputStream.write(b);		
+		write(new byte[] { (byte) b }, 0, 1);		
 	}
 	
 	@Override
 	public void write(byte[] b) throws IOException {
-		writeHeader();
-		cipherOutputStream.write(b, 0, b.length);
+		write(b, 0, b.length);
 	}
 	
 	@Override
 	public void write(byte[] b, int off, int len) throws IOException {
 		writeHeader();
-		cipherOutputStream.write(b, off, len);
+		
+		if (segmentCipher == null) {
+			cipherOutputStream.write(b, off, len);
+		}
+		else {
+			while (len > 0) {
+				// Only write a full segment once more data follows; the last segment is written on close()
+				if (segmentPosition == segment.length) {
+					writeSegment(false);
+				}
+				
+				int writeLength = Math.min(len, segment.length - segmentPosition);
+				System.arraycopy(b, off, segment, segmentPosition, writeLength);
+				
+				segmentPosition += writeLength;
+				off += writeLength;
+				len -= writeLength;
+			}
+		}
 	}
 	
 	@Override
 	public void close() throws IOException {
-		cipherOutputStream.close();
+		writeHeader();
+		
+		if (segmentCipher == null) {
+			cipherOutputStream.close();
+		}
+		else {
+			if (segment != null) {
+				writeSegment(true);
+				segment = null;
+			}
+			
+			underlyingOutputStream.close();
+		}
+	}
+	
+	private void writeSegment(boolean finalSegment) throws IOException {
+		byte[] encryptedSegment = segmentCipher.encrypt(segmentIndex, finalSegment, segment, 0, segmentPosition);
+		underlyingOutputStream.write(encryptedSegment);
+		
+		segmentPosition = 0;
+		segmentIndex++;
 	}
 		
 	private void writeHeader() throws IOException {
 		if (!headerWritten) {
 			try {
 				// Initialize header HMAC
-				SaltedSecretKey hmacSecretKey = cipherSession.getWriteSecretKey(HMAC_SPEC);
+				PreparedWriteKey hmacWriteKey = cipherSession.getPreparedWriteKey(HMAC_SPEC);
+				SaltedSecretKey hmacSecretKey = hmacWriteKey.getSaltedSecretKey();
 
-				headerHmac = Mac.getInstance(HMAC_SPEC.getAlgorithm(), CRYPTO_PROVIDER_ID);
-				headerHmac.init(hmacSecretKey);
+				headerHmac = hmacWriteKey.newMac();
 
 				// Write header
 				writeNoHmac(underlyingOutputStream, STREAM_MAGIC);
-				writeNoHmac(underlyingOutputStream, STREAM_VERSION);
+				writeNoHmac(underlyingOutputStream, (segmentSize > 0) ? STREAM_VERSION_SEGMENTED : STREAM_VERSION_UNSEGMENTED);
 				writeNoHmac(underlyingOutputStream, hmacSecretKey.getSalt());			
 				writeAndUpdateHmac(underlyingOutputStream, cipherSpecs.size());
 
-				cipherOutputStream = underlyingOutputStream;
+				List<byte[]> secretKeys = new ArrayList<byte[]>();
+				List<byte[]> ivs = new ArrayList<byte[]>();
 
 				for (CipherSpec cipherSpec : cipherSpecs) { 
 					SaltedSecretKey saltedSecretKey = cipherSession.getWriteSecretKey(cipherSpec);				
@@ -135,9 +216,26 @@ public class MultiCipherOutputStream extends OutputStream {
 					writeAndUpdateHmac(underlyingOutputStream, saltedSecretKey.getSalt());
 					writeAndUpdateHmac(underlyingOutputStream, iv);
 
-					cipherOutputStream = cipherSpec.newCipherOutputStream(cipherOutputStream, saltedSecretKey.getEncoded(), iv);	        
+					secretKeys.add(saltedSecretKey.getEncoded());
+					ivs.add(iv);
 				}	
 
+				if (segmentSize > 0) {
+					writeAndUpdateHmac(underlyingOutputStream, new byte[] { (byte) (segmentSize >>> 24), (byte) (segmentSize >>> 16), (byte) (segmentSize >>> 8), (byte) segmentSize });
+
+					segmentCipher = new SegmentCipher(cipherSpecs, secretKeys, ivs, segmentSize);
+					segment = new byte[segmentSize];
+					segmentPosition = 0;
+					segmentIndex = 0;
+				}
+				else {
+					cipherOutputStream = underlyingOutputStream;
+
+					for (int i = 0; i < cipherSpecs.size(); i++) {
+						cipherOutputStream = cipherSpecs.get(i).newCipherOutputStream(cipherOutputStream, secretKeys.get(i), ivs.get(i));
+					}
+				}
+
 				writeNoHmac(underlyingOutputStream, headerHmac.doFinal());
 			}
 			catch (Exception e) {
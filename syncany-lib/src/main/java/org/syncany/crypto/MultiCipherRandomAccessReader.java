@@ -0,0 +1,304 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.crypto;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads arbitrary plaintext ranges of a file written by the {@link MultiCipherOutputStream},
+ * without decrypting the entire file.
+ *
+ * <p>For segmented files (stream version {@link MultiCipherOutputStream#STREAM_VERSION_SEGMENTED}),
+ * only the segments overlapping the requested range are read and decrypted. Each of them is
+ * authenticated before its plaintext is returned. The most recently decrypted segment is kept,
+ * so that reading consecutive small ranges (e.g. chunks) decrypts every segment only once.
+ *
+ * <p>Unsegmented files (version 1) cannot be decrypted partially. For these files, the reader
+ * falls back to decrypting the file front to back, and skipping the data before the requested
+ * position. Reading ranges in ascending order reuses the same decrypting stream.
+ *
+ * <p>Instances of this class are not thread-safe.
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class MultiCipherRandomAccessReader {
+	private File file;
+	private CipherSession cipherSession;
+	private MultiCipherHeader header;
+
+	// Segmented files
+	private RandomAccessFile randomAccessFile;
+	private FileChannel channel;
+	private SegmentCipher segmentCipher;
+	private long segmentCount;
+	private long length;
+
+	private ByteBuffer encryptedSegment;
+	private long cachedSegmentIndex;
+	private byte[] cachedSegment;
+
+	// Unsegmented files
+	private InputStream sequentialFileInputStream;
+	private InputStream sequentialInputStream;
+	private long sequentialPosition;
+
+	public MultiCipherRandomAccessReader(File file, CipherSession cipherSession) throws IOException {
+		this.file = file;
+		this.cipherSession = cipherSession;
+		this.randomAccessFile = new RandomAccessFile(file, "r");
+		this.channel = randomAccessFile.getChannel();
+
+		try {
+			this.header = MultiCipherHeader.read(Channels.newInputStream(channel), cipherSession);
+
+			if (header.isSegmented()) {
+				initSegments();
+			}
+			else {
+				this.length = -1;
+				close();
+			}
+		}
+		catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the stream version of the file, either {@link MultiCipherOutputStream#STREAM_VERSION_SEGMENTED}
+	 * or {@link MultiCipherOutputStream#STREAM_VERSION_UNSEGMENTED}.
+	 */
+	public int getVersion() {
+		return header.getVersion();
+	}
+
+	/**
+	 * Returns whether the file can be decrypted partially, i.e. whether
+	 * it was written in the segmented format.
+	 */
+	public boolean isSegmented() {
+		return header.isSegmented();
+	}
+
+	/**
+	 * Returns the plaintext length of the file in bytes, or -1 if the
+	 * file is unsegmented (and the length is hence not known without
+	 * decrypting the file).
+	 */
+	public long length() {
+		return length;
+	}
+
+	/**
+	 * Reads up to <tt>len</tt> plaintext bytes, starting at the given plaintext position.
+	 *
+	 * @return Returns the number of bytes read, or -1 if the position is at or beyond the end of the file
+	 */
+	public int read(long position, byte[] b, int off, int len) throws IOException {
+		if (position < 0) {
+			throw new IllegalArgumentException("Position must not be negative: " + position);
+		}
+		else if (len == 0) {
+			return 0;
+		}
+
+		if (isSegmented()) {
+			return readSegmented(position, b, off, len);
+		}
+		else {
+			return readUnsegmented(position, b, off, len);
+		}
+	}
+
+	/**
+	 * Reads exactly <tt>b.length</tt> plaintext bytes, starting at the given
+	 * plaintext position.
+	 *
+	 * @throws EOFException If the file ends before the buffer is filled
+	 */
+	public void readFully(long position, byte[] b) throws IOException {
+		int offset = 0;
+
+		while (offset < b.length) {
+			int read = read(position + offset, b, offset, b.length - offset);
+
+			if (read == -1) {
+				throw new EOFException("Unexpected end of file " + file + " at position " + (position + offset));
+			}
+
+			offset += read;
+		}
+	}
+
+	/**
+	 * Returns an input stream for the given plaintext range. The stream reads
+	 * through this reader, so it must not be used after the reader is closed.
+	 */
+	public InputStream getInputStream(final long position, final long rangeLength) {
+		return new InputStream() {
+			private long rangePosition = 0;
+
+			@Override
+			public int read() throws IOException {
+				byte[] singleByte = new byte[1];
+				return (read(singleByte, 0, 1) == -1) ? -1 : singleByte[0] & 0xff;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (rangePosition >= rangeLength) {
+					return -1;
+				}
+
+				int read = MultiCipherRandomAccessReader.this.read(position + rangePosition, b, off, (int) Math.min(len, rangeLength - rangePosition));
+
+				if (read > 0) {
+					rangePosition += read;
+				}
+
+				return read;
+			}
+		};
+	}
+
+	public void close() throws IOException {
+		if (randomAccessFile != null) {
+			randomAccessFile.close();
+			randomAccessFile = null;
+			channel = null;
+		}
+
+		closeSequentialInputStream();
+	}
+
+	private void initSegments() throws IOException {
+		segmentCipher = header.newSegmentCipher();
+		encryptedSegment = ByteBuffer.allocate(segmentCipher.getEncryptedSegmentSize());
+		cachedSegmentIndex = -1;
+
+		long encryptedLength = channel.size() - header.getLength();
+		long encryptedSegmentSize = segmentCipher.getEncryptedSegmentSize();
+
+		// There is always at least one (possibly empty) final segment
+		segmentCount = Math.max(1, (encryptedLength + encryptedSegmentSize - 1) / encryptedSegmentSize);
+
+		long finalSegmentEncryptedLength = encryptedLength - (segmentCount - 1) * encryptedSegmentSize;
+
+		if (finalSegmentEncryptedLength < segmentCipher.getOverhead()) {
+			throw new IOException("Integrity exception: File " + file + " is truncated.");
+		}
+
+		length = encryptedLength - segmentCount * segmentCipher.getOverhead();
+	}
+
+	private int readSegmented(long position, byte[] b, int off, int len) throws IOException {
+		if (position >= length) {
+			return -1;
+		}
+
+		int segmentSize = segmentCipher.getSegmentSize();
+		byte[] segment = readSegment(position / segmentSize);
+		int segmentPosition = (int) (position % segmentSize);
+
+		int readLength = Math.min(len, segment.length - segmentPosition);
+		System.arraycopy(segment, segmentPosition, b, off, readLength);
+
+		return readLength;
+	}
+
+	private byte[] readSegment(long segmentIndex) throws IOException {
+		if (segmentIndex == cachedSegmentIndex) {
+			return cachedSegment;
+		}
+
+		if (channel == null) {
+			throw new IOException("Reader for file " + file + " is closed.");
+		}
+
+		boolean finalSegment = segmentIndex == segmentCount - 1;
+		long encryptedSegmentPosition = header.getLength() + segmentIndex * segmentCipher.getEncryptedSegmentSize();
+
+		encryptedSegment.clear();
+
+		if (finalSegment) {
+			encryptedSegment.limit((int) (channel.size() - encryptedSegmentPosition));
+		}
+
+		while (encryptedSegment.hasRemaining()) {
+			if (channel.read(encryptedSegment, encryptedSegmentPosition + encryptedSegment.position()) == -1) {
+				throw new EOFException("Unexpected end of file " + file + " in segment " + segmentIndex);
+			}
+		}
+
+		cachedSegment = segmentCipher.decrypt(segmentIndex, finalSegment, encryptedSegment.array(), 0, encryptedSegment.limit());
+		cachedSegmentIndex = segmentIndex;
+
+		return cachedSegment;
+	}
+
+	private int readUnsegmented(long position, byte[] b, int off, int len) throws IOException {
+		if (sequentialInputStream == null || position < sequentialPosition) {
+			closeSequentialInputStream();
+
+			sequentialFileInputStream = new FileInputStream(file);
+			sequentialInputStream = new MultiCipherInputStream(new BufferedInputStream(sequentialFileInputStream), cipherSession);
+			sequentialPosition = 0;
+		}
+
+		while (sequentialPosition < position) {
+			long skipped = sequentialInputStream.skip(position - sequentialPosition);
+
+			if (skipped <= 0) {
+				if (sequentialInputStream.read() == -1) {
+					return -1;
+				}
+
+				skipped = 1;
+			}
+
+			sequentialPosition += skipped;
+		}
+
+		int read = sequentialInputStream.read(b, off, len);
+
+		if (read > 0) {
+			sequentialPosition += read;
+		}
+
+		return read;
+	}
+
+	private void closeSequentialInputStream() throws IOException {
+		// Closing the cipher stream before the end would fail the tag verification
+		if (sequentialFileInputStream != null) {
+			sequentialFileInputStream.close();
+			sequentialFileInputStream = null;
+			sequentialInputStream = null;
+		}
+	}
+}
@@ -0,0 +1,212 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.crypto;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Encrypts and decrypts the individual segments of a segmented multi cipher
+ * stream (stream version {@link MultiCipherOutputStream#STREAM_VERSION_SEGMENTED}).
+ *
+ * <p>Each segment is encrypted with all ciphers of the stream, in the same order
+ * as the unsegmented format nests them. Every cipher uses the key from the header,
+ * but a per-segment IV: The base IV from the header, with the segment index
+ * XOR'ed into the four bytes before the last byte, and a final-segment flag XOR'ed
+ * into the last byte. A segment can therefore only be decrypted at its original
+ * position, and a stream cannot be truncated at a segment boundary without the
+ * reader noticing.
+ *
+ * <p>Every cipher adds an authentication tag of {@link #TAG_SIZE} bytes to a segment,
+ * so an encrypted segment is {@link #getOverhead()} bytes larger than its plaintext.
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+class SegmentCipher {
+	public static final int TAG_SIZE = GcmCipherProvider.MAC_SIZE / 8; // in bytes
+
+	private static final int MIN_IV_SIZE = 5; // in bytes, segment index + flag
+	private static final byte FINAL_SEGMENT_FLAG = 0x01;
+
+	private List<CipherSpec> cipherSpecs;
+	private List<byte[]> secretKeys;
+	private List<byte[]> ivs;
+	private int segmentSize;
+
+	public SegmentCipher(List<CipherSpec> cipherSpecs, List<byte[]> secretKeys, List<byte[]> ivs, int segmentSize) throws IOException {
+		if (segmentSize <= 0) {
+			throw new IOException("Invalid segment size: " + segmentSize);
+		}
+
+		for (byte[] iv : ivs) {
+			if (iv.length < MIN_IV_SIZE) {
+				throw new IOException("IV too short for segmented encryption: " + iv.length + " bytes");
+			}
+		}
+
+		this.cipherSpecs = cipherSpecs;
+		this.secretKeys = secretKeys;
+		this.ivs = ivs;
+		this.segmentSize = segmentSize;
+	}
+
+	/**
+	 * Returns the maximum plaintext size of a segment, in bytes.
+	 */
+	public int getSegmentSize() {
+		return segmentSize;
+	}
+
+	/**
+	 * Returns the number of bytes an encrypted segment is larger than its plaintext.
+	 */
+	public int getOverhead() {
+		return cipherSpecs.size() * TAG_SIZE;
+	}
+
+	/**
+	 * Returns the size of an encrypted full (non-final) segment, in bytes.
+	 */
+	public int getEncryptedSegmentSize() {
+		return segmentSize + getOverhead();
+	}
+
+	public byte[] encrypt(long segmentIndex, boolean finalSegment, byte[] plaintext, int offset, int length) throws IOException {
+		if (cipherSpecs.isEmpty()) {
+			return Arrays.copyOfRange(plaintext, offset, offset + length);
+		}
+
+		byte[] data = plaintext;
+		int dataOffset = offset;
+		int dataLength = length;
+
+		// Innermost cipher first, see MultiCipherOutputStream#writeHeader()
+		for (int i = cipherSpecs.size() - 1; i >= 0; i--) {
+			ByteArrayOutputStream ciphertextOutputStream = new ByteArrayOutputStream(dataLength + TAG_SIZE);
+			OutputStream cipherOutputStream = newCipherOutputStream(i, ciphertextOutputStream, segmentIndex, finalSegment);
+
+			cipherOutputStream.write(data, dataOffset, dataLength);
+			cipherOutputStream.close();
+
+			data = ciphertextOutputStream.toByteArray();
+			dataOffset = 0;
+			dataLength = data.length;
+		}
+
+		return data;
+	}
+
+	public byte[] decrypt(long segmentIndex, boolean finalSegment, byte[] ciphertext, int offset, int length) throws IOException {
+		if (length < getOverhead()) {
+			throw new IOException("Integrity exception: Segment " + segmentIndex + " is truncated.");
+		}
+		else if (cipherSpecs.isEmpty()) {
+			return Arrays.copyOfRange(ciphertext, offset, offset + length);
+		}
+
+		byte[] data = ciphertext;
+		int dataOffset = offset;
+		int dataLength = length;
+
+		for (int i = 0; i < cipherSpecs.size(); i++) {
+			int plaintextLength = dataLength - TAG_SIZE;
+			byte[] plaintext = new byte[plaintextLength];
+
+			InputStream cipherInputStream = newCipherInputStream(i, new ByteArrayInputStream(data, dataOffset, dataLength), segmentIndex, finalSegment);
+
+			try {
+				readFully(cipherInputStream, plaintext);
+
+				if (cipherInputStream.read() != -1) {
+					throw new IOException("Unexpected data after segment end");
+				}
+			}
+			catch (IOException e) {
+				throw new IOException("Integrity exception: Cannot decrypt segment " + segmentIndex + ".", e);
+			}
+			finally {
+				cipherInputStream.close();
+			}
+
+			data = plaintext;
+			dataOffset = 0;
+			dataLength = plaintextLength;
+		}
+
+		return data;
+	}
+
+	private OutputStream newCipherOutputStream(int cipherIndex, OutputStream underlyingOutputStream, long segmentIndex, boolean finalSegment) throws IOException {
+		try {
+			byte[] segmentIv = createSegmentIv(ivs.get(cipherIndex), segmentIndex, finalSegment);
+			return cipherSpecs.get(cipherIndex).newSegmentCipherOutputStream(underlyingOutputStream, secretKeys.get(cipherIndex), segmentIv);
+		}
+		catch (CipherException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private InputStream newCipherInputStream(int cipherIndex, InputStream underlyingInputStream, long segmentIndex, boolean finalSegment) throws IOException {
+		try {
+			byte[] segmentIv = createSegmentIv(ivs.get(cipherIndex), segmentIndex, finalSegment);
+			return cipherSpecs.get(cipherIndex).newSegmentCipherInputStream(underlyingInputStream, secretKeys.get(cipherIndex), segmentIv);
+		}
+		catch (CipherException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private byte[] createSegmentIv(byte[] baseIv, long segmentIndex, boolean finalSegment) throws IOException {
+		if (segmentIndex < 0 || segmentIndex > 0xFFFFFFFFL) {
+			throw new IOException("Segment index out of range: " + segmentIndex);
+		}
+
+		byte[] segmentIv = baseIv.clone();
+		int indexOffset = segmentIv.length - MIN_IV_SIZE;
+
+		segmentIv[indexOffset] ^= (byte) (segmentIndex >>> 24);
+		segmentIv[indexOffset + 1] ^= (byte) (segmentIndex >>> 16);
+		segmentIv[indexOffset + 2] ^= (byte) (segmentIndex >>> 8);
+		segmentIv[indexOffset + 3] ^= (byte) segmentIndex;
+
+		if (finalSegment) {
+			segmentIv[segmentIv.length - 1] ^= FINAL_SEGMENT_FLAG;
+		}
+
+		return segmentIv;
+	}
+
+	private static void readFully(InputStream inputStream, byte[] buffer) throws IOException {
+		int offset = 0;
+
+		while (offset < buffer.length) {
+			int read = inputStream.read(buffer, offset, buffer.length - offset);
+
+			if (read == -1) {
+				throw new IOException("Unexpected end of segment");
+			}
+
+			offset += read;
+		}
+	}
+}
@@ -0,0 +1,219 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.crypto;
+
+import static org.syncany.crypto.CipherParams.CRYPTO_PROVIDER_ID;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+
+/**
+ * The write key preparer derives new write keys for the {@link CipherSession} in the
+ * background, so that replacing a used-up write key does not block the thread that
+ * creates a new {@link MultiCipherOutputStream}.
+ *
+ * <p>For each {@link CipherSpec}, the preparer keeps a small queue of ready keys. Each key
+ * has a fresh random salt. Keys for MAC algorithms (e.g. the header HMAC) are accompanied
+ * by an initialized {@link Mac}, which is cloned for every stream instead of looking up and
+ * initializing a new one. When a key is taken from the queue, the queue is refilled on a
+ * shared background thread. If the queue is empty (e.g. for the very first key of a cipher
+ * spec), the key is derived synchronously.
+ *
+ * <p>This class is thread-safe.
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+class WriteKeyPreparer {
+	private static final Logger logger = Logger.getLogger(WriteKeyPreparer.class.getSimpleName());
+	private static final int DEFAULT_QUEUE_SIZE = 2;
+
+	private static ExecutorService sharedExecutor;
+
+	private SecretKey masterKey;
+	private int queueSize;
+	private ConcurrentMap<CipherSpec, KeyQueue> keyQueues;
+
+	public WriteKeyPreparer(SecretKey masterKey) {
+		this(masterKey, DEFAULT_QUEUE_SIZE);
+	}
+
+	public WriteKeyPreparer(SecretKey masterKey, int queueSize) {
+		this.masterKey = masterKey;
+		this.queueSize = queueSize;
+		this.keyQueues = new ConcurrentHashMap<CipherSpec, KeyQueue>();
+	}
+
+	/**
+	 * Returns a new write key for the given cipher spec, and schedules the preparation
+	 * of the next one. The key is taken from the queue if one is ready, or derived
+	 * synchronously otherwise.
+	 */
+	public PreparedWriteKey take(CipherSpec cipherSpec) throws Exception {
+		KeyQueue keyQueue = getKeyQueue(cipherSpec);
+		PreparedWriteKey preparedWriteKey = keyQueue.keys.poll();
+
+		if (preparedWriteKey == null) {
+			logger.log(Level.FINE, "- No prepared WRITE secret key for " + cipherSpec.getAlgorithm() + " available, deriving synchronously.");
+			preparedWriteKey = createPreparedWriteKey(cipherSpec);
+		}
+
+		scheduleRefill(cipherSpec, keyQueue);
+		return preparedWriteKey;
+	}
+
+	private KeyQueue getKeyQueue(CipherSpec cipherSpec) {
+		KeyQueue keyQueue = keyQueues.get(cipherSpec);
+
+		if (keyQueue == null) {
+			KeyQueue newKeyQueue = new KeyQueue(queueSize);
+			keyQueue = keyQueues.putIfAbsent(cipherSpec, newKeyQueue);
+
+			if (keyQueue == null) {
+				keyQueue = newKeyQueue;
+			}
+		}
+
+		return keyQueue;
+	}
+
+	private void scheduleRefill(final CipherSpec cipherSpec, final KeyQueue keyQueue) {
+		if (keyQueue.keys.remainingCapacity() == 0 || !keyQueue.refillScheduled.compareAndSet(false, true)) {
+			return;
+		}
+
+		getSharedExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (keyQueue.keys.remainingCapacity() > 0) {
+						keyQueue.keys.offer(createPreparedWriteKey(cipherSpec));
+					}
+
+					logger.log(Level.FINE, "- Prepared WRITE secret keys for " + cipherSpec.getAlgorithm() + " in the background.");
+				}
+				catch (Exception e) {
+					logger.log(Level.WARNING, "- Cannot prepare WRITE secret key for " + cipherSpec.getAlgorithm() + " in the background.", e);
+				}
+				finally {
+					keyQueue.refillScheduled.set(false);
+				}
+			}
+		});
+	}
+
+	private PreparedWriteKey createPreparedWriteKey(CipherSpec cipherSpec) throws Exception {
+		byte[] salt = CipherUtil.createRandomArray(MultiCipherOutputStream.SALT_SIZE);
+		SaltedSecretKey saltedSecretKey = CipherUtil.createDerivedKey(masterKey, salt, cipherSpec);
+
+		Mac mac = null;
+
+		if (isMacAlgorithm(cipherSpec)) {
+			mac = Mac.getInstance(cipherSpec.getAlgorithm(), CRYPTO_PROVIDER_ID);
+			mac.init(saltedSecretKey);
+		}
+
+		return new PreparedWriteKey(saltedSecretKey, mac);
+	}
+
+	private static boolean isMacAlgorithm(CipherSpec cipherSpec) {
+		return cipherSpec.getAlgorithm().startsWith("Hmac");
+	}
+
+	private static synchronized ExecutorService getSharedExecutor() {
+		if (sharedExecutor == null) {
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "KeyPrep");
+						thread.setDaemon(true);
+
+						return thread;
+					}
+				});
+
+			executor.allowCoreThreadTimeOut(true);
+			sharedExecutor = executor;
+		}
+
+		return sharedExecutor;
+	}
+
+	/**
+	 * A derived write key, and (for MAC algorithms) an initialized {@link Mac}
+	 * using this key.
+	 */
+	static class PreparedWriteKey {
+		private SaltedSecretKey saltedSecretKey;
+		private Mac macPrototype;
+
+		public PreparedWriteKey(SaltedSecretKey saltedSecretKey, Mac macPrototype) {
+			this.saltedSecretKey = saltedSecretKey;
+			this.macPrototype = macPrototype;
+		}
+
+		public SaltedSecretKey getSaltedSecretKey() {
+			return saltedSecretKey;
+		}
+
+		/**
+		 * Returns a new initialized {@link Mac} for this key, or <tt>null</tt> if the
+		 * key is not a MAC key. The prototype is cloned if the provider supports it.
+		 */
+		public Mac newMac() throws Exception {
+			if (macPrototype == null) {
+				return null;
+			}
+
+			synchronized (macPrototype) {
+				try {
+					return (Mac) macPrototype.clone();
+				}
+				catch (CloneNotSupportedException e) {
+					Mac mac = Mac.getInstance(macPrototype.getAlgorithm(), CRYPTO_PROVIDER_ID);
+					mac.init(saltedSecretKey);
+
+					return mac;
+				}
+			}
+		}
+	}
+
+	private static class KeyQueue {
+		private BlockingQueue<PreparedWriteKey> keys;
+		private AtomicBoolean refillScheduled;
+
+		public KeyQueue(int queueSize) {
+			this.keys = new ArrayBlockingQueue<PreparedWriteKey>(queueSize);
+			this.refillScheduled = new AtomicBoolean(false);
+		}
+	}
+}
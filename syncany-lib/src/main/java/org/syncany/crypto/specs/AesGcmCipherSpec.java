@@ -20,38 +20,61 @@ package org.syncany.crypto.specs;
 import java.io.InputStream;
 import java.io.OutputStream;
 
-import org.bouncycastle.crypto.engines.AESEngine;
-import org.bouncycastle.crypto.modes.AEADBlockCipher;
-import org.bouncycastle.crypto.modes.GCMBlockCipher;
-import org.bouncycastle.crypto.params.AEADParameters;
-import org.bouncycastle.crypto.params.KeyParameter;
+import org.syncany.crypto.BouncyCastleGcmCipherProvider;
 import org.syncany.crypto.CipherException;
 import org.syncany.crypto.CipherSpec;
+import org.syncany.crypto.GcmCipherProvider;
 
 /**
+ * Cipher spec for AES in GCM mode. Segments of segmented streams are encrypted with the
+ * preferred {@link GcmCipherProvider} (usually the faster JCE provider). Unsegmented
+ * streams always use the {@link BouncyCastleGcmCipherProvider}, because it decrypts in
+ * constant memory, whereas the JCE provider buffers the entire plaintext.
+ * 
  * @author pheckel
- *
  */
 public abstract class AesGcmCipherSpec extends CipherSpec {
-	private static final int MAC_SIZE = 128;		
+	private GcmCipherProvider cipherProvider;
+	private GcmCipherProvider streamCipherProvider;
 
 	public AesGcmCipherSpec(int id, String algorithm, int keySize, int ivSize, boolean needsUnlimitedStrength) {
 		super(id, algorithm, keySize, ivSize, needsUnlimitedStrength);
+		
+		this.cipherProvider = GcmCipherProvider.getPreferredProvider("AES", keySize);
+		this.streamCipherProvider = new BouncyCastleGcmCipherProvider("AES");
+	}
+	
+	/**
+	 * Returns the provider used for the (bounded) segments of segmented streams.
+	 */
+	public GcmCipherProvider getCipherProvider() {
+		return cipherProvider;
+	}
+	
+	/**
+	 * Returns the provider used for unsegmented streams of arbitrary length.
+	 */
+	public GcmCipherProvider getStreamCipherProvider() {
+		return streamCipherProvider;
 	}
 		
 	@Override
 	public OutputStream newCipherOutputStream(OutputStream underlyingOutputStream, byte[] secretKey, byte[] iv) throws CipherException {
-		AEADBlockCipher cipher = new GCMBlockCipher(new AESEngine()); 
-		cipher.init(true, new AEADParameters(new KeyParameter(secretKey), MAC_SIZE, iv));
-		
-		return new org.bouncycastle.crypto.io.CipherOutputStream(underlyingOutputStream, cipher);
+		return streamCipherProvider.newCipherOutputStream(underlyingOutputStream, secretKey, iv);
 	}
 
 	@Override
 	public InputStream newCipherInputStream(InputStream underlyingInputStream, byte[] secretKey, byte[] iv) throws CipherException {
-		AEADBlockCipher cipher = new GCMBlockCipher(new AESEngine()); 
-		cipher.init(false, new AEADParameters(new KeyParameter(secretKey), MAC_SIZE, iv));
-		
-		return new org.bouncycastle.crypto.io.CipherInputStream(underlyingInputStream, cipher);
+		return streamCipherProvider.newCipherInputStream(underlyingInputStream, secretKey, iv);
+	}
+	
+	@Override
+	public OutputStream newSegmentCipherOutputStream(OutputStream underlyingOutputStream, byte[] secretKey, byte[] iv) throws CipherException {
+		return cipherProvider.newCipherOutputStream(underlyingOutputStream, secretKey, iv);
+	}
+
+	@Override
+	public InputStream newSegmentCipherInputStream(InputStream underlyingInputStream, byte[] secretKey, byte[] iv) throws CipherException {
+		return cipherProvider.newCipherInputStream(underlyingInputStream, secretKey, iv);
 	}
 }
@@ -20,34 +20,29 @@ package org.syncany.crypto.specs;
 import java.io.InputStream;
 import java.io.OutputStream;
 
-import org.bouncycastle.crypto.engines.TwofishEngine;
-import org.bouncycastle.crypto.modes.AEADBlockCipher;
-import org.bouncycastle.crypto.modes.GCMBlockCipher;
-import org.bouncycastle.crypto.params.AEADParameters;
-import org.bouncycastle.crypto.params.KeyParameter;
 import org.syncany.crypto.CipherException;
 import org.syncany.crypto.CipherSpec;
+import org.syncany.crypto.GcmCipherProvider;
 
 public abstract class TwofishGcmCipherSpec extends CipherSpec {
-	private static final int MAC_SIZE = 128;		
+	private GcmCipherProvider cipherProvider;
 
 	public TwofishGcmCipherSpec(int id, String algorithm, int keySize, int ivSize, boolean needsUnlimitedStrength) {
 		super(id, algorithm, keySize, ivSize, needsUnlimitedStrength);
+		this.cipherProvider = GcmCipherProvider.getPreferredProvider("Twofish", keySize);
+	}
+	
+	public GcmCipherProvider getCipherProvider() {
+		return cipherProvider;
 	}
 		
 	@Override
 	public OutputStream newCipherOutputStream(OutputStream underlyingOutputStream, byte[] secretKey, byte[] iv) throws CipherException {
-		AEADBlockCipher cipher = new GCMBlockCipher(new TwofishEngine()); 
-		cipher.init(true, new AEADParameters(new KeyParameter(secretKey), MAC_SIZE, iv));
-		
-		return new org.bouncycastle.crypto.io.CipherOutputStream(underlyingOutputStream, cipher);
+		return cipherProvider.newCipherOutputStream(underlyingOutputStream, secretKey, iv);
 	}
 
 	@Override
 	public InputStream newCipherInputStream(InputStream underlyingInputStream, byte[] secretKey, byte[] iv) throws CipherException {
-		AEADBlockCipher cipher = new GCMBlockCipher(new TwofishEngine()); 
-		cipher.init(false, new AEADParameters(new KeyParameter(secretKey), MAC_SIZE, iv));
-		
-		return new org.bouncycastle.crypto.io.CipherInputStream(underlyingInputStream, cipher);
+		return cipherProvider.newCipherInputStream(underlyingInputStream, secretKey, iv);
 	}
 }
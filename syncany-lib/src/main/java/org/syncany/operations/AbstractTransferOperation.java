@@ -70,7 +70,7 @@ public abstract class AbstractTransferOperation extends Operation {
 
 	private TransferManager createRetriableTransferManager(Config config) {
 		return new RetriableTransferManager(config.getTransferPlugin().createTransferManager(
-				config.getConnection(), config));
+				config.getConnection(), config), config.getRetryPolicy(), config.getCircuitBreaker());
 	}
 
 	protected void startOperation() throws Exception {
@@ -158,6 +158,12 @@ public abstract class AbstractTransferOperation extends Operation {
 	}
 
 	private void clearCache() {
-		config.getCache().clear();
+		// Keep the files of an interrupted upload, so it can be resumed
+		if (config.getTransactionFile().exists()) {
+			logger.log(Level.INFO, "Not clearing cache; interrupted transaction can be resumed.");
+		}
+		else {
+			config.getCache().clear();
+		}
 	}
 }
@@ -29,8 +29,7 @@ import java.util.logging.Logger;
 import org.apache.commons.io.FileUtils;
 import org.syncany.chunk.Chunker;
 import org.syncany.chunk.Deduper;
-import org.syncany.chunk.MultiChunk;
-import org.syncany.chunk.MultiChunker;
+import org.syncany.chunk.MultiChunkWindow;
 import org.syncany.config.Config;
 import org.syncany.database.ChunkEntry.ChunkChecksum;
 import org.syncany.database.FileContent;
@@ -46,7 +45,10 @@ import org.syncany.util.StringUtil;
  * multichunker, etc.).
  * 
  * <p>It uses the local {@link SqlDatabase} and an optional {@link MemoryDatabase}
- * to perform file checksum and chunk checksum lookups.   
+ * to perform file checksum and chunk checksum lookups. Chunks are read from the 
+ * multichunks in the local cache through the {@link MultiChunkWindow}, i.e. the
+ * multichunks are decrypted once, and their chunks are read from memory or from a
+ * spill file.   
  * 
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
@@ -94,7 +96,7 @@ public class Assembler {
 				
 		// Create non-empty file
 		Chunker chunker = config.getChunker();
-		MultiChunker multiChunker = config.getMultiChunker();
+		MultiChunkWindow multiChunkWindow = config.getMultiChunkWindow();
 		
 		FileOutputStream reconstructedFileOutputStream = new FileOutputStream(reconstructedFileInCache);		
 		MessageDigest reconstructedFileChecksum = MessageDigest.getInstance(chunker.getChecksumAlgorithm());
@@ -109,10 +111,13 @@ public class Assembler {
 					multiChunkIdForChunk = memoryDatabase.getMultiChunkIdForChunk(chunkChecksum);
 				}
 
-				File decryptedMultiChunkFile = config.getCache().getDecryptedMultiChunkFile(multiChunkIdForChunk);
+				File multiChunkFile = config.getCache().getEncryptedMultiChunkFile(multiChunkIdForChunk);
+				InputStream chunkInputStream = multiChunkWindow.getChunkInputStream(multiChunkIdForChunk, multiChunkFile, chunkChecksum);
 
-				MultiChunk multiChunk = multiChunker.createMultiChunk(decryptedMultiChunkFile);
-				InputStream chunkInputStream = multiChunk.getChunkInputStream(chunkChecksum.getBytes());
+				if (chunkInputStream == null) {
+					reconstructedFileOutputStream.close();
+					throw new Exception("Cannot find chunk " + chunkChecksum + " in multichunk " + multiChunkIdForChunk);
+				}
 
 		        byte[] buffer = new byte[4096];
 		        int read = 0;
@@ -123,7 +128,6 @@ public class Assembler {
 		        }
 		        
 				chunkInputStream.close();
-				multiChunk.close();
 			}
 		}
 
@@ -18,16 +18,24 @@
 package org.syncany.operations;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.FileUtils;
+import org.syncany.chunk.MultiChunkWindow;
 import org.syncany.config.Config;
 import org.syncany.config.LocalEventBus;
 import org.syncany.database.MultiChunkEntry.MultiChunkId;
@@ -38,80 +46,214 @@ import org.syncany.plugins.transfer.files.MultichunkRemoteFile;
 
 /**
  * The downloader uses a {@link TransferManager} to download a given set of multichunks,
- * decrypt them and store them in the local cache folder. 
+ * verify them and store them in the local cache folder. 
+ * 
+ * <p>Multichunks are stored in the cache in their transformed (compressed/encrypted) form. 
+ * Before a downloaded multichunk is moved to its final location in the cache, it is decrypted
+ * and demultiplexed once via the {@link MultiChunkWindow}, which verifies its integrity and
+ * keeps its chunks (in memory, or in a spill file in the cache if there is no room). The 
+ * {@link Assembler} reads the chunks through the same window, so that a multichunk is not
+ * decrypted again. 
+ * 
+ * <p>Downloading and decrypting is pipelined: A pool of download threads fetches the 
+ * multichunks into temporary files, while the calling thread decrypts and verifies the
+ * multichunks in the order in which their downloads complete. Using more than one download
+ * thread requires a transfer manager that supports concurrent requests. 
  * 
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
 public class Downloader {
 	private static final Logger logger = Logger.getLogger(Downloader.class.getSimpleName());
+	
+	public static final int DEFAULT_DOWNLOAD_THREADS = 1;
 
 	private Config config;
 	private TransferManager transferManager;
+	private int downloadThreads;
 	private LocalEventBus eventBus;
 
 	public Downloader(Config config, TransferManager transferManager) {
+		this(config, transferManager, DEFAULT_DOWNLOAD_THREADS);
+	}
+
+	/**
+	 * Creates a new downloader that downloads multichunks using the given
+	 * number of threads.
+	 * 
+	 * @param downloadThreads Number of concurrent multichunk downloads
+	 */
+	public Downloader(Config config, TransferManager transferManager, int downloadThreads) {
 		this.config = config;
 		this.transferManager = transferManager;
+		this.downloadThreads = Math.max(1, downloadThreads);
 		this.eventBus = LocalEventBus.getInstance();
 	}
 
 	/** 
-	 * Downloads the given multichunks from the remote storage and decrypts them
-	 * to the local cache folder. 
+	 * Downloads the given multichunks from the remote storage, verifies that they can 
+	 * be decrypted, and stores them in the local cache folder. Multichunks that already
+	 * exist in the cache are verified, and only downloaded if the verification fails.
+	 * 
+	 * <p>If a download or the verification of a multichunk fails, the remaining downloads 
+	 * are cancelled. The method only throws after all download threads have stopped.
 	 */
 	public void downloadAndDecryptMultiChunks(Set<MultiChunkId> unknownMultiChunkIds) throws StorageException, IOException {
 		logger.log(Level.INFO, "Downloading and extracting multichunks ...");
 
-		int multiChunkNumber = 0;
-
-		for (MultiChunkId multiChunkId : unknownMultiChunkIds) {
-			File localEncryptedMultiChunkFile = config.getCache().getEncryptedMultiChunkFile(multiChunkId);
-			File localDecryptedMultiChunkFile = config.getCache().getDecryptedMultiChunkFile(multiChunkId);
-			MultichunkRemoteFile remoteMultiChunkFile = new MultichunkRemoteFile(multiChunkId);
-
-			multiChunkNumber++;
+		MultiChunkWindow multiChunkWindow = config.getMultiChunkWindow();
+		
+		ExecutorService executor = Executors.newFixedThreadPool(downloadThreads, new DownloadThreadFactory());
+		CompletionService<MultiChunkDownload> completionService = new ExecutorCompletionService<MultiChunkDownload>(executor);
+		
+		AtomicInteger downloadNumber = new AtomicInteger(0);
+		List<File> tempMultiChunkFiles = new ArrayList<File>();
+		List<MultiChunkId> localMultiChunkIds = new ArrayList<MultiChunkId>();
+		
+		try {
+			// Start downloading the missing multichunks right away ...
+			for (MultiChunkId multiChunkId : unknownMultiChunkIds) {
+				if (config.getCache().getEncryptedMultiChunkFile(multiChunkId).exists()) {
+					localMultiChunkIds.add(multiChunkId);
+				}
+				else {
+					submitDownload(completionService, multiChunkId, downloadNumber, unknownMultiChunkIds.size(), tempMultiChunkFiles);
+				}
+			}
+			
+			// ... and verify the local ones in the meantime
+			for (MultiChunkId multiChunkId : localMultiChunkIds) {
+				File localMultiChunkFile = config.getCache().getEncryptedMultiChunkFile(multiChunkId);
 
-			if (localDecryptedMultiChunkFile.exists()) {
-				logger.log(Level.INFO, "  + Decrypted multichunk exists locally " + multiChunkId + ". No need to download it!");
+				if (isValidMultiChunk(multiChunkWindow, multiChunkId, localMultiChunkFile)) {
+					logger.log(Level.INFO, "  + Multichunk exists locally " + multiChunkId + ". No need to download it!");
+				}
+				else {
+					submitDownload(completionService, multiChunkId, downloadNumber, unknownMultiChunkIds.size(), tempMultiChunkFiles);
+				}
+			}
+			
+			// Decrypt/verify multichunks as their downloads complete
+			for (int i = 0; i < tempMultiChunkFiles.size(); i++) {
+				MultiChunkDownload multiChunkDownload = completionService.take().get();
+				verifyAndMoveToCache(multiChunkWindow, multiChunkDownload.multiChunkId, multiChunkDownload.tempMultiChunkFile);
+			}
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof StorageException) {
+				throw (StorageException) e.getCause();
 			}
 			else {
-				eventBus.post(new DownDownloadFileSyncExternalEvent(config.getLocalDir().getAbsolutePath(), "multichunk", multiChunkNumber,
-						unknownMultiChunkIds.size()));
+				throw new StorageException("Downloading multichunk failed", e.getCause());
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new StorageException("Interrupted while downloading multichunks", e);
+		}
+		finally {
+			shutdownAndAwaitTermination(executor);
+			
+			for (File tempMultiChunkFile : tempMultiChunkFiles) {
+				FileUtils.deleteQuietly(tempMultiChunkFile);
+			}
+		}
+
+		transferManager.disconnect();
+	}
+	
+	private void submitDownload(CompletionService<MultiChunkDownload> completionService, final MultiChunkId multiChunkId, 
+			final AtomicInteger downloadNumber, final int multiChunkCount, List<File> tempMultiChunkFiles) throws IOException {
+		
+		final File tempMultiChunkFile = config.getCache().createTempFile("multichunk");
+		tempMultiChunkFiles.add(tempMultiChunkFile);
+		
+		completionService.submit(new Callable<MultiChunkDownload>() {
+			@Override
+			public MultiChunkDownload call() throws Exception {
+				MultichunkRemoteFile remoteMultiChunkFile = new MultichunkRemoteFile(multiChunkId);
+
+				eventBus.post(new DownDownloadFileSyncExternalEvent(config.getLocalDir().getAbsolutePath(), "multichunk", downloadNumber.incrementAndGet(),
+						multiChunkCount));
 
 				logger.log(Level.INFO, "  + Downloading multichunk " + multiChunkId + " ...");
-				transferManager.download(remoteMultiChunkFile, localEncryptedMultiChunkFile);
+				transferManager.download(remoteMultiChunkFile, tempMultiChunkFile);
+				
+				return new MultiChunkDownload(multiChunkId, tempMultiChunkFile);
+			}
+		});
+	}
+	
+	private void verifyAndMoveToCache(MultiChunkWindow multiChunkWindow, MultiChunkId multiChunkId, File tempMultiChunkFile) throws IOException {
+		try {
+			logger.log(Level.INFO, "  + Decrypting multichunk " + multiChunkId + " ...");
+			multiChunkWindow.load(multiChunkId, tempMultiChunkFile);
+		}
+		catch (IOException e) {
+			// Security: Only verified multichunks must be moved to the local cache. If a tampered
+			//           multichunk resides in the local cache, the next 'down' will try to use it. 
+			//           If this is the only multichunk that has been tampered with, other changes 
+			//           might be applied to the file system! 
+			//           See https://github.com/syncany/syncany/issues/59#issuecomment-55154793
 
-				try {
-					logger.log(Level.INFO, "  + Decrypting multichunk " + multiChunkId + " ...");
-					InputStream multiChunkInputStream = config.getTransformer().createInputStream(new FileInputStream(localEncryptedMultiChunkFile));
-					OutputStream decryptedMultiChunkOutputStream = new FileOutputStream(localDecryptedMultiChunkFile);
+			logger.log(Level.FINE, "    -> FAILED: Decryption/extraction of multichunk failed, deleting " + multiChunkId + " ...");
 
-					IOUtils.copy(multiChunkInputStream, decryptedMultiChunkOutputStream);
+			throw new IOException("Decryption/extraction of multichunk " + multiChunkId
+					+ " failed. The multichunk might have been tampered with!", e);
+		}
 
-					decryptedMultiChunkOutputStream.close();
-					multiChunkInputStream.close();
+		File localMultiChunkFile = config.getCache().getEncryptedMultiChunkFile(multiChunkId);
 
-				}
-				catch (IOException e) {
-					// Security: Deleting the multichunk if the decryption/extraction failed is important!
-					//           If it is not deleted, the partially decrypted multichunk will reside in the
-					//           local cache and the next 'down' will try to use it. If this is the only
-					//           multichunk that has been tampered with, other changes might be applied to the 
-					//           file system! See https://github.com/syncany/syncany/issues/59#issuecomment-55154793
-
-					logger.log(Level.FINE, "    -> FAILED: Decryption/extraction of multichunk failed, deleting " + multiChunkId + " ...");
-					localDecryptedMultiChunkFile.delete();
-
-					throw new IOException("Decryption/extraction of multichunk " + multiChunkId
-							+ " failed. The multichunk might have been tampered with!", e);
-				}
-				finally {
-					logger.log(Level.FINE, "  + Locally deleting multichunk " + multiChunkId + " ...");
-					localEncryptedMultiChunkFile.delete();
-				}
+		logger.log(Level.FINE, "  + Moving verified multichunk " + multiChunkId + " to cache ...");
+		FileUtils.deleteQuietly(localMultiChunkFile);
+		FileUtils.moveFile(tempMultiChunkFile, localMultiChunkFile);
+	}
+
+	private boolean isValidMultiChunk(MultiChunkWindow multiChunkWindow, MultiChunkId multiChunkId, File localMultiChunkFile) {
+		try {
+			multiChunkWindow.load(multiChunkId, localMultiChunkFile);
+			return true;
+		}
+		catch (IOException e) {
+			logger.log(Level.WARNING, "  + Local multichunk " + multiChunkId + " cannot be decrypted, deleting and downloading it again ...", e);
+			localMultiChunkFile.delete();
+
+			return false;
+		}
+	}
+	
+	private void shutdownAndAwaitTermination(ExecutorService executor) {
+		// Running downloads must not write to the cache after this method returned or failed
+		executor.shutdownNow();
+		
+		try {
+			while (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+				logger.log(Level.INFO, "  + Waiting for running downloads to stop ...");
 			}
 		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private static class MultiChunkDownload {
+		private MultiChunkId multiChunkId;
+		private File tempMultiChunkFile;
+		
+		public MultiChunkDownload(MultiChunkId multiChunkId, File tempMultiChunkFile) {
+			this.multiChunkId = multiChunkId;
+			this.tempMultiChunkFile = tempMultiChunkFile;
+		}
+	}
+	
+	private static class DownloadThreadFactory implements ThreadFactory {
+		private AtomicInteger threadNumber = new AtomicInteger(1);
 
-		transferManager.disconnect();
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "MultiChDl-" + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+
+			return thread;
+		}
 	}
 }
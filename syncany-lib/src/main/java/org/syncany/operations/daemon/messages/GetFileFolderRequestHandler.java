@@ -69,6 +69,7 @@ public class GetFileFolderRequestHandler extends FolderRequestHandler {
 			downloader.downloadAndDecryptMultiChunks(new HashSet<MultiChunkId>(multiChunks.values()));
 
 			File tempFile = assembler.assembleToCache(fileVersion);
+			config.getMultiChunkWindow().clear();
 			String tempFileToken = StringUtil.toHex(ObjectId.secureRandomBytes(40));
 			
 			GetFileFolderResponse fileResponse = new GetFileFolderResponse(concreteRequest.getId(), concreteRequest.getRoot(), tempFileToken);
@@ -65,10 +65,14 @@ public class ApplyChangesOperation extends Operation {
 	private DownOperationResult result;
 
 	public ApplyChangesOperation(Config config, SqlDatabase localDatabase, TransferManager transferManager, MemoryDatabase winnersDatabase, DownOperationResult result) {
+		this(config, localDatabase, transferManager, winnersDatabase, result, Downloader.DEFAULT_DOWNLOAD_THREADS);
+	}
+
+	public ApplyChangesOperation(Config config, SqlDatabase localDatabase, TransferManager transferManager, MemoryDatabase winnersDatabase, DownOperationResult result, int downloadThreads) {
 		super(config);
 		
 		this.localDatabase = localDatabase;
-		this.downloader = new Downloader(config, transferManager);
+		this.downloader = new Downloader(config, transferManager, downloadThreads);
 		this.winnersDatabase = winnersDatabase;
 		this.result = result;
 	}
@@ -82,10 +86,15 @@ public class ApplyChangesOperation extends Operation {
 
 		Set<MultiChunkId> unknownMultiChunks = determineRequiredMultiChunks(actions, winnersDatabase);
 		
-		downloader.downloadAndDecryptMultiChunks(unknownMultiChunks);
-		result.getDownloadedMultiChunks().addAll(unknownMultiChunks);
+		try {
+			downloader.downloadAndDecryptMultiChunks(unknownMultiChunks);
+			result.getDownloadedMultiChunks().addAll(unknownMultiChunks);
 
-		applyFileSystemActions(actions);
+			applyFileSystemActions(actions);
+		}
+		finally {
+			config.getMultiChunkWindow().clear();
+		}
 		
 		return null;
 	}
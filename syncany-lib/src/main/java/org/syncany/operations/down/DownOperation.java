@@ -382,7 +382,7 @@ public class DownOperation extends AbstractTransferOperation {
 			MemoryDatabase winnersDatabase = readWinnersDatabase(winnersApplyBranch, databaseFileList, DatabaseVersionType.DEFAULT, ignoredMostRecentPurgeVersions);
 			
 			if (options.isApplyChanges()) {
-				new ApplyChangesOperation(config, localDatabase, transferManager, winnersDatabase, result).execute();
+				new ApplyChangesOperation(config, localDatabase, transferManager, winnersDatabase, result, options.getDownloadThreads()).execute();
 			}
 			else {
 				logger.log(Level.INFO, "Doing nothing on the file system, because --no-apply switched on");			
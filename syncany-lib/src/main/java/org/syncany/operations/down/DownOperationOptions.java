@@ -18,6 +18,7 @@
 package org.syncany.operations.down;
 
 import org.simpleframework.xml.Element;
+import org.syncany.operations.Downloader;
 import org.syncany.operations.OperationOptions;
 
 public class DownOperationOptions implements OperationOptions {
@@ -30,6 +31,9 @@ public class DownOperationOptions implements OperationOptions {
 	
 	@Element(required = false)
 	private boolean applyChanges = true;
+	
+	@Element(required = false)
+	private int downloadThreads = Downloader.DEFAULT_DOWNLOAD_THREADS;
 
 	public DownConflictStrategy getConflictStrategy() {
 		return conflictStrategy;
@@ -45,5 +49,13 @@ public class DownOperationOptions implements OperationOptions {
 
 	public void setApplyChanges(boolean applyChanges) {
 		this.applyChanges = applyChanges;
+	}
+
+	public int getDownloadThreads() {
+		return downloadThreads;
+	}
+
+	public void setDownloadThreads(int downloadThreads) {
+		this.downloadThreads = downloadThreads;
 	}		
 }
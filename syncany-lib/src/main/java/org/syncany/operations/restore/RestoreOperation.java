@@ -76,16 +76,21 @@ public class RestoreOperation extends AbstractTransferOperation {
 
 		logger.log(Level.INFO, "Restore file identified: " + restoreFileVersion);
 		
-		// Download multichunks
-		downloadMultiChunks(restoreFileVersion);
-		
-		// Restore file
-		logger.log(Level.INFO, "- Restoring: " + restoreFileVersion);
-
-		RestoreFileSystemAction restoreAction = new RestoreFileSystemAction(config, restoreFileVersion, options.getRelativeTargetPath());
-		RestoreFileSystemActionResult restoreResult = restoreAction.execute();
-
-		return new RestoreOperationResult(RestoreResultCode.ACK, restoreResult.getTargetFile());
+		try {
+			// Download multichunks
+			downloadMultiChunks(restoreFileVersion);
+			
+			// Restore file
+			logger.log(Level.INFO, "- Restoring: " + restoreFileVersion);
+	
+			RestoreFileSystemAction restoreAction = new RestoreFileSystemAction(config, restoreFileVersion, options.getRelativeTargetPath());
+			RestoreFileSystemActionResult restoreResult = restoreAction.execute();
+			
+			return new RestoreOperationResult(RestoreResultCode.ACK, restoreResult.getTargetFile());
+		}
+		finally {
+			config.getMultiChunkWindow().clear();
+		}
 	}
 
 	private FileHistoryId findFileHistoryId() {
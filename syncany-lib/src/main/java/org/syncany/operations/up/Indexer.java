@@ -230,6 +230,7 @@ public class Indexer {
 
 		private ChunkEntry chunkEntry;
 		private MultiChunkEntry multiChunkEntry;
+		private Map<MultiChunkId, MultiChunkEntry> unclosedMultiChunkEntries;
 		private FileContent fileContent;
 
 		private FileProperties startFileProperties;
@@ -244,6 +245,8 @@ public class Indexer {
 
 			this.fileChecksumCache = fileChecksumCache;
 			this.filePathCache = filePathCache;
+			
+			this.unclosedMultiChunkEntries = new HashMap<MultiChunkId, MultiChunkEntry>();
 		}
 
 		@Override
@@ -596,6 +599,7 @@ public class Indexer {
 		public void onMultiChunkOpen(MultiChunk multiChunk) {
 			logger.log(Level.FINER, "- +MultiChunk {0}", multiChunk.getId());
 			multiChunkEntry = new MultiChunkEntry(multiChunk.getId(), 0); // size unknown so far
+			unclosedMultiChunkEntries.put(multiChunk.getId(), multiChunkEntry);
 		}
 
 		@Override
@@ -608,10 +612,15 @@ public class Indexer {
 		public void onMultiChunkClose(MultiChunk multiChunk) {
 			logger.log(Level.FINER, "- /MultiChunk {0}", multiChunk.getId());
 
-			multiChunkEntry.setSize(multiChunk.getSize());
+			// Not necessarily the current multichunk: Multichunks written in the background are closed once they are on disk 
+			MultiChunkEntry closedMultiChunkEntry = unclosedMultiChunkEntries.remove(multiChunk.getId());
+			closedMultiChunkEntry.setSize(multiChunk.getSize());
 
-			newDatabaseVersion.addMultiChunk(multiChunkEntry);
-			multiChunkEntry = null;
+			newDatabaseVersion.addMultiChunk(closedMultiChunkEntry);
+
+			if (closedMultiChunkEntry == multiChunkEntry) {
+				multiChunkEntry = null;
+			}
 		}
 
 		@Override
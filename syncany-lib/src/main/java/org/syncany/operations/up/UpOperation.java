@@ -43,6 +43,7 @@ import org.syncany.database.PartialFileHistory;
 import org.syncany.database.SqlDatabase;
 import org.syncany.database.VectorClock;
 import org.syncany.database.dao.DatabaseXmlSerializer;
+import org.syncany.database.dao.DatabaseXmlSerializer.DatabaseReadType;
 import org.syncany.operations.AbstractTransferOperation;
 import org.syncany.operations.ChangeSet;
 import org.syncany.operations.cleanup.CleanupOperation;
@@ -77,6 +78,11 @@ import org.syncany.plugins.transfer.files.MultichunkRemoteFile;
  *   <li>Add delta database to local database and store it locally</li>
  * </ol>
  * 
+ * <p>The new {@link DatabaseVersion} and the upload transaction are stored in the state directory
+ * while the transaction is committed. If a previous run was interrupted during the upload, its
+ * database version is reused, and the transaction is resumed instead of indexing and uploading
+ * everything again (unless resuming is disabled, or the interrupted transaction cannot be resumed).
+ * 
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
 public class UpOperation extends AbstractTransferOperation {
@@ -103,7 +109,7 @@ public class UpOperation extends AbstractTransferOperation {
 		this.options = options;
 		this.result = new UpOperationResult();
 		this.localDatabase = new SqlDatabase(config);
-		this.remoteTransaction = new RemoteTransaction(config, transferManager);
+		this.remoteTransaction = new RemoteTransaction(config, transferManager, options.getTransferThreads());
 	}
 
 	@Override
@@ -120,32 +126,42 @@ public class UpOperation extends AbstractTransferOperation {
 		fireStartEvent();
 		startOperation();
 
-		// TODO [medium/high] Remove this and construct mechanism to resume uploads
-		transferManager.cleanTransactions();
+		// Resume interrupted transaction (if possible), or roll back stale transactions
+		DatabaseVersion newDatabaseVersion = loadResumableTransaction();
 
-		ChangeSet localChanges = result.getStatusResult().getChangeSet();
-		List<File> locallyUpdatedFiles = extractLocallyUpdatedFiles(localChanges);
+		if (newDatabaseVersion != null) {
+			logger.log(Level.INFO, "Resuming interrupted upload of database version {0} ...", newDatabaseVersion.getHeader());
+			remoteTransaction.resume();
+		}
+		else {
+			transferManager.cleanTransactions();
 
-		// Index
-		DatabaseVersion newDatabaseVersion = index(locallyUpdatedFiles);
+			ChangeSet localChanges = result.getStatusResult().getChangeSet();
+			List<File> locallyUpdatedFiles = extractLocallyUpdatedFiles(localChanges);
 
-		if (newDatabaseVersion.getFileHistories().size() == 0) {
-			logger.log(Level.INFO, "Local database is up-to-date. NOTHING TO DO!");
-			result.setResultCode(UpResultCode.OK_NO_CHANGES);
-			
-			finishOperation();
-			fireEndEvent();
+			// Index
+			newDatabaseVersion = index(locallyUpdatedFiles);
 
-			return result;
-		}
-		
-		// Upload multichunks
-		logger.log(Level.INFO, "Uploading new multichunks ...");
-		addMultiChunksToTransaction(newDatabaseVersion.getMultiChunks());		
+			if (newDatabaseVersion.getFileHistories().size() == 0) {
+				logger.log(Level.INFO, "Local database is up-to-date. NOTHING TO DO!");
+				result.setResultCode(UpResultCode.OK_NO_CHANGES);
+
+				finishOperation();
+				fireEndEvent();
+
+				return result;
+			}
+
+			// Upload multichunks
+			logger.log(Level.INFO, "Uploading new multichunks ...");
+			addMultiChunksToTransaction(newDatabaseVersion.getMultiChunks());
 
-		// Create delta database and commit transaction
-		writeAndAddDeltaDatabase(newDatabaseVersion);
-		remoteTransaction.commit();
+			// Create delta database and commit transaction (resumable)
+			writeAndAddDeltaDatabase(newDatabaseVersion);
+			saveTransactionDatabaseVersion(newDatabaseVersion);
+
+			remoteTransaction.commit(config.getTransactionFile());
+		}
 
 		// Save local database
 		logger.log(Level.INFO, "Persisting local SQL database (new database version {0}) ...", newDatabaseVersion.getHeader().toString());
@@ -154,6 +170,8 @@ public class UpOperation extends AbstractTransferOperation {
 		logger.log(Level.INFO, "Removing DIRTY database versions from database ...");
 		localDatabase.removeDirtyDatabaseVersions(newDatabaseVersionId);
 
+		deleteTransactionState();
+
 		// Finish 'up' before 'cleanup' starts
 		finishOperation();
 		
@@ -221,6 +239,80 @@ public class UpOperation extends AbstractTransferOperation {
 		return true;
 	}
 
+	/**
+	 * Loads the database version and the transaction of a previous, interrupted run from
+	 * the state directory, and checks whether the transaction can be resumed. This is the case
+	 * if the database version is still the next local database version (i.e. no other database
+	 * version has been added locally since), and if the transaction {@link RemoteTransaction#isResumable() is resumable}.
+	 * 
+	 * <p>If the transaction can be resumed, it replaces the (empty) transaction of this operation. 
+	 * Otherwise, the state is deleted, and the transaction will be rolled back. 
+	 * 
+	 * @return Returns the database version of the interrupted run, or <tt>null</tt> if there is nothing to resume
+	 */
+	private DatabaseVersion loadResumableTransaction() throws StorageException {
+		File transactionFile = config.getTransactionFile();
+		File transactionDatabaseFile = config.getTransactionDatabaseFile();
+
+		if (!transactionFile.exists() || !transactionDatabaseFile.exists()) {
+			deleteTransactionState();
+			return null;
+		}
+		else if (!options.resumeEnabled()) {
+			logger.log(Level.INFO, "Resuming interrupted transactions is disabled. Rolling back interrupted transaction.");
+
+			deleteTransactionState();
+			return null;
+		}
+
+		DatabaseVersion transactionDatabaseVersion = null;
+		RemoteTransaction resumableTransaction = null;
+
+		try {
+			MemoryDatabase transactionDatabase = new MemoryDatabase();
+			new DatabaseXmlSerializer().load(transactionDatabase, transactionDatabaseFile, null, null, DatabaseReadType.FULL, null, null);
+
+			transactionDatabaseVersion = transactionDatabase.getLastDatabaseVersion();
+			resumableTransaction = RemoteTransaction.load(config, transferManager, options.getTransferThreads(), transactionFile);
+		}
+		catch (Exception e) {
+			logger.log(Level.WARNING, "Cannot load interrupted transaction. Rolling back.", e);
+
+			deleteTransactionState();
+			return null;
+		}
+
+		if (transactionDatabaseVersion == null || !transactionDatabaseVersion.getVectorClock().equals(findNewVectorClock())) {
+			logger.log(Level.INFO, "Interrupted transaction is outdated (local database has changed). Rolling back.");
+
+			deleteTransactionState();
+			return null;
+		}
+		else if (!resumableTransaction.isResumable()) {
+			logger.log(Level.INFO, "Interrupted transaction cannot be resumed. Rolling back.");
+
+			deleteTransactionState();
+			return null;
+		}
+
+		remoteTransaction = resumableTransaction;
+		return transactionDatabaseVersion;
+	}
+
+	private void saveTransactionDatabaseVersion(DatabaseVersion newDatabaseVersion) throws IOException {
+		logger.log(Level.INFO, "Saving new database version to " + config.getTransactionDatabaseFile() + " (to resume, if interrupted) ...");
+
+		List<DatabaseVersion> databaseVersions = new ArrayList<DatabaseVersion>();
+		databaseVersions.add(newDatabaseVersion);
+
+		new DatabaseXmlSerializer().save(databaseVersions, config.getTransactionDatabaseFile());
+	}
+
+	private void deleteTransactionState() {
+		config.getTransactionFile().delete();
+		config.getTransactionDatabaseFile().delete();
+	}
+
 	private void writeAndAddDeltaDatabase(DatabaseVersion newDatabaseVersion) throws InterruptedException, StorageException, IOException {
 		// Clone database version (necessary, because the original must not be touched)
 		DatabaseVersion deltaDatabaseVersion = newDatabaseVersion.clone();
@@ -343,15 +435,12 @@ public class UpOperation extends AbstractTransferOperation {
 	}
 
 	private DatabaseVersion index(List<File> localFiles) throws FileNotFoundException, IOException {
-		// Get last vector clock
-		DatabaseVersionHeader lastDatabaseVersionHeader = localDatabase.getLastDatabaseVersionHeader();
-		VectorClock lastVectorClock = (lastDatabaseVersionHeader != null) ? lastDatabaseVersionHeader.getVectorClock() : new VectorClock();
-
 		// New vector clock
-		VectorClock newVectorClock = findNewVectorClock(lastVectorClock);
+		VectorClock newVectorClock = findNewVectorClock();
 
 		// Index
-		Deduper deduper = new Deduper(config.getChunker(), config.getMultiChunker(), config.getTransformer());
+		Deduper deduper = new Deduper(config.getChunker(), config.getMultiChunker(), config.getTransformer(), options.getChunkerThreads(),
+				options.getTransformerThreads());
 		Indexer indexer = new Indexer(config, deduper);
 
 		DatabaseVersion newDatabaseVersion = indexer.index(localFiles);
@@ -363,7 +452,11 @@ public class UpOperation extends AbstractTransferOperation {
 		return newDatabaseVersion;
 	}
 
-	private VectorClock findNewVectorClock(VectorClock lastVectorClock) {
+	private VectorClock findNewVectorClock() {
+		// Get last vector clock
+		DatabaseVersionHeader lastDatabaseVersionHeader = localDatabase.getLastDatabaseVersionHeader();
+		VectorClock lastVectorClock = (lastDatabaseVersionHeader != null) ? lastDatabaseVersionHeader.getVectorClock() : new VectorClock();
+
 		VectorClock newVectorClock = lastVectorClock.clone();
 
 		Long lastLocalValue = lastVectorClock.getClock(config.getMachineName());
@@ -21,6 +21,7 @@ import org.simpleframework.xml.Element;
 import org.simpleframework.xml.Root;
 import org.syncany.operations.OperationOptions;
 import org.syncany.operations.status.StatusOperationOptions;
+import org.syncany.plugins.transfer.RemoteTransaction;
 
 @Root(name="up")
 public class UpOperationOptions implements OperationOptions {
@@ -29,6 +30,18 @@ public class UpOperationOptions implements OperationOptions {
 	
 	@Element(required = false)
 	private boolean forceUploadEnabled = false;
+	
+	@Element(required = false)
+	private int chunkerThreads = 1;
+	
+	@Element(required = false)
+	private int transformerThreads = Runtime.getRuntime().availableProcessors();
+	
+	@Element(required = false)
+	private int transferThreads = RemoteTransaction.DEFAULT_TRANSFER_THREADS;
+	
+	@Element(required = false)
+	private boolean resumeEnabled = true;
 
 	public StatusOperationOptions getStatusOptions() {
 		return statusOptions;
@@ -45,4 +58,36 @@ public class UpOperationOptions implements OperationOptions {
 	public void setForceUploadEnabled(boolean forceUploadEnabled) {
 		this.forceUploadEnabled = forceUploadEnabled;
 	}
-}
\ No newline at end of file
+
+	public int getChunkerThreads() {
+		return chunkerThreads;
+	}
+
+	public void setChunkerThreads(int chunkerThreads) {
+		this.chunkerThreads = chunkerThreads;
+	}
+
+	public int getTransformerThreads() {
+		return transformerThreads;
+	}
+
+	public void setTransformerThreads(int transformerThreads) {
+		this.transformerThreads = transformerThreads;
+	}
+
+	public int getTransferThreads() {
+		return transferThreads;
+	}
+
+	public void setTransferThreads(int transferThreads) {
+		this.transferThreads = transferThreads;
+	}
+
+	public boolean resumeEnabled() {
+		return resumeEnabled;
+	}
+
+	public void setResumeEnabled(boolean resumeEnabled) {
+		this.resumeEnabled = resumeEnabled;
+	}
+}
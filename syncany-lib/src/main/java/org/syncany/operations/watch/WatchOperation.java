@@ -44,6 +44,9 @@ import org.syncany.operations.up.UpOperationResult;
 import org.syncany.operations.up.UpOperationResult.UpResultCode;
 import org.syncany.operations.watch.NotificationListener.NotificationListenerListener;
 import org.syncany.operations.watch.RecursiveWatcher.WatchListener;
+import org.syncany.plugins.transfer.CircuitBreaker;
+import org.syncany.plugins.transfer.StorageException;
+import org.syncany.plugins.transfer.TransferManager;
 import org.syncany.util.StringUtil;
 
 /**
@@ -64,6 +67,10 @@ import org.syncany.util.StringUtil;
  *      changes are synced eventually.</li>
  * </ul>
  * 
+ * <p>If a sync fails because the storage is unavailable (i.e. the {@link CircuitBreaker}
+ * of the config is open), a recovery probe periodically checks the storage in the background.
+ * As soon as the storage is reachable again, the breaker is closed and a sync is started.
+ * 
  * As of now, this operation never returns, because it runs in a loop. The user
  * has to manually abort the operation on the command line.
  * 
@@ -72,6 +79,7 @@ import org.syncany.util.StringUtil;
 public class WatchOperation extends Operation implements NotificationListenerListener, WatchListener {
 	private static final Logger logger = Logger.getLogger(WatchOperation.class.getSimpleName());
 	private static final int STOP_GRACE_PERIOD = 15*1000; 
+	private static final long MIN_RECOVERY_PROBE_INTERVAL = 1000;
 	
 	private WatchOperationOptions options;
 	
@@ -84,6 +92,8 @@ public class WatchOperation extends Operation implements NotificationListenerLis
 	private AtomicBoolean pauseRequested;
 	private AtomicInteger upCount;
 
+	private Timer recoveryProbeTimer;
+
 	private RecursiveWatcher recursiveWatcher;
 	private NotificationListener notificationListener;
 
@@ -104,6 +114,8 @@ public class WatchOperation extends Operation implements NotificationListenerLis
 		this.pauseRequested = new AtomicBoolean(false);
 		this.upCount = new AtomicInteger(0);
 
+		this.recoveryProbeTimer = null;
+
 		this.recursiveWatcher = null;
 		this.notificationListener = null;
 
@@ -154,6 +166,7 @@ public class WatchOperation extends Operation implements NotificationListenerLis
 				}
 				else {
 					logger.log(Level.INFO, String.format("Sync FAILED, waiting %d seconds ...", options.getInterval() / 1000), e);
+					startRecoveryProbeIfStorageUnavailable();
 
 					try {
 						Thread.sleep(options.getInterval());
@@ -174,6 +187,7 @@ public class WatchOperation extends Operation implements NotificationListenerLis
 			stopRecursiveWatcher();
 		}
 		
+		stopRecoveryProbe();
 		localDatabase.shutdown();
 		
 		return new WatchOperationResult();
@@ -219,6 +233,82 @@ public class WatchOperation extends Operation implements NotificationListenerLis
 		notificationListener.stop();
 	}
 
+	/**
+	 * Starts the background recovery probe if the storage is known to be unavailable,
+	 * and if it is not already running. The probe runs once per circuit breaker open time,
+	 * and stops as soon as the breaker is closed (either by the probe or by another call).
+	 */
+	private synchronized void startRecoveryProbeIfStorageUnavailable() {
+		final CircuitBreaker circuitBreaker = config.getCircuitBreaker();
+
+		if (!circuitBreaker.isOpen() || recoveryProbeTimer != null) {
+			return;
+		}
+
+		long probeInterval = Math.max(MIN_RECOVERY_PROBE_INTERVAL, circuitBreaker.getOpenMillis());
+		logger.log(Level.INFO, "Storage unavailable, starting recovery probe for " + config.getLocalDir() + " (every " + probeInterval + "ms) ...");
+
+		recoveryProbeTimer = new Timer("Probe/" + config.getLocalDir().getName(), true);
+		recoveryProbeTimer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				if (circuitBreaker.isOpen() && !probeStorage()) {
+					return;
+				}
+
+				stopRecoveryProbe();
+
+				if (!pauseRequested.get() && !stopRequested.get()) {
+					try {
+						logger.log(Level.INFO, "Storage available again, starting sync ...");
+						runSync();
+					}
+					catch (Exception e) {
+						logger.log(Level.INFO, "Sync FAILED (recovery-triggered).");
+						startRecoveryProbeIfStorageUnavailable();
+					}
+				}
+			}
+		}, probeInterval, probeInterval);
+	}
+
+	private synchronized void stopRecoveryProbe() {
+		if (recoveryProbeTimer != null) {
+			recoveryProbeTimer.cancel();
+			recoveryProbeTimer = null;
+		}
+	}
+
+	/**
+	 * Checks whether the storage is reachable, bypassing the circuit breaker and any retries,
+	 * and closes the circuit breaker if it is.
+	 */
+	private boolean probeStorage() {
+		TransferManager transferManager = config.getTransferPlugin().createTransferManager(config.getConnection(), config);
+
+		try {
+			transferManager.connect();
+			transferManager.testTargetExists();
+
+			logger.log(Level.INFO, "Recovery probe succeeded; storage is reachable.");
+			config.getCircuitBreaker().recordSuccess();
+
+			return true;
+		}
+		catch (StorageException e) {
+			logger.log(Level.INFO, "Recovery probe failed; storage still unavailable.", e);
+			return false;
+		}
+		finally {
+			try {
+				transferManager.disconnect();
+			}
+			catch (StorageException e) {
+				// Don't care
+			}
+		}
+	}
+
 	/**
 	 * Runs one iteration of the main synchronization loop, containing a {@link DownOperation},
 	 * an {@link UpOperation} and (if required), a {@link CleanupOperation}. 
@@ -18,13 +18,18 @@
 package org.syncany.plugins.local;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.apache.commons.io.FileUtils;
 import org.syncany.config.Config;
 import org.syncany.plugins.transfer.AbstractTransferManager;
 import org.syncany.plugins.transfer.StorageException;
@@ -57,6 +62,12 @@ import org.syncany.plugins.transfer.files.TransactionRemoteFile;
  * on a mounted remote device or network storage such as an NFS or a 
  * Samba/NetBIOS share.
  * 
+ * <p>Files are copied using {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel) transferTo()},
+ * which lets the operating system copy the data without passing it through the JVM. Moves
+ * are atomic renames if possible. If hard links are enabled in the {@link LocalTransferSettings},
+ * uploads and downloads create hard links instead of copies; if the repository is on a 
+ * different file system, the transfer manager falls back to copying.
+ * 
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
 public class LocalTransferManager extends AbstractTransferManager {
@@ -69,6 +80,8 @@ public class LocalTransferManager extends AbstractTransferManager {
 	private File transactionsPath;
 	private File temporaryPath;
 
+	private volatile boolean hardLinksEnabled;
+
 	public LocalTransferManager(LocalTransferSettings connection, Config config) {
 		super(connection, config);
 
@@ -78,6 +91,8 @@ public class LocalTransferManager extends AbstractTransferManager {
 		this.actionsPath = new File(connection.getRepositoryPath().getAbsolutePath(), "actions");
 		this.transactionsPath = new File(connection.getRepositoryPath().getAbsolutePath(), "transactions");
 		this.temporaryPath = new File(connection.getRepositoryPath().getAbsolutePath(), "temporary");
+
+		this.hardLinksEnabled = connection.isHardLinksEnabled();
 	}
 
 	@Override
@@ -137,11 +152,8 @@ public class LocalTransferManager extends AbstractTransferManager {
 			File tempLocalFile = createTempFile("local-tm-download");
 			tempLocalFile.deleteOnExit();
 
-			FileUtils.copyFile(repoFile, tempLocalFile);
-
-			localFile.delete();
-			FileUtils.moveFile(tempLocalFile, localFile);
-			tempLocalFile.delete();
+			copyOrLinkFile(repoFile, tempLocalFile);
+			moveFile(tempLocalFile, localFile);
 		}
 		catch (IOException ex) {
 			throw new StorageException("Unable to copy file " + repoFile + " from local repository to " + localFile, ex);
@@ -160,7 +172,7 @@ public class LocalTransferManager extends AbstractTransferManager {
 		}
 
 		try {
-			FileUtils.moveFile(sourceRemoteFile, targetRemoteFile);
+			moveFile(sourceRemoteFile, targetRemoteFile);
 		}
 		catch (IOException ex) {
 			throw new StorageException("Unable to move file " + sourceRemoteFile + " to destination " + targetRemoteFile, ex);
@@ -185,8 +197,8 @@ public class LocalTransferManager extends AbstractTransferManager {
 		}
 
 		try {
-			FileUtils.copyFile(localFile, tempRepoFile);
-			FileUtils.moveFile(tempRepoFile, repoFile);
+			copyOrLinkFile(localFile, tempRepoFile);
+			moveFile(tempRepoFile, repoFile);
 		}
 		catch (IOException ex) {
 			throw new StorageException("Unable to copy file " + localFile + " to local repository " + repoFile, ex);
@@ -236,6 +248,55 @@ public class LocalTransferManager extends AbstractTransferManager {
 		return remoteFiles;
 	}
 
+	/**
+	 * Creates a hard link to the source file (if enabled), or copies the source file
+	 * using {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel) transferTo()}.
+	 * If a hard link cannot be created (e.g. because the files are on different file 
+	 * systems), hard links are disabled for this transfer manager. 
+	 */
+	private void copyOrLinkFile(File sourceFile, File targetFile) throws IOException {
+		if (hardLinksEnabled) {
+			try {
+				Files.deleteIfExists(targetFile.toPath());
+				Files.createLink(targetFile.toPath(), sourceFile.toPath());
+
+				return;
+			}
+			catch (IOException | UnsupportedOperationException e) {
+				logger.log(Level.INFO, "Cannot create hard link from " + targetFile + " to " + sourceFile + "; copying files from now on.", e);
+				hardLinksEnabled = false;
+			}
+		}
+
+		copyFile(sourceFile, targetFile);
+	}
+
+	private void copyFile(File sourceFile, File targetFile) throws IOException {
+		try (FileChannel sourceChannel = new FileInputStream(sourceFile).getChannel();
+				FileChannel targetChannel = new FileOutputStream(targetFile).getChannel()) {
+
+			long size = sourceChannel.size();
+			long position = 0;
+
+			while (position < size) {
+				position += sourceChannel.transferTo(position, size - position, targetChannel);
+			}
+		}
+	}
+
+	/**
+	 * Moves a file by atomically renaming it, replacing the target file if it exists.
+	 * If the files are on different file systems, the file is copied and deleted.
+	 */
+	private void moveFile(File sourceFile, File targetFile) throws IOException {
+		try {
+			Files.move(sourceFile.toPath(), targetFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (AtomicMoveNotSupportedException e) {
+			Files.move(sourceFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
 	private File getRemoteFile(RemoteFile remoteFile) {
 		return new File(getRemoteFilePath(remoteFile.getClass()), remoteFile.getName());
 	}
@@ -31,11 +31,21 @@ import org.syncany.plugins.transfer.TransferSettings;
  * backend based on a local (or mounted network) folder. It can be used to
  * initialize/create a {@link LocalTransferManager} and is part of
  * the {@link LocalPlugin}.  
+ * 
+ * <p>If the repository is on the same file system as the local cache, the transfer
+ * manager can optionally create hard links instead of copying files (option 
+ * <tt>hardlinks</tt>). This avoids any file I/O for uploads and downloads, but 
+ * the repository and the cache then share the same files on disk. The option is 
+ * not part of the option specs, so that it is not asked for interactively; it can 
+ * only be set explicitly, e.g. via <tt>--plugin-option hardlinks=true</tt>.
  *  
  * @author Philipp C. Heckel
  */
 public class LocalTransferSettings extends TransferSettings {
+	public static final String OPTION_HARD_LINKS = "hardlinks";
+	
 	protected File repositoryPath;
+	protected boolean hardLinksEnabled;
 
 	public File getRepositoryPath() {
 		return repositoryPath;
@@ -45,10 +55,19 @@ public class LocalTransferSettings extends TransferSettings {
 		this.repositoryPath = repositoryPath;
 	}
 
+	public boolean isHardLinksEnabled() {
+		return hardLinksEnabled;
+	}
+
+	public void setHardLinksEnabled(boolean hardLinksEnabled) {
+		this.hardLinksEnabled = hardLinksEnabled;
+	}
+
 	@Override
 	public void init(Map<String, String> optionValues) throws StorageException {
 		getOptionSpecs().validate(optionValues);
 		this.repositoryPath = new File(optionValues.get("path"));
+		this.hardLinksEnabled = Boolean.parseBoolean(optionValues.get(OPTION_HARD_LINKS));
 	}
 
 	@Override
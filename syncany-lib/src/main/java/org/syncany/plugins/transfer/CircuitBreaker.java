@@ -0,0 +1,162 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.transfer;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The circuit breaker keeps track of consecutive failed storage calls and stops the
+ * {@link RetriableTransferManager} from calling the storage once it is known to be
+ * unavailable. It is shared by all transfer managers of a repository (see
+ * {@link org.syncany.config.Config#getCircuitBreaker()}).
+ *
+ * <p>The breaker has three states:
+ * <ul>
+ *  <li><tt>CLOSED</tt>: Calls are executed normally. After a number of consecutive
+ *      failed calls (the failure threshold), the breaker opens.</li>
+ *  <li><tt>OPEN</tt>: Calls fail immediately with a {@link StorageCircuitOpenException},
+ *      without touching the storage. After the open time, the breaker becomes half-open.</li>
+ *  <li><tt>HALF_OPEN</tt>: A single trial call is let through. If it succeeds, the breaker
+ *      closes; if it fails, the breaker opens again. All other calls fail immediately.</li>
+ * </ul>
+ *
+ * <p>Besides regular calls, the breaker can be closed by a background probe that checks
+ * whether the storage has recovered (see {@link org.syncany.operations.watch.WatchOperation}).
+ *
+ * <p>This class is thread-safe.
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class CircuitBreaker {
+	private static final Logger logger = Logger.getLogger(CircuitBreaker.class.getSimpleName());
+
+	public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+	public static final long DEFAULT_OPEN_MILLIS = 60 * 1000;
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private int failureThreshold;
+	private long openMillis;
+
+	private State state;
+	private int consecutiveFailures;
+	private long openedTime;
+	private long trialStartedTime;
+	private boolean trialRunning;
+
+	public CircuitBreaker() {
+		this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS);
+	}
+
+	public CircuitBreaker(int failureThreshold, long openMillis) {
+		if (failureThreshold < 1 || openMillis < 0) {
+			throw new IllegalArgumentException("Invalid circuit breaker: failureThreshold = " + failureThreshold + ", openTime = " + openMillis + "ms");
+		}
+
+		this.failureThreshold = failureThreshold;
+		this.openMillis = openMillis;
+
+		this.state = State.CLOSED;
+		this.consecutiveFailures = 0;
+		this.trialRunning = false;
+	}
+
+	/**
+	 * Checks whether a call may be executed, and throws a {@link StorageCircuitOpenException}
+	 * if it may not. In the half-open state, the first caller is let through as trial call.
+	 * If the trial call does not report back within the open time, another trial is allowed.
+	 */
+	public synchronized void acquire() throws StorageCircuitOpenException {
+		long now = System.currentTimeMillis();
+
+		if (state == State.OPEN) {
+			if (now - openedTime < openMillis) {
+				throw new StorageCircuitOpenException("Storage unavailable, circuit breaker is open. Not calling storage for "
+						+ (openMillis - (now - openedTime)) + "ms.");
+			}
+
+			logger.log(Level.INFO, "Circuit breaker open time elapsed; switching to HALF_OPEN.");
+
+			state = State.HALF_OPEN;
+			trialRunning = false;
+		}
+
+		if (state == State.HALF_OPEN) {
+			if (trialRunning && now - trialStartedTime < openMillis) {
+				throw new StorageCircuitOpenException("Storage unavailable, circuit breaker is half-open and trial call is running.");
+			}
+
+			trialRunning = true;
+			trialStartedTime = now;
+		}
+	}
+
+	/**
+	 * Records a successful call (or a failed call that proves the storage is reachable),
+	 * and closes the breaker.
+	 */
+	public synchronized void recordSuccess() {
+		if (state != State.CLOSED) {
+			logger.log(Level.INFO, "Storage call succeeded; closing circuit breaker.");
+		}
+
+		state = State.CLOSED;
+		consecutiveFailures = 0;
+		trialRunning = false;
+	}
+
+	/**
+	 * Records a failed call, and opens the breaker if the failure threshold is reached
+	 * or if the failed call was the trial call of the half-open state.
+	 */
+	public synchronized void recordFailure() {
+		consecutiveFailures++;
+
+		if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+			logger.log(Level.WARNING, "Storage call failed (" + consecutiveFailures + " consecutive failures); opening circuit breaker for "
+					+ openMillis + "ms.");
+
+			state = State.OPEN;
+			openedTime = System.currentTimeMillis();
+			trialRunning = false;
+		}
+	}
+
+	/**
+	 * Returns whether the breaker is open or half-open, i.e. whether
+	 * the storage is currently considered unavailable.
+	 */
+	public synchronized boolean isOpen() {
+		return state != State.CLOSED;
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	public int getFailureThreshold() {
+		return failureThreshold;
+	}
+
+	public long getOpenMillis() {
+		return openMillis;
+	}
+}
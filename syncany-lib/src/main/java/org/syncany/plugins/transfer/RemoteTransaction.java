@@ -18,9 +18,24 @@
 package org.syncany.plugins.transfer;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.simpleframework.xml.core.Persister;
 import org.syncany.config.Config;
 import org.syncany.config.LocalEventBus;
 import org.syncany.operations.daemon.messages.UpUploadFileInTransactionSyncExternalEvent;
@@ -29,30 +44,92 @@ import org.syncany.plugins.transfer.files.RemoteFile;
 import org.syncany.plugins.transfer.files.TempRemoteFile;
 import org.syncany.plugins.transfer.files.TransactionRemoteFile;
 import org.syncany.plugins.transfer.to.ActionTO;
+import org.syncany.plugins.transfer.to.TransactionStateTO;
 import org.syncany.plugins.transfer.to.TransactionTO;
 
 /**
  * This class represents a transaction in a remote system. It will keep track of
  * what files are to be added and ensures atomic operation.
  * 
+ * <p>The uploads and moves of a transaction can be performed by multiple threads
+ * in parallel (see {@link #RemoteTransaction(Config, TransferManager, int)}). This
+ * requires a transfer manager that supports concurrent calls for different files.
+ * 
+ * <p>If a local state file is passed to {@link #commit(File)}, the transaction can be
+ * resumed after an interruption: The transaction is written to the local state file before
+ * anything is uploaded, and it can be re-created from this file using {@link #load(Config, TransferManager, int, File)}. 
+ * {@link #resume()} then only uploads the files that are not known to be on the remote storage
+ * entirely.
+ * 
  * @author Pim Otte
  */
 public class RemoteTransaction {
 	private static final Logger logger = Logger.getLogger(RemoteTransaction.class.getSimpleName());
+	
+	public static final int DEFAULT_TRANSFER_THREADS = 1;
 
 	private TransferManager transferManager;
 	private Config config;
 	private TransactionTO transactionTO;
+	private int transferThreads;
+
+	private File localStateFile;
+	private TransactionRemoteFile remoteTransactionFile;
+	private boolean movePhaseStarted;
+	private Set<String> uploadedTempFiles;
 
 	private LocalEventBus eventBus;
 
+	private interface TransferAction {
+		public void execute() throws StorageException;
+	}
+
 	public RemoteTransaction(Config config, TransferManager transferManager) {
+		this(config, transferManager, DEFAULT_TRANSFER_THREADS);
+	}
+
+	/**
+	 * Creates a new transaction that uploads and moves files using the given
+	 * number of threads.
+	 * 
+	 * @param transferThreads Number of concurrent uploads/moves during {@link #commit()}; 1 to transfer one file at a time
+	 */
+	public RemoteTransaction(Config config, TransferManager transferManager, int transferThreads) {
 		this.config = config;
 		this.transferManager = transferManager;
 		this.transactionTO = new TransactionTO(config.getMachineName());
+		this.transferThreads = Math.max(1, transferThreads);
+		this.uploadedTempFiles = new LinkedHashSet<String>();
 		this.eventBus = LocalEventBus.getInstance();
 	}
 
+	/**
+	 * Loads a transaction from a local state file written by {@link #commit(File)}, e.g.
+	 * after the application was interrupted during the commit. The transaction can then be
+	 * continued using {@link #resume()}, if {@link #isResumable()} returns true.
+	 * 
+	 * @throws StorageException If the state file cannot be read
+	 */
+	public static RemoteTransaction load(Config config, TransferManager transferManager, int transferThreads, File localStateFile)
+			throws StorageException {
+
+		try {
+			TransactionStateTO transactionStateTO = new Persister().read(TransactionStateTO.class, localStateFile);
+			RemoteTransaction remoteTransaction = new RemoteTransaction(config, transferManager, transferThreads);
+
+			remoteTransaction.transactionTO = transactionStateTO.getTransaction();
+			remoteTransaction.remoteTransactionFile = new TransactionRemoteFile(transactionStateTO.getRemoteTransactionFile());
+			remoteTransaction.movePhaseStarted = transactionStateTO.isMovePhaseStarted();
+			remoteTransaction.uploadedTempFiles.addAll(transactionStateTO.getUploadedTempFiles());
+			remoteTransaction.localStateFile = localStateFile;
+
+			return remoteTransaction;
+		}
+		catch (Exception e) {
+			throw new StorageException("Cannot load transaction state from " + localStateFile, e);
+		}
+	}
+
 	/**
 	 * Returns whether the transaction is empty.
 	 */
@@ -109,8 +186,27 @@ public class RemoteTransaction {
 	 * <p>If this was successful, the transaction file is deleted and the 
 	 * temporary files. After deleting the transaction file, the transaction
 	 * is successfully committed.
+	 * 
+	 * <p>The upload phase and the move phase each run on up to the configured number of
+	 * transfer threads. The move phase only starts after all uploads have succeeded. If any 
+	 * upload or move fails, the remaining ones are cancelled, and the method only throws 
+	 * after all running transfers have stopped. The transaction file then remains on the
+	 * remote storage, so the transaction can be rolled back like a sequential one.
 	 */
 	public void commit() throws StorageException {
+		commit(null);
+	}
+
+	/**
+	 * Commits this transaction like {@link #commit()}, but keeps track of the progress
+	 * in the given local state file. The state file is written before anything is uploaded,
+	 * updated after each completed upload and once the files are being moved to their final
+	 * location. If the commit is interrupted, the transaction can be loaded from the state file
+	 * and resumed. After a successful commit, the state file is deleted.
+	 * 
+	 * @param localStateFile Local file to store the transaction state in, or <tt>null</tt> to not store the state 
+	 */
+	public void commit(File localStateFile) throws StorageException {
 		logger.log(Level.INFO, "Starting TX.commit() ...");
 
 		if (isEmpty()) {
@@ -118,14 +214,144 @@ public class RemoteTransaction {
 			return;
 		}
 
+		this.localStateFile = localStateFile;
+		this.remoteTransactionFile = new TransactionRemoteFile(this);
+		this.movePhaseStarted = false;
+		this.uploadedTempFiles.clear();
+
+		writeLocalStateFile();
+
 		File localTransactionFile = writeLocalTransactionFile();
-		TransactionRemoteFile remoteTransactionFile = uploadTransactionFile(localTransactionFile);
+		uploadTransactionFile(localTransactionFile);
+
+		uploadAndMoveToTempLocation(transactionTO.getActions());
+		startMovePhase();
+		moveToFinalLocation(transactionTO.getActions());
+
+		deleteTransactionFile();
+		deleteTempRemoteFiles();
+		deleteLocalStateFile();
+	}
+
+	/**
+	 * Returns whether a transaction loaded by {@link #load(Config, TransferManager, int, File) load()} 
+	 * can be resumed. This is the case if the transaction belongs to this machine, if its remote 
+	 * transaction file still exists (i.e. it has not been rolled back), and if the local files 
+	 * that still need to be uploaded exist.
+	 */
+	public boolean isResumable() throws StorageException {
+		if (remoteTransactionFile == null || !config.getMachineName().equals(transactionTO.getMachineName())) {
+			logger.log(Level.INFO, "- Transaction cannot be resumed: Transaction was not loaded, or it belongs to a different machine.");
+			return false;
+		}
+
+		if (!movePhaseStarted) {
+			for (ActionTO action : transactionTO.getActions()) {
+				if (action.getType().equals(ActionTO.TYPE_UPLOAD) && !action.getLocalTempLocation().exists()) {
+					logger.log(Level.INFO, "- Transaction cannot be resumed: Local file " + action.getLocalTempLocation() + " does not exist.");
+					return false;
+				}
+			}
+		}
+
+		if (!transferManager.list(TransactionRemoteFile.class).containsKey(remoteTransactionFile.getName())) {
+			logger.log(Level.INFO, "- Transaction cannot be resumed: Remote transaction file " + remoteTransactionFile + " does not exist.");
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Resumes an interrupted commit of a transaction loaded by {@link #load(Config, TransferManager, int, File) load()}. 
+	 * The caller must make sure that the transaction {@link #isResumable() is resumable}.
+	 * 
+	 * <p>If the files have not been moved to their final location yet, the method skips the 
+	 * uploads that are known to be complete, and then moves all files. An upload is only 
+	 * known to be complete if the local state file recorded it after the transfer manager's
+	 * {@link TransferManager#upload(File, RemoteFile) upload()} returned, and if its temporary
+	 * remote file still exists. Temporary remote files of all other uploads may be partial
+	 * (transfer managers do not guarantee atomic uploads), so they are uploaded again. If the
+	 * move phase had already started, only the remaining temporary files are moved.
+	 */
+	public void resume() throws StorageException {
+		logger.log(Level.INFO, "Resuming TX {0} ...", remoteTransactionFile);
+
+		Map<String, TempRemoteFile> tempRemoteFiles = transferManager.list(TempRemoteFile.class);
+
+		if (!movePhaseStarted) {
+			List<ActionTO> remainingActions = new ArrayList<ActionTO>();
+
+			for (ActionTO action : transactionTO.getActions()) {
+				String tempRemoteFileName = action.getTempRemoteFile().getName();
+				boolean uploadComplete = uploadedTempFiles.contains(tempRemoteFileName) && tempRemoteFiles.containsKey(tempRemoteFileName);
+
+				if (action.getType().equals(ActionTO.TYPE_UPLOAD) && uploadComplete) {
+					logger.log(Level.INFO, "- Skipping upload of {0}; temp. file {1} was uploaded completely.", new Object[] { action.getLocalTempLocation(),
+							action.getTempRemoteFile() });
+				}
+				else {
+					if (action.getType().equals(ActionTO.TYPE_UPLOAD) && tempRemoteFiles.containsKey(tempRemoteFileName)) {
+						logger.log(Level.INFO, "- Uploading {0} again; temp. file {1} exists, but may be incomplete.", new Object[] {
+								action.getLocalTempLocation(), action.getTempRemoteFile() });
+					}
+
+					remainingActions.add(action);
+				}
+			}
 
-		uploadAndMoveToTempLocation();
-		moveToFinalLocation();
+			uploadAndMoveToTempLocation(remainingActions);
+			startMovePhase();
+			moveToFinalLocation(transactionTO.getActions());
+		}
+		else {
+			List<ActionTO> remainingActions = new ArrayList<ActionTO>();
+
+			for (ActionTO action : transactionTO.getActions()) {
+				if (tempRemoteFiles.containsKey(action.getTempRemoteFile().getName())) {
+					remainingActions.add(action);
+				}
+				else {
+					logger.log(Level.INFO, "- Skipping move of temp. file {0}; already moved to {1}.", new Object[] { action.getTempRemoteFile(),
+							action.getRemoteFile() });
+				}
+			}
+
+			moveToFinalLocation(remainingActions);
+		}
 
-		deleteTransactionFile(localTransactionFile, remoteTransactionFile);
+		deleteTransactionFile();
 		deleteTempRemoteFiles();
+		deleteLocalStateFile();
+	}
+
+	private synchronized void writeLocalStateFile() throws StorageException {
+		if (localStateFile != null) {
+			try {
+				TransactionStateTO transactionStateTO = new TransactionStateTO(remoteTransactionFile.getName(), movePhaseStarted, new ArrayList<String>(
+						uploadedTempFiles), transactionTO);
+				new Persister().write(transactionStateTO, localStateFile);
+			}
+			catch (Exception e) {
+				throw new StorageException("Cannot write transaction state to " + localStateFile, e);
+			}
+		}
+	}
+
+	private void deleteLocalStateFile() {
+		if (localStateFile != null) {
+			localStateFile.delete();
+		}
+	}
+
+	private synchronized void markUploadComplete(RemoteFile tempRemoteFile) throws StorageException {
+		uploadedTempFiles.add(tempRemoteFile.getName());
+		writeLocalStateFile();
+	}
+
+	private void startMovePhase() throws StorageException {
+		movePhaseStarted = true;
+		writeLocalStateFile();
 	}
 
 	private File writeLocalTransactionFile() throws StorageException {
@@ -142,52 +368,67 @@ public class RemoteTransaction {
 		}
 	}
 
-	private TransactionRemoteFile uploadTransactionFile(File localTransactionFile) throws StorageException {
-		TransactionRemoteFile remoteTransactionFile = new TransactionRemoteFile(this);
-
+	private void uploadTransactionFile(File localTransactionFile) throws StorageException {
 		eventBus.post(new UpUploadFileSyncExternalEvent(config.getLocalDir().getAbsolutePath(), remoteTransactionFile.getName()));
 
 		logger.log(Level.INFO, "- Uploading remote transaction file {0} ...", remoteTransactionFile);
 		transferManager.upload(localTransactionFile, remoteTransactionFile);
 
-		return remoteTransactionFile;
+		localTransactionFile.delete();
 	}
 
-	private void uploadAndMoveToTempLocation() throws StorageException {
-		TransactionStats stats = gatherTransactionStats();
-		int uploadFileIndex = 0;
+	private void uploadAndMoveToTempLocation(List<ActionTO> actions) throws StorageException {
+		final TransactionStats stats = gatherTransactionStats(actions);
+		final AtomicInteger uploadFileIndex = new AtomicInteger(0);
+		
+		List<TransferAction> transferActions = new ArrayList<TransferAction>();
 
-		for (ActionTO action : transactionTO.getActions()) {
-			RemoteFile tempRemoteFile = action.getTempRemoteFile();
+		for (ActionTO action : actions) {
+			final RemoteFile tempRemoteFile = action.getTempRemoteFile();
 
 			if (action.getType().equals(ActionTO.TYPE_UPLOAD)) {
-				File localFile = action.getLocalTempLocation();
-				long localFileSize = localFile.length();
-
-				eventBus.post(new UpUploadFileInTransactionSyncExternalEvent(config.getLocalDir().getAbsolutePath(), ++uploadFileIndex,
-						stats.totalUploadFileCount, localFileSize, stats.totalUploadSize));
-
-				logger.log(Level.INFO, "- Uploading {0} to temp. file {1} ...", new Object[] { localFile, tempRemoteFile });
-				transferManager.upload(localFile, tempRemoteFile);
+				final File localFile = action.getLocalTempLocation();
+				
+				transferActions.add(new TransferAction() {
+					@Override
+					public void execute() throws StorageException {
+						long localFileSize = localFile.length();
+
+						eventBus.post(new UpUploadFileInTransactionSyncExternalEvent(config.getLocalDir().getAbsolutePath(), uploadFileIndex.incrementAndGet(),
+								stats.totalUploadFileCount, localFileSize, stats.totalUploadSize));
+
+						logger.log(Level.INFO, "- Uploading {0} to temp. file {1} ...", new Object[] { localFile, tempRemoteFile });
+						transferManager.upload(localFile, tempRemoteFile);
+
+						markUploadComplete(tempRemoteFile);
+					}
+				});
 			}
 			else if (action.getType().equals(ActionTO.TYPE_DELETE)) {
-				RemoteFile remoteFile = action.getRemoteFile();
-
-				try {
-					logger.log(Level.INFO, "- Moving {0} to temp. file {1} ...", new Object[] { remoteFile, tempRemoteFile });
-					transferManager.move(remoteFile, tempRemoteFile);
-				}
-				catch (StorageMoveException e) {
-					logger.log(Level.INFO, "  -> FAILED (don't care!), because the remoteFile does not exist: " + remoteFile);
-				}
+				final RemoteFile remoteFile = action.getRemoteFile();
+
+				transferActions.add(new TransferAction() {
+					@Override
+					public void execute() throws StorageException {
+						try {
+							logger.log(Level.INFO, "- Moving {0} to temp. file {1} ...", new Object[] { remoteFile, tempRemoteFile });
+							transferManager.move(remoteFile, tempRemoteFile);
+						}
+						catch (StorageMoveException e) {
+							logger.log(Level.INFO, "  -> FAILED (don't care!), because the remoteFile does not exist: " + remoteFile);
+						}
+					}
+				});
 			}
 		}
+		
+		executeTransferActions(transferActions);
 	}
 
-	private TransactionStats gatherTransactionStats() {
+	private TransactionStats gatherTransactionStats(List<ActionTO> actions) {
 		TransactionStats stats = new TransactionStats();
 
-		for (ActionTO action : transactionTO.getActions()) {
+		for (ActionTO action : actions) {
 			if (action.getType().equals(ActionTO.TYPE_UPLOAD)) {
 				stats.totalUploadFileCount++;
 				stats.totalUploadSize += action.getLocalTempLocation().length();
@@ -197,24 +438,100 @@ public class RemoteTransaction {
 		return stats;
 	}
 
-	private void moveToFinalLocation() throws StorageException {
-		for (ActionTO action : transactionTO.getActions()) {
+	private void moveToFinalLocation(List<ActionTO> actions) throws StorageException {
+		List<TransferAction> transferActions = new ArrayList<TransferAction>();
+
+		for (ActionTO action : actions) {
 			if (action.getType().equals(ActionTO.TYPE_UPLOAD)) {
-				RemoteFile tempRemoteFile = action.getTempRemoteFile();
-				RemoteFile finalRemoteFile = action.getRemoteFile();
+				final RemoteFile tempRemoteFile = action.getTempRemoteFile();
+				final RemoteFile finalRemoteFile = action.getRemoteFile();
+
+				transferActions.add(new TransferAction() {
+					@Override
+					public void execute() throws StorageException {
+						logger.log(Level.INFO, "- Moving temp. file {0} to final location {1} ...", new Object[] { tempRemoteFile, finalRemoteFile });
+						transferManager.move(tempRemoteFile, finalRemoteFile);
+					}
+				});
+			}
+		}
+		
+		executeTransferActions(transferActions);
+	}
 
-				logger.log(Level.INFO, "- Moving temp. file {0} to final location {1} ...", new Object[] { tempRemoteFile, finalRemoteFile });
-				transferManager.move(tempRemoteFile, finalRemoteFile);
+	/**
+	 * Executes the given transfer actions, either one after the other, or in parallel
+	 * using the configured number of threads. In the latter case, the first failure cancels
+	 * all other actions. The method returns (or throws) only after all actions have stopped.
+	 */
+	private void executeTransferActions(List<TransferAction> transferActions) throws StorageException {
+		if (transferThreads == 1 || transferActions.size() <= 1) {
+			for (TransferAction transferAction : transferActions) {
+				transferAction.execute();
 			}
+			
+			return;
+		}
+		
+		int threads = Math.min(transferThreads, transferActions.size());
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new TransferThreadFactory());
+		CompletionService<Void> completionService = new ExecutorCompletionService<Void>(executor);
+
+		logger.log(Level.INFO, "- Executing " + transferActions.size() + " transfers using " + threads + " threads ...");
+
+		try {
+			for (final TransferAction transferAction : transferActions) {
+				completionService.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						transferAction.execute();
+						return null;
+					}
+				});
+			}
+			
+			for (int i = 0; i < transferActions.size(); i++) {
+				completionService.take().get();
+			}
+		}
+		catch (ExecutionException e) {
+			logger.log(Level.WARNING, "- Transfer failed, cancelling remaining transfers ...", e.getCause());
+			
+			if (e.getCause() instanceof StorageException) {
+				throw (StorageException) e.getCause();
+			}
+			else {
+				throw new StorageException("Transfer failed", e.getCause());
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new StorageException("Interrupted while waiting for transfers", e);
+		}
+		finally {
+			shutdownAndAwaitTermination(executor);
+		}
+	}
+	
+	private void shutdownAndAwaitTermination(ExecutorService executor) {
+		// Running transfers must not complete after commit() returned or failed
+		executor.shutdownNow();
+		
+		try {
+			while (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+				logger.log(Level.INFO, "- Waiting for running transfers to stop ...");
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
 	}
 
-	private void deleteTransactionFile(File localTransactionFile, TransactionRemoteFile remoteTransactionFile) throws StorageException {
+	private void deleteTransactionFile() throws StorageException {
 		// After this deletion, the transaction is final!
 		logger.log(Level.INFO, "- Deleting remote transaction file {0} ...", remoteTransactionFile);
 
 		transferManager.delete(remoteTransactionFile);
-		localTransactionFile.delete();
 
 		logger.log(Level.INFO, "Succesfully committed transaction.");
 	}
@@ -241,4 +558,16 @@ public class RemoteTransaction {
 		private long totalUploadSize;
 		private int totalUploadFileCount;
 	}
+	
+	private static class TransferThreadFactory implements ThreadFactory {
+		private AtomicInteger threadNumber = new AtomicInteger(1);
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "TxTransfer-" + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	}
 }
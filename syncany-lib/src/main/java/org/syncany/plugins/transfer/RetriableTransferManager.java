@@ -25,11 +25,16 @@ import java.util.logging.Logger;
 import org.syncany.plugins.transfer.files.RemoteFile;
 
 /**
- * The retriable transfer manager implements a simple try-sleep-retry mechanism
+ * The retriable transfer manager implements a try-sleep-retry mechanism
  * for regular {@link TransferManager}s. It encapsules a single transfer manager and
  * proxies all of its methods. If a method fails with a {@link StorageException}, the 
- * method is retried N times before the exception is actually thrown to the caller. 
- * Between retries, the method waits M seconds. 
+ * method is retried according to the {@link RetryPolicy} (exponential backoff with jitter,
+ * limited by a maximum number of tries and a retry budget) before the exception is actually
+ * thrown to the caller. 
+ * 
+ * <p>All calls go through a {@link CircuitBreaker}. Once the storage is known to be
+ * unavailable, methods fail immediately with a {@link StorageCircuitOpenException} instead
+ * of retrying, until the breaker lets a trial call through (or a background probe closes it).
  * 
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
@@ -38,7 +43,6 @@ public class RetriableTransferManager implements TransferManager {
 
 	// Values are public to enable quicker testing
 
-	private static int RETRY_MAX_COUNT = 3;
 	public static int RETRY_SLEEP_MILLIS = 3000;
 
 	private interface RetriableMethod {
@@ -46,11 +50,17 @@ public class RetriableTransferManager implements TransferManager {
 	}
 
 	private TransferManager underlyingTransferManager;
-	private int tryCount;
+	private RetryPolicy retryPolicy;
+	private CircuitBreaker circuitBreaker;
 
 	public RetriableTransferManager(TransferManager underlyingTransferManager) {
+		this(underlyingTransferManager, new RetryPolicy(), new CircuitBreaker());
+	}
+
+	public RetriableTransferManager(TransferManager underlyingTransferManager, RetryPolicy retryPolicy, CircuitBreaker circuitBreaker) {
 		this.underlyingTransferManager = underlyingTransferManager;
-		this.tryCount = 0;
+		this.retryPolicy = retryPolicy;
+		this.circuitBreaker = circuitBreaker;
 	}
 
 	@Override
@@ -186,37 +196,50 @@ public class RetriableTransferManager implements TransferManager {
 	}
 
 	private Object retryMethod(RetriableMethod retryableMethod) throws StorageException {
-		tryCount = 0;
+		int tryCount = 0; // Local, so that concurrent calls do not share their retries
+		long startTime = System.currentTimeMillis();
 
 		while (true) {
+			circuitBreaker.acquire();
+
 			try {
 				if (tryCount > 0) {
-					logger.log(Level.WARNING, "Retrying method: " + tryCount + "/" + RETRY_MAX_COUNT + " ...");
+					logger.log(Level.WARNING, "Retrying method: " + tryCount + "/" + retryPolicy.getMaxTries() + " ...");
 				}
 
 				Object result = retryableMethod.execute();
+				circuitBreaker.recordSuccess();
 
-				tryCount = 0;
 				return result;
 			}
 			catch (StorageMoveException | StorageFileNotFoundException e) {
 				logger.log(Level.INFO, "StorageException caused by missing file, not the connection. Not retrying.");
+				circuitBreaker.recordSuccess();
+
 				throw e;
 			}
 			catch (StorageException e) {
+				circuitBreaker.recordFailure();
 				tryCount++;
 
-				if (tryCount >= RETRY_MAX_COUNT) {
-					logger.log(Level.WARNING, "Transfer method failed. No retries left. Throwing exception.", e);
+				long elapsedMillis = System.currentTimeMillis() - startTime;
+				long delayMillis = retryPolicy.getDelayMillis(tryCount);
+
+				if (!retryPolicy.shouldRetry(tryCount, elapsedMillis, delayMillis)) {
+					logger.log(Level.WARNING, "Transfer method failed. No retries left (" + tryCount + " tries, " + elapsedMillis
+							+ "ms elapsed). Throwing exception.", e);
+					throw e;
+				}
+				else if (circuitBreaker.isOpen()) {
+					logger.log(Level.WARNING, "Transfer method failed. Circuit breaker is open, not retrying. Throwing exception.", e);
 					throw e;
 				}
 				else {
-					logger.log(Level.WARNING, "Transfer method failed. " + tryCount + "/" + RETRY_MAX_COUNT + " retries. Sleeping "
-							+ RETRY_SLEEP_MILLIS
-							+ "ms ...", e);
+					logger.log(Level.WARNING, "Transfer method failed. " + tryCount + "/" + retryPolicy.getMaxTries() + " retries. Sleeping "
+							+ delayMillis + "ms ...", e);
 
 					try {
-						Thread.sleep(RETRY_SLEEP_MILLIS);
+						Thread.sleep(delayMillis);
 					}
 					catch (Exception e1) {
 						throw new StorageException(e1);
@@ -0,0 +1,107 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.transfer;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The retry policy determines how often and after which delay the {@link RetriableTransferManager}
+ * retries a failed storage call.
+ *
+ * <p>The delay grows exponentially with each retry (base delay, twice the base delay, four
+ * times the base delay, ...), up to a maximum delay. To prevent many clients (or many threads of
+ * the same client) from retrying in lockstep, a random jitter of up to half the delay is applied.
+ * In addition to the maximum number of tries, each call has a retry budget: A retry is only
+ * attempted if the total time spent on the call (including the next delay) stays within the budget.
+ *
+ * <p>This class is thread-safe.
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class RetryPolicy {
+	public static final int DEFAULT_MAX_TRIES = 3;
+	public static final long DEFAULT_MAX_DELAY_MILLIS = 30 * 1000;
+	public static final long DEFAULT_BUDGET_MILLIS = 60 * 1000;
+
+	private static final int MAX_DELAY_SHIFT = 30;
+
+	private int maxTries;
+	private long baseDelayMillis;
+	private long maxDelayMillis;
+	private long budgetMillis;
+
+	/**
+	 * Creates a retry policy with the default values. The base delay is
+	 * {@link RetriableTransferManager#RETRY_SLEEP_MILLIS}.
+	 */
+	public RetryPolicy() {
+		this(DEFAULT_MAX_TRIES, RetriableTransferManager.RETRY_SLEEP_MILLIS, DEFAULT_MAX_DELAY_MILLIS, DEFAULT_BUDGET_MILLIS);
+	}
+
+	public RetryPolicy(int maxTries, long baseDelayMillis, long maxDelayMillis, long budgetMillis) {
+		if (maxTries < 1 || baseDelayMillis < 0 || maxDelayMillis < baseDelayMillis || budgetMillis < 0) {
+			throw new IllegalArgumentException("Invalid retry policy: maxTries = " + maxTries + ", baseDelay = " + baseDelayMillis
+					+ "ms, maxDelay = " + maxDelayMillis + "ms, budget = " + budgetMillis + "ms");
+		}
+
+		this.maxTries = maxTries;
+		this.baseDelayMillis = baseDelayMillis;
+		this.maxDelayMillis = maxDelayMillis;
+		this.budgetMillis = budgetMillis;
+	}
+
+	public int getMaxTries() {
+		return maxTries;
+	}
+
+	public long getBaseDelayMillis() {
+		return baseDelayMillis;
+	}
+
+	public long getMaxDelayMillis() {
+		return maxDelayMillis;
+	}
+
+	public long getBudgetMillis() {
+		return budgetMillis;
+	}
+
+	/**
+	 * Returns the delay before the given retry (starting at 1), i.e. a random value between
+	 * half and all of <tt>min(maxDelay, baseDelay * 2^(retry-1))</tt>.
+	 */
+	public long getDelayMillis(int retry) {
+		int shift = Math.min(Math.max(retry - 1, 0), MAX_DELAY_SHIFT);
+		long exponentialDelay = Math.min(maxDelayMillis, baseDelayMillis << shift);
+		long jitterRange = exponentialDelay / 2;
+
+		if (jitterRange == 0) {
+			return exponentialDelay;
+		}
+
+		return exponentialDelay - jitterRange + ThreadLocalRandom.current().nextLong(jitterRange + 1);
+	}
+
+	/**
+	 * Returns whether a call that has failed <tt>tryCount</tt> times and has been running
+	 * for <tt>elapsedMillis</tt> should be retried after waiting <tt>delayMillis</tt>.
+	 */
+	public boolean shouldRetry(int tryCount, long elapsedMillis, long delayMillis) {
+		return tryCount < maxTries && elapsedMillis + delayMillis <= budgetMillis;
+	}
+}
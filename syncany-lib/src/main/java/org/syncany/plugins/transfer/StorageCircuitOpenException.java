@@ -0,0 +1,33 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.transfer;
+
+/**
+ * The storage circuit open exception is thrown by the {@link RetriableTransferManager}
+ * if a method is called while the {@link CircuitBreaker} is open, i.e. while the
+ * storage is known to be unavailable. The method is not executed at all.
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+public class StorageCircuitOpenException extends StorageException {
+	private static final long serialVersionUID = -2417658374101749224L;
+
+	public StorageCircuitOpenException(String message) {
+		super(message);
+	}
+}
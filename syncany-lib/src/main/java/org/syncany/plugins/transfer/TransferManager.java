@@ -106,6 +106,11 @@ public interface TransferManager {
 	 * <p>Implementations must make sure that if a file matches the specified name
 	 * schema, it must be complete and consistent.
 	 * 
+	 * <p>This is not guaranteed if the application itself is terminated during an upload:
+	 * Depending on the storage, a partial file may then remain at the target location.
+	 * Callers must therefore not assume that a file returned by {@link #list(Class) list()}
+	 * is complete, unless they recorded that its upload returned successfully.
+	 * 
 	 * <p>Implementations must NOT upload a file if it already exists and has
 	 * the same file size as the local file.
 	 *
@@ -0,0 +1,76 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.plugins.transfer.to;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.simpleframework.xml.Element;
+import org.simpleframework.xml.ElementList;
+import org.simpleframework.xml.Root;
+
+/**
+ * The transaction state transfer object represents the local state of a
+ * transaction that is being committed: the transaction itself, the name of its
+ * remote transaction file, the temporary remote files that have been uploaded completely,
+ * and whether the files have already been moved to their final location. It is stored 
+ * locally (and never uploaded), so that an interrupted transaction can be resumed.
+ *
+ * @author Philipp C. Heckel <philipp.heckel@gmail.com>
+ */
+@Root(name = "transactionState")
+public class TransactionStateTO {
+	@Element(name = "remoteTransactionFile")
+	private String remoteTransactionFile;
+
+	@Element(name = "movePhaseStarted", required = false)
+	private boolean movePhaseStarted;
+
+	@ElementList(name = "uploadedTempFiles", entry = "tempFile", required = false)
+	private List<String> uploadedTempFiles;
+
+	@Element(name = "transaction")
+	private TransactionTO transaction;
+
+	public TransactionStateTO() {
+		// Nothing
+	}
+
+	public TransactionStateTO(String remoteTransactionFile, boolean movePhaseStarted, List<String> uploadedTempFiles, TransactionTO transaction) {
+		this.remoteTransactionFile = remoteTransactionFile;
+		this.movePhaseStarted = movePhaseStarted;
+		this.uploadedTempFiles = uploadedTempFiles;
+		this.transaction = transaction;
+	}
+
+	public String getRemoteTransactionFile() {
+		return remoteTransactionFile;
+	}
+
+	public boolean isMovePhaseStarted() {
+		return movePhaseStarted;
+	}
+
+	public List<String> getUploadedTempFiles() {
+		return (uploadedTempFiles != null) ? uploadedTempFiles : new ArrayList<String>();
+	}
+
+	public TransactionTO getTransaction() {
+		return transaction;
+	}
+}
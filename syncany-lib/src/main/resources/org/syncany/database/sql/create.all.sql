@@ -11,7 +11,7 @@ CREATE CACHED TABLE databaseversion (
 );
 
 CREATE CACHED TABLE chunk (
-  checksum varchar(40) NOT NULL,
+  checksum varchar(128) NOT NULL,
   databaseversion_id int NOT NULL,
   size bigint NOT NULL,
   PRIMARY KEY (checksum),
@@ -27,7 +27,7 @@ CREATE CACHED TABLE databaseversion_vectorclock (
 );
 
 CREATE CACHED TABLE filecontent (
-  checksum varchar(40) NOT NULL,
+  checksum varchar(128) NOT NULL,
   databaseversion_id int NOT NULL,
   size bigint NOT NULL,
   PRIMARY KEY (checksum),
@@ -35,8 +35,8 @@ CREATE CACHED TABLE filecontent (
 );
 
 CREATE CACHED TABLE filecontent_chunk (
-  filecontent_checksum varchar(40) NOT NULL,
-  chunk_checksum varchar(40) NOT NULL,
+  filecontent_checksum varchar(128) NOT NULL,
+  chunk_checksum varchar(128) NOT NULL,
   num int NOT NULL,
   PRIMARY KEY (filecontent_checksum, chunk_checksum, num),
   FOREIGN KEY (filecontent_checksum) REFERENCES filecontent (checksum) ON DELETE NO ACTION ON UPDATE NO ACTION,
@@ -60,7 +60,7 @@ CREATE CACHED TABLE fileversion (
   size bigint NOT NULL,
   lastmodified datetime NOT NULL,
   linktarget varchar(1024),
-  filecontent_checksum varchar(40) DEFAULT NULL,
+  filecontent_checksum varchar(128) DEFAULT NULL,
   updated datetime NOT NULL,
   posixperms varchar(45) DEFAULT NULL,
   dosattrs varchar(45) DEFAULT NULL,
@@ -70,7 +70,7 @@ CREATE CACHED TABLE fileversion (
 );
 
 CREATE CACHED TABLE multichunk (
-  id varchar(40) NOT NULL,
+  id varchar(128) NOT NULL,
   databaseversion_id int NOT NULL,
   size bigint NOT NULL,  
   PRIMARY KEY (id),
@@ -78,15 +78,15 @@ CREATE CACHED TABLE multichunk (
 );
 
 CREATE CACHED TABLE multichunk_chunk (
-  multichunk_id varchar(40) NOT NULL,
-  chunk_checksum varchar(40) NOT NULL,
+  multichunk_id varchar(128) NOT NULL,
+  chunk_checksum varchar(128) NOT NULL,
   PRIMARY KEY (multichunk_id, chunk_checksum),
   FOREIGN KEY (multichunk_id) REFERENCES multichunk (id) ON DELETE NO ACTION ON UPDATE NO ACTION,
   FOREIGN KEY (chunk_checksum) REFERENCES chunk (checksum) ON DELETE NO ACTION ON UPDATE NO ACTION
 );
 
 CREATE CACHED TABLE multichunk_muddy (
-  id varchar(40) NOT NULL,
+  id varchar(128) NOT NULL,
   machine_name varchar(255) NOT NULL,
   machine_version int NOT NULL,
   PRIMARY KEY (id)
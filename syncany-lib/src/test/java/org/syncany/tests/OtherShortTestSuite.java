@@ -20,9 +20,22 @@ package org.syncany.tests;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
+import org.syncany.tests.chunk.ChunkBufferPoolTest;
+import org.syncany.tests.chunk.SmallFileChunkerTest;
+import org.syncany.tests.chunk.AdaptiveGzipTransformerTest;
+import org.syncany.tests.chunk.Lz4TransformerTest;
+import org.syncany.tests.chunk.ParallelGzipOutputStreamTest;
+import org.syncany.tests.chunk.ChunkDigestTest;
+import org.syncany.tests.chunk.ChunkPrefetcherTest;
+import org.syncany.tests.chunk.ChunkerComparisonTest;
+import org.syncany.tests.chunk.DeduperPipelineTest;
+import org.syncany.tests.chunk.FastCdcChunkerTest;
 import org.syncany.tests.chunk.FixedOffsetChunkerTest;
 import org.syncany.tests.chunk.FrameworkCombinationTest;
+import org.syncany.tests.chunk.MappedFileInputStreamTest;
+import org.syncany.tests.chunk.MultiChunkWindowTest;
 import org.syncany.tests.chunk.MultiChunkerTest;
+import org.syncany.tests.chunk.ParallelChunkerTest;
 import org.syncany.tests.chunk.TTTDChunkerTest;
 import org.syncany.tests.config.CacheTest;
 import org.syncany.tests.config.ConfigHelperTest;
@@ -31,9 +44,12 @@ import org.syncany.tests.crypto.AesGcmWithBcInputStreamTest;
 import org.syncany.tests.crypto.CipherSessionTest;
 import org.syncany.tests.crypto.CipherSpecsTest;
 import org.syncany.tests.crypto.CipherUtilTest;
+import org.syncany.tests.crypto.GcmCipherProviderTest;
+import org.syncany.tests.crypto.MultiCipherRandomAccessReaderTest;
 import org.syncany.tests.crypto.MultiCipherStreamsTest;
 import org.syncany.tests.operations.CleanupOperationTest;
 import org.syncany.tests.operations.ConnectOperationTest;
+import org.syncany.tests.operations.DownloaderTest;
 import org.syncany.tests.operations.FileSystemActionComparatorTest;
 import org.syncany.tests.operations.FileSystemActionReconciliatorTest;
 import org.syncany.tests.operations.IndexerTest;
@@ -46,6 +62,8 @@ import org.syncany.tests.operations.StatusOperationTest;
 import org.syncany.tests.operations.SyncUpOperationTest;
 import org.syncany.tests.plugins.PluginOptionSpecTest;
 import org.syncany.tests.plugins.PluginsTest;
+import org.syncany.tests.plugins.RemoteTransactionTest;
+import org.syncany.tests.plugins.RetriableTransferManagerTest;
 import org.syncany.tests.plugins.local.LocalTransferManagerPluginTest;
 import org.syncany.tests.plugins.unreliable_local.CleanupInterruptedTest;
 import org.syncany.tests.plugins.unreliable_local.UploadInterruptedTest;
@@ -60,25 +78,43 @@ import org.syncany.tests.util.SqlRunnerTest;
 		CipherSpecsTest.class,
 		CipherUtilTest.class,
 		MultiCipherStreamsTest.class,
+		MultiCipherRandomAccessReaderTest.class,
 		CipherSessionTest.class,
 		AesGcmWithBcInputStreamTest.class,
+		GcmCipherProviderTest.class,
 
 		// Chunking Framework
 		MultiChunkerTest.class,
 		FixedOffsetChunkerTest.class,
 		TTTDChunkerTest.class,
+		FastCdcChunkerTest.class,
+		ChunkerComparisonTest.class,
+		MappedFileInputStreamTest.class,
+		ParallelChunkerTest.class,
+		DeduperPipelineTest.class,
+		ChunkPrefetcherTest.class,
+		ChunkDigestTest.class,
+		ChunkBufferPoolTest.class,
+		SmallFileChunkerTest.class,
+		AdaptiveGzipTransformerTest.class,
+		Lz4TransformerTest.class,
+		ParallelGzipOutputStreamTest.class,
+		MultiChunkWindowTest.class,
 		FrameworkCombinationTest.class,
 
 		// Connection
 		PluginsTest.class,
 		PluginOptionSpecTest.class,
 		LocalTransferManagerPluginTest.class,
+		RemoteTransactionTest.class,
+		RetriableTransferManagerTest.class,
 		UploadInterruptedTest.class,
 		CleanupInterruptedTest.class,
 
 		// Operations
 		CleanupOperationTest.class,
 		ConnectOperationTest.class,
+		DownloaderTest.class,
 		FileSystemActionComparatorTest.class,
 		FileSystemActionReconciliatorTest.class,
 		IndexerTest.class,
@@ -0,0 +1,202 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.chunk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import org.syncany.chunk.AdaptiveGzipTransformer;
+import org.syncany.chunk.Transformer;
+import org.syncany.tests.util.TestFileUtil;
+
+public class AdaptiveGzipTransformerTest {
+	@Test
+	public void testGetInstance() throws Exception {
+		assertTrue(Transformer.getInstance(AdaptiveGzipTransformer.TYPE) instanceof AdaptiveGzipTransformer);
+	}
+
+	@Test
+	public void testIsCompressible() throws Exception {
+		byte[] textData = createTextArray(64 * 1024);
+		byte[] randomData = TestFileUtil.createRandomArray(64 * 1024);
+
+		// Random bytes, but repeated: high byte entropy, but compressible
+		byte[] repeatedRandomData = new byte[64 * 1024];
+
+		for (int i = 0; i < repeatedRandomData.length; i++) {
+			repeatedRandomData[i] = randomData[i % 512];
+		}
+
+		assertTrue(AdaptiveGzipTransformer.isCompressible(textData, 0, textData.length));
+		assertTrue(AdaptiveGzipTransformer.isCompressible(repeatedRandomData, 0, repeatedRandomData.length));
+		assertFalse(AdaptiveGzipTransformer.isCompressible(randomData, 0, randomData.length));
+		assertFalse(AdaptiveGzipTransformer.isCompressible(randomData, 0, 0));
+	}
+
+	@Test
+	public void testIncompressibleDataStoredRaw() throws Exception {
+		byte[] randomData = TestFileUtil.createRandomArray(1024 * 1024 + 17);
+		byte[] transformedData = transform(new AdaptiveGzipTransformer(), randomData);
+
+		// Header + 9 block headers (incl. checksum) + end marker (incl. checksum)
+		int expectedOverhead = 5 + 9 * 13 + 5;
+
+		assertEquals(randomData.length + expectedOverhead, transformedData.length);
+		assertArrayEquals(randomData, reverseTransform(new AdaptiveGzipTransformer(), transformedData));
+	}
+
+	@Test
+	public void testMixedDataRoundTrip() throws Exception {
+		byte[] textData = createTextArray(AdaptiveGzipTransformer.BLOCK_SIZE * 3);
+		byte[] randomData = TestFileUtil.createRandomArray(AdaptiveGzipTransformer.BLOCK_SIZE * 3);
+
+		ByteArrayOutputStream mixedDataOutputStream = new ByteArrayOutputStream();
+		mixedDataOutputStream.write(textData);
+		mixedDataOutputStream.write(randomData);
+		mixedDataOutputStream.write(textData, 0, 1234);
+
+		byte[] mixedData = mixedDataOutputStream.toByteArray();
+		byte[] transformedData = transform(new AdaptiveGzipTransformer(), mixedData);
+
+		assertTrue(transformedData.length < randomData.length + textData.length / 2);
+		assertArrayEquals(mixedData, reverseTransform(new AdaptiveGzipTransformer(), transformedData));
+	}
+
+	@Test
+	public void testEmptyAndSingleByteWrites() throws Exception {
+		Transformer transformer = new AdaptiveGzipTransformer();
+		assertArrayEquals(new byte[0], reverseTransform(transformer, transform(transformer, new byte[0])));
+
+		byte[] textData = createTextArray(1000);
+		ByteArrayOutputStream transformedOutputStream = new ByteArrayOutputStream();
+		OutputStream outputStream = transformer.createOutputStream(transformedOutputStream);
+
+		for (byte b : textData) {
+			outputStream.write(b);
+		}
+
+		outputStream.close();
+
+		InputStream inputStream = transformer.createInputStream(new ByteArrayInputStream(transformedOutputStream.toByteArray()));
+		ByteArrayOutputStream reversedOutputStream = new ByteArrayOutputStream();
+		int b;
+
+		while (-1 != (b = inputStream.read())) {
+			reversedOutputStream.write(b);
+		}
+
+		inputStream.close();
+		assertArrayEquals(textData, reversedOutputStream.toByteArray());
+	}
+
+	@Test
+	public void testTruncatedAndCorruptStream() throws Exception {
+		Transformer transformer = new AdaptiveGzipTransformer();
+		byte[] transformedData = transform(transformer, createTextArray(300 * 1024));
+
+		try {
+			reverseTransform(transformer, Arrays.copyOf(transformedData, transformedData.length - 1));
+			fail("Truncated stream must not be readable.");
+		}
+		catch (IOException e) {
+			// Expected
+		}
+
+		transformedData[0] = 'X';
+
+		try {
+			reverseTransform(transformer, transformedData);
+			fail("Corrupt stream must not be readable.");
+		}
+		catch (IOException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testFlippedBytesDetected() throws Exception {
+		Random random = new Random(4711);
+
+		for (int i = 0; i < 200; i++) {
+			Transformer transformer = new AdaptiveGzipTransformer();
+
+			byte[] originalData = (i % 2 == 0) ? createTextArray(200 * 1024) : TestFileUtil.createRandomArray(200 * 1024);
+			byte[] transformedData = transform(transformer, originalData);
+
+			for (int j = 1 + random.nextInt(4); j > 0; j--) {
+				transformedData[random.nextInt(transformedData.length)] ^= 1 + random.nextInt(255);
+			}
+
+			try {
+				byte[] reversedData = reverseTransform(transformer, transformedData);
+				assertArrayEquals("Corrupt stream decoded to wrong data.", originalData, reversedData);
+			}
+			catch (IOException e) {
+				// Expected
+			}
+		}
+	}
+
+	private byte[] createTextArray(int size) {
+		String[] words = new String[] { "syncany", "chunk", "multichunk", "repository", "file", "version", "database", "sync" };
+		StringBuilder textBuilder = new StringBuilder();
+
+		for (int i = 0; textBuilder.length() < size; i++) {
+			textBuilder.append(words[(i * 7 + i / 3) % words.length]).append(' ');
+		}
+
+		return Arrays.copyOf(textBuilder.toString().getBytes(), size);
+	}
+
+	private byte[] transform(Transformer transformer, byte[] data) throws IOException {
+		ByteArrayOutputStream transformedOutputStream = new ByteArrayOutputStream();
+
+		OutputStream outputStream = transformer.createOutputStream(transformedOutputStream);
+		outputStream.write(data);
+		outputStream.close();
+
+		return transformedOutputStream.toByteArray();
+	}
+
+	private byte[] reverseTransform(Transformer transformer, byte[] transformedData) throws IOException {
+		InputStream inputStream = transformer.createInputStream(new ByteArrayInputStream(transformedData));
+		ByteArrayOutputStream reversedOutputStream = new ByteArrayOutputStream();
+
+		byte[] buffer = new byte[4096];
+		int read;
+
+		while (-1 != (read = inputStream.read(buffer))) {
+			reversedOutputStream.write(buffer, 0, read);
+		}
+
+		inputStream.close();
+		return reversedOutputStream.toByteArray();
+	}
+}
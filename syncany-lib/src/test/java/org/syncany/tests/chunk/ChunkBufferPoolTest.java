@@ -0,0 +1,220 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.chunk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.chunk.Chunk;
+import org.syncany.chunk.ChunkBuffer;
+import org.syncany.chunk.ChunkBufferPool;
+import org.syncany.chunk.Chunker;
+import org.syncany.chunk.Chunker.ChunkEnumeration;
+import org.syncany.chunk.FastCdcChunker;
+import org.syncany.chunk.FixedChunker;
+import org.syncany.chunk.ParallelChunker;
+import org.syncany.chunk.TttdChunker;
+import org.syncany.tests.util.TestFileUtil;
+
+public class ChunkBufferPoolTest {
+	private File tempDir;
+
+	@Before
+	public void setUp() throws Exception {
+		tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testSizeClasses() {
+		ChunkBufferPool pool = new ChunkBufferPool(0);
+
+		assertEquals(1024, pool.acquire(0).getArray().length);
+		assertEquals(1024, pool.acquire(1024).getArray().length);
+		assertEquals(2048, pool.acquire(1025).getArray().length);
+		assertEquals(8192, pool.acquire(5000).getArray().length);
+		assertEquals(1024*1024, pool.acquire(1024*1024).getArray().length);
+		assertEquals(2*1024*1024, pool.acquire(1024*1024 + 1).getArray().length);
+		assertEquals(17*1024*1024, pool.acquire(16*1024*1024 + 64*1024).getArray().length);
+	}
+
+	@Test
+	public void testReleasedBufferIsReused() {
+		ChunkBufferPool pool = new ChunkBufferPool(1024*1024);
+
+		ChunkBuffer buffer1 = pool.acquire(5000);
+		byte[] array1 = buffer1.getArray();
+		buffer1.release();
+
+		ChunkBuffer buffer2 = pool.acquire(7000);
+		ChunkBuffer buffer3 = pool.acquire(7000);
+
+		assertSame(array1, buffer2.getArray());
+		assertNotSame(array1, buffer3.getArray());
+
+		assertEquals(3, pool.getAcquireCount());
+		assertEquals(2, pool.getAllocationCount());
+		assertEquals(2*8192, pool.getAllocatedBytes());
+	}
+
+	@Test
+	public void testReferenceCounting() {
+		ChunkBufferPool pool = new ChunkBufferPool(1024*1024);
+		ChunkBuffer buffer = pool.acquire(100);
+
+		assertSame(buffer, buffer.retain());
+		assertEquals(2, buffer.getReferenceCount());
+
+		buffer.release();
+		assertEquals(0, pool.getPooledBytes());
+
+		buffer.release();
+		assertEquals(1024, pool.getPooledBytes());
+
+		try {
+			buffer.release();
+			throw new AssertionError("Releasing a buffer twice should fail.");
+		}
+		catch (IllegalStateException e) {
+			// Expected
+		}
+
+		try {
+			buffer.retain();
+			throw new AssertionError("Retaining a released buffer should fail.");
+		}
+		catch (IllegalStateException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testMaxPooledBytes() {
+		ChunkBufferPool pool = new ChunkBufferPool(2048);
+
+		ChunkBuffer buffer1 = pool.acquire(2048);
+		ChunkBuffer buffer2 = pool.acquire(2048);
+
+		buffer1.release();
+		buffer2.release();
+
+		assertEquals(2048, pool.getPooledBytes());
+
+		pool.clear();
+		assertEquals(0, pool.getPooledBytes());
+	}
+
+	@Test
+	public void testChunkerEnumerationsReturnBuffersToPool() throws Exception {
+		List<File> inputFiles = new ArrayList<File>();
+
+		for (int i = 0; i < 10; i++) {
+			inputFiles.add(TestFileUtil.createRandomFileInDirectory(tempDir, i*30*1024 + 7));
+		}
+
+		Chunker[] chunkers = new Chunker[] {
+			new FixedChunker(16*1024),
+			new FastCdcChunker(8*1024),
+			new TttdChunker(8*1024)
+		};
+
+		for (Chunker chunker : chunkers) {
+			ChunkBufferPool pool = new ChunkBufferPool(ChunkBufferPool.DEFAULT_MAX_POOLED_BYTES);
+			chunker.setBufferPool(pool);
+
+			for (File inputFile : inputFiles) {
+				ChunkEnumeration chunks = chunker.createChunks(inputFile);
+				MessageDigest fileDigest = MessageDigest.getInstance(chunker.getChecksumAlgorithm());
+				Chunk lastChunk = null;
+
+				while (chunks.hasMoreElements()) {
+					Chunk chunk = chunks.nextElement();
+					fileDigest.update(chunk.getContent(), 0, chunk.getSize());
+
+					chunk.release();
+					assertNull(chunk.getContent());
+
+					lastChunk = chunk;
+				}
+
+				chunks.close();
+
+				if (lastChunk != null) {
+					assertArrayEquals("File checksum differs for " + chunker, fileDigest.digest(), lastChunk.getFileChecksum());
+				}
+			}
+
+			// After the first files, all buffers must come from the pool
+			long allocationCountBefore = pool.getAllocationCount();
+
+			for (File inputFile : inputFiles) {
+				ChunkEnumeration chunks = chunker.createChunks(inputFile);
+
+				while (chunks.hasMoreElements()) {
+					chunks.nextElement().release();
+				}
+
+				chunks.close();
+			}
+
+			assertTrue("Buffers must be acquired from the pool for " + chunker, pool.getAcquireCount() > 0);
+			assertEquals("No buffers should be allocated for " + chunker, allocationCountBefore, pool.getAllocationCount());
+		}
+	}
+
+	@Test
+	public void testParallelChunkerReturnsSegmentBuffersToPool() throws Exception {
+		File inputFile = TestFileUtil.createRandomFileInDirectory(tempDir, 3*1024*1024);
+
+		ChunkBufferPool pool = new ChunkBufferPool(ChunkBufferPool.DEFAULT_MAX_POOLED_BYTES);
+		Chunker chunker = new ParallelChunker(new FastCdcChunker(8*1024), 1024*1024, 512*1024, 4);
+		chunker.setBufferPool(pool);
+
+		for (int i = 0; i < 3; i++) {
+			ChunkEnumeration chunks = chunker.createChunks(inputFile);
+
+			while (chunks.hasMoreElements()) {
+				chunks.nextElement().release();
+			}
+
+			chunks.close();
+		}
+
+		// 3 runs with 6 segments and one chunk buffer each; at most 5 segments (current + 4 read ahead)
+		// are in use at a time, the last segment is smaller, plus the chunk buffer
+		assertEquals(3*7, pool.getAcquireCount());
+		assertTrue("Segment buffers must be reused", pool.getAllocationCount() <= 7);
+		assertEquals(pool.getAllocatedBytes(), pool.getPooledBytes());
+	}
+}
@@ -0,0 +1,234 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.chunk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.chunk.Blake2bDigest;
+import org.syncany.chunk.Blake3Digest;
+import org.syncany.chunk.Chunk;
+import org.syncany.chunk.Chunker;
+import org.syncany.chunk.Chunker.ChunkEnumeration;
+import org.syncany.chunk.ChunkDigestProvider;
+import org.syncany.chunk.FastCdcChunker;
+import org.syncany.chunk.FixedChunker;
+import org.syncany.tests.util.TestFileUtil;
+import org.syncany.util.FileUtil;
+import org.syncany.util.StringUtil;
+
+public class ChunkDigestTest {
+	private static final Logger logger = Logger.getLogger(ChunkDigestTest.class.getSimpleName());
+	private File tempDir;
+
+	@Before
+	public void setUp() throws Exception {
+		ChunkDigestProvider.init();
+		tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testBlake2bTestVectors() throws Exception {
+		assertDigest(Blake2bDigest.ALGORITHM_160, new byte[0], "3345524abf6bbe1809449224b5972c41790b6cf2");
+		assertDigest(Blake2bDigest.ALGORITHM_160, "abc".getBytes(), "384264f676f39536840523f284921cdc68b6846b");
+		assertDigest(Blake2bDigest.ALGORITHM_160, createSequence(100000), "cb3074bb51b95adb042cd24f470edfc27dc6c15a");
+
+		assertDigest(Blake2bDigest.ALGORITHM_256, new byte[0], "0e5751c026e543b2e8ab2eb06099daa1d1e5df47778f7787faab45cdf12fe3a8");
+		assertDigest(Blake2bDigest.ALGORITHM_256, "abc".getBytes(), "bddd813c634239723171ef3fee98579b94964e3bb1cb3e427262c8c068d52319");
+		assertDigest(Blake2bDigest.ALGORITHM_256, createSequence(100000), "916cfaa800ee55811e82095babeb88ea29c9ef8a36e8d7e20c7b772c344c9e1c");
+	}
+
+	@Test
+	public void testBlake3TestVectors() throws Exception {
+		Map<Integer, String> sequenceTestVectors = new HashMap<Integer, String>();
+
+		sequenceTestVectors.put(1, "2d3adedff11b61f14c886e35afa036736dcd87a74d27b5c1510225d0f592e213");
+		sequenceTestVectors.put(63, "e9bc37a594daad83be9470df7f7b3798297c3d834ce80ba85d6e207627b7db7b");
+		sequenceTestVectors.put(64, "4eed7141ea4a5cd4b788606bd23f46e212af9cacebacdc7d1f4c6dc7f2511b98");
+		sequenceTestVectors.put(65, "de1e5fa0be70df6d2be8fffd0e99ceaa8eb6e8c93a63f2d8d1c30ecb6b263dee");
+		sequenceTestVectors.put(1023, "10108970eeda3eb932baac1428c7a2163b0e924c9a9e25b35bba72b28f70bd11");
+		sequenceTestVectors.put(1024, "42214739f095a406f3fc83deb889744ac00df831c10daa55189b5d121c855af7");
+		sequenceTestVectors.put(1025, "d00278ae47eb27b34faecf67b4fe263f82d5412916c1ffd97c8cb7fb814b8444");
+		sequenceTestVectors.put(2048, "e776b6028c7cd22a4d0ba182a8bf62205d2ef576467e838ed6f2529b85fba24a");
+		sequenceTestVectors.put(2049, "5f4d72f40d7a5f82b15ca2b2e44b1de3c2ef86c426c95c1af0b6879522563030");
+		sequenceTestVectors.put(3072, "b98cb0ff3623be03326b373de6b9095218513e64f1ee2edd2525c7ad1e5cffd2");
+		sequenceTestVectors.put(3073, "7124b49501012f81cc7f11ca069ec9226cecb8a2c850cfe644e327d22d3e1cd3");
+		sequenceTestVectors.put(4096, "015094013f57a5277b59d8475c0501042c0b642e531b0a1c8f58d2163229e969");
+		sequenceTestVectors.put(5121, "628bd2cb2004694adaab7bbd778a25df25c47b9d4155a55f8fbd79f2fe154cff");
+		sequenceTestVectors.put(100000, "d93c23eedaf165a7e0be908ba86f1a7a520d568d2d13cde787c8580c5c72cc54");
+
+		assertDigest(Blake3Digest.ALGORITHM, new byte[0], "af1349b9f5f9a1a6a0404dea36dcc9499bcb25c9adc112b7cc9a93cae41f3262");
+		assertDigest(Blake3Digest.ALGORITHM, "abc".getBytes(), "6437b3ac38465133ffb63b75273a8db548c558465d79db03fd359c6cd5bd9d85");
+
+		for (Map.Entry<Integer, String> sequenceTestVector : sequenceTestVectors.entrySet()) {
+			assertDigest(Blake3Digest.ALGORITHM, createSequence(sequenceTestVector.getKey()), sequenceTestVector.getValue());
+		}
+	}
+
+	@Test
+	public void testIncrementalUpdatesAndClone() throws Exception {
+		String[] algorithms = new String[] { Blake2bDigest.ALGORITHM_160, Blake2bDigest.ALGORITHM_256, Blake3Digest.ALGORITHM };
+		Random random = new Random(4711);
+
+		for (String algorithm : algorithms) {
+			for (int size : new int[] { 0, 1, 127, 128, 129, 1024, 1025, 8191, 65537 }) {
+				byte[] data = TestFileUtil.createArray(size, random);
+				byte[] expectedDigest = MessageDigest.getInstance(algorithm).digest(data);
+
+				// Random splits and single bytes
+				MessageDigest digest = MessageDigest.getInstance(algorithm);
+				int offset = 0;
+
+				while (offset < size) {
+					if (random.nextBoolean()) {
+						digest.update(data[offset++]);
+					}
+					else {
+						int length = Math.min(size - offset, random.nextInt(3000));
+
+						digest.update(data, offset, length);
+						offset += length;
+					}
+				}
+
+				assertArrayEquals("Incremental digest differs for " + algorithm + ", size " + size, expectedDigest, digest.digest());
+
+				// Clone in the middle, digest must be reset after digest()
+				digest.update(data, 0, size / 2);
+
+				MessageDigest clonedDigest = (MessageDigest) digest.clone();
+				clonedDigest.update(data, size / 2, size - size / 2);
+				digest.update(data, size / 2, size - size / 2);
+
+				assertArrayEquals("Cloned digest differs for " + algorithm + ", size " + size, expectedDigest, clonedDigest.digest());
+				assertArrayEquals("Original digest differs for " + algorithm + ", size " + size, expectedDigest, digest.digest());
+				assertArrayEquals("Digest not reset for " + algorithm + ", size " + size, expectedDigest, digest.digest(data));
+			}
+		}
+	}
+
+	@Test
+	public void testChunkersWithVariableWidthChecksums() throws Exception {
+		File inputFile = TestFileUtil.createRandomFileInDirectory(tempDir, 500 * 1024);
+
+		Map<String, Integer> algorithms = new HashMap<String, Integer>();
+
+		algorithms.put("SHA1", 20);
+		algorithms.put(Blake2bDigest.ALGORITHM_160, 20);
+		algorithms.put(Blake2bDigest.ALGORITHM_256, 32);
+		algorithms.put(Blake3Digest.ALGORITHM, 32);
+
+		for (Map.Entry<String, Integer> algorithm : algorithms.entrySet()) {
+			Map<String, String> settings = new HashMap<String, String>();
+			settings.put(Chunker.PROPERTY_DIGEST, algorithm.getKey());
+
+			Chunker[] chunkers = new Chunker[] { new FastCdcChunker(), new FixedChunker(16 * 1024) };
+
+			for (Chunker chunker : chunkers) {
+				chunker.init(settings);
+				assertEquals(algorithm.getKey(), chunker.getChecksumAlgorithm());
+
+				ChunkEnumeration chunks = chunker.createChunks(inputFile);
+				MessageDigest chunkDigest = MessageDigest.getInstance(algorithm.getKey());
+				Chunk lastChunk = null;
+
+				while (chunks.hasMoreElements()) {
+					Chunk chunk = chunks.nextElement();
+
+					chunkDigest.update(chunk.getContent(), 0, chunk.getSize());
+					assertArrayEquals(chunkDigest.digest(), chunk.getChecksum());
+					assertEquals(algorithm.getValue().intValue(), chunk.getChecksum().length);
+
+					lastChunk = chunk;
+				}
+
+				chunks.close();
+
+				byte[] expectedFileChecksum = FileUtil.createChecksum(inputFile, algorithm.getKey());
+				assertArrayEquals("File checksum differs for " + chunker, expectedFileChecksum, lastChunk.getFileChecksum());
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testChunkerInvalidDigest() {
+		Map<String, String> settings = new HashMap<String, String>();
+		settings.put(Chunker.PROPERTY_DIGEST, "INVALID-DIGEST");
+
+		new FastCdcChunker().init(settings);
+	}
+
+	@Test
+	public void testDigestThroughputComparedToSha1() throws Exception {
+		String[] algorithms = new String[] { "SHA1", Blake2bDigest.ALGORITHM_160, Blake2bDigest.ALGORITHM_256, Blake3Digest.ALGORITHM };
+		byte[] data = TestFileUtil.createRandomArray(8 * 1024);
+		int rounds = 4000; // 32 MB
+
+		for (String algorithm : algorithms) {
+			MessageDigest digest = MessageDigest.getInstance(algorithm);
+
+			// Warm up
+			for (int i = 0; i < rounds; i++) {
+				digest.digest(data);
+			}
+
+			long startTime = System.nanoTime();
+
+			for (int i = 0; i < rounds; i++) {
+				digest.digest(data);
+			}
+
+			long duration = Math.max(1, System.nanoTime() - startTime);
+			double megabytesPerSecond = (double) rounds * data.length / 1024 / 1024 / (duration / 1000000000.0);
+
+			logger.info(String.format("%s: %.1f MB/s (8 KB chunks)", algorithm, megabytesPerSecond));
+			assertTrue(megabytesPerSecond > 0);
+		}
+	}
+
+	private void assertDigest(String algorithm, byte[] data, String expectedChecksum) throws Exception {
+		MessageDigest digest = MessageDigest.getInstance(algorithm);
+		assertEquals(algorithm + " of " + data.length + " bytes", expectedChecksum, StringUtil.toHex(digest.digest(data)));
+	}
+
+	private byte[] createSequence(int size) {
+		byte[] sequence = new byte[size];
+
+		for (int i = 0; i < size; i++) {
+			sequence[i] = (byte) (i % 251);
+		}
+
+		return sequence;
+	}
+}
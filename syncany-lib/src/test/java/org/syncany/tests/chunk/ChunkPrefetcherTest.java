@@ -0,0 +1,160 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.chunk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.chunk.Chunk;
+import org.syncany.chunk.ChunkPrefetcher;
+import org.syncany.chunk.Chunker.ChunkEnumeration;
+import org.syncany.chunk.FixedChunker;
+import org.syncany.tests.util.TestFileUtil;
+
+public class ChunkPrefetcherTest {
+	private static final int CHUNK_SIZE = 1024;
+	private static final int FILE_SIZE = 32*CHUNK_SIZE;
+
+	private File tempDir;
+
+	@Before
+	public void setUp() throws Exception {
+		tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testCancelledFileDoesNotBlockSmallFileBatch() throws Exception {
+		List<File> files = new ArrayList<File>();
+
+		for (int i = 0; i < 3; i++) {
+			files.add(TestFileUtil.createRandomFileInDirectory(tempDir, FILE_SIZE));
+		}
+
+		// All files are batched, but each of them has more chunks than fit into its queue
+		final ChunkPrefetcher chunkPrefetcher = new ChunkPrefetcher(new BatchingFixedChunker(CHUNK_SIZE), files, 2);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+
+		try {
+			ChunkEnumeration firstFileChunks = chunkPrefetcher.getChunks(0);
+
+			assertNotNull(firstFileChunks);
+			assertTrue(firstFileChunks.hasMoreElements());
+
+			// Closing the first file early cancels it while the batch worker waits for its queue
+			firstFileChunks.close();
+
+			Future<Long> secondFileSize = executor.submit(new Callable<Long>() {
+				@Override
+				public Long call() throws Exception {
+					return readFully(chunkPrefetcher.getChunks(1));
+				}
+			});
+
+			try {
+				assertEquals(FILE_SIZE, (long) secondFileSize.get(30, TimeUnit.SECONDS));
+			}
+			catch (TimeoutException e) {
+				fail("Batch worker is blocked by the cancelled file.");
+			}
+		}
+		finally {
+			chunkPrefetcher.close();
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testFilesAfterCancelledFileArePrefetched() throws Exception {
+		List<File> files = new ArrayList<File>();
+
+		for (int i = 0; i < 5; i++) {
+			files.add(TestFileUtil.createRandomFileInDirectory(tempDir, FILE_SIZE));
+		}
+
+		ChunkPrefetcher chunkPrefetcher = new ChunkPrefetcher(new BatchingFixedChunker(CHUNK_SIZE), files, 2);
+
+		try {
+			for (int i = 0; i < files.size(); i += 2) {
+				ChunkEnumeration fileChunks = chunkPrefetcher.getChunks(i);
+
+				assertNotNull(fileChunks);
+				assertEquals(FILE_SIZE, readFully(fileChunks));
+			}
+		}
+		finally {
+			chunkPrefetcher.close();
+		}
+	}
+
+	private long readFully(ChunkEnumeration chunkEnumeration) {
+		long size = 0;
+
+		while (chunkEnumeration.hasMoreElements()) {
+			Chunk chunk = chunkEnumeration.nextElement();
+
+			assertNotNull(chunk);
+			size += chunk.getSize();
+
+			chunk.release();
+		}
+
+		chunkEnumeration.close();
+		return size;
+	}
+
+	/**
+	 * Fixed chunker that treats all files as small files (so that the prefetcher batches
+	 * them), but chunks them regularly (so that they have more than one chunk).
+	 */
+	private static class BatchingFixedChunker extends FixedChunker {
+		public BatchingFixedChunker(int chunkSize) {
+			super(chunkSize);
+		}
+
+		@Override
+		protected boolean isSmallFile(long fileLength) {
+			return fileLength > 0;
+		}
+
+		@Override
+		protected ChunkEnumeration createSmallFileChunks(File file) throws IOException {
+			return null;
+		}
+	}
+}
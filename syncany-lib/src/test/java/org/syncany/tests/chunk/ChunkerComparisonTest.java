@@ -0,0 +1,234 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.chunk;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.chunk.Chunk;
+import org.syncany.chunk.Chunker;
+import org.syncany.chunk.Chunker.ChunkEnumeration;
+import org.syncany.chunk.FastCdcChunker;
+import org.syncany.chunk.TttdChunker;
+import org.syncany.tests.util.TestFileUtil;
+import org.syncany.util.FileUtil;
+import org.syncany.util.StringUtil;
+
+/**
+ * Compares the deduplication ratio and throughput of the content-based chunkers 
+ * on the same corpus. By default, the corpus is a synthetic set of files and slightly
+ * modified versions of them (insertions, deletions and overwrites at random offsets). 
+ * 
+ * <p>To run the comparison on a real corpus, set the system property 
+ * <tt>syncany.test.chunker.corpus</tt> to a directory; all files in it are chunked
+ * (recursively). 
+ */
+public class ChunkerComparisonTest {
+	private static final Logger logger = Logger.getLogger(ChunkerComparisonTest.class.getSimpleName());
+	private static final String PROPERTY_CORPUS_DIR = "syncany.test.chunker.corpus";
+	
+	private File tempDir;
+
+	@Before
+	public void setUp() throws Exception {
+		tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+	
+	@Test
+	public void testCompareDedupRatioAndThroughput() throws Exception {
+		// Setup
+		final int AVG_CHUNK_SIZE = 8*1024;
+		
+		List<File> corpus = getCorpus();
+		
+		Chunker[] chunkers = new Chunker[] { 
+			new TttdChunker(AVG_CHUNK_SIZE), 
+			new FastCdcChunker(AVG_CHUNK_SIZE) 
+		};
+		
+		// Run (twice, to warm up the JIT)
+		ChunkerResult[] results = new ChunkerResult[chunkers.length];
+		
+		for (int run = 0; run < 2; run++) {
+			for (int i = 0; i < chunkers.length; i++) {
+				results[i] = chunkCorpus(chunkers[i], corpus);
+			}
+		}
+		
+		// Report
+		for (ChunkerResult result : results) {
+			logger.log(Level.INFO, result.toString());
+		}
+		
+		// Test (similar dedup ratio)
+		ChunkerResult tttdResult = results[0];
+		ChunkerResult fastCdcResult = results[1];
+		
+		assertTrue("FastCDC dedup ratio should be similar to TTTD's: " + fastCdcResult + " vs. " + tttdResult, 
+				fastCdcResult.getDedupRatio() > 0.8 * tttdResult.getDedupRatio());
+	}
+	
+	private List<File> getCorpus() throws Exception {
+		String corpusDir = System.getProperty(PROPERTY_CORPUS_DIR);
+		
+		if (corpusDir != null) {
+			List<File> corpus = new ArrayList<File>();
+			
+			for (File file : TestFileUtil.getRecursiveFileList(new File(corpusDir))) {
+				if (file.isFile()) {
+					corpus.add(file);
+				}
+			}
+			
+			return corpus;
+		}
+		else {
+			return createSyntheticCorpus(4, 2*1024*1024, 3);
+		}
+	}
+
+	private List<File> createSyntheticCorpus(int numOfFiles, int fileSize, int numOfVersions) throws Exception {
+		List<File> corpus = new ArrayList<File>();
+		Random random = new Random(4711);
+		
+		for (int i = 0; i < numOfFiles; i++) {
+			byte[] fileBytes = TestFileUtil.createArray(fileSize, random);
+			
+			for (int version = 0; version <= numOfVersions; version++) {
+				File versionFile = new File(tempDir, "file-" + i + "-v" + version);
+				TestFileUtil.writeByteArrayToFile(fileBytes, versionFile);
+				
+				corpus.add(versionFile);
+				fileBytes = modify(fileBytes, random);
+			}
+		}
+		
+		return corpus;
+	}
+
+	private byte[] modify(byte[] bytes, Random random) {
+		int offset = random.nextInt(bytes.length);
+		int length = 1 + random.nextInt(100);
+		byte[] modifiedBytes;
+		
+		switch (random.nextInt(3)) {
+		case 0: // Insert
+			modifiedBytes = new byte[bytes.length + length];
+			
+			System.arraycopy(bytes, 0, modifiedBytes, 0, offset);
+			System.arraycopy(TestFileUtil.createArray(length, random), 0, modifiedBytes, offset, length);
+			System.arraycopy(bytes, offset, modifiedBytes, offset + length, bytes.length - offset);
+			
+			return modifiedBytes;
+			
+		case 1: // Delete
+			length = Math.min(length, bytes.length - offset);
+			modifiedBytes = new byte[bytes.length - length];
+			
+			System.arraycopy(bytes, 0, modifiedBytes, 0, offset);
+			System.arraycopy(bytes, offset + length, modifiedBytes, offset, bytes.length - offset - length);
+			
+			return modifiedBytes;
+			
+		default: // Overwrite
+			length = Math.min(length, bytes.length - offset);
+			modifiedBytes = bytes.clone();
+			
+			System.arraycopy(TestFileUtil.createArray(length, random), 0, modifiedBytes, offset, length);
+			
+			return modifiedBytes;
+		}
+	}
+
+	private ChunkerResult chunkCorpus(Chunker chunker, List<File> corpus) throws Exception {
+		Map<String, Integer> uniqueChunks = new HashMap<String, Integer>();
+		long totalBytes = 0;
+		long uniqueBytes = 0;
+		long chunkCount = 0;
+		
+		long startTime = System.nanoTime();
+		
+		for (File file : corpus) {
+			ChunkEnumeration chunkEnumeration = chunker.createChunks(file);
+			
+			while (chunkEnumeration.hasMoreElements()) {
+				Chunk chunk = chunkEnumeration.nextElement();
+				String chunkChecksum = StringUtil.toHex(chunk.getChecksum());
+				
+				if (!uniqueChunks.containsKey(chunkChecksum)) {
+					uniqueChunks.put(chunkChecksum, chunk.getSize());
+					uniqueBytes += chunk.getSize();
+				}
+				
+				totalBytes += chunk.getSize();
+				chunkCount++;
+			}
+			
+			chunkEnumeration.close();
+		}
+		
+		long duration = System.nanoTime() - startTime;		
+		return new ChunkerResult(chunker, totalBytes, uniqueBytes, chunkCount, duration);
+	}
+	
+	private static class ChunkerResult {
+		private Chunker chunker;
+		private long totalBytes;
+		private long uniqueBytes;
+		private long chunkCount;
+		private long durationNanos;
+		
+		public ChunkerResult(Chunker chunker, long totalBytes, long uniqueBytes, long chunkCount, long durationNanos) {
+			this.chunker = chunker;
+			this.totalBytes = totalBytes;
+			this.uniqueBytes = uniqueBytes;
+			this.chunkCount = chunkCount;
+			this.durationNanos = durationNanos;
+		}
+		
+		public double getDedupRatio() {
+			return (uniqueBytes > 0) ? (double) totalBytes / uniqueBytes : 1.0;
+		}
+		
+		public double getThroughput() {
+			return totalBytes / 1024.0 / 1024.0 / (durationNanos / 1000000000.0);
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("%s: %s in %d chunks (avg. %s), dedup ratio %.3f, %.1f MB/s", chunker, FileUtil.formatFileSize(totalBytes), chunkCount,
+					FileUtil.formatFileSize(totalBytes / Math.max(1, chunkCount)), getDedupRatio(), getThroughput());
+		}
+	}
+}
@@ -0,0 +1,418 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.chunk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.chunk.AllocationMetrics;
+import org.syncany.chunk.Chunk;
+import org.syncany.chunk.ChunkBufferPool;
+import org.syncany.chunk.Chunker;
+import org.syncany.chunk.CipherTransformer;
+import org.syncany.chunk.Deduper;
+import org.syncany.chunk.DeduperListener;
+import org.syncany.chunk.FastCdcChunker;
+import org.syncany.chunk.GzipTransformer;
+import org.syncany.chunk.MultiChunk;
+import org.syncany.chunk.MultiChunker;
+import org.syncany.chunk.Transformer;
+import org.syncany.chunk.TttdChunker;
+import org.syncany.chunk.ZipMultiChunker;
+import org.syncany.crypto.CipherSpecs;
+import org.syncany.crypto.CipherUtil;
+import org.syncany.crypto.SaltedSecretKey;
+import org.syncany.database.MultiChunkEntry.MultiChunkId;
+import org.syncany.tests.util.TestFileUtil;
+import org.syncany.util.StringUtil;
+
+public class DeduperPipelineTest {
+	private File tempDir;
+
+	@Before
+	public void setUp() throws Exception {
+		tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testPipelinedDeduperEqualsSequentialDeduper() throws Exception {
+		List<File> inputFiles = createInputFiles();
+
+		Chunker[] chunkers = new Chunker[] {
+			new TttdChunker(8*1024),
+			new FastCdcChunker(8*1024)
+		};
+
+		for (Chunker chunker : chunkers) {
+			MultiChunker multiChunker = new ZipMultiChunker(64);
+			Transformer transformer = new GzipTransformer();
+
+			List<String> sequentialEvents = deduplicate(new Deduper(chunker, multiChunker, transformer), inputFiles, "seq-" + chunker);
+			List<String> pipelinedEvents = deduplicate(new Deduper(chunker, multiChunker, transformer, 4, 3), inputFiles, "pipe-" + chunker);
+
+			assertEventsEqual("Deduper events for " + chunker + " differ.", sequentialEvents, pipelinedEvents);
+		}
+	}
+
+	@Test
+	public void testPipelinedDeduperSkipsFilteredFiles() throws Exception {
+		List<File> inputFiles = createInputFiles();
+		final File excludedFile = inputFiles.get(1);
+
+		Deduper deduper = new Deduper(new FastCdcChunker(8*1024), new ZipMultiChunker(64), new GzipTransformer(), 4, 2);
+		File multiChunkDir = new File(tempDir, "filtered");
+		multiChunkDir.mkdir();
+
+		RecordingDeduperListener listener = new RecordingDeduperListener(new ZipMultiChunker(64), new GzipTransformer(), multiChunkDir) {
+			@Override
+			public boolean onFileFilter(File file) {
+				return !file.equals(excludedFile);
+			}
+		};
+
+		deduper.deduplicate(inputFiles, listener);
+
+		for (String event : listener.getEvents()) {
+			assertTrue("Excluded file must not appear in events: " + event, !event.contains(excludedFile.getName()));
+		}
+	}
+
+	@Test
+	public void testPipelinedDeduperFileVanished() throws Exception {
+		List<File> inputFiles = createInputFiles();
+		final File vanishingFile = inputFiles.get(inputFiles.size() - 1);
+
+		Deduper deduper = new Deduper(new FastCdcChunker(8*1024), new ZipMultiChunker(64), new GzipTransformer(), 4, 2);
+		File multiChunkDir = new File(tempDir, "vanished");
+		multiChunkDir.mkdir();
+
+		RecordingDeduperListener listener = new RecordingDeduperListener(new ZipMultiChunker(64), new GzipTransformer(), multiChunkDir) {
+			@Override
+			public boolean onFileStart(File file, int fileNumber) {
+				boolean dedupContents = super.onFileStart(file, fileNumber);
+
+				if (file.equals(vanishingFile)) {
+					vanishingFile.delete(); // Deleted after it has been prefetched
+				}
+
+				return dedupContents;
+			}
+		};
+
+		try {
+			deduper.deduplicate(inputFiles, listener);
+			fail("Deduplicating a vanished file should throw an exception.");
+		}
+		catch (IOException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testPipelinedDeduperReleasesChunkBuffers() throws Exception {
+		List<File> inputFiles = createInputFiles();
+		ChunkBufferPool pool = new ChunkBufferPool(ChunkBufferPool.DEFAULT_MAX_POOLED_BYTES);
+
+		Chunker chunker = new FastCdcChunker(8*1024);
+		chunker.setBufferPool(pool);
+
+		Deduper deduper = new Deduper(chunker, new ZipMultiChunker(64), new GzipTransformer(), 4, 2);
+
+		deduplicate(deduper, inputFiles, "pool1");
+		long allocationCountAfterFirstRun = pool.getAllocationCount();
+
+		deduplicate(deduper, inputFiles, "pool2");
+		AllocationMetrics allocationMetrics = deduper.getAllocationMetrics();
+
+		assertNotNull(allocationMetrics);
+		assertTrue(allocationMetrics.getBufferAcquireCount() > inputFiles.size());
+		assertTrue("Most chunk buffers must be taken from the pool in the second run", 
+				pool.getAllocationCount() - allocationCountAfterFirstRun < allocationMetrics.getBufferAcquireCount() / 4);
+	}
+
+	@Test
+	public void testPipelinedDeduperBatchesSmallFiles() throws Exception {
+		File inputDir = new File(tempDir, "smallfiles");
+		inputDir.mkdir();
+
+		List<File> inputFiles = new ArrayList<File>();
+
+		for (int i=0; i<600; i++) {
+			if (i % 100 == 50) {
+				inputFiles.add(TestFileUtil.createRandomFileInDirectory(inputDir, 100*1024)); // Interrupts batch
+			}
+			else if (i % 10 == 0) {
+				File duplicateFile = new File(inputDir, "duplicate-" + i);
+				TestFileUtil.createNonRandomFile(duplicateFile, 1000);
+
+				inputFiles.add(duplicateFile);
+			}
+			else {
+				inputFiles.add(TestFileUtil.createRandomFileInDirectory(inputDir, 1 + (i * 13) % 2000));
+			}
+		}
+
+		Chunker chunker = new FastCdcChunker(8*1024);
+		MultiChunker multiChunker = new ZipMultiChunker(64);
+		Transformer transformer = new GzipTransformer();
+
+		List<String> sequentialEvents = deduplicate(new Deduper(chunker, multiChunker, transformer), inputFiles, "smallseq");
+		List<String> pipelinedEvents = deduplicate(new Deduper(chunker, multiChunker, transformer, 4, 2), inputFiles, "smallpipe");
+
+		assertEventsEqual("Deduper events for small files differ.", sequentialEvents, pipelinedEvents);
+	}
+
+	@Test
+	public void testPipelinedDeduperClosesMultiChunksWhenWritten() throws Exception {
+		CipherUtil.init();
+
+		SaltedSecretKey masterKey = new SaltedSecretKey(new SecretKeySpec(TestFileUtil.createRandomArray(64), "AnyAlgorithm"), TestFileUtil.createRandomArray(64));
+		Transformer transformer = new CipherTransformer(CipherSpecs.getDefaultCipherSpecs(), masterKey);
+
+		List<File> inputFiles = createInputFiles();
+		File multiChunkDir = new File(tempDir, "encrypted");
+		multiChunkDir.mkdir();
+
+		// Listener verifies that each multichunk file is complete in onMultiChunkClose()
+		RecordingDeduperListener listener = new RecordingDeduperListener(new ZipMultiChunker(64), transformer, multiChunkDir);
+		new Deduper(new FastCdcChunker(8*1024), new ZipMultiChunker(64), transformer, 4, 3).deduplicate(inputFiles, listener);
+
+		List<String> closeEvents = filterEvents(listener.getEvents(), "close ", true);
+		List<String> openEvents = filterEvents(listener.getEvents(), "open ", true);
+
+		assertTrue(closeEvents.size() > 3);
+		assertEquals(openEvents.size(), closeEvents.size());
+
+		for (int i=0; i<openEvents.size(); i++) {
+			assertEquals(openEvents.get(i).substring("open ".length()), closeEvents.get(i).substring("close ".length()));
+		}
+	}
+
+	/**
+	 * Compares the events of a sequential and a pipelined deduper run. With background writers,
+	 * multichunks are closed once they are written (i.e. later than in a sequential run), so 
+	 * the close events are only compared by their order.
+	 */
+	private void assertEventsEqual(String message, List<String> sequentialEvents, List<String> pipelinedEvents) {
+		assertEquals(message, filterEvents(sequentialEvents, "close ", false), filterEvents(pipelinedEvents, "close ", false));
+		assertEquals(message, filterEvents(sequentialEvents, "close ", true), filterEvents(pipelinedEvents, "close ", true));
+	}
+
+	private List<String> filterEvents(List<String> events, String prefix, boolean matching) {
+		List<String> filteredEvents = new ArrayList<String>();
+
+		for (String event : events) {
+			if (event.startsWith(prefix) == matching) {
+				filteredEvents.add(event);
+			}
+		}
+
+		return filteredEvents;
+	}
+
+	private List<File> createInputFiles() throws IOException {
+		File inputDir = new File(tempDir, "input");
+		inputDir.mkdir();
+
+		List<File> inputFiles = new ArrayList<File>();
+
+		inputFiles.add(TestFileUtil.createRandomFileInDirectory(inputDir, 300*1024));
+		inputFiles.add(TestFileUtil.createRandomFileInDirectory(inputDir, 0));
+		inputFiles.add(TestFileUtil.createRandomFileInDirectory(inputDir, 1));
+
+		File nonRandomFile1 = new File(inputDir, "nonrandom1");
+		File nonRandomFile2 = new File(inputDir, "nonrandom2"); // duplicate chunks
+
+		TestFileUtil.createNonRandomFile(nonRandomFile1, 200*1024);
+		TestFileUtil.createNonRandomFile(nonRandomFile2, 200*1024);
+
+		inputFiles.add(nonRandomFile1);
+		inputFiles.add(nonRandomFile2);
+
+		File subDir = new File(inputDir, "folder");
+		subDir.mkdir();
+		inputFiles.add(subDir);
+
+		for (int i=0; i<20; i++) {
+			inputFiles.add(TestFileUtil.createRandomFileInDirectory(inputDir, i*7*1024 + 13));
+		}
+
+		return inputFiles;
+	}
+
+	private List<String> deduplicate(Deduper deduper, List<File> inputFiles, String name) throws IOException {
+		File multiChunkDir = new File(tempDir, name);
+		multiChunkDir.mkdir();
+
+		RecordingDeduperListener listener = new RecordingDeduperListener(new ZipMultiChunker(64), new GzipTransformer(), multiChunkDir);
+		deduper.deduplicate(inputFiles, listener);
+
+		return listener.getEvents();
+	}
+
+	private static class RecordingDeduperListener implements DeduperListener {
+		private MultiChunker multiChunker;
+		private Transformer transformer;
+		private File multiChunkDir;
+
+		private Set<String> knownChunks;
+		private Map<String, List<String>> writtenChunks;
+		private List<MultiChunk> closedMultiChunks;
+		private List<String> events;
+
+		public RecordingDeduperListener(MultiChunker multiChunker, Transformer transformer, File multiChunkDir) {
+			this.multiChunker = multiChunker;
+			this.transformer = transformer;
+			this.multiChunkDir = multiChunkDir;
+
+			this.knownChunks = new HashSet<String>();
+			this.writtenChunks = new HashMap<String, List<String>>();
+			this.closedMultiChunks = new ArrayList<MultiChunk>();
+			this.events = new ArrayList<String>();
+		}
+
+		public List<String> getEvents() {
+			return events;
+		}
+
+		@Override
+		public boolean onFileFilter(File file) {
+			return true;
+		}
+
+		@Override
+		public boolean onFileStart(File file, int fileNumber) {
+			events.add("start " + fileNumber + " " + file.getName());
+			return file.isFile();
+		}
+
+		@Override
+		public void onFileAddChunk(File file, Chunk chunk) {
+			events.add("add " + file.getName() + " " + StringUtil.toHex(chunk.getChecksum()) + " " + chunk.getSize());
+		}
+
+		@Override
+		public void onFileEnd(File file, byte[] checksum) {
+			events.add("end " + file.getName() + " " + ((checksum != null) ? StringUtil.toHex(checksum) : "-"));
+		}
+
+		@Override
+		public boolean onChunk(Chunk chunk) {
+			return knownChunks.add(StringUtil.toHex(chunk.getChecksum()));
+		}
+
+		@Override
+		public void onMultiChunkOpen(MultiChunk multiChunk) {
+			events.add("open " + multiChunk.getId());
+			writtenChunks.put(multiChunk.getId().toString(), new ArrayList<String>());
+		}
+
+		@Override
+		public MultiChunkId createNewMultiChunkId(Chunk firstChunk) {
+			return new MultiChunkId(firstChunk.getChecksum());
+		}
+
+		@Override
+		public File getMultiChunkFile(MultiChunkId multiChunkId) {
+			return new File(multiChunkDir, "multichunk-" + multiChunkId);
+		}
+
+		@Override
+		public void onMultiChunkWrite(MultiChunk multiChunk, Chunk chunk) {
+			events.add("write " + multiChunk.getId() + " " + StringUtil.toHex(chunk.getChecksum()));
+			writtenChunks.get(multiChunk.getId().toString()).add(StringUtil.toHex(chunk.getChecksum()));
+		}
+
+		@Override
+		public void onMultiChunkClose(MultiChunk multiChunk) {
+			events.add("close " + multiChunk.getId());
+			closedMultiChunks.add(multiChunk);
+
+			// The multichunk file must be complete when onMultiChunkClose() is called
+			try {
+				FileInputStream multiChunkInputStream = new FileInputStream(getMultiChunkFile(multiChunk.getId()));
+				MultiChunk readMultiChunk = multiChunker.createMultiChunk(transformer.createInputStream(multiChunkInputStream));
+
+				List<String> readChunks = new ArrayList<String>();
+				Chunk chunk = null;
+
+				while (null != (chunk = readMultiChunk.read())) {
+					readChunks.add(StringUtil.toHex(chunk.getChecksum()));
+				}
+
+				// Not closing the multichunk, because the remaining (unread) ciphertext is not authenticated
+				multiChunkInputStream.close();
+				assertEquals("Multichunk " + multiChunk.getId() + " incomplete.", writtenChunks.get(multiChunk.getId().toString()), readChunks);
+			}
+			catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		public void onStart(int fileCount) {
+			events.add("start " + fileCount);
+		}
+
+		@Override
+		public void onFinish() {
+			events.add("finish");
+
+			// All multichunk files must be complete when onFinish() is called
+			try {
+				for (MultiChunk closedMultiChunk : closedMultiChunks) {
+					FileInputStream multiChunkInputStream = new FileInputStream(getMultiChunkFile(closedMultiChunk.getId()));
+					MultiChunk readMultiChunk = multiChunker.createMultiChunk(transformer.createInputStream(multiChunkInputStream));
+
+					Chunk chunk = null;
+
+					while (null != (chunk = readMultiChunk.read())) {
+						events.add("read " + closedMultiChunk.getId() + " " + StringUtil.toHex(chunk.getChecksum()) + " " + chunk.getSize());
+					}
+
+					multiChunkInputStream.close();
+				}
+			}
+			catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+}
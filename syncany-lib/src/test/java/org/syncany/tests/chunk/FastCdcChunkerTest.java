@@ -0,0 +1,168 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.chunk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.chunk.Chunk;
+import org.syncany.chunk.Chunker;
+import org.syncany.chunk.Chunker.ChunkEnumeration;
+import org.syncany.chunk.FastCdcChunker;
+import org.syncany.tests.util.TestFileUtil;
+import org.syncany.util.FileUtil;
+import org.syncany.util.StringUtil;
+
+public class FastCdcChunkerTest {
+	private File tempDir;
+
+	@Before
+	public void setUp() throws Exception {
+		tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testStringSerialization() {
+		Chunker chunker = new FastCdcChunker(8*1024);
+		assertEquals("Other toString() result expected.", "FastCDC-2048-8192-65536-"+FastCdcChunker.DEFAULT_DIGEST_ALG, chunker.toString());
+	}
+	
+	@Test
+	public void testGetInstance() {
+		Chunker chunker = Chunker.getInstance(FastCdcChunker.TYPE);
+		
+		assertNotNull(chunker);
+		assertEquals(FastCdcChunker.class, chunker.getClass());
+	}
+	
+	@Test
+	public void testCreateChunksFrom5MBFileAndTestChunkSize() throws Exception {
+		// Test Constants
+		final int TOTAL_FILE_SIZE = 5*1024*1024;
+		final int AVG_CHUNK_SIZE = 8*1024;
+		
+		// Setup				
+		File inputRandom5MBFile = TestFileUtil.createRandomFileInDirectory(tempDir, TOTAL_FILE_SIZE);
+		
+		File outputCopyOfRandom5MBFile = TestFileUtil.getRandomFilenameInDirectory(tempDir);
+		FileOutputStream outputCopyOfRandom5MBFileOutputStream = new FileOutputStream(outputCopyOfRandom5MBFile);
+		
+		Chunker chunker = new FastCdcChunker(AVG_CHUNK_SIZE);
+		
+		// Create chunks
+		ChunkEnumeration chunkEnumeration = chunker.createChunks(inputRandom5MBFile);
+		Chunk lastChunk = null;
+		int chunkCount = 0;
+		
+		while (chunkEnumeration.hasMoreElements()) {
+			lastChunk = chunkEnumeration.nextElement();
+			chunkCount++;
+			
+			assertNotNull("Chunk checksum should not be null.", lastChunk.getChecksum());			
+			assertTrue("Chunk must not be larger than the max. chunk size.", lastChunk.getSize() <= AVG_CHUNK_SIZE*8);
+			
+			if (chunkEnumeration.hasMoreElements()) {
+				assertNull("Only the last chunk should have a file checksum.", lastChunk.getFileChecksum());
+				assertTrue("Chunk must not be smaller than the min. chunk size.", lastChunk.getSize() > AVG_CHUNK_SIZE/4);
+			}
+			
+			outputCopyOfRandom5MBFileOutputStream.write(lastChunk.getContent(), 0, lastChunk.getSize());
+		}
+		
+		outputCopyOfRandom5MBFileOutputStream.close();
+		chunkEnumeration.close();
+		
+		// Number of chunks (normalized chunking keeps the average close to the expected size)
+		int avgChunkSize = TOTAL_FILE_SIZE / chunkCount;
+		assertTrue("Average chunk size should be close to " + AVG_CHUNK_SIZE + ", but was " + avgChunkSize, avgChunkSize > AVG_CHUNK_SIZE/2 && avgChunkSize < AVG_CHUNK_SIZE*2);
+		
+		// Checksums
+		byte[] inputFileChecksum = FileUtil.createChecksum(inputRandom5MBFile, FastCdcChunker.DEFAULT_DIGEST_ALG);
+		byte[] outputFileChecksum = FileUtil.createChecksum(outputCopyOfRandom5MBFile, FastCdcChunker.DEFAULT_DIGEST_ALG);
+		
+		assertArrayEquals("Checksums of input and output file do not match.", inputFileChecksum, outputFileChecksum);
+		assertArrayEquals("Last chunk's getFileChecksum() should be the file checksum.", inputFileChecksum, lastChunk.getFileChecksum());
+	}
+	
+	@Test
+	public void testEmptyFileHasNoChunks() throws Exception {
+		File emptyFile = TestFileUtil.createRandomFileInDirectory(tempDir, 0);
+		ChunkEnumeration chunkEnumeration = new FastCdcChunker().createChunks(emptyFile);
+		
+		assertFalse("Empty file should not have any chunks.", chunkEnumeration.hasMoreElements());
+		assertNull("No chunk expected, but data received.", chunkEnumeration.nextElement());
+	}
+	
+	@Test
+	public void testBoundariesResynchronizeAfterInsertion() throws Exception {
+		// Setup
+		byte[] originalBytes = TestFileUtil.createArray(2*1024*1024, new Random(4711)); // Fixed seed, so the test is deterministic
+		byte[] shiftedBytes = new byte[originalBytes.length + 3];
+		
+		System.arraycopy(originalBytes, 0, shiftedBytes, 3, originalBytes.length); // Insert 3 bytes at the beginning
+		
+		File originalFile = TestFileUtil.getRandomFilenameInDirectory(tempDir);
+		File shiftedFile = TestFileUtil.getRandomFilenameInDirectory(tempDir);
+		
+		TestFileUtil.writeByteArrayToFile(originalBytes, originalFile);
+		TestFileUtil.writeByteArrayToFile(shiftedBytes, shiftedFile);
+		
+		// Run
+		Chunker chunker = new FastCdcChunker(8*1024);
+		
+		Set<String> originalChunkChecksums = getChunkChecksums(chunker, originalFile);
+		Set<String> shiftedChunkChecksums = getChunkChecksums(chunker, shiftedFile);
+		
+		// Test (all but the first chunk(s) should be identical)
+		Set<String> commonChunkChecksums = new HashSet<String>(originalChunkChecksums);
+		commonChunkChecksums.retainAll(shiftedChunkChecksums);
+		
+		assertTrue("Expected almost all chunks to be equal, but only " + commonChunkChecksums.size() + " of " + originalChunkChecksums.size() + " are.", 
+				commonChunkChecksums.size() >= originalChunkChecksums.size() - 2);
+	}
+	
+	private Set<String> getChunkChecksums(Chunker chunker, File file) throws Exception {
+		Set<String> chunkChecksums = new HashSet<String>();
+		ChunkEnumeration chunkEnumeration = chunker.createChunks(file);
+		
+		while (chunkEnumeration.hasMoreElements()) {
+			chunkChecksums.add(StringUtil.toHex(chunkEnumeration.nextElement().getChecksum()));
+		}
+		
+		chunkEnumeration.close();
+		return chunkChecksums;
+	}
+}
@@ -38,12 +38,15 @@ import javax.crypto.NoSuchPaddingException;
 import org.apache.commons.io.IOUtils;
 import org.junit.Before;
 import org.junit.Test;
+import org.syncany.chunk.AdaptiveGzipTransformer;
 import org.syncany.chunk.Chunk;
 import org.syncany.chunk.Chunker;
 import org.syncany.chunk.CipherTransformer;
 import org.syncany.chunk.Deduper;
 import org.syncany.chunk.DeduperListener;
 import org.syncany.chunk.GzipTransformer;
+import org.syncany.chunk.IndexedMultiChunker;
+import org.syncany.chunk.Lz4Transformer;
 import org.syncany.chunk.MultiChunk;
 import org.syncany.chunk.MultiChunker;
 import org.syncany.chunk.NoTransformer;
@@ -115,6 +118,7 @@ public class FrameworkCombinationTest {
 		for (int i = 0; i < multiChunkSizes.length; i++) {
 			//multiChunkers.add(new CustomMultiChunker(multiChunkSizes[i]));
 			multiChunkers.add(new ZipMultiChunker(multiChunkSizes[i]));
+			multiChunkers.add(new IndexedMultiChunker(multiChunkSizes[i]));
 		}
 
 		// Chunks
@@ -145,6 +149,8 @@ public class FrameworkCombinationTest {
 		transformerChains.add(new GzipTransformer());
 		transformerChains.add(new CipherTransformer(cipherSpecs, masterKey));
 		transformerChains.add(new GzipTransformer(new CipherTransformer(cipherSpecs, masterKey)));
+		transformerChains.add(new AdaptiveGzipTransformer(new CipherTransformer(cipherSpecs, masterKey)));
+		transformerChains.add(new Lz4Transformer(new CipherTransformer(cipherSpecs, masterKey)));
 
 		for (MultiChunker multiChunker : multiChunkers) {
 			for (Transformer transformer : transformerChains) {
@@ -0,0 +1,261 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.chunk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+import org.syncany.chunk.Lz4Codec;
+import org.syncany.chunk.Lz4Transformer;
+import org.syncany.chunk.Transformer;
+import org.syncany.tests.util.TestFileUtil;
+
+public class Lz4TransformerTest {
+	@Test
+	public void testDecompressReferenceBlock() throws Exception {
+		// Literal 'a', match (offset 1, length 20), last literals 'aaaaa'
+		byte[] compressedBlock = new byte[] { 0x1f, 'a', 0x01, 0x00, 0x01, 0x50, 'a', 'a', 'a', 'a', 'a' };
+		byte[] expectedData = new byte[26];
+		Arrays.fill(expectedData, (byte) 'a');
+
+		byte[] data = new byte[100];
+		int length = Lz4Codec.decompress(compressedBlock, 0, compressedBlock.length, data, 0, data.length);
+
+		assertArrayEquals(expectedData, Arrays.copyOf(data, length));
+	}
+
+	@Test
+	public void testCodecRoundTripAllLevels() throws Exception {
+		Random random = new Random(4711);
+
+		byte[][] testData = new byte[][] {
+			new byte[0],
+			new byte[] { 1 },
+			createTextArray(12),
+			createTextArray(13),
+			createTextArray(100 * 1024),
+			createRunArray(70 * 1024, random),
+			TestFileUtil.createArray(50 * 1024, random)
+		};
+
+		for (int level = Lz4Codec.MIN_LEVEL; level <= Lz4Codec.MAX_LEVEL; level++) {
+			Lz4Codec codec = new Lz4Codec(level);
+
+			for (byte[] data : testData) {
+				byte[] compressedData = new byte[Lz4Codec.maxCompressedLength(data.length)];
+				int compressedLength = codec.compress(data, 0, data.length, compressedData, 0, compressedData.length);
+
+				byte[] decompressedData = new byte[data.length];
+				int decompressedLength = Lz4Codec.decompress(compressedData, 0, compressedLength, decompressedData, 0, decompressedData.length);
+
+				assertEquals("Level " + level + ", length " + data.length, data.length, decompressedLength);
+				assertArrayEquals("Level " + level + ", length " + data.length, data, decompressedData);
+			}
+		}
+	}
+
+	@Test
+	public void testHigherLevelCompressesBetter() throws Exception {
+		byte[] data = createRunArray(256 * 1024, new Random(4711));
+		byte[] compressedData = new byte[Lz4Codec.maxCompressedLength(data.length)];
+
+		int fastLength = new Lz4Codec(Lz4Codec.MIN_LEVEL).compress(data, 0, data.length, compressedData, 0, compressedData.length);
+		int bestLength = new Lz4Codec(Lz4Codec.MAX_LEVEL).compress(data, 0, data.length, compressedData, 0, compressedData.length);
+
+		assertTrue(fastLength < data.length / 2);
+		assertTrue(bestLength <= fastLength);
+		assertEquals(-1, new Lz4Codec(1).compress(data, 0, data.length, compressedData, 0, 10));
+	}
+
+	@Test
+	public void testTransformerRoundTrip() throws Exception {
+		byte[] textData = createTextArray(Lz4Transformer.BLOCK_SIZE * 2 + 17);
+		byte[] randomData = TestFileUtil.createRandomArray(Lz4Transformer.BLOCK_SIZE + 5);
+
+		ByteArrayOutputStream mixedDataOutputStream = new ByteArrayOutputStream();
+		mixedDataOutputStream.write(textData);
+		mixedDataOutputStream.write(randomData);
+
+		byte[] mixedData = mixedDataOutputStream.toByteArray();
+
+		for (int level : new int[] { 1, 4, 9 }) {
+			Transformer transformer = new Lz4Transformer(level, null);
+			byte[] transformedData = transform(transformer, mixedData);
+
+			assertTrue(transformedData.length < randomData.length + textData.length / 2);
+			assertArrayEquals(mixedData, reverseTransform(transformer, transformedData));
+		}
+
+		Transformer transformer = new Lz4Transformer();
+		assertArrayEquals(new byte[0], reverseTransform(transformer, transform(transformer, new byte[0])));
+	}
+
+	@Test
+	public void testTransformerInit() throws Exception {
+		Transformer transformer = Transformer.getInstance(Lz4Transformer.TYPE);
+		assertTrue(transformer instanceof Lz4Transformer);
+
+		transformer.init(null);
+		assertEquals(Lz4Codec.MIN_LEVEL, ((Lz4Transformer) transformer).getLevel());
+
+		Map<String, String> settings = new HashMap<String, String>();
+		settings.put(Transformer.PROPERTY_LEVEL, "7");
+
+		transformer.init(settings);
+		assertEquals(7, ((Lz4Transformer) transformer).getLevel());
+
+		for (String invalidLevel : new String[] { "0", "10", "fast" }) {
+			settings.put(Transformer.PROPERTY_LEVEL, invalidLevel);
+
+			try {
+				transformer.init(settings);
+				fail("Level " + invalidLevel + " must not be accepted.");
+			}
+			catch (Exception e) {
+				// Expected
+			}
+		}
+	}
+
+	@Test
+	public void testCorruptStream() throws Exception {
+		Transformer transformer = new Lz4Transformer();
+		byte[] transformedData = transform(transformer, createTextArray(300 * 1024));
+
+		try {
+			reverseTransform(transformer, Arrays.copyOf(transformedData, transformedData.length - 1));
+			fail("Truncated stream must not be readable.");
+		}
+		catch (IOException e) {
+			// Expected
+		}
+
+		transformedData[20] ^= 0x55; // In first compressed block
+
+		try {
+			reverseTransform(transformer, transformedData);
+			fail("Corrupt stream must not be readable.");
+		}
+		catch (IOException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testFlippedBytesDetected() throws Exception {
+		Random random = new Random(4711);
+
+		for (int i = 0; i < 200; i++) {
+			Transformer transformer = new Lz4Transformer((i % 2 == 0) ? Lz4Codec.MIN_LEVEL : Lz4Codec.MAX_LEVEL, null);
+
+			byte[] originalData = createTextArray(200 * 1024);
+			byte[] transformedData = transform(transformer, originalData);
+
+			for (int j = 1 + random.nextInt(4); j > 0; j--) {
+				transformedData[random.nextInt(transformedData.length)] ^= 1 + random.nextInt(255);
+			}
+
+			try {
+				byte[] reversedData = reverseTransform(transformer, transformedData);
+				assertArrayEquals("Corrupt stream decoded to wrong data.", originalData, reversedData);
+			}
+			catch (IOException e) {
+				// Expected
+			}
+		}
+	}
+
+	private byte[] createTextArray(int size) {
+		String[] words = new String[] { "syncany", "chunk", "multichunk", "repository", "file", "version", "database", "sync" };
+		StringBuilder textBuilder = new StringBuilder();
+
+		for (int i = 0; textBuilder.length() < size; i++) {
+			textBuilder.append(words[(i * 7 + i / 3) % words.length]).append(' ');
+		}
+
+		return Arrays.copyOf(textBuilder.toString().getBytes(), size);
+	}
+
+	/**
+	 * Creates data consisting of short random runs, repeated at random distances,
+	 * including overlapping matches (runs of the same byte).
+	 */
+	private byte[] createRunArray(int size, Random random) {
+		byte[] data = new byte[size];
+		int position = 0;
+
+		while (position < size) {
+			int runLength = Math.min(size - position, 1 + random.nextInt(300));
+
+			if (position > 1000 && random.nextBoolean()) {
+				int distance = 1 + random.nextInt(Math.min(position, 70000));
+
+				for (int i = 0; i < runLength; i++) {
+					data[position + i] = data[position - distance + i];
+				}
+			}
+			else {
+				for (int i = 0; i < runLength; i++) {
+					data[position + i] = (byte) random.nextInt(16);
+				}
+			}
+
+			position += runLength;
+		}
+
+		return data;
+	}
+
+	private byte[] transform(Transformer transformer, byte[] data) throws IOException {
+		ByteArrayOutputStream transformedOutputStream = new ByteArrayOutputStream();
+
+		OutputStream outputStream = transformer.createOutputStream(transformedOutputStream);
+		outputStream.write(data);
+		outputStream.close();
+
+		return transformedOutputStream.toByteArray();
+	}
+
+	private byte[] reverseTransform(Transformer transformer, byte[] transformedData) throws IOException {
+		InputStream inputStream = transformer.createInputStream(new ByteArrayInputStream(transformedData));
+		ByteArrayOutputStream reversedOutputStream = new ByteArrayOutputStream();
+
+		byte[] buffer = new byte[4096];
+		int read;
+
+		while (-1 != (read = inputStream.read(buffer))) {
+			reversedOutputStream.write(buffer, 0, read);
+		}
+
+		inputStream.close();
+		return reversedOutputStream.toByteArray();
+	}
+}
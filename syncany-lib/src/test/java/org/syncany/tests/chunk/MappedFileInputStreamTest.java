@@ -0,0 +1,151 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.chunk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.chunk.Chunk;
+import org.syncany.chunk.Chunker;
+import org.syncany.chunk.Chunker.ChunkEnumeration;
+import org.syncany.chunk.FastCdcChunker;
+import org.syncany.chunk.FixedChunker;
+import org.syncany.chunk.MappedFileInputStream;
+import org.syncany.chunk.TttdChunker;
+import org.syncany.tests.util.TestFileUtil;
+import org.syncany.util.StringUtil;
+
+public class MappedFileInputStreamTest {
+	private File tempDir;
+
+	@Before
+	public void setUp() throws Exception {
+		tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+	
+	@Test
+	public void testReadAcrossWindowsEqualsFileInputStream() throws Exception {
+		// Setup
+		File inputFile = TestFileUtil.createRandomFileInDirectory(tempDir, 1024*1024 + 17);
+		Random random = new Random(4711);
+		
+		InputStream fileInputStream = new FileInputStream(inputFile);
+		InputStream mappedInputStream = new MappedFileInputStream(inputFile, 100*1000); // Odd window size
+		
+		// Run & test
+		int position = 0;
+		
+		while (true) {
+			int readLength = random.nextInt(300*1000);
+			
+			byte[] expectedBytes = readFully(fileInputStream, readLength);
+			byte[] actualBytes = readFully(mappedInputStream, readLength);
+			
+			assertArrayEquals("Bytes at position " + position + " differ.", expectedBytes, actualBytes);
+			assertEquals(fileInputStream.available(), mappedInputStream.available());
+			
+			if (expectedBytes.length < readLength) {
+				break;
+			}
+			
+			assertEquals(fileInputStream.read(), mappedInputStream.read());
+			assertEquals(fileInputStream.skip(1000), mappedInputStream.skip(1000));
+			
+			position += readLength + 1001;
+		}
+		
+		assertEquals(-1, mappedInputStream.read());
+		assertEquals(-1, mappedInputStream.read(new byte[10], 0, 10));
+		
+		fileInputStream.close();
+		mappedInputStream.close();
+	}
+	
+	@Test
+	public void testMappedChunksEqualStreamChunks() throws Exception {
+		// Setup
+		File inputFile = TestFileUtil.createRandomFileInDirectory(tempDir, 3*1024*1024 + 4711);
+		
+		Chunker[] chunkers = new Chunker[] {
+			new FixedChunker(32*1024),
+			new TttdChunker(16*1024),
+			new FastCdcChunker(16*1024)
+		};
+		
+		// Run & test
+		for (Chunker chunker : chunkers) {
+			chunker.setMappedFileThreshold(Long.MAX_VALUE);
+			List<String> streamChunks = getChunks(chunker, inputFile);
+			
+			chunker.setMappedFileThreshold(0);
+			List<String> mappedChunks = getChunks(chunker, inputFile);
+			
+			assertEquals("Chunks of " + chunker + " differ.", streamChunks, mappedChunks);
+		}		
+	}
+	
+	private List<String> getChunks(Chunker chunker, File file) throws Exception {
+		List<String> chunks = new ArrayList<String>();
+		ChunkEnumeration chunkEnumeration = chunker.createChunks(file);
+		
+		while (chunkEnumeration.hasMoreElements()) {
+			Chunk chunk = chunkEnumeration.nextElement();
+			String fileChecksumStr = (chunk.getFileChecksum() != null) ? StringUtil.toHex(chunk.getFileChecksum()) : "";
+			
+			chunks.add(StringUtil.toHex(chunk.getChecksum()) + "/" + chunk.getSize() + "/" + fileChecksumStr);
+		}
+		
+		chunkEnumeration.close();
+		return chunks;
+	}
+	
+	private byte[] readFully(InputStream inputStream, int length) throws Exception {
+		byte[] buffer = new byte[length];
+		int read = 0;
+		
+		while (read < length) {
+			int readNow = inputStream.read(buffer, read, length - read);
+			
+			if (readNow == -1) {
+				break;
+			}
+			
+			read += readNow;
+		}
+		
+		byte[] bytes = new byte[read];
+		System.arraycopy(buffer, 0, bytes, 0, read);
+		
+		return bytes;
+	}
+}
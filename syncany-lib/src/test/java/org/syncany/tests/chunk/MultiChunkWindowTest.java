@@ -0,0 +1,303 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.chunk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.chunk.Chunk;
+import org.syncany.chunk.CipherTransformer;
+import org.syncany.chunk.FixedChunker;
+import org.syncany.chunk.GzipTransformer;
+import org.syncany.chunk.IndexedMultiChunker;
+import org.syncany.chunk.MultiChunk;
+import org.syncany.chunk.MultiChunkWindow;
+import org.syncany.chunk.MultiChunker;
+import org.syncany.chunk.Transformer;
+import org.syncany.chunk.ZipMultiChunker;
+import org.syncany.config.Logging;
+import org.syncany.crypto.CipherSpec;
+import org.syncany.crypto.CipherSpecs;
+import org.syncany.crypto.SaltedSecretKey;
+import org.syncany.database.ChunkEntry.ChunkChecksum;
+import org.syncany.database.MultiChunkEntry.MultiChunkId;
+import org.syncany.tests.util.TestFileUtil;
+import org.syncany.util.StringUtil;
+
+public class MultiChunkWindowTest {
+	private static final int CHUNK_SIZE = 1024;
+	private static final int MULTICHUNK_SIZE = 32*CHUNK_SIZE;
+
+	private File tempDir;
+	private File spillDir;
+	private Transformer transformer;
+
+	static {
+		Logging.init();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		spillDir = new File(tempDir, "spill");
+		spillDir.mkdir();
+		
+		transformer = new GzipTransformer(new CipherTransformer(Arrays.asList(new CipherSpec[] { 
+			CipherSpecs.getCipherSpec(CipherSpecs.AES_128_GCM),
+			CipherSpecs.getCipherSpec(CipherSpecs.TWOFISH_128_GCM)
+		}), createDummyMasterKey()));
+	}
+
+	@After
+	public void tearDown() {
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testGetChunksFromEncryptedMultiChunk() throws Exception {
+		for (MultiChunker multiChunker : new MultiChunker[] { new ZipMultiChunker(MULTICHUNK_SIZE/1024), new IndexedMultiChunker(MULTICHUNK_SIZE/1024) }) {
+			MultiChunkWindow multiChunkWindow = new MultiChunkWindow(multiChunker, transformer, spillDir);
+			
+			MultiChunkId multiChunkId = MultiChunkId.secureRandomMultiChunkId();
+			File multiChunkFile = new File(tempDir, "multichunk-" + multiChunkId);
+			Map<ChunkChecksum, byte[]> chunks = writeMultiChunk(multiChunker, multiChunkId, multiChunkFile);
+
+			for (Map.Entry<ChunkChecksum, byte[]> chunk : chunks.entrySet()) {
+				assertChunk(chunk.getValue(), multiChunkWindow.getChunkInputStream(multiChunkId, multiChunkFile, chunk.getKey()));
+			}
+
+			assertNull(multiChunkWindow.getChunkInputStream(multiChunkId, multiChunkFile, new ChunkChecksum(new byte[] { 1, 2, 3 })));
+		}
+	}
+
+	@Test
+	public void testLoadedMultiChunkIsReadFromMemory() throws Exception {
+		MultiChunker multiChunker = new IndexedMultiChunker(MULTICHUNK_SIZE/1024);
+		MultiChunkWindow multiChunkWindow = new MultiChunkWindow(multiChunker, transformer, spillDir);
+
+		MultiChunkId multiChunkId = MultiChunkId.secureRandomMultiChunkId();
+		File multiChunkFile = new File(tempDir, "multichunk-" + multiChunkId);
+		Map<ChunkChecksum, byte[]> chunks = writeMultiChunk(multiChunker, multiChunkId, multiChunkFile);
+
+		multiChunkWindow.load(multiChunkId, multiChunkFile);
+		multiChunkFile.delete();
+
+		for (Map.Entry<ChunkChecksum, byte[]> chunk : chunks.entrySet()) {
+			assertChunk(chunk.getValue(), multiChunkWindow.getChunkInputStream(multiChunkId, multiChunkFile, chunk.getKey()));
+		}
+	}
+
+	@Test
+	public void testEvictedMultiChunkReadFromSpillFile() throws Exception {
+		MultiChunker multiChunker = new IndexedMultiChunker(MULTICHUNK_SIZE/1024);
+		MultiChunkWindow multiChunkWindow = new MultiChunkWindow(multiChunker, transformer, spillDir, MULTICHUNK_SIZE + CHUNK_SIZE, MultiChunkWindow.DEFAULT_MAX_SPILL_SIZE);
+
+		MultiChunkId multiChunkId1 = MultiChunkId.secureRandomMultiChunkId();
+		File multiChunkFile1 = new File(tempDir, "multichunk-" + multiChunkId1);
+		Map<ChunkChecksum, byte[]> chunks1 = writeMultiChunk(multiChunker, multiChunkId1, multiChunkFile1);
+
+		MultiChunkId multiChunkId2 = MultiChunkId.secureRandomMultiChunkId();
+		File multiChunkFile2 = new File(tempDir, "multichunk-" + multiChunkId2);
+		writeMultiChunk(multiChunker, multiChunkId2, multiChunkFile2);
+
+		multiChunkWindow.load(multiChunkId1, multiChunkFile1);
+		multiChunkWindow.load(multiChunkId2, multiChunkFile2);
+		multiChunkFile1.delete();
+
+		// Multichunk 1 was evicted from memory, but must not be decrypted again
+		assertEquals(1, spillDir.listFiles().length);
+
+		for (Map.Entry<ChunkChecksum, byte[]> chunk : chunks1.entrySet()) {
+			assertChunk(chunk.getValue(), multiChunkWindow.getChunkInputStream(multiChunkId1, multiChunkFile1, chunk.getKey()));
+		}
+	}
+
+	@Test
+	public void testLeastRecentlyUsedMultiChunkEvictedFromSpillFile() throws Exception {
+		MultiChunker multiChunker = new IndexedMultiChunker(MULTICHUNK_SIZE/1024);
+		MultiChunkWindow multiChunkWindow = new MultiChunkWindow(multiChunker, transformer, spillDir, MULTICHUNK_SIZE + CHUNK_SIZE, MULTICHUNK_SIZE + CHUNK_SIZE);
+
+		MultiChunkId multiChunkId1 = MultiChunkId.secureRandomMultiChunkId();
+		File multiChunkFile1 = new File(tempDir, "multichunk-" + multiChunkId1);
+		Map<ChunkChecksum, byte[]> chunks1 = writeMultiChunk(multiChunker, multiChunkId1, multiChunkFile1);
+
+		MultiChunkId multiChunkId2 = MultiChunkId.secureRandomMultiChunkId();
+		File multiChunkFile2 = new File(tempDir, "multichunk-" + multiChunkId2);
+		writeMultiChunk(multiChunker, multiChunkId2, multiChunkFile2);
+
+		MultiChunkId multiChunkId3 = MultiChunkId.secureRandomMultiChunkId();
+		File multiChunkFile3 = new File(tempDir, "multichunk-" + multiChunkId3);
+		writeMultiChunk(multiChunker, multiChunkId3, multiChunkFile3);
+
+		multiChunkWindow.load(multiChunkId1, multiChunkFile1);
+		multiChunkWindow.load(multiChunkId2, multiChunkFile2);
+		multiChunkWindow.load(multiChunkId3, multiChunkFile3);
+		multiChunkFile1.delete();
+
+		assertEquals(1, spillDir.listFiles().length);
+
+		try {
+			multiChunkWindow.getChunkInputStream(multiChunkId1, multiChunkFile1, chunks1.keySet().iterator().next());
+			fail("Multichunk 1 should have been evicted from the spill file and re-read from disk.");
+		}
+		catch (FileNotFoundException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testMultiChunkLargerThanWindow() throws Exception {
+		MultiChunker multiChunker = new ZipMultiChunker(MULTICHUNK_SIZE/1024);
+		MultiChunkWindow multiChunkWindow = new MultiChunkWindow(multiChunker, transformer, spillDir, 4*CHUNK_SIZE, MultiChunkWindow.DEFAULT_MAX_SPILL_SIZE);
+
+		MultiChunkId multiChunkId = MultiChunkId.secureRandomMultiChunkId();
+		File multiChunkFile = new File(tempDir, "multichunk-" + multiChunkId);
+		Map<ChunkChecksum, byte[]> chunks = writeMultiChunk(multiChunker, multiChunkId, multiChunkFile);
+
+		multiChunkWindow.load(multiChunkId, multiChunkFile);
+		multiChunkFile.delete();
+
+		// Multichunk is decrypted once to the spill file, not once per chunk
+		for (Map.Entry<ChunkChecksum, byte[]> chunk : chunks.entrySet()) {
+			assertChunk(chunk.getValue(), multiChunkWindow.getChunkInputStream(multiChunkId, multiChunkFile, chunk.getKey()));
+		}
+	}
+
+	@Test
+	public void testMultiChunkLargerThanWindowReadOnce() throws Exception {
+		MultiChunker multiChunker = new IndexedMultiChunker(MULTICHUNK_SIZE/1024);
+		MultiChunkWindow multiChunkWindow = new MultiChunkWindow(multiChunker, transformer, spillDir, 4*CHUNK_SIZE, MultiChunkWindow.DEFAULT_MAX_SPILL_SIZE);
+
+		MultiChunkId multiChunkId = MultiChunkId.secureRandomMultiChunkId();
+		File multiChunkFile = new File(tempDir, "multichunk-" + multiChunkId);
+		Map<ChunkChecksum, byte[]> chunks = writeMultiChunk(multiChunker, multiChunkId, multiChunkFile);
+
+		boolean firstChunk = true;
+
+		for (Map.Entry<ChunkChecksum, byte[]> chunk : chunks.entrySet()) {
+			assertChunk(chunk.getValue(), multiChunkWindow.getChunkInputStream(multiChunkId, multiChunkFile, chunk.getKey()));
+
+			if (firstChunk) {
+				multiChunkFile.delete();
+				firstChunk = false;
+			}
+		}
+	}
+
+	@Test
+	public void testClearDeletesSpillFiles() throws Exception {
+		MultiChunker multiChunker = new IndexedMultiChunker(MULTICHUNK_SIZE/1024);
+		MultiChunkWindow multiChunkWindow = new MultiChunkWindow(multiChunker, transformer, spillDir, 4*CHUNK_SIZE, MultiChunkWindow.DEFAULT_MAX_SPILL_SIZE);
+
+		MultiChunkId multiChunkId = MultiChunkId.secureRandomMultiChunkId();
+		File multiChunkFile = new File(tempDir, "multichunk-" + multiChunkId);
+		writeMultiChunk(multiChunker, multiChunkId, multiChunkFile);
+
+		multiChunkWindow.load(multiChunkId, multiChunkFile);
+		assertEquals(1, spillDir.listFiles().length);
+
+		multiChunkWindow.clear();
+		assertEquals(0, spillDir.listFiles().length);
+	}
+
+	@Test
+	public void testTamperedMultiChunkNotLoaded() throws Exception {
+		MultiChunker multiChunker = new IndexedMultiChunker(MULTICHUNK_SIZE/1024);
+		MultiChunkWindow multiChunkWindow = new MultiChunkWindow(multiChunker, transformer, spillDir, 4*CHUNK_SIZE, MultiChunkWindow.DEFAULT_MAX_SPILL_SIZE);
+
+		MultiChunkId multiChunkId = MultiChunkId.secureRandomMultiChunkId();
+		File multiChunkFile = new File(tempDir, "multichunk-" + multiChunkId);
+		writeMultiChunk(multiChunker, multiChunkId, multiChunkFile);
+
+		RandomAccessFile multiChunkRaf = new RandomAccessFile(multiChunkFile, "rw");
+		long tamperPosition = multiChunkRaf.length() - 20;
+
+		multiChunkRaf.seek(tamperPosition);
+		int tamperedByte = multiChunkRaf.read() ^ 0x01;
+		multiChunkRaf.seek(tamperPosition);
+		multiChunkRaf.write(tamperedByte);
+		multiChunkRaf.close();
+
+		try {
+			multiChunkWindow.load(multiChunkId, multiChunkFile);
+			fail("Tampered multichunk should not be loaded.");
+		}
+		catch (IOException e) {
+			// Expected
+		}
+
+		// Chunks of the tampered multichunk must not be kept
+		assertEquals(0, spillDir.listFiles().length);
+	}
+
+	private Map<ChunkChecksum, byte[]> writeMultiChunk(MultiChunker multiChunker, MultiChunkId multiChunkId, File multiChunkFile) throws IOException {
+		File inputFile = TestFileUtil.createRandomFileInDirectory(tempDir, MULTICHUNK_SIZE);
+		Map<ChunkChecksum, byte[]> chunks = new LinkedHashMap<ChunkChecksum, byte[]>();
+
+		MultiChunk multiChunk = multiChunker.createMultiChunk(multiChunkId, transformer.createOutputStream(new FileOutputStream(multiChunkFile)));
+		Enumeration<Chunk> chunkEnumeration = new FixedChunker(CHUNK_SIZE).createChunks(inputFile);
+
+		while (chunkEnumeration.hasMoreElements()) {
+			Chunk chunk = chunkEnumeration.nextElement();
+			chunks.put(new ChunkChecksum(chunk.getChecksum()), Arrays.copyOf(chunk.getContent(), chunk.getSize()));
+
+			multiChunk.write(chunk);
+			chunk.release();
+		}
+
+		multiChunk.close();
+		inputFile.delete();
+
+		return chunks;
+	}
+
+	private void assertChunk(byte[] expectedChunk, InputStream chunkInputStream) throws IOException {
+		assertNotNull(chunkInputStream);
+		assertArrayEquals(expectedChunk, IOUtils.toByteArray(chunkInputStream));
+	}
+
+	private SaltedSecretKey createDummyMasterKey() {
+		return new SaltedSecretKey(
+			new SecretKeySpec(
+				StringUtil.fromHex("44fda24d53b29828b62c362529bd9df5c8a92c2736bcae3a28b3d7b44488e36e246106aa5334813028abb2048eeb5e177df1c702d93cf82aeb7b6d59a8534ff0"),
+				"AnyAlgorithm"
+			),
+			StringUtil.fromHex("157599349e0f1bc713afff442db9d4c3201324073d51cb33407600f305500aa3fdb31136cb1f37bd51a48f183844257d42010a36133b32b424dd02bc63b349bc")			
+		);
+	}
+}
@@ -17,13 +17,22 @@
  */
 package org.syncany.tests.chunk;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.List;
@@ -37,8 +46,11 @@ import java.util.zip.ZipOutputStream;
 
 import org.junit.Test;
 import org.syncany.chunk.Chunk;
+import org.syncany.chunk.ChunkSink;
+import org.syncany.chunk.ChunkSlice;
 import org.syncany.chunk.Chunker;
 import org.syncany.chunk.FixedChunker;
+import org.syncany.chunk.IndexedMultiChunker;
 import org.syncany.chunk.MultiChunk;
 import org.syncany.chunk.MultiChunker;
 import org.syncany.chunk.NoTransformer;
@@ -61,7 +73,8 @@ public class MultiChunkerTest {
 		
 		MultiChunker[] multiChunkers = new MultiChunker[] { 
 			//new CustomMultiChunker(minMultiChunkSize),
-			new ZipMultiChunker(minMultiChunkSize) 
+			new ZipMultiChunker(minMultiChunkSize),
+			new IndexedMultiChunker(minMultiChunkSize)
 		};
 		
 		for (Chunker chunker : chunkers) {
@@ -122,6 +135,205 @@ public class MultiChunkerTest {
 		TestFileUtil.deleteDirectory(tempDir);
 	}	
 	
+	@Test
+	public void testIndexedRandomAndSequentialAccess() throws Exception {
+		File tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		File multiChunkFile = new File(tempDir, "multichunk");
+
+		// Write multichunk; small chunks to create a memory-mapped index (> 64 KB)
+		File inputFile = TestFileUtil.createRandomFileInDirectory(tempDir, 3000*40 + 17);
+
+		List<byte[]> chunkContents = new ArrayList<byte[]>();
+		List<byte[]> chunkChecksums = new ArrayList<byte[]>();
+
+		MultiChunker multiChunker = new IndexedMultiChunker(4096);
+		MultiChunk multiChunk = multiChunker.createMultiChunk(MultiChunkId.secureRandomMultiChunkId(), new FileOutputStream(multiChunkFile));
+		Enumeration<Chunk> chunks = new FixedChunker(40).createChunks(inputFile);
+
+		while (chunks.hasMoreElements()) {
+			Chunk chunk = chunks.nextElement();
+
+			chunkContents.add(Arrays.copyOf(chunk.getContent(), chunk.getSize()));
+			chunkChecksums.add(chunk.getChecksum());
+
+			multiChunk.write(chunk);
+			chunk.release();
+		}
+
+		multiChunk.close();
+
+		// Read randomly
+		multiChunk = multiChunker.createMultiChunk(multiChunkFile);
+		Random random = new Random();
+
+		for (int i=0; i<1000; i++) {
+			int chunkIndex = random.nextInt(chunkContents.size());
+			InputStream chunkInputStream = multiChunk.getChunkInputStream(chunkChecksums.get(chunkIndex));
+
+			assertArrayEquals(chunkContents.get(chunkIndex), readFully(chunkInputStream));
+		}
+
+		assertNull(multiChunk.getChunkInputStream(new byte[20]));
+
+		// Read sequentially from file
+		assertSequentialRead(chunkContents, chunkChecksums, multiChunk);
+
+		// Read sequentially from stream
+		multiChunk = multiChunker.createMultiChunk(new FileInputStream(multiChunkFile));
+		assertSequentialRead(chunkContents, chunkChecksums, multiChunk);
+
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testIndexedEmptyAndCorruptMultiChunk() throws Exception {
+		File tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		File multiChunkFile = new File(tempDir, "multichunk");
+
+		// Empty multichunk
+		MultiChunker multiChunker = new IndexedMultiChunker(4096);
+		multiChunker.createMultiChunk(MultiChunkId.secureRandomMultiChunkId(), new FileOutputStream(multiChunkFile)).close();
+
+		MultiChunk multiChunk = multiChunker.createMultiChunk(multiChunkFile);
+
+		assertNull(multiChunk.getChunkInputStream(new byte[20]));
+		assertNull(multiChunk.read());
+
+		multiChunk.close();
+
+		// Corrupt trailer
+		RandomAccessFile randomAccessFile = new RandomAccessFile(multiChunkFile, "rw");
+		randomAccessFile.setLength(randomAccessFile.length() - 1);
+		randomAccessFile.close();
+
+		try {
+			multiChunker.createMultiChunk(multiChunkFile);
+			fail("Corrupt multichunk must not be readable.");
+		}
+		catch (IOException e) {
+			// Expected
+		}
+
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testReadAllChunkSlices() throws Exception {
+		File tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		File inputFile = TestFileUtil.createRandomFileInDirectory(tempDir, 200*40 + 17);
+
+		for (MultiChunker multiChunker : new MultiChunker[] { new ZipMultiChunker(4096), new IndexedMultiChunker(4096) }) {
+			File multiChunkFile = new File(tempDir, "multichunk-" + multiChunker);
+
+			final List<byte[]> chunkContents = new ArrayList<byte[]>();
+			final List<byte[]> chunkChecksums = new ArrayList<byte[]>();
+
+			MultiChunk multiChunk = multiChunker.createMultiChunk(MultiChunkId.secureRandomMultiChunkId(), new FileOutputStream(multiChunkFile));
+			Enumeration<Chunk> chunks = new FixedChunker(40).createChunks(inputFile);
+
+			while (chunks.hasMoreElements()) {
+				Chunk chunk = chunks.nextElement();
+
+				chunkContents.add(Arrays.copyOf(chunk.getContent(), chunk.getSize()));
+				chunkChecksums.add(chunk.getChecksum());
+
+				multiChunk.write(chunk);
+				chunk.release();
+			}
+
+			multiChunk.close();
+
+			// Read all slices from file and from stream, alternating between the bulk operations
+			for (MultiChunk readMultiChunk : new MultiChunk[] { multiChunker.createMultiChunk(multiChunkFile),
+					multiChunker.createMultiChunk(new FileInputStream(multiChunkFile)) }) {
+
+				final List<Integer> chunkIndexes = new ArrayList<Integer>();
+
+				readMultiChunk.readAll(new ChunkSink() {
+					@Override
+					public boolean onChunk(ChunkSlice chunkSlice) throws IOException {
+						int chunkIndex = chunkIndexes.size();
+						chunkIndexes.add(chunkIndex);
+
+						assertArrayEquals(chunkChecksums.get(chunkIndex), chunkSlice.getChecksum());
+
+						switch (chunkIndex % 4) {
+						case 0:
+							byte[] buffer = new byte[100];
+							int read = chunkSlice.readFully(buffer, 10);
+
+							assertArrayEquals(chunkContents.get(chunkIndex), Arrays.copyOfRange(buffer, 10, 10 + read));
+							break;
+
+						case 1:
+							ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+							chunkSlice.transferTo(Channels.newChannel(outputStream));
+
+							assertArrayEquals(chunkContents.get(chunkIndex), outputStream.toByteArray());
+							break;
+
+						case 2:
+							assertArrayEquals(chunkContents.get(chunkIndex), chunkSlice.toByteArray());
+							break;
+
+						default:
+							chunkSlice.read(); // Partially read, remainder is skipped
+						}
+
+						return true;
+					}
+				});
+
+				assertEquals(chunkContents.size(), chunkIndexes.size());
+				readMultiChunk.close();
+			}
+
+			// Stop early
+			MultiChunk readMultiChunk = multiChunker.createMultiChunk(new FileInputStream(multiChunkFile));
+			final List<byte[]> readChecksums = new ArrayList<byte[]>();
+
+			readMultiChunk.readAll(new ChunkSink() {
+				@Override
+				public boolean onChunk(ChunkSlice chunkSlice) throws IOException {
+					readChecksums.add(chunkSlice.getChecksum());
+					return readChecksums.size() < 3;
+				}
+			});
+
+			assertEquals(3, readChecksums.size());
+			assertArrayEquals(chunkChecksums.get(2), readChecksums.get(2));
+
+			readMultiChunk.close();
+		}
+
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	private void assertSequentialRead(List<byte[]> chunkContents, List<byte[]> chunkChecksums, MultiChunk multiChunk) throws IOException {
+		for (int i=0; i<chunkContents.size(); i++) {
+			Chunk chunk = multiChunk.read();
+
+			assertArrayEquals(chunkChecksums.get(i), chunk.getChecksum());
+			assertArrayEquals(chunkContents.get(i), chunk.getContent());
+		}
+
+		assertNull(multiChunk.read());
+		multiChunk.close();
+	}
+
+	private byte[] readFully(InputStream inputStream) throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		byte[] buffer = new byte[64];
+		int read;
+
+		while (-1 != (read = inputStream.read(buffer))) {
+			outputStream.write(buffer, 0, read);
+		}
+
+		inputStream.close();
+		return outputStream.toByteArray();
+	}
+
 	public void chunkFileIntoMultiChunks(Chunker chunker, MultiChunker multiChunker, int minMultiChunkSize) throws Exception {
 		File tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
 		
@@ -0,0 +1,140 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.chunk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.chunk.Chunk;
+import org.syncany.chunk.Chunker;
+import org.syncany.chunk.Chunker.ChunkEnumeration;
+import org.syncany.chunk.FastCdcChunker;
+import org.syncany.chunk.FixedChunker;
+import org.syncany.chunk.ParallelChunker;
+import org.syncany.chunk.TttdChunker;
+import org.syncany.tests.util.TestFileUtil;
+import org.syncany.util.StringUtil;
+
+public class ParallelChunkerTest {
+	private static final Logger logger = Logger.getLogger(ParallelChunkerTest.class.getSimpleName());
+	private File tempDir;
+
+	@Before
+	public void setUp() throws Exception {
+		tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+	
+	@Test
+	public void testParallelChunksEqualSequentialChunks() throws Exception {
+		// Test Constants
+		final int SEGMENT_SIZE = 512*1024;
+		final int[] FILE_SIZES = new int[] { 1, SEGMENT_SIZE - 1, SEGMENT_SIZE, SEGMENT_SIZE + 1, 10*SEGMENT_SIZE, 5*1024*1024 + 4711 };
+		
+		Chunker[] chunkers = new Chunker[] {
+			new FastCdcChunker(8*1024),
+			new FastCdcChunker(32*1024),
+			new FixedChunker(32*1024)
+		};
+		
+		// Run & test
+		for (Chunker chunker : chunkers) {
+			ParallelChunker parallelChunker = new ParallelChunker(chunker, 0, SEGMENT_SIZE, 4);
+			
+			for (int fileSize : FILE_SIZES) {
+				File inputFile = TestFileUtil.createRandomFileInDirectory(tempDir, fileSize);
+				
+				List<String> sequentialChunks = getChunks(chunker, inputFile);
+				List<String> parallelChunks = getChunks(parallelChunker, inputFile);
+				
+				assertEquals("Chunks of " + chunker + " differ for file size " + fileSize, sequentialChunks, parallelChunks);
+			}
+		}
+	}
+	
+	@Test
+	public void testEmptyFile() throws Exception {
+		File emptyFile = TestFileUtil.createRandomFileInDirectory(tempDir, 0);
+		ChunkEnumeration chunkEnumeration = new ParallelChunker(new FastCdcChunker(), 0, 1024*1024, 2).createChunks(emptyFile);
+		
+		assertFalse("Empty file should not have any chunks.", chunkEnumeration.hasMoreElements());
+		assertNull("No chunk expected, but data received.", chunkEnumeration.nextElement());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testTttdChunkerCannotBeParallelized() {
+		new ParallelChunker(new TttdChunker(8*1024), 0);
+	}
+	
+	@Test
+	public void testParallelChunkingThroughput() throws Exception {
+		// Setup
+		final int TOTAL_FILE_SIZE = 32*1024*1024;
+		
+		File inputFile = TestFileUtil.createRandomFileInDirectory(tempDir, TOTAL_FILE_SIZE);
+		Chunker chunker = new FastCdcChunker(8*1024);
+		Chunker parallelChunker = new ParallelChunker(chunker, 0, 2*1024*1024, Runtime.getRuntime().availableProcessors());
+		
+		// Run (twice, to warm up the JIT)
+		long sequentialDuration = 0;
+		long parallelDuration = 0;
+		
+		for (int i = 0; i < 2; i++) {
+			long sequentialStart = System.nanoTime();
+			getChunks(chunker, inputFile);
+			sequentialDuration = System.nanoTime() - sequentialStart;
+			
+			long parallelStart = System.nanoTime();
+			getChunks(parallelChunker, inputFile);
+			parallelDuration = System.nanoTime() - parallelStart;
+		}
+		
+		logger.log(Level.INFO, String.format("Chunking throughput with %d processors: sequential %.1f MB/s, parallel %.1f MB/s", 
+				Runtime.getRuntime().availableProcessors(), TOTAL_FILE_SIZE / 1024.0 / 1024.0 / (sequentialDuration / 1000000000.0),
+				TOTAL_FILE_SIZE / 1024.0 / 1024.0 / (parallelDuration / 1000000000.0)));
+	}
+	
+	private List<String> getChunks(Chunker chunker, File file) throws Exception {
+		List<String> chunks = new ArrayList<String>();
+		ChunkEnumeration chunkEnumeration = chunker.createChunks(file);
+		
+		while (chunkEnumeration.hasMoreElements()) {
+			Chunk chunk = chunkEnumeration.nextElement();
+			String fileChecksumStr = (chunk.getFileChecksum() != null) ? StringUtil.toHex(chunk.getFileChecksum()) : "";
+			
+			chunks.add(StringUtil.toHex(chunk.getChecksum()) + "/" + chunk.getSize() + "/" + fileChecksumStr);
+		}
+		
+		chunkEnumeration.close();
+		return chunks;
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.chunk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+import org.syncany.chunk.GzipTransformer;
+import org.syncany.chunk.ParallelGzipOutputStream;
+import org.syncany.chunk.Transformer;
+import org.syncany.tests.util.TestFileUtil;
+
+public class ParallelGzipOutputStreamTest {
+	private static final int BLOCK_SIZE = 32 * 1024;
+
+	@Test
+	public void testStandardGzipDecodable() throws Exception {
+		Random random = new Random(4711);
+
+		for (int size : new int[] { 0, 1, BLOCK_SIZE - 1, BLOCK_SIZE, BLOCK_SIZE + 1, 5 * BLOCK_SIZE + 123 }) {
+			for (int threads : new int[] { 1, 2, 4 }) {
+				byte[] data = (random.nextBoolean()) ? createTextArray(size) : TestFileUtil.createArray(size, random);
+
+				ByteArrayOutputStream compressedOutputStream = new ByteArrayOutputStream();
+				OutputStream outputStream = new ParallelGzipOutputStream(compressedOutputStream, Deflater.DEFAULT_COMPRESSION, BLOCK_SIZE, threads);
+
+				// Write in odd-sized pieces, crossing block boundaries
+				for (int offset = 0; offset < size; offset += 1000) {
+					outputStream.write(data, offset, Math.min(1000, size - offset));
+				}
+
+				outputStream.close();
+
+				assertArrayEquals("Size " + size + ", threads " + threads, data, gunzip(compressedOutputStream.toByteArray()));
+			}
+		}
+	}
+
+	@Test
+	public void testCompressionRatioSimilarToSerialGzip() throws Exception {
+		byte[] data = createTextArray(20 * BLOCK_SIZE);
+
+		ByteArrayOutputStream serialOutputStream = new ByteArrayOutputStream();
+		GZIPOutputStream serialGzipOutputStream = new GZIPOutputStream(serialOutputStream);
+		serialGzipOutputStream.write(data);
+		serialGzipOutputStream.close();
+
+		ByteArrayOutputStream parallelOutputStream = new ByteArrayOutputStream();
+		ParallelGzipOutputStream parallelGzipOutputStream = new ParallelGzipOutputStream(parallelOutputStream, Deflater.DEFAULT_COMPRESSION, BLOCK_SIZE, 4);
+		parallelGzipOutputStream.write(data);
+		parallelGzipOutputStream.close();
+
+		// Preset dictionaries retain the ratio; only the sync flush markers add a few bytes per block
+		assertTrue(parallelOutputStream.size() < serialOutputStream.size() * 1.05);
+		assertArrayEquals(data, gunzip(parallelOutputStream.toByteArray()));
+	}
+
+	@Test
+	public void testGzipTransformerSerialAndParallel() throws Exception {
+		byte[] data = createTextArray(3 * ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE + 17);
+
+		for (Transformer transformer : new Transformer[] { new GzipTransformer(Deflater.BEST_SPEED, 1, null), new GzipTransformer(Deflater.BEST_SPEED, 4, null) }) {
+			ByteArrayOutputStream transformedOutputStream = new ByteArrayOutputStream();
+
+			OutputStream outputStream = transformer.createOutputStream(transformedOutputStream);
+			outputStream.write(data);
+			outputStream.close();
+
+			InputStream inputStream = transformer.createInputStream(new ByteArrayInputStream(transformedOutputStream.toByteArray()));
+			assertArrayEquals(data, readFully(inputStream));
+		}
+	}
+
+	private byte[] gunzip(byte[] compressedData) throws IOException {
+		return readFully(new GZIPInputStream(new ByteArrayInputStream(compressedData)));
+	}
+
+	private byte[] readFully(InputStream inputStream) throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+
+		while (-1 != (read = inputStream.read(buffer))) {
+			outputStream.write(buffer, 0, read);
+		}
+
+		inputStream.close();
+		return outputStream.toByteArray();
+	}
+
+	private byte[] createTextArray(int size) {
+		String[] words = new String[] { "syncany", "chunk", "multichunk", "repository", "file", "version", "database", "sync" };
+		Random random = new Random(size);
+		StringBuilder textBuilder = new StringBuilder();
+
+		while (textBuilder.length() < size) {
+			textBuilder.append(words[random.nextInt(words.length)]).append(' ');
+		}
+
+		return Arrays.copyOf(textBuilder.toString().getBytes(), size);
+	}
+}
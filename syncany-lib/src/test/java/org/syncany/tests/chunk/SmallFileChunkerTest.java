@@ -0,0 +1,155 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.chunk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.chunk.Chunk;
+import org.syncany.chunk.ChunkBufferPool;
+import org.syncany.chunk.Chunker.ChunkEnumeration;
+import org.syncany.chunk.Chunker.SingleChunkEnumeration;
+import org.syncany.chunk.FastCdcChunker;
+import org.syncany.chunk.FixedChunker;
+import org.syncany.chunk.TttdChunker;
+import org.syncany.tests.util.TestFileUtil;
+import org.syncany.util.StringUtil;
+
+public class SmallFileChunkerTest {
+	private File tempDir;
+
+	@Before
+	public void setUp() throws Exception {
+		tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestFileUtil.deleteDirectory(tempDir);
+	}
+
+	@Test
+	public void testFixedChunkerSmallFileEqualsRegularEnumeration() throws Exception {
+		FixedChunker chunker = new FixedChunker(1024);
+
+		for (int fileSize : new int[] { 1, 13, 1023, 1024 }) {
+			File file = TestFileUtil.createRandomFileInDirectory(tempDir, fileSize);
+			ChunkEnumeration chunkEnumeration = chunker.createChunks(file);
+
+			assertTrue("Fast path expected for size " + fileSize, chunkEnumeration instanceof SingleChunkEnumeration);
+			assertEquals(toStrings(chunker.new FixedChunkEnumeration(new FileInputStream(file))), toStrings(chunkEnumeration));
+		}
+
+		File largerFile = TestFileUtil.createRandomFileInDirectory(tempDir, 1025);
+		assertRegularEnumeration(chunker.createChunks(largerFile));
+	}
+
+	@Test
+	public void testTttdChunkerSmallFileEqualsRegularEnumeration() throws Exception {
+		TttdChunker chunker = new TttdChunker(16*1024);
+		int Tmin = (int) Math.round(460.0*16*1024/1015.0);
+
+		for (int fileSize : new int[] { 1, 100, Tmin-1, Tmin }) {
+			File file = TestFileUtil.createRandomFileInDirectory(tempDir, fileSize);
+			ChunkEnumeration chunkEnumeration = chunker.createChunks(file);
+
+			assertTrue("Fast path expected for size " + fileSize, chunkEnumeration instanceof SingleChunkEnumeration);
+			assertEquals(toStrings(chunker.new TTTDEnumeration(new FileInputStream(file))), toStrings(chunkEnumeration));
+		}
+
+		File largerFile = TestFileUtil.createRandomFileInDirectory(tempDir, Tmin+1);
+		assertRegularEnumeration(chunker.createChunks(largerFile));
+	}
+
+	@Test
+	public void testFastCdcChunkerSmallFileEqualsRegularEnumeration() throws Exception {
+		FastCdcChunker chunker = new FastCdcChunker(8*1024);
+
+		for (int fileSize : new int[] { 1, 100, 2047, 2048 }) {
+			File file = TestFileUtil.createRandomFileInDirectory(tempDir, fileSize);
+			ChunkEnumeration chunkEnumeration = chunker.createChunks(file);
+
+			assertTrue("Fast path expected for size " + fileSize, chunkEnumeration instanceof SingleChunkEnumeration);
+			assertEquals(toStrings(chunker.new FastCdcEnumeration(new FileInputStream(file))), toStrings(chunkEnumeration));
+		}
+
+		File largerFile = TestFileUtil.createRandomFileInDirectory(tempDir, 2049);
+		assertRegularEnumeration(chunker.createChunks(largerFile));
+	}
+
+	@Test
+	public void testEmptyFileUsesRegularEnumeration() throws Exception {
+		File emptyFile = TestFileUtil.createRandomFileInDirectory(tempDir, 0);
+
+		assertRegularEnumeration(new FixedChunker(1024).createChunks(emptyFile));
+		assertRegularEnumeration(new TttdChunker(16*1024).createChunks(emptyFile));
+		assertRegularEnumeration(new FastCdcChunker(8*1024).createChunks(emptyFile));
+	}
+
+	@Test
+	public void testSmallFileChunkBufferReturnedToPool() throws Exception {
+		ChunkBufferPool pool = new ChunkBufferPool(ChunkBufferPool.DEFAULT_MAX_POOLED_BYTES);
+
+		FastCdcChunker chunker = new FastCdcChunker(8*1024);
+		chunker.setBufferPool(pool);
+
+		File file = TestFileUtil.createRandomFileInDirectory(tempDir, 1000);
+
+		// Chunk emitted and released by consumer
+		ChunkEnumeration chunkEnumeration = chunker.createChunks(file);
+		chunkEnumeration.nextElement().release();
+		chunkEnumeration.close();
+
+		// Chunk never emitted, released by close()
+		chunker.createChunks(file).close();
+
+		assertEquals(2, pool.getAcquireCount());
+		assertEquals(1, pool.getAllocationCount());
+		assertEquals(pool.getAllocatedBytes(), pool.getPooledBytes());
+	}
+
+	private void assertRegularEnumeration(ChunkEnumeration chunkEnumeration) {
+		assertFalse(chunkEnumeration instanceof SingleChunkEnumeration);
+		chunkEnumeration.close();
+	}
+
+	private List<String> toStrings(ChunkEnumeration chunkEnumeration) {
+		List<String> chunkStrings = new ArrayList<String>();
+
+		while (chunkEnumeration.hasMoreElements()) {
+			Chunk chunk = chunkEnumeration.nextElement();
+
+			chunkStrings.add(StringUtil.toHex(chunk.getChecksum()) + " " + chunk.getSize() + " "
+					+ StringUtil.toHex(chunk.getFileChecksum()) + " " + StringUtil.toHex(chunk.getContent()).substring(0, 2 * chunk.getSize()));
+
+			chunk.release();
+		}
+
+		chunkEnumeration.close();
+		return chunkStrings;
+	}
+}
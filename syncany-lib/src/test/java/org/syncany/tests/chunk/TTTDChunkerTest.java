@@ -25,9 +25,16 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.junit.After;
 import org.junit.Before;
@@ -35,11 +42,14 @@ import org.junit.Ignore;
 import org.junit.Test;
 import org.syncany.chunk.Chunk;
 import org.syncany.chunk.Chunker;
+import org.syncany.chunk.Chunker.ChunkEnumeration;
+import org.syncany.chunk.Fingerprinter;
 import org.syncany.chunk.TttdChunker;
 import org.syncany.tests.util.TestFileUtil;
 import org.syncany.util.FileUtil;
 
 public class TTTDChunkerTest {
+	private static final Logger logger = Logger.getLogger(TTTDChunkerTest.class.getSimpleName());
 	private File tempDir;
 
 	@Before
@@ -127,4 +137,214 @@ public class TTTDChunkerTest {
 		assertNull("No chunk expected, but data received.", chunkEnumeration.nextElement());
 		assertFalse("hasElements() should return 'false' if no chunk available.", chunkEnumeration.hasMoreElements());
 	}
+	
+	@Test
+	public void testChunksIdenticalToByteByByteImplementation() throws Exception {
+		// Test Constants
+		final int AVG_CHUNK_SIZE = 8*1024;
+		final int[] FILE_SIZES = new int[] { 0, 1, 3713, 3714, 3715, 22599, 22600, 64*1024, 64*1024+1, 2*1024*1024 + 17 };
+		
+		TttdChunker chunker = new TttdChunker(AVG_CHUNK_SIZE);
+		
+		for (int fileSize : FILE_SIZES) {
+			// Random data (content-based breakpoints) and non-random data (Tmax breakpoints)
+			File randomFile = TestFileUtil.getRandomFilenameInDirectory(tempDir);
+			File nonRandomFile = TestFileUtil.getRandomFilenameInDirectory(tempDir);
+
+			TestFileUtil.createRandomFile(randomFile, fileSize);
+			TestFileUtil.createNonRandomFile(nonRandomFile, fileSize);
+			
+			assertChunksEqual(byteByByteChunks(AVG_CHUNK_SIZE, randomFile), chunks(chunker, randomFile));
+			assertChunksEqual(byteByByteChunks(AVG_CHUNK_SIZE, nonRandomFile), chunks(chunker, nonRandomFile));
+		}
+	}
+	
+	@Test
+	public void testChunkingThroughputComparedToByteByByteImplementation() throws Exception {
+		// Test Constants
+		final int TOTAL_FILE_SIZE = 2*1024*1024;
+		final int AVG_CHUNK_SIZE = 16*1024;
+		
+		// Setup				
+		File inputFile = TestFileUtil.createRandomFileInDirectory(tempDir, TOTAL_FILE_SIZE);
+		TttdChunker chunker = new TttdChunker(AVG_CHUNK_SIZE);
+		
+		// Run (twice, to warm up the JIT)
+		long byteByByteDuration = 0;
+		long blockBufferedDuration = 0;
+
+		for (int i = 0; i < 2; i++) {
+			long byteByByteStart = System.nanoTime();
+			byteByByteChunks(AVG_CHUNK_SIZE, inputFile);
+			byteByByteDuration = System.nanoTime() - byteByByteStart;
+			
+			long blockBufferedStart = System.nanoTime();
+			chunks(chunker, inputFile);
+			blockBufferedDuration = System.nanoTime() - blockBufferedStart;
+		}
+		
+		double byteByByteThroughput = TOTAL_FILE_SIZE / 1024.0 / 1024.0 / (byteByByteDuration / 1000000000.0);
+		double blockBufferedThroughput = TOTAL_FILE_SIZE / 1024.0 / 1024.0 / (blockBufferedDuration / 1000000000.0);
+		
+		// Only logged, not asserted: wall-clock comparisons are unreliable on loaded machines
+		logger.log(Level.INFO, String.format("TTTD chunking throughput: byte-by-byte %.1f MB/s, block-buffered %.1f MB/s", byteByByteThroughput, blockBufferedThroughput));
+	}
+	
+	private void assertChunksEqual(List<ChunkInfo> expectedChunks, List<ChunkInfo> actualChunks) {
+		assertEquals("Number of chunks differs.", expectedChunks.size(), actualChunks.size());
+		
+		for (int i = 0; i < expectedChunks.size(); i++) {
+			ChunkInfo expectedChunk = expectedChunks.get(i);
+			ChunkInfo actualChunk = actualChunks.get(i);
+			
+			assertEquals("Chunk size differs for chunk " + i, expectedChunk.size, actualChunk.size);
+			assertArrayEquals("Chunk checksum differs for chunk " + i, expectedChunk.checksum, actualChunk.checksum);
+			assertArrayEquals("Chunk content checksum differs for chunk " + i, expectedChunk.contentChecksum, actualChunk.contentChecksum);
+			assertArrayEquals("File checksum differs for chunk " + i, expectedChunk.fileChecksum, actualChunk.fileChecksum);
+		}
+	}
+	
+	private List<ChunkInfo> chunks(Chunker chunker, File file) throws Exception {
+		List<ChunkInfo> chunks = new ArrayList<ChunkInfo>();
+		ChunkEnumeration chunkEnumeration = chunker.createChunks(file);
+		
+		while (chunkEnumeration.hasMoreElements()) {
+			Chunk chunk = chunkEnumeration.nextElement();
+			chunks.add(new ChunkInfo(chunk.getChecksum(), chunk.getContent(), chunk.getSize(), chunk.getFileChecksum()));
+		}
+		
+		chunkEnumeration.close();
+		return chunks;
+	}
+	
+	/**
+	 * Reference implementation of the TTTD enumeration as it was before the block-buffered 
+	 * rewrite: reads the file byte by byte and allocates a new chunk buffer for every chunk.
+	 */
+	private List<ChunkInfo> byteByByteChunks(int avgChunkSize, File file) throws Exception {
+		int Tmin = (int) Math.round(460.0*avgChunkSize/1015.0); 
+		int Tmax = (int) Math.round(2800.0*avgChunkSize/1015.0);
+		int D = (int) Math.round(540.0*avgChunkSize/1015.0);
+		int Ddash = (int) Math.round(270.0*avgChunkSize/1015.0);
+		int windowSize = TttdChunker.DEFAULT_WINDOW_SIZE;
+		
+		List<ChunkInfo> chunks = new ArrayList<ChunkInfo>();
+		
+		InputStream in = new FileInputStream(file);
+		Fingerprinter fingerprinter = Fingerprinter.getInstance(TttdChunker.DEFAULT_FINGERPRINT_ALG);
+		MessageDigest chunkDigest = MessageDigest.getInstance(TttdChunker.DEFAULT_DIGEST_ALG);
+		MessageDigest fileDigest = MessageDigest.getInstance(TttdChunker.DEFAULT_DIGEST_ALG);
+		
+		byte[] c = new byte[8192];
+		int clen = -1;
+		int cpos = -1;
+		boolean closed = false;
+		
+		while (!closed) {
+			chunkDigest.reset();
+			fingerprinter.reset();
+
+			int backupBreak = 0;
+			int breakpoint = -1;
+
+			byte[] buf = new byte[Tmax];
+			int bufpos = -1;
+
+			while (bufpos < buf.length - 1) {
+				if (cpos == -1 || cpos == clen - 1) {
+					cpos = -1;
+					clen = readByteByByte(c, in);
+
+					if (clen == -1) {
+						break;
+					}
+
+					fileDigest.update(c, 0, clen);
+				}
+
+				bufpos++;
+				cpos++;
+				buf[bufpos] = c[cpos];
+
+				if (bufpos < Tmin) {
+					continue;
+				}
+				else if (bufpos == Tmin) {
+					fingerprinter.check(buf, bufpos - windowSize, windowSize);
+				}
+				else {
+					fingerprinter.roll(buf[bufpos]);
+				}
+
+				int hash = fingerprinter.getValue();
+
+				if ((hash % Ddash) == Ddash - 1) {
+					backupBreak = bufpos;
+				}
+
+				if ((hash % D) == D - 1) {
+					breakpoint = bufpos;
+					break;
+				}
+
+				if (bufpos < Tmax) {
+					continue;
+				}
+
+				breakpoint = (backupBreak != 0) ? backupBreak : bufpos;
+				break;
+			}
+
+			if (clen == -1) {
+				in.close();
+				closed = true;
+			}
+
+			if (breakpoint == -1) {
+				breakpoint = bufpos;
+			}
+
+			breakpoint++;
+			chunkDigest.update(buf, 0, breakpoint);
+
+			byte[] fileChecksum = (clen == -1) ? fileDigest.digest() : null;
+			chunks.add(new ChunkInfo(chunkDigest.digest(), buf, breakpoint, fileChecksum));
+		}
+		
+		return chunks;
+	}
+	
+	private int readByteByByte(byte[] readToBuffer, InputStream inputStream) throws IOException {
+		int bytesRead = 0;
+
+		while (bytesRead < readToBuffer.length) {
+			int byteRead = inputStream.read();
+
+			if (byteRead == -1) {
+				return (bytesRead != 0) ? bytesRead : -1;
+			}
+
+			readToBuffer[bytesRead] = (byte) byteRead;
+			bytesRead++;
+		}
+
+		return (bytesRead != 0) ? bytesRead : -1;
+	}
+	
+	private static class ChunkInfo {
+		private byte[] checksum;
+		private byte[] contentChecksum;
+		private int size;
+		private byte[] fileChecksum;
+		
+		public ChunkInfo(byte[] checksum, byte[] content, int size, byte[] fileChecksum) throws Exception {
+			MessageDigest contentDigest = MessageDigest.getInstance(TttdChunker.DEFAULT_DIGEST_ALG);
+			contentDigest.update(content, 0, size);
+			
+			this.checksum = checksum;
+			this.contentChecksum = contentDigest.digest();
+			this.size = size;
+			this.fileChecksum = fileChecksum;
+		}
+	}
 }
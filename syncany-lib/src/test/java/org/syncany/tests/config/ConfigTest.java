@@ -29,10 +29,13 @@ import javax.crypto.spec.SecretKeySpec;
 
 import org.junit.Ignore;
 import org.junit.Test;
+import org.syncany.chunk.Chunker;
+import org.syncany.chunk.FastCdcChunker;
 import org.syncany.config.Config;
 import org.syncany.config.ConfigException;
 import org.syncany.config.to.ConfigTO;
 import org.syncany.config.to.RepoTO;
+import org.syncany.config.to.RepoTO.ChunkerTO;
 import org.syncany.config.to.RepoTO.TransformerTO;
 import org.syncany.crypto.SaltedSecretKey;
 import org.syncany.tests.util.TestAssertUtil;
@@ -157,7 +160,7 @@ public class ConfigTest {
 		// Run!
 		try {
 			new Config(localDir, configTO, repoTO);
-			fail("Config should not been have initialized.");
+			fail("Config should not have been initialized.");
 		}
 		catch (ConfigException e) {	
 			TestAssertUtil.assertErrorStackTraceContains("No multichunker", e);			
@@ -184,7 +187,7 @@ public class ConfigTest {
 		// Run!
 		try {
 			new Config(localDir, configTO, repoTO);
-			fail("Config should not been have initialized.");
+			fail("Config should not have been initialized.");
 		}
 		catch (ConfigException e) {	
 			TestAssertUtil.assertErrorStackTraceContains("No multichunker", e);			
@@ -224,6 +227,138 @@ public class ConfigTest {
 		}		
 	}
 	
+	@Test
+	public void testConfigFastCdcChunker() throws Exception {
+		// Setup
+		File localDir = new File("/some/folder"); 
+		ConfigTO configTO = new ConfigTO();
+		RepoTO repoTO = new RepoTO();
+		
+		configTO.setMachineName("somevalidmachinename"); // <<< valid
+		
+		ChunkerTO fastCdcChunkerTO = new ChunkerTO();
+		fastCdcChunkerTO.setType(FastCdcChunker.TYPE);
+		fastCdcChunkerTO.setSettings(new HashMap<String, String>());
+		fastCdcChunkerTO.getSettings().put(Chunker.PROPERTY_SIZE, "16384");
+		
+		repoTO.setChunkerTO(fastCdcChunkerTO); // <<< valid
+		repoTO.setMultiChunker(TestConfigUtil.createZipMultiChunkerTO()); // <<< valid
+		repoTO.setRepoId(new byte[] { 0x01, 0x02 }); // <<< valid
+		repoTO.setTransformers(null); // <<< valid		
+		
+		// Run!
+		Config config = new Config(localDir, configTO, repoTO);
+		
+		// Test
+		assertNotNull(config.getChunker());
+		assertEquals("FastCdcChunker", config.getChunker().getClass().getSimpleName());
+		assertEquals("FastCDC-4096-16384-131072-SHA1", config.getChunker().toString());
+	}
+	
+	@Test
+	public void testConfigChunkerDigest() throws Exception {
+		// Setup
+		File localDir = new File("/some/folder"); 
+		ConfigTO configTO = new ConfigTO();
+		RepoTO repoTO = new RepoTO();
+		
+		configTO.setMachineName("somevalidmachinename"); // <<< valid
+		
+		ChunkerTO fixedChunkerTO = TestConfigUtil.createFixedChunkerTO();
+		fixedChunkerTO.getSettings().put(Chunker.PROPERTY_DIGEST, "BLAKE2B-160");
+		
+		repoTO.setChunkerTO(fixedChunkerTO); // <<< valid
+		repoTO.setMultiChunker(TestConfigUtil.createZipMultiChunkerTO()); // <<< valid
+		repoTO.setRepoId(new byte[] { 0x01, 0x02 }); // <<< valid
+		repoTO.setTransformers(null); // <<< valid		
+		
+		// Run!
+		Config config = new Config(localDir, configTO, repoTO);
+		
+		// Test
+		assertNotNull(config.getChunker());
+		assertEquals("BLAKE2B-160", config.getChunker().getChecksumAlgorithm());
+		assertEquals("Fixed-524288-BLAKE2B-160", config.getChunker().toString());
+	}
+	
+	@Test
+	public void testConfigIndexedMultiChunker() throws Exception {
+		// Setup
+		File localDir = new File("/some/folder"); 
+		ConfigTO configTO = new ConfigTO();
+		RepoTO repoTO = new RepoTO();
+		
+		configTO.setMachineName("somevalidmachinename"); // <<< valid
+		
+		repoTO.setChunkerTO(TestConfigUtil.createFixedChunkerTO()); // <<< valid
+		repoTO.setMultiChunker(TestConfigUtil.createIndexedMultiChunkerTO()); // <<< valid
+		repoTO.setRepoId(new byte[] { 0x01, 0x02 }); // <<< valid
+		repoTO.setTransformers(null); // <<< valid		
+		
+		// Run!
+		Config config = new Config(localDir, configTO, repoTO);
+		
+		// Test
+		assertNotNull(config.getMultiChunker());
+		assertEquals("IndexedMultiChunker", config.getMultiChunker().getClass().getSimpleName());
+		assertEquals("Indexed-4096", config.getMultiChunker().toString());
+	}
+	
+	@Test
+	public void testConfigChunkerInvalidDigest() throws Exception {
+		// Setup
+		File localDir = new File("/some/folder"); 
+		ConfigTO configTO = new ConfigTO();
+		RepoTO repoTO = new RepoTO();
+		
+		configTO.setMachineName("somevalidmachinename"); // <<< valid
+		
+		ChunkerTO fixedChunkerTO = TestConfigUtil.createFixedChunkerTO();
+		fixedChunkerTO.getSettings().put(Chunker.PROPERTY_DIGEST, "INVALID-DIGEST"); // <<< INVALID
+		
+		repoTO.setChunkerTO(fixedChunkerTO); 
+		repoTO.setMultiChunker(TestConfigUtil.createZipMultiChunkerTO()); // <<< valid
+		repoTO.setRepoId(new byte[] { 0x01, 0x02 }); // <<< valid
+		repoTO.setTransformers(null); // <<< valid		
+		
+		// Run!
+		try {
+			new Config(localDir, configTO, repoTO);			
+			fail("Config should not have been initialized.");
+		}
+		catch (ConfigException e) {
+			TestAssertUtil.assertErrorStackTraceContains("INVALID-DIGEST", e);
+		}
+	}
+	
+	@Test
+	public void testConfigChunkerInvalidType() throws Exception {
+		// Setup
+		File localDir = new File("/some/folder"); 
+		ConfigTO configTO = new ConfigTO();
+		RepoTO repoTO = new RepoTO();
+		
+		configTO.setMachineName("somevalidmachinename"); // <<< valid
+		
+		ChunkerTO invalidChunkerTO = new ChunkerTO();
+		invalidChunkerTO.setType("invalid-typeXXX");
+		invalidChunkerTO.setSettings(new HashMap<String, String>());
+		
+		repoTO.setChunkerTO(invalidChunkerTO); // <<< INVALID !
+		repoTO.setMultiChunker(TestConfigUtil.createZipMultiChunkerTO()); // <<< valid
+		repoTO.setRepoId(new byte[] { 0x01, 0x02 }); // <<< valid
+		repoTO.setTransformers(null); // <<< valid		
+		
+		// Run!
+		try {
+			new Config(localDir, configTO, repoTO);
+			fail("Chunker should NOT have been found.");
+		}
+		catch (ConfigException e) {	
+			TestAssertUtil.assertErrorStackTraceContains("invalid-typeXXX", e);			
+		}		
+	}
+	
 	@Test
 	@SuppressWarnings("serial")
 	public void testConfigCipherTransformersCipherFound() throws Exception {		
@@ -19,6 +19,19 @@ package org.syncany.tests.crypto;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.crypto.spec.SecretKeySpec;
 
@@ -28,6 +41,7 @@ import org.syncany.crypto.CipherSession;
 import org.syncany.crypto.CipherSpec;
 import org.syncany.crypto.CipherSpecs;
 import org.syncany.crypto.CipherUtil;
+import org.syncany.crypto.MultiCipherOutputStream;
 import org.syncany.crypto.SaltedSecretKey;
 import org.syncany.util.StringUtil;
 
@@ -61,6 +75,29 @@ public class CipherSessionTest {
 		assertNotSame(writeSecretKey1Aes128, writeSecretKey1Twofish128);
 	}	
 	
+	@Test
+	public void testCipherSessionWriteKeysPreparedInBackground() throws Exception {
+		SaltedSecretKey masterKey = createDummyMasterKey();		
+		CipherSession cipherSession = new CipherSession(masterKey, 999, 1);
+		
+		CipherSpec cipherSpecAes128 = CipherSpecs.getCipherSpec(CipherSpecs.AES_128_GCM);
+		CipherSpec cipherSpecHmac = MultiCipherOutputStream.HMAC_SPEC;
+		
+		Set<String> writeKeySalts = new HashSet<String>();
+		
+		for (int i = 0; i < 50; i++) {
+			SaltedSecretKey writeSecretKeyAes128 = cipherSession.getWriteSecretKey(cipherSpecAes128);
+			SaltedSecretKey writeSecretKeyHmac = cipherSession.getWriteSecretKey(cipherSpecHmac);
+			
+			// Keys prepared in the background must be derived exactly like synchronously created keys
+			assertEquals(CipherUtil.createDerivedKey(masterKey, writeSecretKeyAes128.getSalt(), cipherSpecAes128), writeSecretKeyAes128);
+			assertEquals(CipherUtil.createDerivedKey(masterKey, writeSecretKeyHmac.getSalt(), cipherSpecHmac), writeSecretKeyHmac);
+			
+			assertTrue(writeKeySalts.add(StringUtil.toHex(writeSecretKeyAes128.getSalt())));
+			assertTrue(writeKeySalts.add(StringUtil.toHex(writeSecretKeyHmac.getSalt())));
+		}
+	}	
+	
 	@Test
 	public void testCipherSessionReadKeyCacheSizeOfThree() throws Exception {
 		SaltedSecretKey masterKey = createDummyMasterKey();		
@@ -80,7 +117,147 @@ public class CipherSessionTest {
 		assertNotSame(readSecretKey1Aes128, readSecretKey3Aes128);
 		assertNotSame(readSecretKey2Aes128, readSecretKey3Aes128);
 		
-		// TODO [medium] This does NOT TEST the actual read cache. How to test this. The cache is completely hidden/private?!
+		// Key 1 was evicted (least recently used), keys 2 and 3 are cached
+		assertSame(readSecretKey3Aes128, cipherSession.getReadSecretKey(cipherSpecAes128, readKeySalt3));
+		assertSame(readSecretKey2Aes128, cipherSession.getReadSecretKey(cipherSpecAes128, readKeySalt2));
+		assertNotSame(readSecretKey1Aes128, cipherSession.getReadSecretKey(cipherSpecAes128, readKeySalt1));
+	}	
+	
+	@Test
+	public void testCipherSessionReadKeyCacheEvictsLeastRecentlyUsed() throws Exception {
+		SaltedSecretKey masterKey = createDummyMasterKey();		
+		CipherSession cipherSession = new CipherSession(masterKey, 2, 999);
+		
+		CipherSpec cipherSpecAes128 = CipherSpecs.getCipherSpec(CipherSpecs.AES_128_GCM);
+		
+		byte[] readKeySalt1 = CipherUtil.createRandomArray(cipherSpecAes128.getKeySize());
+		byte[] readKeySalt2 = CipherUtil.createRandomArray(cipherSpecAes128.getKeySize());
+		byte[] readKeySalt3 = CipherUtil.createRandomArray(cipherSpecAes128.getKeySize());				
+		
+		SaltedSecretKey readSecretKey1Aes128 = cipherSession.getReadSecretKey(cipherSpecAes128, readKeySalt1);
+		SaltedSecretKey readSecretKey2Aes128 = cipherSession.getReadSecretKey(cipherSpecAes128, readKeySalt2);
+		
+		// Access key 1 again, so that key 2 is the least recently used key
+		assertSame(readSecretKey1Aes128, cipherSession.getReadSecretKey(cipherSpecAes128, readKeySalt1));
+		
+		cipherSession.getReadSecretKey(cipherSpecAes128, readKeySalt3);
+		
+		assertSame(readSecretKey1Aes128, cipherSession.getReadSecretKey(cipherSpecAes128, readKeySalt1));
+		assertNotSame(readSecretKey2Aes128, cipherSession.getReadSecretKey(cipherSpecAes128, readKeySalt2));
+		assertEquals(readSecretKey2Aes128, cipherSession.getReadSecretKey(cipherSpecAes128, readKeySalt2));
+	}	
+	
+	@Test
+	public void testCipherSessionWriteKeyReuseCountConcurrent() throws Exception {
+		SaltedSecretKey masterKey = createDummyMasterKey();		
+		final CipherSession cipherSession = new CipherSession(masterKey, 20, 5);		
+		final CipherSpec cipherSpecAes128 = CipherSpecs.getCipherSpec(CipherSpecs.AES_128_GCM);
+		
+		ExecutorService executor = Executors.newFixedThreadPool(16);
+		List<Future<List<SaltedSecretKey>>> writeSecretKeyFutures = new ArrayList<Future<List<SaltedSecretKey>>>();
+		
+		for (int i = 0; i < 16; i++) {
+			writeSecretKeyFutures.add(executor.submit(new Callable<List<SaltedSecretKey>>() {
+				@Override
+				public List<SaltedSecretKey> call() throws Exception {
+					List<SaltedSecretKey> writeSecretKeys = new ArrayList<SaltedSecretKey>();
+					
+					for (int j = 0; j < 100; j++) {
+						writeSecretKeys.add(cipherSession.getWriteSecretKey(cipherSpecAes128));
+					}
+					
+					return writeSecretKeys;
+				}				
+			}));
+		}
+		
+		Map<SaltedSecretKey, Integer> writeSecretKeyUseCounts = new HashMap<SaltedSecretKey, Integer>();
+		
+		for (Future<List<SaltedSecretKey>> writeSecretKeyFuture : writeSecretKeyFutures) {
+			for (SaltedSecretKey writeSecretKey : writeSecretKeyFuture.get()) {
+				Integer useCount = writeSecretKeyUseCounts.get(writeSecretKey);
+				writeSecretKeyUseCounts.put(writeSecretKey, (useCount != null) ? useCount + 1 : 1);
+			}
+		}
+		
+		executor.shutdown();
+		
+		// No key must be used more often than the reuse count, and keys must be reused
+		for (int useCount : writeSecretKeyUseCounts.values()) {
+			assertTrue("Key used " + useCount + " times", useCount <= 5);
+		}
+		
+		assertTrue(writeSecretKeyUseCounts.size() < 16 * 100);
+	}	
+	
+	@Test
+	public void testCipherSessionReadKeyDerivationConcurrent() throws Exception {
+		final SaltedSecretKey masterKey = createDummyMasterKey();		
+		final CipherSession cipherSession = new CipherSession(masterKey, 5, 999);		
+		final CipherSpec cipherSpecAes128 = CipherSpecs.getCipherSpec(CipherSpecs.AES_128_GCM);
+		
+		ExecutorService executor = Executors.newFixedThreadPool(16);
+		List<Future<?>> readSecretKeyFutures = new ArrayList<Future<?>>();
+		
+		try {
+			for (int i = 0; i < 16; i++) {
+				readSecretKeyFutures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						for (int j = 0; j < 50; j++) {
+							byte[] readKeySalt = CipherUtil.createRandomArray(cipherSpecAes128.getKeySize());
+						
+							// Keys derived concurrently must equal keys derived on a single thread
+							assertEquals(CipherUtil.createDerivedKey(masterKey, readKeySalt, cipherSpecAes128), cipherSession.getReadSecretKey(cipherSpecAes128, readKeySalt));
+						}
+					
+						return null;
+					}				
+				}));
+			}
+		
+			for (Future<?> readSecretKeyFuture : readSecretKeyFutures) {
+				readSecretKeyFuture.get();
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+	}	
+	
+	@Test
+	public void testCipherSessionWriteKeyDerivationConcurrent() throws Exception {
+		final SaltedSecretKey masterKey = createDummyMasterKey();		
+		final CipherSession cipherSession = new CipherSession(masterKey, 20, 1);		
+		final CipherSpec cipherSpecAes128 = CipherSpecs.getCipherSpec(CipherSpecs.AES_128_GCM);
+		
+		ExecutorService executor = Executors.newFixedThreadPool(16);
+		List<Future<?>> writeSecretKeyFutures = new ArrayList<Future<?>>();
+		
+		try {
+			for (int i = 0; i < 16; i++) {
+				writeSecretKeyFutures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						for (int j = 0; j < 50; j++) {
+							SaltedSecretKey writeSecretKey = cipherSession.getWriteSecretKey(cipherSpecAes128);
+						
+							// Write keys are derived without a lock, so they must equal keys derived on a single thread
+							assertEquals(CipherUtil.createDerivedKey(masterKey, writeSecretKey.getSalt(), cipherSpecAes128), writeSecretKey);
+						}
+					
+						return null;
+					}				
+				}));
+			}
+		
+			for (Future<?> writeSecretKeyFuture : writeSecretKeyFutures) {
+				writeSecretKeyFuture.get();
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
 	}	
 	
 	private SaltedSecretKey createDummyMasterKey() {
@@ -0,0 +1,169 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import org.syncany.config.Logging;
+import org.syncany.crypto.BouncyCastleGcmCipherProvider;
+import org.syncany.crypto.CipherSpecs;
+import org.syncany.crypto.GcmCipherProvider;
+import org.syncany.crypto.JceGcmCipherProvider;
+import org.syncany.crypto.specs.AesGcmCipherSpec;
+import org.syncany.crypto.specs.TwofishGcmCipherSpec;
+
+public class GcmCipherProviderTest {
+	static {
+		Logging.init();
+	}
+	
+	@Test
+	public void testPreferredProvider() {
+		AesGcmCipherSpec aes128CipherSpec = (AesGcmCipherSpec) CipherSpecs.getCipherSpec(CipherSpecs.AES_128_GCM);
+		TwofishGcmCipherSpec twofish128CipherSpec = (TwofishGcmCipherSpec) CipherSpecs.getCipherSpec(CipherSpecs.TWOFISH_128_GCM);
+		
+		if (JceGcmCipherProvider.isSupported("AES", 128)) {
+			assertTrue(aes128CipherSpec.getCipherProvider() instanceof JceGcmCipherProvider);
+		}
+		else {
+			assertTrue(aes128CipherSpec.getCipherProvider() instanceof BouncyCastleGcmCipherProvider);
+		}
+		
+		assertTrue(twofish128CipherSpec.getCipherProvider() instanceof BouncyCastleGcmCipherProvider);
+		
+		// Unsegmented streams must be decrypted in constant memory
+		assertTrue(aes128CipherSpec.getStreamCipherProvider() instanceof BouncyCastleGcmCipherProvider);
+	}
+	
+	@Test
+	public void testPreferredProviderOverride() {
+		System.setProperty(GcmCipherProvider.PROVIDER_PROPERTY, "bc");
+		
+		try {
+			assertTrue(GcmCipherProvider.getPreferredProvider("AES", 128) instanceof BouncyCastleGcmCipherProvider);
+		}
+		finally {
+			System.clearProperty(GcmCipherProvider.PROVIDER_PROPERTY);
+		}
+	}
+	
+	@Test
+	public void testJceAndBouncyCastleWireFormatIdentical() throws Exception {
+		assumeTrue(JceGcmCipherProvider.isSupported("AES", 128));
+		
+		GcmCipherProvider jceProvider = new JceGcmCipherProvider("AES");
+		GcmCipherProvider bouncyCastleProvider = new BouncyCastleGcmCipherProvider("AES");
+		Random random = new Random(4711);
+		
+		for (int keySize : new int[] { 128, 256 }) {
+			if (!JceGcmCipherProvider.isSupported("AES", keySize)) {
+				continue;
+			}
+			
+			for (int plaintextSize : new int[] { 0, 1, 15, 16, 17, 100 * 1024 + 3 }) {
+				byte[] secretKey = createArray(keySize / 8, random);
+				byte[] iv = createArray(16, random);
+				byte[] plaintext = createArray(plaintextSize, random);
+				
+				byte[] jceCiphertext = encrypt(jceProvider, plaintext, secretKey, iv);
+				byte[] bouncyCastleCiphertext = encrypt(bouncyCastleProvider, plaintext, secretKey, iv);
+				
+				assertEquals(plaintextSize + 16, jceCiphertext.length);
+				assertArrayEquals("Key size " + keySize + ", plaintext size " + plaintextSize, bouncyCastleCiphertext, jceCiphertext);
+				
+				assertArrayEquals(plaintext, decrypt(jceProvider, bouncyCastleCiphertext, secretKey, iv));
+				assertArrayEquals(plaintext, decrypt(bouncyCastleProvider, jceCiphertext, secretKey, iv));
+			}
+		}
+	}
+	
+	@Test
+	public void testJceDetectsTampering() throws Exception {
+		assumeTrue(JceGcmCipherProvider.isSupported("AES", 128));
+		
+		GcmCipherProvider jceProvider = new JceGcmCipherProvider("AES");
+		Random random = new Random(4711);
+		
+		byte[] secretKey = createArray(16, random);
+		byte[] iv = createArray(16, random);
+		byte[] ciphertext = encrypt(jceProvider, "Confirm 100$ pay".getBytes("ASCII"), secretKey, iv);
+		
+		byte[] alteredCiphertext = Arrays.copyOf(ciphertext, ciphertext.length);
+		alteredCiphertext[8] ^= 0x08;
+		
+		byte[] truncatedCiphertext = Arrays.copyOf(ciphertext, ciphertext.length - 1);
+		
+		for (byte[] invalidCiphertext : new byte[][] { alteredCiphertext, truncatedCiphertext }) {
+			try {
+				decrypt(jceProvider, invalidCiphertext, secretKey, iv);
+				fail("Altered ciphertext must not be decrypted.");
+			}
+			catch (IOException e) {
+				// Expected
+			}
+		}
+	}
+	
+	private byte[] encrypt(GcmCipherProvider provider, byte[] plaintext, byte[] secretKey, byte[] iv) throws Exception {
+		ByteArrayOutputStream ciphertextOutputStream = new ByteArrayOutputStream();
+		OutputStream cipherOutputStream = provider.newCipherOutputStream(ciphertextOutputStream, secretKey, iv);
+		
+		// Write in pieces to cross block boundaries
+		for (int offset = 0; offset < plaintext.length; offset += 1000) {
+			cipherOutputStream.write(plaintext, offset, Math.min(1000, plaintext.length - offset));
+		}
+		
+		cipherOutputStream.close();
+		return ciphertextOutputStream.toByteArray();
+	}
+	
+	private byte[] decrypt(GcmCipherProvider provider, byte[] ciphertext, byte[] secretKey, byte[] iv) throws Exception {
+		InputStream cipherInputStream = provider.newCipherInputStream(new ByteArrayInputStream(ciphertext), secretKey, iv);
+		ByteArrayOutputStream plaintextOutputStream = new ByteArrayOutputStream();
+		
+		byte[] buffer = new byte[777];
+		int read;
+		
+		while (-1 != (read = cipherInputStream.read(buffer))) {
+			plaintextOutputStream.write(buffer, 0, read);
+		}
+		
+		cipherInputStream.close();
+		return plaintextOutputStream.toByteArray();
+	}
+	
+	private byte[] createArray(int size, Random random) {
+		byte[] array = new byte[size];
+		random.nextBytes(array);
+		
+		return array;
+	}
+}
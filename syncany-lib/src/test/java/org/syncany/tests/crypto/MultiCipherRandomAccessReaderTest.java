@@ -0,0 +1,216 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.config.Logging;
+import org.syncany.crypto.CipherSession;
+import org.syncany.crypto.CipherSpec;
+import org.syncany.crypto.CipherSpecs;
+import org.syncany.crypto.MultiCipherOutputStream;
+import org.syncany.crypto.MultiCipherRandomAccessReader;
+import org.syncany.crypto.SaltedSecretKey;
+import org.syncany.tests.util.TestFileUtil;
+import org.syncany.util.StringUtil;
+
+public class MultiCipherRandomAccessReaderTest {
+	private static final int SEGMENT_SIZE = 4*1024;
+
+	private File tempDirectory;
+	private CipherSession cipherSession;
+	private List<CipherSpec> cipherSpecs;
+
+	static {
+		Logging.init();
+	}
+
+	@Before
+	public void setup() throws Exception {
+		tempDirectory = TestFileUtil.createTempDirectoryInSystemTemp();
+		cipherSession = new CipherSession(createDummyMasterKey());
+		cipherSpecs = Arrays.asList(new CipherSpec[] {
+			CipherSpecs.getCipherSpec(CipherSpecs.AES_128_GCM),
+			CipherSpecs.getCipherSpec(CipherSpecs.TWOFISH_128_GCM)
+		});
+	}
+
+	@After
+	public void tearDown() {
+		TestFileUtil.deleteDirectory(tempDirectory);
+	}
+
+	@Test
+	public void testReadRanges() throws Exception {
+		byte[] srcData = TestFileUtil.createRandomArray(10*SEGMENT_SIZE + 123);
+		File encryptedFile = encryptToFile(srcData, SEGMENT_SIZE);
+
+		MultiCipherRandomAccessReader reader = new MultiCipherRandomAccessReader(encryptedFile, cipherSession);
+
+		assertTrue(reader.isSegmented());
+		assertEquals(srcData.length, reader.length());
+
+		// Within a segment, across segments, last bytes, whole file (in random order)
+		assertRange(reader, srcData, 5*SEGMENT_SIZE + 10, 100);
+		assertRange(reader, srcData, SEGMENT_SIZE - 50, 3*SEGMENT_SIZE);
+		assertRange(reader, srcData, srcData.length - 7, 7);
+		assertRange(reader, srcData, 0, srcData.length);
+		assertRange(reader, srcData, 0, 1);
+
+		byte[] buffer = new byte[10];
+		assertEquals(-1, reader.read(srcData.length, buffer, 0, buffer.length));
+
+		reader.close();
+	}
+
+	@Test
+	public void testReadRangeInputStream() throws Exception {
+		byte[] srcData = TestFileUtil.createRandomArray(3*SEGMENT_SIZE);
+		File encryptedFile = encryptToFile(srcData, SEGMENT_SIZE);
+
+		MultiCipherRandomAccessReader reader = new MultiCipherRandomAccessReader(encryptedFile, cipherSession);
+		byte[] rangeData = IOUtils.toByteArray(reader.getInputStream(SEGMENT_SIZE + 1, SEGMENT_SIZE + 2));
+
+		assertArrayEquals(Arrays.copyOfRange(srcData, SEGMENT_SIZE + 1, 2*SEGMENT_SIZE + 3), rangeData);
+		reader.close();
+	}
+
+	@Test
+	public void testEmptyFile() throws Exception {
+		File encryptedFile = encryptToFile(new byte[0], SEGMENT_SIZE);
+		MultiCipherRandomAccessReader reader = new MultiCipherRandomAccessReader(encryptedFile, cipherSession);
+
+		assertEquals(0, reader.length());
+		assertEquals(-1, reader.read(0, new byte[1], 0, 1));
+
+		reader.close();
+	}
+
+	@Test
+	public void testUnsegmentedFileFallback() throws Exception {
+		byte[] srcData = TestFileUtil.createRandomArray(3*SEGMENT_SIZE + 5);
+		File encryptedFile = encryptToFile(srcData, 0);
+
+		MultiCipherRandomAccessReader reader = new MultiCipherRandomAccessReader(encryptedFile, cipherSession);
+
+		assertFalse(reader.isSegmented());
+		assertEquals(-1, reader.length());
+
+		assertRange(reader, srcData, 2*SEGMENT_SIZE, 100);
+		assertRange(reader, srcData, 10, 100);
+		assertRange(reader, srcData, 3*SEGMENT_SIZE, 5);
+
+		reader.close();
+	}
+
+	@Test
+	public void testTamperedSegmentOnlyAffectsThatSegment() throws Exception {
+		byte[] srcData = TestFileUtil.createRandomArray(4*SEGMENT_SIZE);
+		File encryptedFile = encryptToFile(srcData, SEGMENT_SIZE);
+
+		// Flip a byte in the last segment
+		RandomAccessFile encryptedRaf = new RandomAccessFile(encryptedFile, "rw");
+		long tamperPosition = encryptedRaf.length() - 100;
+
+		encryptedRaf.seek(tamperPosition);
+		int tamperedByte = encryptedRaf.read() ^ 0x01;
+		encryptedRaf.seek(tamperPosition);
+		encryptedRaf.write(tamperedByte);
+		encryptedRaf.close();
+
+		MultiCipherRandomAccessReader reader = new MultiCipherRandomAccessReader(encryptedFile, cipherSession);
+		assertRange(reader, srcData, 0, 3*SEGMENT_SIZE);
+
+		try {
+			reader.readFully(3*SEGMENT_SIZE, new byte[10]);
+			fail("Tampered segment should not be readable.");
+		}
+		catch (IOException e) {
+			// Expected
+		}
+
+		reader.close();
+	}
+
+	@Test
+	public void testTruncatedFile() throws Exception {
+		byte[] srcData = TestFileUtil.createRandomArray(4*SEGMENT_SIZE);
+		File encryptedFile = encryptToFile(srcData, SEGMENT_SIZE);
+
+		RandomAccessFile encryptedRaf = new RandomAccessFile(encryptedFile, "rw");
+		encryptedRaf.setLength(encryptedRaf.length() - (SEGMENT_SIZE + 2*16));
+		encryptedRaf.close();
+
+		MultiCipherRandomAccessReader reader = new MultiCipherRandomAccessReader(encryptedFile, cipherSession);
+
+		try {
+			reader.readFully(2*SEGMENT_SIZE, new byte[SEGMENT_SIZE]);
+			fail("Last segment of truncated file should not be readable.");
+		}
+		catch (IOException e) {
+			// Expected
+		}
+
+		reader.close();
+	}
+
+	private void assertRange(MultiCipherRandomAccessReader reader, byte[] srcData, int position, int length) throws IOException {
+		byte[] rangeData = new byte[length];
+		reader.readFully(position, rangeData);
+
+		assertArrayEquals("Range " + position + "+" + length + " differs", Arrays.copyOfRange(srcData, position, position + length), rangeData);
+	}
+
+	private File encryptToFile(byte[] srcData, int segmentSize) throws IOException {
+		File encryptedFile = new File(tempDirectory, "encrypted-" + segmentSize + "-" + srcData.length);
+		OutputStream encryptingOutputStream = new MultiCipherOutputStream(new FileOutputStream(encryptedFile), cipherSpecs, cipherSession, segmentSize);
+
+		encryptingOutputStream.write(srcData);
+		encryptingOutputStream.close();
+
+		return encryptedFile;
+	}
+
+	private SaltedSecretKey createDummyMasterKey() {
+		return new SaltedSecretKey(
+			new SecretKeySpec(
+				StringUtil.fromHex("44fda24d53b29828b62c362529bd9df5c8a92c2736bcae3a28b3d7b44488e36e246106aa5334813028abb2048eeb5e177df1c702d93cf82aeb7b6d59a8534ff0"),
+				"AnyAlgorithm"
+			),
+			StringUtil.fromHex("157599349e0f1bc713afff442db9d4c3201324073d51cb33407600f305500aa3fdb31136cb1f37bd51a48f183844257d42010a36133b32b424dd02bc63b349bc")
+		);
+	}
+}
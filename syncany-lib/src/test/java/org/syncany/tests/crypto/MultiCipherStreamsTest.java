@@ -17,8 +17,10 @@
  */
 package org.syncany.tests.crypto;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -30,7 +32,9 @@ import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.spec.InvalidKeySpecException;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -39,16 +43,20 @@ import javax.crypto.spec.SecretKeySpec;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 
+import org.apache.commons.io.IOUtils;
 import org.junit.Before;
 import org.junit.Test;
 import org.syncany.chunk.CipherTransformer;
 import org.syncany.chunk.Transformer;
 import org.syncany.config.Logging;
 import org.syncany.crypto.CipherException;
+import org.syncany.crypto.CipherSession;
 import org.syncany.crypto.CipherSpec;
 import org.syncany.crypto.CipherSpecs;
+import org.syncany.crypto.MultiCipherInputStream;
 import org.syncany.crypto.MultiCipherOutputStream;
 import org.syncany.crypto.SaltedSecretKey;
+import org.syncany.tests.util.TestFileUtil;
 import org.syncany.util.StringUtil;
 import org.xml.sax.helpers.DefaultHandler;
 
@@ -87,6 +95,121 @@ public class MultiCipherStreamsTest {
 		);
 	}	
 	
+	@Test
+	public void testSegmentedStreamSegmentBoundaries() throws Exception {
+		List<CipherSpec> cipherSpecs = Arrays.asList(new CipherSpec[] {
+			CipherSpecs.getCipherSpec(CipherSpecs.AES_128_GCM),
+			CipherSpecs.getCipherSpec(CipherSpecs.TWOFISH_128_GCM)
+		});
+		
+		CipherSession cipherSession = new CipherSession(masterKey);
+		int segmentSize = 1024;
+		
+		for (int length : new int[] { 0, 1, segmentSize - 1, segmentSize, segmentSize + 1, 3 * segmentSize, 3 * segmentSize + 17 }) {
+			byte[] srcData = TestFileUtil.createRandomArray(length);
+			byte[] encryptedData = doEncrypt(srcData, cipherSpecs, cipherSession, segmentSize);
+			
+			int segmentCount = Math.max(1, (length + segmentSize - 1) / segmentSize);
+			int overhead = segmentCount * cipherSpecs.size() * 16;
+			
+			assertEquals("Unexpected ciphertext length for " + length + " bytes", length + overhead, encryptedData.length - getHeaderLength(cipherSpecs, true));
+			assertArrayEquals("Source data and decrypted data is different for " + length + " bytes", srcData, doDecrypt(encryptedData, cipherSession));
+		}
+	}
+	
+	@Test
+	public void testUnsegmentedStreamStillReadable() throws Exception {
+		List<CipherSpec> cipherSpecs = Arrays.asList(new CipherSpec[] { CipherSpecs.getCipherSpec(CipherSpecs.AES_128_GCM) });
+		CipherSession cipherSession = new CipherSession(masterKey);
+		
+		byte[] srcData = TestFileUtil.createRandomArray(100*1024);
+		byte[] encryptedData = doEncrypt(srcData, cipherSpecs, cipherSession, 0);
+		
+		assertEquals(MultiCipherOutputStream.STREAM_VERSION_UNSEGMENTED, encryptedData[MultiCipherOutputStream.STREAM_MAGIC.length]);
+		assertArrayEquals(srcData, doDecrypt(encryptedData, cipherSession));
+	}
+	
+	@Test
+	public void testUnsegmentedStreamIsDefault() throws Exception {
+		byte[] encryptedData = doEncrypt(new byte[] { 1, 2, 3 }, new CipherTransformer(
+			Arrays.asList(new CipherSpec[] { CipherSpecs.getCipherSpec(CipherSpecs.AES_128_GCM) }), masterKey));
+		
+		assertEquals(MultiCipherOutputStream.STREAM_VERSION_UNSEGMENTED, encryptedData[MultiCipherOutputStream.STREAM_MAGIC.length]);
+	}
+	
+	@Test
+	public void testSegmentedStreamEnabledBySetting() throws Exception {
+		Map<String, String> settings = new HashMap<String, String>();
+		
+		settings.put(CipherTransformer.PROPERTY_CIPHER_SPECS, Integer.toString(CipherSpecs.AES_128_GCM));
+		settings.put(CipherTransformer.PROPERTY_MASTER_KEY, StringUtil.toHex(masterKey.getEncoded()));
+		settings.put(CipherTransformer.PROPERTY_MASTER_KEY_SALT, StringUtil.toHex(masterKey.getSalt()));
+		settings.put(CipherTransformer.PROPERTY_SEGMENT_SIZE, Integer.toString(MultiCipherOutputStream.DEFAULT_SEGMENT_SIZE));
+		
+		CipherTransformer cipherTransformer = new CipherTransformer();
+		cipherTransformer.init(settings);
+		
+		byte[] srcData = TestFileUtil.createRandomArray(3 * MultiCipherOutputStream.DEFAULT_SEGMENT_SIZE + 17);
+		byte[] encryptedData = doEncrypt(srcData, cipherTransformer);
+		
+		assertEquals(MultiCipherOutputStream.STREAM_VERSION_SEGMENTED, encryptedData[MultiCipherOutputStream.STREAM_MAGIC.length]);
+		assertArrayEquals(srcData, doDecrypt(encryptedData, cipherTransformer));
+	}
+	
+	@Test(expected = Exception.class)
+	public void testNegativeSegmentSizeSettingFails() throws Exception {
+		Map<String, String> settings = new HashMap<String, String>();
+		
+		settings.put(CipherTransformer.PROPERTY_CIPHER_SPECS, Integer.toString(CipherSpecs.AES_128_GCM));
+		settings.put(CipherTransformer.PROPERTY_MASTER_KEY, StringUtil.toHex(masterKey.getEncoded()));
+		settings.put(CipherTransformer.PROPERTY_MASTER_KEY_SALT, StringUtil.toHex(masterKey.getSalt()));
+		settings.put(CipherTransformer.PROPERTY_SEGMENT_SIZE, "-1");
+		
+		new CipherTransformer().init(settings);
+	}
+	
+	@Test
+	public void testSegmentedStreamTruncatedAtSegmentBoundary() throws Exception {
+		List<CipherSpec> cipherSpecs = Arrays.asList(new CipherSpec[] { CipherSpecs.getCipherSpec(CipherSpecs.AES_128_GCM) });
+		CipherSession cipherSession = new CipherSession(masterKey);
+		
+		int segmentSize = 1024;
+		byte[] encryptedData = doEncrypt(TestFileUtil.createRandomArray(3 * segmentSize), cipherSpecs, cipherSession, segmentSize);		
+		byte[] truncatedData = Arrays.copyOf(encryptedData, encryptedData.length - (segmentSize + 16));
+		
+		try {
+			doDecrypt(truncatedData, cipherSession);
+			fail("Truncated stream should not be readable.");
+		}
+		catch (IOException e) {
+			logger.log(Level.INFO, "Truncation detected, as expected: " + e.getMessage());
+		}
+	}
+	
+	@Test
+	public void testSegmentedStreamSwappedSegments() throws Exception {
+		List<CipherSpec> cipherSpecs = Arrays.asList(new CipherSpec[] { CipherSpecs.getCipherSpec(CipherSpecs.AES_128_GCM) });
+		CipherSession cipherSession = new CipherSession(masterKey);
+		
+		int segmentSize = 1024;
+		int encryptedSegmentSize = segmentSize + 16;
+		int headerLength = getHeaderLength(cipherSpecs, true);
+		
+		byte[] encryptedData = doEncrypt(TestFileUtil.createRandomArray(3 * segmentSize), cipherSpecs, cipherSession, segmentSize);		
+		byte[] swappedData = encryptedData.clone();
+		
+		System.arraycopy(encryptedData, headerLength, swappedData, headerLength + encryptedSegmentSize, encryptedSegmentSize);
+		System.arraycopy(encryptedData, headerLength + encryptedSegmentSize, swappedData, headerLength, encryptedSegmentSize);
+		
+		try {
+			doDecrypt(swappedData, cipherSession);
+			fail("Stream with swapped segments should not be readable.");
+		}
+		catch (IOException e) {
+			logger.log(Level.INFO, "Swapped segments detected, as expected: " + e.getMessage());
+		}
+	}
+	
 	@Test
 	public void testHmacAvailability() throws Exception {
 		Mac.getInstance(MultiCipherOutputStream.HMAC_SPEC.getAlgorithm());
@@ -201,6 +324,34 @@ public class MultiCipherStreamsTest {
 		return decryptedData;
 	}	
 	
+	private byte[] doEncrypt(byte[] srcData, List<CipherSpec> cipherSpecs, CipherSession cipherSession, int segmentSize) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		OutputStream os = new MultiCipherOutputStream(bos, cipherSpecs, cipherSession, segmentSize);
+		
+		os.write(srcData);
+		os.close();
+		
+		return bos.toByteArray();
+	}
+	
+	private byte[] doDecrypt(byte[] encryptedData, CipherSession cipherSession) throws IOException {
+		InputStream is = new MultiCipherInputStream(new ByteArrayInputStream(encryptedData), cipherSession);
+		byte[] decryptedData = IOUtils.toByteArray(is);
+		
+		is.close();
+		return decryptedData;
+	}
+	
+	private int getHeaderLength(List<CipherSpec> cipherSpecs, boolean segmented) {
+		int headerLength = MultiCipherOutputStream.STREAM_MAGIC.length + 1 + MultiCipherOutputStream.SALT_SIZE + 1 + 32;
+		
+		for (CipherSpec cipherSpec : cipherSpecs) {
+			headerLength += 1 + MultiCipherOutputStream.SALT_SIZE + cipherSpec.getIvSize() / 8;
+		}
+		
+		return (segmented) ? headerLength + 4 : headerLength;
+	}
+	
 	private SaltedSecretKey createDummyMasterKey() {
 		return new SaltedSecretKey(
 			new SecretKeySpec(
@@ -22,6 +22,7 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 
 import java.sql.Connection;
+import java.util.Arrays;
 import java.util.Map;
 
 import org.junit.Test;
@@ -104,5 +105,32 @@ public class ChunkDaoTest {
 		// Tear down
 		databaseConnection.close();
 		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
-	}	
+	}
+	
+	@Test
+	public void testWriteAndGetChunkWith256BitChecksum() throws Exception {
+		// Setup
+		Config testConfig = TestConfigUtil.createTestLocalConfig();
+		Connection databaseConnection = testConfig.createDatabaseConnection();
+
+		// Run
+		TestSqlUtil.runSqlFromResource(databaseConnection, "test.insert.set3.sql");
+		
+		ChunkSqlDao chunkDao = new ChunkSqlDao(databaseConnection);
+		ChunkChecksum longChecksum = ChunkChecksum.parseChunkChecksum("d93c23eedaf165a7e0be908ba86f1a7a520d568d2d13cde787c8580c5c72cc54");
+		
+		chunkDao.writeChunks(databaseConnection, 0, Arrays.asList(new ChunkEntry[] { new ChunkEntry(longChecksum, 4711) }));
+		chunkDao.clearCache();
+		
+		ChunkEntry longChecksumChunk = chunkDao.getChunk(longChecksum);
+		
+		// Test
+		assertNotNull(longChecksumChunk);
+		assertEquals("d93c23eedaf165a7e0be908ba86f1a7a520d568d2d13cde787c8580c5c72cc54", longChecksumChunk.getChecksum().toString());
+		assertEquals(4711, longChecksumChunk.getSize());
+		
+		// Tear down
+		databaseConnection.close();
+		TestConfigUtil.deleteTestLocalConfigAndData(testConfig);
+	}
 }
@@ -0,0 +1,226 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.operations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.chunk.Chunk;
+import org.syncany.chunk.MultiChunk;
+import org.syncany.config.Config;
+import org.syncany.database.MultiChunkEntry.MultiChunkId;
+import org.syncany.operations.Downloader;
+import org.syncany.plugins.local.LocalTransferManager;
+import org.syncany.plugins.local.LocalTransferSettings;
+import org.syncany.plugins.transfer.StorageException;
+import org.syncany.plugins.transfer.files.MultichunkRemoteFile;
+import org.syncany.plugins.transfer.files.RemoteFile;
+import org.syncany.tests.util.TestConfigUtil;
+import org.syncany.tests.util.TestFileUtil;
+
+public class DownloaderTest {
+	private static final Logger logger = Logger.getLogger(DownloaderTest.class.getSimpleName());
+
+	private static final int MULTICHUNK_COUNT = 24;
+	private static final int LATENCY_MILLIS = 40;
+
+	private Config config;
+	private LatencyTransferManager transferManager;
+
+	@Before
+	public void setUp() throws Exception {
+		config = TestConfigUtil.createTestLocalConfig();
+		transferManager = new LatencyTransferManager(config, LATENCY_MILLIS);
+	}
+
+	@After
+	public void tearDown() {
+		TestConfigUtil.deleteTestLocalConfigAndData(config);
+	}
+
+	@Test
+	public void testParallelDownloadSpeedup() throws Exception {
+		Set<MultiChunkId> multiChunkIds = createRemoteMultiChunks(MULTICHUNK_COUNT);
+
+		long sequentialDuration = downloadMultiChunks(multiChunkIds, 1);
+		assertMultiChunksInCache(multiChunkIds);
+
+		deleteMultiChunksFromCache(multiChunkIds);
+
+		long parallelDuration = downloadMultiChunks(multiChunkIds, 8);
+		assertMultiChunksInCache(multiChunkIds);
+
+		logger.log(Level.INFO, "Sequential download took " + sequentialDuration + "ms, parallel download took " + parallelDuration + "ms");
+
+		assertTrue("Parallel download not faster: " + sequentialDuration + "ms vs. " + parallelDuration + "ms",
+				parallelDuration * 3 < sequentialDuration);
+		assertTrue(transferManager.maxConcurrentDownloads.get() > 1);
+	}
+
+	@Test
+	public void testTamperedMultiChunkNotMovedToCache() throws Exception {
+		Set<MultiChunkId> multiChunkIds = createRemoteMultiChunks(MULTICHUNK_COUNT);
+		MultiChunkId tamperedMultiChunkId = multiChunkIds.iterator().next();
+
+		tamperRemoteMultiChunk(tamperedMultiChunkId);
+
+		try {
+			downloadMultiChunks(multiChunkIds, 8);
+			fail("Download should have failed.");
+		}
+		catch (IOException e) {
+			// Expected
+		}
+
+		assertFalse(config.getCache().getEncryptedMultiChunkFile(tamperedMultiChunkId).exists());
+
+		// No temporary files are left behind
+		for (File cacheFile : config.getCacheDir().listFiles()) {
+			assertFalse("Temp. file left in cache: " + cacheFile, cacheFile.getName().startsWith("temp-multichunk-"));
+		}
+	}
+
+	private long downloadMultiChunks(Set<MultiChunkId> multiChunkIds, int downloadThreads) throws Exception {
+		config.getMultiChunkWindow().clear();
+
+		long startTime = System.currentTimeMillis();
+		new Downloader(config, transferManager, downloadThreads).downloadAndDecryptMultiChunks(multiChunkIds);
+
+		return System.currentTimeMillis() - startTime;
+	}
+
+	private Set<MultiChunkId> createRemoteMultiChunks(int count) throws Exception {
+		Set<MultiChunkId> multiChunkIds = new LinkedHashSet<MultiChunkId>();
+		File tempDir = TestFileUtil.createTempDirectoryInSystemTemp();
+
+		for (int i = 0; i < count; i++) {
+			MultiChunkId multiChunkId = MultiChunkId.secureRandomMultiChunkId();
+			File inputFile = TestFileUtil.createRandomFileInDirectory(tempDir, 8 * 1024);
+			File multiChunkFile = new File(tempDir, "multichunk-" + multiChunkId);
+
+			MultiChunk multiChunk = config.getMultiChunker().createMultiChunk(multiChunkId,
+					config.getTransformer().createOutputStream(new FileOutputStream(multiChunkFile)));
+			Enumeration<Chunk> chunks = config.getChunker().createChunks(inputFile);
+
+			while (chunks.hasMoreElements()) {
+				multiChunk.write(chunks.nextElement());
+			}
+
+			multiChunk.close();
+
+			transferManager.upload(multiChunkFile, new MultichunkRemoteFile(multiChunkId));
+			multiChunkIds.add(multiChunkId);
+		}
+
+		TestFileUtil.deleteDirectory(tempDir);
+		return multiChunkIds;
+	}
+
+	private void tamperRemoteMultiChunk(MultiChunkId multiChunkId) throws Exception {
+		MultichunkRemoteFile remoteMultiChunkFile = new MultichunkRemoteFile(multiChunkId);
+		File tamperedMultiChunkFile = config.getCache().createTempFile("tampered");
+
+		transferManager.download(remoteMultiChunkFile, tamperedMultiChunkFile);
+
+		RandomAccessFile tamperedRaf = new RandomAccessFile(tamperedMultiChunkFile, "rw");
+
+		tamperedRaf.seek(tamperedRaf.length() - 10);
+		int tamperedByte = tamperedRaf.read() ^ 0x01;
+		tamperedRaf.seek(tamperedRaf.length() - 10);
+		tamperedRaf.write(tamperedByte);
+		tamperedRaf.close();
+
+		transferManager.delete(remoteMultiChunkFile);
+		transferManager.upload(tamperedMultiChunkFile, remoteMultiChunkFile);
+		tamperedMultiChunkFile.delete();
+	}
+
+	private void assertMultiChunksInCache(Set<MultiChunkId> multiChunkIds) {
+		for (MultiChunkId multiChunkId : multiChunkIds) {
+			assertTrue(config.getCache().getEncryptedMultiChunkFile(multiChunkId).exists());
+		}
+
+		assertEquals(0, config.getCacheDir().listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith("temp-multichunk-");
+			}
+		}).length);
+	}
+
+	private void deleteMultiChunksFromCache(Set<MultiChunkId> multiChunkIds) {
+		for (MultiChunkId multiChunkId : multiChunkIds) {
+			config.getCache().getEncryptedMultiChunkFile(multiChunkId).delete();
+		}
+	}
+
+	/**
+	 * Local transfer manager that simulates a remote storage with a high
+	 * round-trip time for multichunk downloads.
+	 */
+	private static class LatencyTransferManager extends LocalTransferManager {
+		private int latencyMillis;
+		private AtomicInteger concurrentDownloads;
+		private AtomicInteger maxConcurrentDownloads;
+
+		public LatencyTransferManager(Config config, int latencyMillis) {
+			super((LocalTransferSettings) config.getConnection(), config);
+
+			this.latencyMillis = latencyMillis;
+			this.concurrentDownloads = new AtomicInteger(0);
+			this.maxConcurrentDownloads = new AtomicInteger(0);
+		}
+
+		@Override
+		public void download(RemoteFile remoteFile, File localFile) throws StorageException {
+			int currentDownloads = concurrentDownloads.incrementAndGet();
+
+			try {
+				if (currentDownloads > maxConcurrentDownloads.get()) {
+					maxConcurrentDownloads.set(currentDownloads);
+				}
+
+				Thread.sleep(latencyMillis);
+				super.download(remoteFile, localFile);
+			}
+			catch (InterruptedException e) {
+				throw new StorageException("Interrupted", e);
+			}
+			finally {
+				concurrentDownloads.decrementAndGet();
+			}
+		}
+	}
+}
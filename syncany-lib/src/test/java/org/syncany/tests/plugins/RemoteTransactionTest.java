@@ -0,0 +1,167 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.config.Config;
+import org.syncany.database.MultiChunkEntry.MultiChunkId;
+import org.syncany.plugins.local.LocalTransferManager;
+import org.syncany.plugins.local.LocalTransferSettings;
+import org.syncany.plugins.transfer.RemoteTransaction;
+import org.syncany.plugins.transfer.StorageException;
+import org.syncany.plugins.transfer.files.MultichunkRemoteFile;
+import org.syncany.plugins.transfer.files.RemoteFile;
+import org.syncany.plugins.transfer.files.TempRemoteFile;
+import org.syncany.plugins.transfer.files.TransactionRemoteFile;
+import org.syncany.tests.util.TestConfigUtil;
+import org.syncany.tests.util.TestFileUtil;
+
+public class RemoteTransactionTest {
+	private static final Logger logger = Logger.getLogger(RemoteTransactionTest.class.getSimpleName());
+
+	private static final int FILE_COUNT = 32;
+	private static final int LATENCY_MILLIS = 30;
+
+	private Config config;
+	private File localDir;
+
+	@Before
+	public void setUp() throws Exception {
+		config = TestConfigUtil.createTestLocalConfig();
+		localDir = TestFileUtil.createTempDirectoryInSystemTemp();
+	}
+
+	@After
+	public void tearDown() {
+		TestConfigUtil.deleteTestLocalConfigAndData(config);
+		TestFileUtil.deleteDirectory(localDir);
+	}
+
+	@Test
+	public void testParallelCommitSpeedup() throws Exception {
+		LatencyTransferManager transferManager = new LatencyTransferManager(config, LATENCY_MILLIS, -1);
+
+		long sequentialDuration = commitTransaction(transferManager, 1);
+		long parallelDuration = commitTransaction(transferManager, 8);
+
+		logger.log(Level.INFO, "Sequential commit took " + sequentialDuration + "ms, parallel commit took " + parallelDuration + "ms");
+
+		// 8 threads should be close to 8x faster; allow for thread startup and slow machines
+		assertTrue("Parallel commit not faster: " + sequentialDuration + "ms vs. " + parallelDuration + "ms",
+				parallelDuration * 3 < sequentialDuration);
+
+		assertEquals(2 * FILE_COUNT, transferManager.list(MultichunkRemoteFile.class).size());
+		assertEquals(0, transferManager.list(TempRemoteFile.class).size());
+		assertEquals(0, transferManager.list(TransactionRemoteFile.class).size());
+	}
+
+	@Test
+	public void testParallelCommitFailsAtomically() throws Exception {
+		LatencyTransferManager transferManager = new LatencyTransferManager(config, LATENCY_MILLIS, FILE_COUNT / 2);
+
+		try {
+			commitTransaction(transferManager, 8);
+			fail("Commit should have failed.");
+		}
+		catch (StorageException e) {
+			// Expected
+		}
+
+		// No file was moved to its final location, and the transaction can be rolled back
+		assertEquals(0, transferManager.list(MultichunkRemoteFile.class).size());
+		assertEquals(1, transferManager.list(TransactionRemoteFile.class).size());
+
+		int uploadCount = transferManager.uploadCount.get();
+		Thread.sleep(3 * LATENCY_MILLIS);
+
+		// No upload must continue after the commit failed
+		assertEquals(uploadCount, transferManager.uploadCount.get());
+	}
+
+	private long commitTransaction(LatencyTransferManager transferManager, int transferThreads) throws Exception {
+		RemoteTransaction remoteTransaction = new RemoteTransaction(config, transferManager, transferThreads);
+
+		for (int i = 0; i < FILE_COUNT; i++) {
+			File localFile = TestFileUtil.createRandomFileInDirectory(localDir, 1024);
+			remoteTransaction.upload(localFile, new MultichunkRemoteFile(MultiChunkId.secureRandomMultiChunkId()));
+		}
+
+		long startTime = System.currentTimeMillis();
+		remoteTransaction.commit();
+
+		return System.currentTimeMillis() - startTime;
+	}
+
+	/**
+	 * Local transfer manager that simulates a remote storage with a high
+	 * round-trip time. Uploads and moves of multichunks are delayed, and an
+	 * upload can be configured to fail.
+	 */
+	private static class LatencyTransferManager extends LocalTransferManager {
+		private int latencyMillis;
+		private int failingUpload;
+		private AtomicInteger uploadCount;
+
+		public LatencyTransferManager(Config config, int latencyMillis, int failingUpload) {
+			super((LocalTransferSettings) config.getConnection(), config);
+
+			this.latencyMillis = latencyMillis;
+			this.failingUpload = failingUpload;
+			this.uploadCount = new AtomicInteger(0);
+		}
+
+		@Override
+		public void upload(File localFile, RemoteFile remoteFile) throws StorageException {
+			if (remoteFile instanceof TempRemoteFile) {
+				sleep();
+
+				if (uploadCount.incrementAndGet() == failingUpload) {
+					throw new StorageException("Upload failed (simulated): " + remoteFile);
+				}
+			}
+
+			super.upload(localFile, remoteFile);
+		}
+
+		@Override
+		public void move(RemoteFile sourceFile, RemoteFile targetFile) throws StorageException {
+			sleep();
+			super.move(sourceFile, targetFile);
+		}
+
+		private void sleep() throws StorageException {
+			try {
+				Thread.sleep(latencyMillis);
+			}
+			catch (InterruptedException e) {
+				throw new StorageException("Interrupted", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,253 @@
+/*
+ * Syncany, www.syncany.org
+ * Copyright (C) 2011-2014 Philipp C. Heckel <philipp.heckel@gmail.com> 
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.syncany.tests.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.syncany.config.Config;
+import org.syncany.plugins.local.LocalTransferManager;
+import org.syncany.plugins.local.LocalTransferSettings;
+import org.syncany.plugins.transfer.CircuitBreaker;
+import org.syncany.plugins.transfer.CircuitBreaker.State;
+import org.syncany.plugins.transfer.RetriableTransferManager;
+import org.syncany.plugins.transfer.RetryPolicy;
+import org.syncany.plugins.transfer.StorageCircuitOpenException;
+import org.syncany.plugins.transfer.StorageException;
+import org.syncany.plugins.transfer.StorageMoveException;
+import org.syncany.plugins.transfer.files.MultichunkRemoteFile;
+import org.syncany.plugins.transfer.files.RemoteFile;
+import org.syncany.tests.util.TestConfigUtil;
+
+public class RetriableTransferManagerTest {
+	private Config config;
+	private FailingTransferManager failingTransferManager;
+
+	@Before
+	public void setUp() throws Exception {
+		config = TestConfigUtil.createTestLocalConfig();
+		failingTransferManager = new FailingTransferManager(config);
+	}
+
+	@After
+	public void tearDown() {
+		TestConfigUtil.deleteTestLocalConfigAndData(config);
+	}
+
+	@Test
+	public void testRetryDelayGrowsExponentiallyWithJitter() {
+		RetryPolicy retryPolicy = new RetryPolicy(10, 100, 1000, 60000);
+
+		for (int i = 0; i < 100; i++) {
+			assertInRange(50, 100, retryPolicy.getDelayMillis(1));
+			assertInRange(100, 200, retryPolicy.getDelayMillis(2));
+			assertInRange(200, 400, retryPolicy.getDelayMillis(3));
+			assertInRange(500, 1000, retryPolicy.getDelayMillis(5));
+			assertInRange(500, 1000, retryPolicy.getDelayMillis(1000));
+		}
+	}
+
+	@Test
+	public void testRetryUntilMaxTries() throws Exception {
+		failingTransferManager.failCount.set(2);
+		RetriableTransferManager transferManager = createTransferManager(new RetryPolicy(3, 10, 100, 60000), new CircuitBreaker());
+
+		transferManager.list(MultichunkRemoteFile.class);
+		assertEquals(3, failingTransferManager.callCount.get());
+
+		failingTransferManager.failCount.set(3);
+
+		try {
+			transferManager.list(MultichunkRemoteFile.class);
+			fail("List should have failed.");
+		}
+		catch (StorageException e) {
+			// Expected
+		}
+
+		assertEquals(6, failingTransferManager.callCount.get());
+	}
+
+	@Test
+	public void testRetryBudgetStopsRetries() throws Exception {
+		failingTransferManager.failCount.set(Integer.MAX_VALUE);
+		RetriableTransferManager transferManager = createTransferManager(new RetryPolicy(100, 100, 100, 250), new CircuitBreaker(1000, 60000));
+
+		try {
+			transferManager.list(MultichunkRemoteFile.class);
+			fail("List should have failed.");
+		}
+		catch (StorageException e) {
+			// Expected
+		}
+
+		// Delays are 50-100ms each, so the 250ms budget allows 2-5 retries
+		assertTrue(failingTransferManager.callCount.get() >= 3);
+		assertTrue(failingTransferManager.callCount.get() <= 6);
+	}
+
+	@Test
+	public void testCircuitBreakerFailsFastWhenOpen() throws Exception {
+		failingTransferManager.failCount.set(Integer.MAX_VALUE);
+
+		CircuitBreaker circuitBreaker = new CircuitBreaker(3, 60000);
+		RetriableTransferManager transferManager = createTransferManager(new RetryPolicy(10, 10, 100, 60000), circuitBreaker);
+
+		try {
+			transferManager.list(MultichunkRemoteFile.class);
+			fail("List should have failed.");
+		}
+		catch (StorageException e) {
+			// Expected
+		}
+
+		// Retries stop as soon as the breaker opens
+		assertEquals(3, failingTransferManager.callCount.get());
+		assertEquals(State.OPEN, circuitBreaker.getState());
+
+		try {
+			transferManager.list(MultichunkRemoteFile.class);
+			fail("List should have failed.");
+		}
+		catch (StorageCircuitOpenException e) {
+			// Expected
+		}
+
+		// Storage not called while breaker is open
+		assertEquals(3, failingTransferManager.callCount.get());
+	}
+
+	@Test
+	public void testCircuitBreakerHalfOpenTrial() throws Exception {
+		failingTransferManager.failCount.set(2);
+
+		CircuitBreaker circuitBreaker = new CircuitBreaker(2, 100);
+		RetriableTransferManager transferManager = createTransferManager(new RetryPolicy(1, 10, 100, 60000), circuitBreaker);
+
+		for (int i = 0; i < 2; i++) {
+			try {
+				transferManager.list(MultichunkRemoteFile.class);
+				fail("List should have failed.");
+			}
+			catch (StorageException e) {
+				// Expected
+			}
+		}
+
+		assertEquals(State.OPEN, circuitBreaker.getState());
+		Thread.sleep(150);
+
+		// Trial call succeeds and closes the breaker
+		transferManager.list(MultichunkRemoteFile.class);
+
+		assertEquals(State.CLOSED, circuitBreaker.getState());
+		assertEquals(3, failingTransferManager.callCount.get());
+	}
+
+	@Test
+	public void testCircuitBreakerReopensOnFailedTrial() throws Exception {
+		CircuitBreaker circuitBreaker = new CircuitBreaker(1, 100);
+		circuitBreaker.recordFailure();
+
+		assertEquals(State.OPEN, circuitBreaker.getState());
+		Thread.sleep(150);
+
+		circuitBreaker.acquire();
+		assertEquals(State.HALF_OPEN, circuitBreaker.getState());
+
+		try {
+			circuitBreaker.acquire();
+			fail("Only one trial call allowed in half-open state.");
+		}
+		catch (StorageCircuitOpenException e) {
+			// Expected
+		}
+
+		circuitBreaker.recordFailure();
+		assertEquals(State.OPEN, circuitBreaker.getState());
+	}
+
+	@Test
+	public void testMissingFileNotRetriedAndNotCountedAsFailure() throws Exception {
+		CircuitBreaker circuitBreaker = new CircuitBreaker(1, 60000);
+		RetriableTransferManager transferManager = createTransferManager(new RetryPolicy(3, 10, 100, 60000), circuitBreaker);
+
+		try {
+			transferManager.move(new MultichunkRemoteFile("multichunk-84f7e2b31440aaef9b73de3cadcf4e449aeb55a1"),
+					new MultichunkRemoteFile("multichunk-d2a8e0e5e3a9b8f2c1d4e5f6a7b8c9d0e1f2a3b4"));
+			fail("Move should have failed.");
+		}
+		catch (StorageMoveException e) {
+			// Expected
+		}
+
+		assertEquals(1, failingTransferManager.moveCount.get());
+		assertFalse(circuitBreaker.isOpen());
+	}
+
+	private RetriableTransferManager createTransferManager(RetryPolicy retryPolicy, CircuitBreaker circuitBreaker) {
+		return new RetriableTransferManager(failingTransferManager, retryPolicy, circuitBreaker);
+	}
+
+	private void assertInRange(long min, long max, long actual) {
+		assertTrue("Expected " + min + " <= " + actual + " <= " + max, min <= actual && actual <= max);
+	}
+
+	/**
+	 * Local transfer manager whose list method fails a configurable
+	 * number of times before it succeeds.
+	 */
+	private static class FailingTransferManager extends LocalTransferManager {
+		private AtomicInteger failCount;
+		private AtomicInteger callCount;
+		private AtomicInteger moveCount;
+
+		public FailingTransferManager(Config config) {
+			super((LocalTransferSettings) config.getConnection(), config);
+
+			this.failCount = new AtomicInteger(0);
+			this.callCount = new AtomicInteger(0);
+			this.moveCount = new AtomicInteger(0);
+		}
+
+		@Override
+		public <T extends RemoteFile> Map<String, T> list(Class<T> remoteFileClass) throws StorageException {
+			callCount.incrementAndGet();
+
+			if (failCount.getAndDecrement() > 0) {
+				throw new StorageException("List failed (simulated)");
+			}
+
+			return super.list(remoteFileClass);
+		}
+
+		@Override
+		public void move(RemoteFile sourceFile, RemoteFile targetFile) throws StorageException {
+			moveCount.incrementAndGet();
+			super.move(sourceFile, targetFile);
+		}
+	}
+}
@@ -17,12 +17,23 @@
  */
 package org.syncany.tests.plugins.local;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
 import java.io.File;
+import java.nio.file.Files;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.junit.Test;
+import org.syncany.plugins.local.LocalTransferManager;
+import org.syncany.plugins.local.LocalTransferSettings;
+import org.syncany.plugins.transfer.files.MultichunkRemoteFile;
+import org.syncany.plugins.transfer.files.TempRemoteFile;
 import org.syncany.tests.plugins.AbstractTransferManagerTest;
 import org.syncany.tests.util.TestFileUtil;
+import org.syncany.util.StringUtil;
 
 /**
  * @author Vincent Wiencek <vwiencek@gmail.com>
@@ -57,4 +68,97 @@ public class LocalTransferManagerPluginTest extends AbstractTransferManagerTest
 	public String getPluginId() {
 		return "local";
 	}
+
+	@Test
+	public void testUploadAndDownloadWithHardLinks() throws Exception {
+		File tempLocalDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		File originalLocalFile = TestFileUtil.createRandomFileInDirectory(tempLocalDir, 50 * 1024);
+		File downloadedLocalFile = new File(tempLocalDir, "downloaded");
+
+		LocalTransferManager transferManager = createTransferManager(true);
+		MultichunkRemoteFile remoteFile = new MultichunkRemoteFile("multichunk-84f7e2b31440aaef9b73de3cadcf4e449aeb55a1");
+
+		transferManager.upload(originalLocalFile, remoteFile);
+		transferManager.download(remoteFile, downloadedLocalFile);
+
+		// Repository file is the same file as the local file (no copy)
+		File repoFile = new File(new File(tempRepoPath, "multichunks"), remoteFile.getName());
+
+		assertTrue(Files.isSameFile(originalLocalFile.toPath(), repoFile.toPath()));
+		assertEquals(StringUtil.toHex(TestFileUtil.createChecksum(originalLocalFile)), StringUtil.toHex(TestFileUtil.createChecksum(downloadedLocalFile)));
+
+		// Deleting the local file does not affect the repository
+		originalLocalFile.delete();
+		assertTrue(repoFile.exists());
+
+		TestFileUtil.deleteDirectory(tempLocalDir);
+	}
+
+	@Test
+	public void testUploadCopiesWithoutHardLinks() throws Exception {
+		File tempLocalDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		File originalLocalFile = TestFileUtil.createRandomFileInDirectory(tempLocalDir, 50 * 1024);
+
+		LocalTransferManager transferManager = createTransferManager(false);
+		MultichunkRemoteFile remoteFile = new MultichunkRemoteFile("multichunk-84f7e2b31440aaef9b73de3cadcf4e449aeb55a1");
+
+		transferManager.upload(originalLocalFile, remoteFile);
+
+		File repoFile = new File(new File(tempRepoPath, "multichunks"), remoteFile.getName());
+
+		assertFalse(Files.isSameFile(originalLocalFile.toPath(), repoFile.toPath()));
+		assertEquals(StringUtil.toHex(TestFileUtil.createChecksum(originalLocalFile)), StringUtil.toHex(TestFileUtil.createChecksum(repoFile)));
+
+		TestFileUtil.deleteDirectory(tempLocalDir);
+	}
+
+	@Test
+	public void testMoveReplacesExistingTarget() throws Exception {
+		File tempLocalDir = TestFileUtil.createTempDirectoryInSystemTemp();
+		File firstLocalFile = TestFileUtil.createRandomFileInDirectory(tempLocalDir, 10 * 1024);
+		File secondLocalFile = TestFileUtil.createRandomFileInDirectory(tempLocalDir, 20 * 1024);
+
+		LocalTransferManager transferManager = createTransferManager(false);
+		MultichunkRemoteFile remoteFile = new MultichunkRemoteFile("multichunk-84f7e2b31440aaef9b73de3cadcf4e449aeb55a1");
+		TempRemoteFile tempRemoteFile = new TempRemoteFile();
+
+		transferManager.upload(firstLocalFile, remoteFile);
+		transferManager.upload(secondLocalFile, tempRemoteFile);
+		transferManager.move(tempRemoteFile, remoteFile);
+
+		File repoFile = new File(new File(tempRepoPath, "multichunks"), remoteFile.getName());
+
+		assertEquals(20 * 1024, repoFile.length());
+		assertEquals(0, transferManager.list(TempRemoteFile.class).size());
+
+		TestFileUtil.deleteDirectory(tempLocalDir);
+	}
+
+	@Test
+	public void testHardLinksOptionNotAskedInteractively() throws Exception {
+		LocalTransferSettings settings = new LocalTransferSettings();
+
+		// Option specs are asked for by 'sy init' and 'sy connect'
+		assertFalse(settings.getOptionSpecs().containsKey(LocalTransferSettings.OPTION_HARD_LINKS));
+
+		settings.init(localPluginSettings);
+		assertFalse(settings.isHardLinksEnabled());
+
+		Map<String, String> hardLinksPluginSettings = new HashMap<String, String>(localPluginSettings);
+		hardLinksPluginSettings.put(LocalTransferSettings.OPTION_HARD_LINKS, "true");
+
+		settings.init(hardLinksPluginSettings);
+		assertTrue(settings.isHardLinksEnabled());
+	}
+
+	private LocalTransferManager createTransferManager(boolean hardLinksEnabled) throws Exception {
+		LocalTransferSettings settings = new LocalTransferSettings();
+		settings.setRepositoryPath(tempRepoPath);
+		settings.setHardLinksEnabled(hardLinksEnabled);
+
+		LocalTransferManager transferManager = new LocalTransferManager(settings, null);
+		transferManager.init(true);
+
+		return transferManager;
+	}
 }
@@ -19,6 +19,7 @@ package org.syncany.tests.plugins.unreliable_local;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -28,6 +29,7 @@ import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.simpleframework.xml.core.Persister;
@@ -36,6 +38,9 @@ import org.syncany.plugins.transfer.StorageException;
 import org.syncany.plugins.transfer.TransactionAwareTransferManager;
 import org.syncany.plugins.transfer.TransferManager;
 import org.syncany.plugins.transfer.files.MultichunkRemoteFile;
+import org.syncany.operations.up.UpOperationOptions;
+import org.syncany.plugins.transfer.to.ActionTO;
+import org.syncany.plugins.transfer.to.TransactionStateTO;
 import org.syncany.plugins.transfer.to.TransactionTO;
 import org.syncany.plugins.unreliable_local.UnreliableLocalPlugin;
 import org.syncany.plugins.unreliable_local.UnreliableLocalTransferSettings;
@@ -192,7 +197,7 @@ public class UploadInterruptedTest {
 		assertTrue(transactionTO.getActions().get(0).getRemoteFile().getName().contains("multichunk-"));
 		assertTrue(transactionTO.getActions().get(1).getRemoteFile().getName().contains("database-"));
 
-		// 2. Second try succeeds and must clean up the transactions
+		// 2. Second try resumes the transaction, succeeds and must clean up the transactions
 		clientA.up();
 
 		assertEquals(1, new File(testConnection.getRepositoryPath() + "/databases/").listFiles().length);
@@ -263,7 +268,7 @@ public class UploadInterruptedTest {
 		assertTrue(transactionTO.getActions().get(1).getRemoteFile().getName().contains("multichunk-"));
 		assertTrue(transactionTO.getActions().get(2).getRemoteFile().getName().contains("database-"));
 
-		// 2. Second try succeeds and must clean up the transactions
+		// 2. Second try resumes the transaction, succeeds and must clean up the transactions
 		clientA.up();
 
 		assertEquals(1, new File(testConnection.getRepositoryPath() + "/databases/").listFiles().length);
@@ -285,8 +290,8 @@ public class UploadInterruptedTest {
 		 * 
 		 * Double check by "Client B": Client B should not see this multichunk on TM.list()
 		 * 
-		 * Second run "Client A": The second up() from Client A should revert the transaction. To verify this, we let the second run fail at the
-		 * transaction file upload
+		 * Second run "Client A": The second up() from Client A (with resuming disabled) should revert the transaction. To verify this, we let the 
+		 * second run fail at the transaction file upload
 		 * 
 		 * 1. upload(action-up-987, actions/action-up-987) 
 		 * 2. upload(transaction-123, transactions/transaction-123) <<< FAILS HERE (second run) 
@@ -349,11 +354,11 @@ public class UploadInterruptedTest {
 		Map<String, MultichunkRemoteFile> multiChunkList = transferManager.list(MultichunkRemoteFile.class);
 		assertEquals(0, multiChunkList.size());
 
-		// 3. Second try fails in the beginning, to see if cleanTransactions was successful
+		// 3. Second try (not resuming) fails in the beginning, to see if cleanTransactions was successful
 		boolean secondUpFailed = false;
 
 		try {
-			clientA.up();
+			clientA.up(createUpOptionsWithoutResume());
 		}
 		catch (StorageException e) {
 			secondUpFailed = true;
@@ -456,11 +461,11 @@ public class UploadInterruptedTest {
 		Map<String, MultichunkRemoteFile> multiChunkList = transferManager.list(MultichunkRemoteFile.class);
 		assertEquals(0, multiChunkList.size());
 
-		// 3. Second try fails in the beginning, to see if cleanTransactions was successful
+		// 3. Second try (not resuming) fails in the beginning, to see if cleanTransactions was successful
 		boolean secondUpFailed = false;
 
 		try {
-			clientA.up();
+			clientA.up(createUpOptionsWithoutResume());
 		}
 		catch (StorageException e) {
 			secondUpFailed = true;
@@ -487,4 +492,263 @@ public class UploadInterruptedTest {
 		clientA.deleteTestData();
 	}
 
+	@Test
+	public void testUnreliableUpload_Test5_1_ResumesAfterSecondMultiChunkUploadFailed() throws Exception {
+		/*
+		 * First run fails when uploading the second multichunk. The second run must resume
+		 * the transaction, and only upload the second multichunk and the database file.
+		 * 
+		 * 1. upload(action-up-987, actions/action-up-987) 
+		 * 2. upload(transaction-123, transactions/transaction-123) 
+		 * 3. upload(multichunk-1, temp-1) 
+		 * 4. upload(multichunk-2, temp-2) <<< FAILS HERE (first run, incl. 2 retries)
+		 * 
+		 * 7. upload(action-up-988, actions/action-up-988) 
+		 * 8. upload(multichunk-2, temp-2) 
+		 * 9. upload(database-123, temp-3) 
+		 * 10. move(temp-1, multichunks/multichunk-1) ...
+		 */
+
+		// Setup
+		UnreliableLocalTransferSettings testConnection = TestConfigUtil.createTestUnreliableLocalConnection(
+				Arrays.asList(new String[] {
+						// List of failing operations (regex)
+						// Format: abs=<count> rel=<count> op=<connect|init|upload|...> <operation description>
+
+						"rel=[456].+upload.+multichunk",
+				}
+						));
+
+		TestClient clientA = new TestClient("A", testConnection);
+		TestClient clientB = new TestClient("B", testConnection);
+
+		clientA.createNewFile("A-original", 5 * 1024 * 1024); // << larger than one multichunk!
+
+		boolean upFailed = false;
+
+		try {
+			clientA.up();
+		}
+		catch (StorageException e) {
+			upFailed = true;
+			logger.log(Level.INFO, e.getMessage());
+		}
+
+		assertTrue(upFailed);
+		assertTrue(clientA.getConfig().getTransactionFile().exists());
+		assertTrue(clientA.getConfig().getTransactionDatabaseFile().exists());
+
+		File[] transactionFiles = new File(testConnection.getRepositoryPath() + "/transactions/").listFiles();
+		assertEquals(1, transactionFiles.length);
+
+		// 2. Second try resumes the transaction: Only the action file, the second multichunk and the database are uploaded
+		int uploadCountBeforeResume = testConnection.getTypeOperationCounters().get("upload");
+		clientA.up();
+
+		assertEquals(3, testConnection.getTypeOperationCounters().get("upload") - uploadCountBeforeResume);
+		assertFalse(transactionFiles[0].exists());
+
+		assertEquals(1, new File(testConnection.getRepositoryPath() + "/databases/").listFiles().length);
+		assertEquals(2, new File(testConnection.getRepositoryPath() + "/multichunks/").listFiles().length);
+		assertEquals(0, new File(testConnection.getRepositoryPath() + "/transactions/").listFiles().length);
+		assertEquals(0, new File(testConnection.getRepositoryPath() + "/temporary/").listFiles().length);
+
+		assertFalse(clientA.getConfig().getTransactionFile().exists());
+		assertFalse(clientA.getConfig().getTransactionDatabaseFile().exists());
+
+		// 3. The resumed database version is complete
+		clientB.down();
+		assertTrue(clientB.getLocalFile("A-original").exists());
+		assertEquals(clientA.getLocalFile("A-original").length(), clientB.getLocalFile("A-original").length());
+
+		// Tear down
+		clientA.deleteTestData();
+		clientB.deleteTestData();
+	}
+
+	@Test
+	public void testUnreliableUpload_Test5_2_ResumesAfterTXCommitFailedDuring2ndMultiChunkMove() throws Exception {
+		/*
+		 * First run fails when moving the second multichunk to its final location, so the
+		 * first multichunk was already moved. The second run must resume the transaction, and
+		 * only move the remaining temporary files.
+		 * 
+		 * 6. move(temp-1, multichunks/multichunk-1) 
+		 * 7. move(temp-2, multichunks/multichunk-2) <<< FAILS HERE (first run) 
+		 * 8. move(temp-3, databases/database-123)
+		 */
+
+		// Setup
+		UnreliableLocalTransferSettings testConnection = TestConfigUtil.createTestUnreliableLocalConnection(
+				Arrays.asList(new String[] {
+						// List of failing operations (regex)
+						// Format: abs=<count> rel=<count> op=<connect|init|upload|...> <operation description>
+
+						"rel=[234].+move.+multichunk",
+				}
+						));
+
+		TestClient clientA = new TestClient("A", testConnection);
+
+		clientA.createNewFile("A-original", 5 * 1024 * 1024); // << larger than one multichunk!
+
+		boolean upFailed = false;
+
+		try {
+			clientA.up();
+		}
+		catch (StorageException e) {
+			upFailed = true;
+			logger.log(Level.INFO, e.getMessage());
+		}
+
+		assertTrue(upFailed);
+		assertEquals(1, new File(testConnection.getRepositoryPath() + "/multichunks/").listFiles().length);
+		assertEquals(2, new File(testConnection.getRepositoryPath() + "/temporary/").listFiles().length);
+
+		// 2. Second try resumes the transaction: No uploads except for the action file
+		int uploadCountBeforeResume = testConnection.getTypeOperationCounters().get("upload");
+		clientA.up();
+
+		assertEquals(1, testConnection.getTypeOperationCounters().get("upload") - uploadCountBeforeResume);
+
+		assertEquals(1, new File(testConnection.getRepositoryPath() + "/databases/").listFiles().length);
+		assertEquals(2, new File(testConnection.getRepositoryPath() + "/multichunks/").listFiles().length);
+		assertEquals(0, new File(testConnection.getRepositoryPath() + "/transactions/").listFiles().length);
+		assertEquals(0, new File(testConnection.getRepositoryPath() + "/temporary/").listFiles().length);
+
+		// Tear down
+		clientA.deleteTestData();
+	}
+
+	@Test
+	public void testUnreliableUpload_Test5_3_RollsBackIfLocalMultiChunkMissing() throws Exception {
+		/*
+		 * First run fails when uploading the second multichunk. Before the second run,
+		 * the cache is emptied, so the transaction cannot be resumed; it must be rolled back,
+		 * and all files must be indexed and uploaded again.
+		 */
+
+		// Setup
+		UnreliableLocalTransferSettings testConnection = TestConfigUtil.createTestUnreliableLocalConnection(
+				Arrays.asList(new String[] {
+						// List of failing operations (regex)
+						// Format: abs=<count> rel=<count> op=<connect|init|upload|...> <operation description>
+
+						"rel=[456].+upload.+multichunk",
+				}
+						));
+
+		TestClient clientA = new TestClient("A", testConnection);
+
+		clientA.createNewFile("A-original", 5 * 1024 * 1024); // << larger than one multichunk!
+
+		boolean upFailed = false;
+
+		try {
+			clientA.up();
+		}
+		catch (StorageException e) {
+			upFailed = true;
+			logger.log(Level.INFO, e.getMessage());
+		}
+
+		assertTrue(upFailed);
+
+		for (File cacheFile : clientA.getConfig().getCacheDir().listFiles()) {
+			cacheFile.delete();
+		}
+
+		// 2. Second try cannot resume, rolls back the transaction and uploads everything
+		clientA.up();
+
+		assertEquals(1, new File(testConnection.getRepositoryPath() + "/databases/").listFiles().length);
+		assertEquals(2, new File(testConnection.getRepositoryPath() + "/multichunks/").listFiles().length);
+		assertEquals(0, new File(testConnection.getRepositoryPath() + "/transactions/").listFiles().length);
+		assertEquals(0, new File(testConnection.getRepositoryPath() + "/temporary/").listFiles().length);
+
+		assertFalse(clientA.getConfig().getTransactionFile().exists());
+		assertFalse(clientA.getConfig().getTransactionDatabaseFile().exists());
+
+		// Tear down
+		clientA.deleteTestData();
+	}
+
+	@Test
+	public void testUnreliableUpload_Test5_4_ResumeUploadsIncompleteTempFileAgain() throws Exception {
+		/*
+		 * First run fails when uploading the second multichunk. Before the second run, a partial
+		 * temporary file is left behind for the second multichunk (as if the application had been
+		 * terminated during the upload). The second run must not trust this file, and upload the
+		 * second multichunk again.
+		 */
+
+		// Setup
+		UnreliableLocalTransferSettings testConnection = TestConfigUtil.createTestUnreliableLocalConnection(
+				Arrays.asList(new String[] {
+						// List of failing operations (regex)
+						// Format: abs=<count> rel=<count> op=<connect|init|upload|...> <operation description>
+
+						"rel=[456].+upload.+multichunk",
+				}
+						));
+
+		TestClient clientA = new TestClient("A", testConnection);
+		TestClient clientB = new TestClient("B", testConnection);
+
+		clientA.createNewFile("A-original", 5 * 1024 * 1024); // << larger than one multichunk!
+
+		boolean upFailed = false;
+
+		try {
+			clientA.up();
+		}
+		catch (StorageException e) {
+			upFailed = true;
+			logger.log(Level.INFO, e.getMessage());
+		}
+
+		assertTrue(upFailed);
+
+		// 2. Leave a partial temporary file for the multichunk whose upload did not complete
+		TransactionStateTO transactionStateTO = new Persister().read(TransactionStateTO.class, clientA.getConfig().getTransactionFile());
+		ActionTO incompleteUploadAction = null;
+
+		assertFalse(transactionStateTO.getUploadedTempFiles().isEmpty());
+
+		for (ActionTO action : transactionStateTO.getTransaction().getActions()) {
+			boolean uploadComplete = transactionStateTO.getUploadedTempFiles().contains(action.getTempRemoteFile().getName());
+
+			if (action.getType().equals(ActionTO.TYPE_UPLOAD) && action.getRemoteFile().getName().contains("multichunk-") && !uploadComplete) {
+				incompleteUploadAction = action;
+			}
+		}
+
+		assertNotNull(incompleteUploadAction);
+
+		File incompleteTempFile = new File(testConnection.getRepositoryPath() + "/temporary/" + incompleteUploadAction.getTempRemoteFile().getName());
+		FileUtils.writeByteArrayToFile(incompleteTempFile, new byte[] { 1, 2, 3 });
+
+		// 3. Second try resumes the transaction, but uploads the second multichunk again
+		clientA.up();
+
+		assertEquals(2, new File(testConnection.getRepositoryPath() + "/multichunks/").listFiles().length);
+		assertEquals(0, new File(testConnection.getRepositoryPath() + "/temporary/").listFiles().length);
+
+		// 4. The multichunk is complete, i.e. the file can be restored
+		clientB.down();
+		assertTrue(clientB.getLocalFile("A-original").exists());
+		assertEquals(clientA.getLocalFile("A-original").length(), clientB.getLocalFile("A-original").length());
+
+		// Tear down
+		clientA.deleteTestData();
+		clientB.deleteTestData();
+	}
+
+	private UpOperationOptions createUpOptionsWithoutResume() {
+		UpOperationOptions upOptions = new UpOperationOptions();
+		upOptions.setResumeEnabled(false);
+
+		return upOptions;
+	}
 }
@@ -29,6 +29,7 @@ import org.simpleframework.xml.core.Persister;
 import org.syncany.chunk.Chunker;
 import org.syncany.chunk.CipherTransformer;
 import org.syncany.chunk.GzipTransformer;
+import org.syncany.chunk.IndexedMultiChunker;
 import org.syncany.chunk.ZipMultiChunker;
 import org.syncany.config.Config;
 import org.syncany.config.UserConfig;
@@ -95,6 +96,17 @@ public class TestConfigUtil {
 		return multiChunkerTO;
 	}
 
+	public static MultiChunkerTO createIndexedMultiChunkerTO() {
+		Map<String, String> settings = new HashMap<String, String>();
+		settings.put(IndexedMultiChunker.PROPERTY_SIZE, "4096");
+
+		MultiChunkerTO multiChunkerTO = new MultiChunkerTO();
+		multiChunkerTO.setType(IndexedMultiChunker.TYPE);
+		multiChunkerTO.setSettings(settings);
+
+		return multiChunkerTO;
+	}
+
 	public static ChunkerTO createFixedChunkerTO() {
 		Map<String, String> settings = new HashMap<String, String>();
 		settings.put(Chunker.PROPERTY_SIZE, "32768");